@@ -0,0 +1,43 @@
+package uk.gov.defra.reach.file.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.storage.Storage;
+
+/**
+ * Builds {@link FileService} instances over a given storage for benchmarking, with caching switched off so each call
+ * reaches the storage.
+ */
+final class BenchmarkFileServices {
+
+  private BenchmarkFileServices() {
+  }
+
+  static FileService create(Storage storage, ExecutorService blockUploadExecutor) {
+    Map<Container, Storage> containers = new EnumMap<>(Container.class);
+    for (Container container : Container.values()) {
+      containers.put(container, storage);
+    }
+    StorageProperties storageProperties = new StorageProperties();
+    for (Container container : Container.values()) {
+      storageProperties.forContainer(container).getExistenceCache().setEnabled(false);
+    }
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    FileService fileService = new FileService(containers, storageProperties, new ParallelBlockUploader(blockUploadExecutor),
+        new SasUriCache(1, 0, 0), new ExistenceCache(storageProperties), new FileOperationMetrics(meterRegistry),
+        new ContainerBulkheads(storageProperties, meterRegistry));
+    ReflectionTestUtils.setField(fileService, "sasUriHostOverride", "localhost");
+    ReflectionTestUtils.setField(fileService, "sasUriPortOverride", 10000);
+    return fileService;
+  }
+}
@@ -0,0 +1,98 @@
+package uk.gov.defra.reach.file.service;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+
+/**
+ * Cost of the lookup and delete operations of {@link FileService}, and of the helpers on the response path, against an
+ * in-memory storage.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms512m", "-Xmx512m"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileServiceLookupBenchmark {
+
+  private static final String FILENAME = "benchmark";
+
+  private static final String BASE64_CHECKSUM = "jXd/OF09/siBXSD3SWAm3A==";
+
+  private static final URI SAS_URI = URI.create("https://account.blob.core.windows.net/container/benchmark?sv=2019-02-02&se=2020-01-01&sig=abc");
+
+  private ExecutorService executor;
+
+  private FileService fileService;
+
+  @Setup
+  public void setup() {
+    executor = Executors.newSingleThreadExecutor();
+    fileService = BenchmarkFileServices.create(new InMemoryStorage(), executor);
+    fileService.store(new ByteArrayInputStream(new byte[1024]), 1024, Container.DOSSIER, FILENAME);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public URI get() {
+    return fileService.get(Container.DOSSIER, FILENAME);
+  }
+
+  @Benchmark
+  public void checkFileExists() {
+    fileService.checkFileExists(Container.DOSSIER, FILENAME);
+  }
+
+  @Benchmark
+  public String checksumToHex() {
+    return FileService.toHex(BASE64_CHECKSUM);
+  }
+
+  @Benchmark
+  public URI mapUriIfRequired() {
+    return fileService.mapUriIfRequired(SAS_URI);
+  }
+
+  @Benchmark
+  public void delete(DeleteState state) {
+    fileService.delete(Container.DOSSIER, state.filename);
+  }
+
+  /**
+   * Stores a fresh file before each delete, deliberately outside the measured region
+   */
+  @State(Scope.Thread)
+  public static class DeleteState {
+
+    private String filename;
+
+    private long counter;
+
+    @Setup(Level.Invocation)
+    public void storeFile(FileServiceLookupBenchmark benchmark) {
+      filename = "delete-" + counter++;
+      benchmark.fileService.store(new ByteArrayInputStream(new byte[16]), 16, Container.DOSSIER, filename);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package uk.gov.defra.reach.file.service;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+
+/**
+ * Cost of {@link FileService#store} against an in-memory storage, at the payload sizes exercised by FileServiceIT. Unknown
+ * length uploads take the block staging path, known length uploads below the threshold a single request.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FileServiceStoreBenchmark {
+
+  @Param({"1500000", "6000000", "16000000", "95000000"})
+  private int size;
+
+  @Param({"true", "false"})
+  private boolean knownLength;
+
+  private byte[] payload;
+
+  private ExecutorService executor;
+
+  private FileService fileService;
+
+  @Setup
+  public void setup() {
+    payload = new byte[size];
+    new Random(size).nextBytes(payload);
+    executor = Executors.newFixedThreadPool(16);
+    fileService = BenchmarkFileServices.create(new InMemoryStorage(), executor);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public String store() {
+    return fileService.store(new ByteArrayInputStream(payload), knownLength ? payload.length : -1, Container.DOSSIER, "benchmark");
+  }
+}
@@ -0,0 +1,353 @@
+package uk.gov.defra.reach.file.loadtest;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.loadtest.LoadReport.GcStats;
+import uk.gov.defra.reach.file.loadtest.LoadReport.JvmStats;
+import uk.gov.defra.reach.file.loadtest.LoadReport.OperationStats;
+
+/**
+ * Drives a mix of requests at a running service at a fixed rate. Requests are started on schedule whether or not earlier
+ * ones have completed, an open workload like that of many independent users, and each is timed from when it was due so
+ * time spent queued behind a slow service is not hidden.
+ */
+@Slf4j
+class LoadGenerator {
+
+  private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(2);
+
+  private final URI serviceUri;
+
+  private final String token;
+
+  private final LoadTestSettings settings;
+
+  private final ExecutorService clientExecutor = Executors.newCachedThreadPool();
+
+  private final HttpClient client;
+
+  private final byte[] payload;
+
+  private final Semaphore inFlight;
+
+  private final StoredFiles files = new StoredFiles();
+
+  private final Map<LoadOperation, Recorder> latencies = new EnumMap<>(LoadOperation.class);
+
+  private final Map<LoadOperation, AtomicLong> errors = new EnumMap<>(LoadOperation.class);
+
+  private final LoadOperation[] schedule;
+
+  LoadGenerator(URI serviceUri, String token, LoadTestSettings settings) {
+    this.serviceUri = serviceUri;
+    this.token = token;
+    this.settings = settings;
+    this.client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .executor(clientExecutor)
+        .connectTimeout(Duration.ofSeconds(10))
+        .build();
+    this.payload = new byte[settings.getPayloadSize()];
+    new Random(settings.getPayloadSize()).nextBytes(payload);
+    this.inFlight = new Semaphore(settings.getMaxInFlight());
+    for (LoadOperation operation : LoadOperation.values()) {
+      latencies.put(operation, new Recorder(3));
+      errors.put(operation, new AtomicLong());
+    }
+    List<LoadOperation> weighted = new ArrayList<>();
+    settings.getMix().forEach((operation, weight) -> {
+      for (int i = 0; i < weight; i++) {
+        weighted.add(operation);
+      }
+    });
+    this.schedule = weighted.toArray(LoadOperation[]::new);
+  }
+
+  LoadReport run() throws InterruptedException, TimeoutException {
+    Instant startedAt = Instant.now();
+    seed();
+    log.info("Warming up at {} requests per second for {}", settings.getRate(), settings.getWarmup());
+    drive(settings.getWarmup());
+    awaitInFlight();
+    latencies.values().forEach(Recorder::reset);
+    errors.values().forEach(count -> count.set(0));
+
+    log.info("Measuring at {} requests per second for {}", settings.getRate(), settings.getDuration());
+    JvmSnapshot before = JvmSnapshot.take(true);
+    long start = System.nanoTime();
+    drive(settings.getDuration());
+    awaitInFlight();
+    double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+    JvmSnapshot after = JvmSnapshot.take(false);
+    return report(startedAt, seconds, before, after);
+  }
+
+  void shutdown() {
+    clientExecutor.shutdownNow();
+  }
+
+  /**
+   * Stores files one at a time, untimed, so there are files for the other operations from the start
+   */
+  private void seed() throws InterruptedException {
+    int count = Math.min(settings.getSeedFiles(), settings.getMaxFiles());
+    log.info("Storing {} files of {} bytes", count, payload.length);
+    for (int i = 0; i < count; i++) {
+      String target = "loadtest-" + UUID.randomUUID();
+      try {
+        HttpResponse<Void> response = client.send(storeRequest(target), BodyHandlers.discarding());
+        if (response.statusCode() == 201) {
+          files.add(target, settings.getMaxFiles());
+        } else {
+          log.warn("Seeding {} failed with status {}", target, response.statusCode());
+        }
+      } catch (IOException e) {
+        log.warn("Seeding {} failed", target, e);
+      }
+    }
+  }
+
+  private void drive(Duration duration) throws InterruptedException {
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / settings.getRate());
+    long start = System.nanoTime();
+    long end = start + duration.toNanos();
+    for (long due = start; due < end; due += intervalNanos) {
+      long wait = due - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      inFlight.acquire();
+      send(schedule[ThreadLocalRandom.current().nextInt(schedule.length)], due);
+    }
+  }
+
+  private void send(LoadOperation planned, long due) {
+    LoadOperation operation = planned;
+    String target = planned == LoadOperation.STORE ? null : files.random();
+    if (target == null) {
+      operation = LoadOperation.STORE;
+      target = files.size() < settings.getMaxFiles() ? "loadtest-" + UUID.randomUUID() : files.random();
+    } else if (operation == LoadOperation.DELETE && !files.remove(target)) {
+      operation = LoadOperation.EXISTS;
+    }
+    LoadOperation sent = operation;
+    String file = target;
+    client.sendAsync(request(sent, file), BodyHandlers.discarding())
+        .whenComplete((response, failure) -> {
+          latencies.get(sent).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - due));
+          if (failure != null || response.statusCode() != expectedStatus(sent)) {
+            errors.get(sent).incrementAndGet();
+            log.debug("{} of {} failed: {}", sent, file, failure != null ? failure.toString() : response.statusCode());
+          } else if (sent == LoadOperation.STORE) {
+            files.add(file, settings.getMaxFiles());
+          }
+          inFlight.release();
+        });
+  }
+
+  private HttpRequest request(LoadOperation operation, String target) {
+    Container container = settings.getContainer();
+    switch (operation) {
+      case STORE:
+        return storeRequest(target);
+      case GET:
+        return authorised(fileUri(container, target)).GET().build();
+      case EXISTS:
+        return authorised(fileUri(container, target)).method("HEAD", BodyPublishers.noBody()).build();
+      case DELETE:
+        return authorised(serviceUri.resolve("/file/" + container + "/" + encode(target))).DELETE().build();
+      default:
+        throw new IllegalArgumentException("Unsupported operation " + operation);
+    }
+  }
+
+  private static int expectedStatus(LoadOperation operation) {
+    return operation == LoadOperation.STORE ? 201 : 200;
+  }
+
+  private HttpRequest storeRequest(String target) {
+    String boundary = "loadtest-" + UUID.randomUUID();
+    String fields = part(boundary, "container", settings.getContainer().name()) + part(boundary, "target", target)
+        + "--" + boundary + "\r\n"
+        + "Content-Disposition: form-data; name=\"file\"; filename=\"" + target + "\"\r\n"
+        + "Content-Type: application/octet-stream\r\n\r\n";
+    String end = "\r\n--" + boundary + "--\r\n";
+    return authorised(serviceUri.resolve("/file"))
+        .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+        .POST(BodyPublishers.ofByteArrays(List.of(fields.getBytes(StandardCharsets.UTF_8), payload, end.getBytes(StandardCharsets.UTF_8))))
+        .build();
+  }
+
+  private static String part(String boundary, String name, String value) {
+    return "--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n";
+  }
+
+  private URI fileUri(Container container, String target) {
+    return serviceUri.resolve("/file?container=" + container + "&target=" + encode(target));
+  }
+
+  private HttpRequest.Builder authorised(URI uri) {
+    return HttpRequest.newBuilder(uri)
+        .timeout(REQUEST_TIMEOUT)
+        .header("Authorization", "Bearer " + token);
+  }
+
+  private static String encode(String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
+  }
+
+  private void awaitInFlight() throws InterruptedException, TimeoutException {
+    if (!inFlight.tryAcquire(settings.getMaxInFlight(), REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+      throw new TimeoutException("Requests still in flight after " + REQUEST_TIMEOUT);
+    }
+    inFlight.release(settings.getMaxInFlight());
+  }
+
+  private LoadReport report(Instant startedAt, double seconds, JvmSnapshot before, JvmSnapshot after) {
+    Map<LoadOperation, OperationStats> operations = new EnumMap<>(LoadOperation.class);
+    long requests = 0;
+    long failed = 0;
+    for (LoadOperation operation : LoadOperation.values()) {
+      Histogram histogram = latencies.get(operation).getIntervalHistogram();
+      long operationErrors = errors.get(operation).get();
+      operations.put(operation, OperationStats.from(histogram, operationErrors, seconds));
+      requests += histogram.getTotalCount();
+      failed += operationErrors;
+    }
+    return LoadReport.builder()
+        .startedAt(startedAt.toString())
+        .javaVersion(System.getProperty("java.version"))
+        .availableProcessors(Runtime.getRuntime().availableProcessors())
+        .settings(settings)
+        .measuredSeconds(seconds)
+        .requests(requests)
+        .errors(failed)
+        .throughput(requests / seconds)
+        .operations(operations)
+        .jvm(after.since(before, seconds))
+        .build();
+  }
+
+  /**
+   * Names of stored files, from which requests other than uploads pick at random
+   */
+  private static final class StoredFiles {
+
+    private final List<String> names = new ArrayList<>();
+
+    synchronized void add(String name, int max) {
+      if (names.size() < max && !names.contains(name)) {
+        names.add(name);
+      }
+    }
+
+    synchronized String random() {
+      return names.isEmpty() ? null : names.get(ThreadLocalRandom.current().nextInt(names.size()));
+    }
+
+    synchronized boolean remove(String name) {
+      int index = names.indexOf(name);
+      if (index < 0) {
+        return false;
+      }
+      names.set(index, names.get(names.size() - 1));
+      names.remove(names.size() - 1);
+      return true;
+    }
+
+    synchronized int size() {
+      return names.size();
+    }
+  }
+
+  /**
+   * Heap usage and collector totals at a point in time
+   */
+  private static final class JvmSnapshot {
+
+    private final long heapUsed;
+
+    private final long heapPeak;
+
+    private final long heapMax;
+
+    private final Map<String, GcStats> collectors = new LinkedHashMap<>();
+
+    private JvmSnapshot(boolean resetPeaks) {
+      long peak = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          if (resetPeaks) {
+            pool.resetPeakUsage();
+          }
+          peak += pool.getPeakUsage().getUsed();
+        }
+      }
+      heapPeak = peak;
+      heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+      heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        collectors.put(collector.getName(), new GcStats(collector.getCollectionCount(), collector.getCollectionTime()));
+      }
+    }
+
+    static JvmSnapshot take(boolean resetPeaks) {
+      return new JvmSnapshot(resetPeaks);
+    }
+
+    JvmStats since(JvmSnapshot start, double seconds) {
+      Map<String, GcStats> gc = new LinkedHashMap<>();
+      long gcTime = 0;
+      for (Map.Entry<String, GcStats> entry : collectors.entrySet()) {
+        GcStats previous = start.collectors.getOrDefault(entry.getKey(), new GcStats(0, 0));
+        GcStats delta = new GcStats(entry.getValue().getCollections() - previous.getCollections(),
+            entry.getValue().getTimeMs() - previous.getTimeMs());
+        gc.put(entry.getKey(), delta);
+        gcTime += delta.getTimeMs();
+      }
+      return JvmStats.builder()
+          .heapUsedAtStartBytes(start.heapUsed)
+          .heapUsedAtEndBytes(heapUsed)
+          .heapPeakBytes(heapPeak)
+          .heapMaxBytes(heapMax)
+          .gcTimePercent(gcTime / (seconds * 10))
+          .collectors(gc)
+          .build();
+    }
+  }
+}
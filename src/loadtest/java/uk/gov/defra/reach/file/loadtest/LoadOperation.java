@@ -0,0 +1,27 @@
+package uk.gov.defra.reach.file.loadtest;
+
+/**
+ * Requests made of the service by the load test, each against a single file
+ */
+enum LoadOperation {
+
+  /**
+   * Multipart upload, as made by FileServiceIT
+   */
+  STORE,
+
+  /**
+   * SAS URI lookup of a stored file
+   */
+  GET,
+
+  /**
+   * HEAD request for a stored file
+   */
+  EXISTS,
+
+  /**
+   * Deletion of a stored file
+   */
+  DELETE
+}
@@ -0,0 +1,118 @@
+package uk.gov.defra.reach.file.loadtest;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.Builder;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Outcome of a load test run, written as JSON so runs against different releases can be diffed. Latencies are in
+ * milliseconds, timed from when each request was due to be sent rather than when it was, so a service which falls behind
+ * the rate shows it in its latencies.
+ */
+@Value
+@Builder
+class LoadReport {
+
+  String startedAt;
+
+  String javaVersion;
+
+  int availableProcessors;
+
+  LoadTestSettings settings;
+
+  double measuredSeconds;
+
+  long requests;
+
+  long errors;
+
+  /**
+   * Requests completed per second while measuring
+   */
+  double throughput;
+
+  Map<LoadOperation, OperationStats> operations;
+
+  JvmStats jvm;
+
+  @Value
+  @Builder
+  static class OperationStats {
+
+    long count;
+
+    long errors;
+
+    double throughput;
+
+    double meanMs;
+
+    double p50Ms;
+
+    double p90Ms;
+
+    double p99Ms;
+
+    double p999Ms;
+
+    double maxMs;
+
+    /**
+     * @param latencies in microseconds
+     */
+    static OperationStats from(Histogram latencies, long errors, double seconds) {
+      return OperationStats.builder()
+          .count(latencies.getTotalCount())
+          .errors(errors)
+          .throughput(latencies.getTotalCount() / seconds)
+          .meanMs(millis(latencies.getMean()))
+          .p50Ms(millis(latencies.getValueAtPercentile(50)))
+          .p90Ms(millis(latencies.getValueAtPercentile(90)))
+          .p99Ms(millis(latencies.getValueAtPercentile(99)))
+          .p999Ms(millis(latencies.getValueAtPercentile(99.9)))
+          .maxMs(millis(latencies.getMaxValue()))
+          .build();
+    }
+
+    private static double millis(double micros) {
+      return Math.round(micros / TimeUnit.MILLISECONDS.toMicros(1) * 1000) / 1000.0;
+    }
+  }
+
+  /**
+   * Heap and garbage collection while measuring. The service and the load generator share the JVM, so these cover both.
+   */
+  @Value
+  @Builder
+  static class JvmStats {
+
+    long heapUsedAtStartBytes;
+
+    long heapUsedAtEndBytes;
+
+    /**
+     * Sum of the peak usage of each heap pool, an upper bound of the peak heap usage
+     */
+    long heapPeakBytes;
+
+    long heapMaxBytes;
+
+    /**
+     * Share of the measured time spent in garbage collection, as a percentage
+     */
+    double gcTimePercent;
+
+    Map<String, GcStats> collectors;
+  }
+
+  @Value
+  static class GcStats {
+
+    long collections;
+
+    long timeMs;
+  }
+}
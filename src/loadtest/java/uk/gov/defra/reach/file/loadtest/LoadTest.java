@@ -0,0 +1,93 @@
+package uk.gov.defra.reach.file.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.ReachFileApplication;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.storage.Storage;
+
+/**
+ * Boots the service on a random port, with every container held in memory behind {@link SimulatedStorage}, drives a load
+ * test at it over HTTP and writes a {@link LoadReport}. Run with {@code mvn -P loadtest test-compile exec:exec}, passing
+ * settings as {@code -Dloadtest.args="-Dloadtest.rate=100 -Dloadtest.duration=5m"}; see {@link LoadTestSettings}.
+ */
+@Slf4j
+public final class LoadTest {
+
+  private LoadTest() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+    Path storageRoot = Files.createTempDirectory("reach-file-loadtest");
+    LoadReport report;
+    try (ConfigurableApplicationContext context = start(settings, storageRoot)) {
+      int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+      LoadGenerator generator = new LoadGenerator(URI.create("http://localhost:" + port), context.getEnvironment().getProperty("test.jwt.token"),
+          settings);
+      try {
+        report = generator.run();
+      } finally {
+        generator.shutdown();
+      }
+    }
+    write(report, settings.getReport());
+    log.info("Completed {} requests at {} per second with {} errors, report written to {}", report.getRequests(),
+        String.format("%.1f", report.getThroughput()), report.getErrors(), settings.getReport().toAbsolutePath());
+  }
+
+  /**
+   * Starts the service as configured for development, but with the storage map replaced by simulated storage once built.
+   * Containers are configured as local so that building the replaced map does not reach out to Azure.
+   */
+  private static ConfigurableApplicationContext start(LoadTestSettings settings, Path storageRoot) {
+    Map<Container, Storage> storageMap = new EnumMap<>(Container.class);
+    for (Container container : Container.values()) {
+      storageMap.put(container, new SimulatedStorage(new InMemoryStorage(), settings.getStorageLatency(), settings.getStorageJitter(),
+          settings.getStorageBandwidth()));
+    }
+    List<String> properties = new ArrayList<>(List.of(
+        "--spring.config.additional-location=classpath:application-dev.properties",
+        "--server.port=0",
+        "--reach.file.storage.local.root=" + storageRoot,
+        "--logging.level.root=WARN",
+        "--logging.level.uk.gov.defra.reach.file.loadtest=INFO"));
+    for (Container container : Container.values()) {
+      properties.add("--reach.file.storage.containers." + container + ".backend=LOCAL");
+      properties.add("--reach.file.storage.containers." + container + ".diskCache.enabled=false");
+    }
+    return new SpringApplicationBuilder(ReachFileApplication.class)
+        .initializers(context -> context.getBeanFactory().addBeanPostProcessor(new BeanPostProcessor() {
+          @Override
+          public Object postProcessAfterInitialization(Object bean, String beanName) {
+            return "storageMap".equals(beanName) ? storageMap : bean;
+          }
+        }))
+        .run(properties.toArray(String[]::new));
+  }
+
+  private static void write(LoadReport report, Path path) throws IOException {
+    if (path.toAbsolutePath().getParent() != null) {
+      Files.createDirectories(path.toAbsolutePath().getParent());
+    }
+    new ObjectMapper()
+        .findAndRegisterModules()
+        .disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS)
+        .enable(SerializationFeature.INDENT_OUTPUT)
+        .writeValue(path.toFile(), report);
+  }
+}
@@ -0,0 +1,114 @@
+package uk.gov.defra.reach.file.loadtest;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import lombok.Builder;
+import lombok.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Settings of a load test run, read from {@code loadtest.*} system properties. Durations and sizes take the same forms as
+ * the service's own properties, such as {@code 30s} and {@code 1MB}.
+ */
+@Value
+@Builder
+class LoadTestSettings {
+
+  /**
+   * Requests started per second, whether or not earlier requests have completed
+   */
+  double rate;
+
+  /**
+   * How long requests are made at the rate before measuring starts
+   */
+  Duration warmup;
+
+  /**
+   * How long requests are measured for
+   */
+  Duration duration;
+
+  /**
+   * Relative weight of each operation in the mix
+   */
+  Map<LoadOperation, Integer> mix;
+
+  Container container;
+
+  int payloadSize;
+
+  /**
+   * Files stored before warming up, so there is something to get, check and delete from the start
+   */
+  int seedFiles;
+
+  /**
+   * The most distinct files held at once, further uploads replace existing files, which bounds the memory of the stand-in
+   * storage at {@code maxFiles * payloadSize}
+   */
+  int maxFiles;
+
+  /**
+   * The most requests in flight at once, further requests wait to be sent but are still timed from when they were due
+   */
+  int maxInFlight;
+
+  Duration storageLatency;
+
+  Duration storageJitter;
+
+  /**
+   * Bandwidth of each transfer to or from storage per second, zero for no limit
+   */
+  long storageBandwidth;
+
+  @JsonIgnore
+  Path report;
+
+  static LoadTestSettings fromSystemProperties() {
+    return LoadTestSettings.builder()
+        .rate(Double.parseDouble(property("rate", "50")))
+        .warmup(DurationStyle.detectAndParse(property("warmup", "15s")))
+        .duration(DurationStyle.detectAndParse(property("duration", "60s")))
+        .mix(parseMix(property("mix", "store=40,get=30,exists=20,delete=10")))
+        .container(Container.valueOf(property("container", Container.DOSSIER.name())))
+        .payloadSize(Math.toIntExact(DataSize.parse(property("payloadSize", "1500000B")).toBytes()))
+        .seedFiles(Integer.parseInt(property("seedFiles", "100")))
+        .maxFiles(Integer.parseInt(property("maxFiles", "200")))
+        .maxInFlight(Integer.parseInt(property("maxInFlight", "200")))
+        .storageLatency(DurationStyle.detectAndParse(property("storage.latency", "20ms")))
+        .storageJitter(DurationStyle.detectAndParse(property("storage.jitter", "10ms")))
+        .storageBandwidth(DataSize.parse(property("storage.bandwidth", "50MB")).toBytes())
+        .report(Path.of(property("report", "target/loadtest-report.json")))
+        .build();
+  }
+
+  /**
+   * @param mix weights of operations, such as {@code store=40,get=30,exists=20,delete=10}
+   */
+  static Map<LoadOperation, Integer> parseMix(String mix) {
+    Map<LoadOperation, Integer> weights = new EnumMap<>(LoadOperation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Operation mix entries must be operation=weight, not \"" + entry + "\"");
+      }
+      weights.put(LoadOperation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), Integer.parseInt(parts[1].trim()));
+    }
+    if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+      throw new IllegalArgumentException("Operation mix \"" + mix + "\" has no weight");
+    }
+    return weights;
+  }
+
+  private static String property(String name, String defaultValue) {
+    return System.getProperty("loadtest." + name, defaultValue);
+  }
+}
@@ -0,0 +1,223 @@
+package uk.gov.defra.reach.file.loadtest;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+import uk.gov.defra.reach.file.storage.BlobListing;
+import uk.gov.defra.reach.file.storage.BlobStorage;
+import uk.gov.defra.reach.file.storage.ContentProperties;
+import uk.gov.defra.reach.file.storage.CopyProgress;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Stands in for a blob container, adding the round trip latency and per transfer bandwidth of a remote store to another
+ * storage, typically in memory. Every call waits for the latency, plus up to the jitter, before reaching the delegate and
+ * content is read no faster than the bandwidth allows.
+ */
+class SimulatedStorage implements BlobStorage {
+
+  private final BlobStorage delegate;
+
+  private final long latencyNanos;
+
+  private final long jitterNanos;
+
+  private final long bytesPerSecond;
+
+  /**
+   * @param bytesPerSecond bandwidth of each transfer, or zero for no limit
+   */
+  SimulatedStorage(BlobStorage delegate, Duration latency, Duration jitter, long bytesPerSecond) {
+    this.delegate = delegate;
+    this.latencyNanos = latency.toNanos();
+    this.jitterNanos = jitter.toNanos();
+    this.bytesPerSecond = bytesPerSecond;
+  }
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.store(throttle(file), filename);
+  }
+
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    roundTrip();
+    delegate.store(throttle(file), length, filename, contentMd5, properties);
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.get(filename);
+  }
+
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    roundTrip();
+    return delegate.get(filename, lifetime);
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.exists(filename);
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.delete(filename);
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    roundTrip();
+    delegate.stageBlock(filename, blockId, throttle(data), length);
+  }
+
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    roundTrip();
+    delegate.commitBlocks(filename, blockIds, contentMd5, properties);
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.getStagedBlocks(filename);
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    roundTrip();
+    delegate.setContentMd5(filename, contentMd5);
+  }
+
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    roundTrip();
+    delegate.startCopy(filename, source);
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.getCopyProgress(filename);
+  }
+
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    roundTrip();
+    delegate.abortCopy(filename);
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    roundTrip();
+    return delegate.getAttributes(filename);
+  }
+
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException {
+    roundTrip();
+    return delegate.list(prefix, continuationToken, maxResults);
+  }
+
+  @Override
+  public String acquireLease(StorageFilename filename, Duration duration) throws IOException {
+    roundTrip();
+    return delegate.acquireLease(filename, duration);
+  }
+
+  @Override
+  public boolean renewLease(StorageFilename filename, String leaseId) throws IOException {
+    roundTrip();
+    return delegate.renewLease(filename, leaseId);
+  }
+
+  @Override
+  public void releaseLease(StorageFilename filename, String leaseId) throws IOException {
+    roundTrip();
+    delegate.releaseLease(filename, leaseId);
+  }
+
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    roundTrip();
+    return throttle(delegate.openStream(filename, offset, length, etag));
+  }
+
+  private void roundTrip() throws InterruptedIOException {
+    long jitter = jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0;
+    sleep(latencyNanos + jitter);
+  }
+
+  private InputStream throttle(InputStream in) {
+    return bytesPerSecond > 0 ? new ThrottledInputStream(in, bytesPerSecond) : in;
+  }
+
+  private static void sleep(long nanos) throws InterruptedIOException {
+    if (nanos <= 0) {
+      return;
+    }
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted simulating storage latency");
+    }
+  }
+
+  /**
+   * Holds back reads which get ahead of the bandwidth, measured from the first read
+   */
+  private static final class ThrottledInputStream extends FilterInputStream {
+
+    private final long bytesPerSecond;
+
+    private long start;
+
+    private long bytesRead;
+
+    private ThrottledInputStream(InputStream in, long bytesPerSecond) {
+      super(in);
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        consumed(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        consumed(read);
+      }
+      return read;
+    }
+
+    private void consumed(int bytes) throws InterruptedIOException {
+      if (start == 0) {
+        start = System.nanoTime();
+      }
+      bytesRead += bytes;
+      long due = start + bytesRead * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+      sleep(due - System.nanoTime());
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package uk.gov.defra.reach.file.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.EnumMap;
+import java.util.Map;
+import org.springframework.stereotype.Component;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.ExistenceCacheProperties;
+
+/**
+ * Remembers, per container, whether files exist. Both outcomes are cached, with separate time to live so a missing file
+ * is rechecked sooner than a present one. Writes made through this service update the cache immediately.
+ */
+@Component
+public class ExistenceCache implements MeterBinder {
+
+  private final Map<Container, ExistenceCacheProperties> settings = new EnumMap<>(Container.class);
+
+  private final Map<Container, ExpiringLruCache<String, Boolean>> caches = new EnumMap<>(Container.class);
+
+  public ExistenceCache(StorageProperties storageProperties) {
+    for (Container container : Container.values()) {
+      ExistenceCacheProperties properties = storageProperties.forContainer(container).getExistenceCache();
+      settings.put(container, properties);
+      caches.put(container, new ExpiringLruCache<>(properties.getMaxEntries()));
+    }
+  }
+
+  /**
+   * @return whether the file exists, or {@code null} if not known
+   */
+  public Boolean get(Container container, String filename) {
+    return settings.get(container).isEnabled() ? caches.get(container).get(filename) : null;
+  }
+
+  /**
+   * Records whether a file exists once it has been written or deleted through this service
+   */
+  public void put(Container container, String filename, boolean exists) {
+    ExistenceCacheProperties properties = settings.get(container);
+    if (properties.isEnabled()) {
+      caches.get(container).put(filename, exists, exists ? properties.getPositiveTtl() : properties.getNegativeTtl());
+    }
+  }
+
+  /**
+   * Records whether a file exists as looked up in storage
+   *
+   * @param epoch the {@link #writeEpoch} of the file from before it was looked up, the result is not cached if the file
+   *     has been written or deleted since
+   */
+  public void putLookup(Container container, String filename, boolean exists, long epoch) {
+    ExistenceCacheProperties properties = settings.get(container);
+    if (properties.isEnabled()) {
+      caches.get(container).putIfUnchanged(filename, exists, exists ? properties.getPositiveTtl() : properties.getNegativeTtl(), epoch);
+    }
+  }
+
+  public void invalidate(Container container, String filename) {
+    caches.get(container).invalidate(filename);
+  }
+
+  public long writeEpoch(Container container, String filename) {
+    return caches.get(container).writeEpoch(filename);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    caches.forEach((container, cache) -> {
+      FunctionCounter.builder("reach.file.existence.cache.requests", cache, ExpiringLruCache::hits)
+          .tags("container", container.name(), "result", "hit").register(registry);
+      FunctionCounter.builder("reach.file.existence.cache.requests", cache, ExpiringLruCache::misses)
+          .tags("container", container.name(), "result", "miss").register(registry);
+      FunctionCounter.builder("reach.file.existence.cache.evictions", cache, ExpiringLruCache::evictions)
+          .tag("container", container.name()).register(registry);
+      Gauge.builder("reach.file.existence.cache.size", cache, ExpiringLruCache::size).tag("container", container.name()).register(registry);
+    });
+  }
+}
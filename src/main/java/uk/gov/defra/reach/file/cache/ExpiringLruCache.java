@@ -0,0 +1,140 @@
+package uk.gov.defra.reach.file.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A size bounded, thread safe cache whose entries each expire after their own time to live. Once full the least recently
+ * used entry is evicted.
+ * <p>
+ * Values read from elsewhere are cached with {@link #putIfUnchanged}, given the {@link #writeEpoch} of their key from
+ * before they were read, so a read which started before a write cannot overwrite what the write cached or invalidated.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ExpiringLruCache<K, V> {
+
+  /**
+   * Write epochs are kept per stripe of keys so they take bounded space, keys sharing a stripe at worst drop each other's
+   * reads
+   */
+  private static final int WRITE_EPOCH_STRIPES = 1024;
+
+  private final LongSupplier nanoClock;
+
+  private final long[] writeEpochs = new long[WRITE_EPOCH_STRIPES];
+
+  private final Map<K, Entry<V>> entries;
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  public ExpiringLruCache(int maxEntries) {
+    this(maxEntries, System::nanoTime);
+  }
+
+  public ExpiringLruCache(int maxEntries, LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        boolean evict = size() > maxEntries;
+        if (evict) {
+          evictions++;
+        }
+        return evict;
+      }
+    };
+  }
+
+  /**
+   * @return the cached value, or {@code null} if there is none or it has expired
+   */
+  public synchronized V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry != null && entry.expiresAt - nanoClock.getAsLong() > 0) {
+      hits++;
+      return entry.value;
+    }
+    if (entry != null) {
+      entries.remove(key);
+    }
+    misses++;
+    return null;
+  }
+
+  /**
+   * Caches a value which has just been written
+   */
+  public synchronized void put(K key, V value, Duration ttl) {
+    writeEpochs[stripe(key)]++;
+    entries.put(key, new Entry<>(value, nanoClock.getAsLong() + ttl.toNanos()));
+  }
+
+  /**
+   * Caches a value which has been read, unless its key has been written or invalidated since {@code epoch}
+   *
+   * @param epoch the {@link #writeEpoch} of the key from before the value was read
+   * @return whether the value was cached
+   */
+  public synchronized boolean putIfUnchanged(K key, V value, Duration ttl, long epoch) {
+    if (writeEpochs[stripe(key)] != epoch) {
+      return false;
+    }
+    entries.put(key, new Entry<>(value, nanoClock.getAsLong() + ttl.toNanos()));
+    return true;
+  }
+
+  public synchronized void invalidate(K key) {
+    writeEpochs[stripe(key)]++;
+    entries.remove(key);
+  }
+
+  /**
+   * @return a stamp of the writes to a key, which changes whenever it is written or invalidated
+   */
+  public synchronized long writeEpoch(K key) {
+    return writeEpochs[stripe(key)];
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  private static int stripe(Object key) {
+    int hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & (WRITE_EPOCH_STRIPES - 1);
+  }
+
+  private static final class Entry<V> {
+
+    private final V value;
+
+    private final long expiresAt;
+
+    private Entry(V value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package uk.gov.defra.reach.file.cache;
+
+import java.util.Objects;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Identifies a file by its container and filename, as the key of caches and coalesced lookups of that file
+ */
+public final class FileKey {
+
+  private final Container container;
+
+  private final String filename;
+
+  public FileKey(Container container, String filename) {
+    this.container = container;
+    this.filename = filename;
+  }
+
+  public Container getContainer() {
+    return container;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof FileKey)) {
+      return false;
+    }
+    FileKey key = (FileKey) o;
+    return container == key.container && filename.equals(key.filename);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(container, filename);
+  }
+
+  @Override
+  public String toString() {
+    return container + "/" + filename;
+  }
+}
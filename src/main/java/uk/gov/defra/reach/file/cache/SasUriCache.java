@@ -0,0 +1,66 @@
+package uk.gov.defra.reach.file.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.net.URI;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Caches SAS URIs, after any host and port rewriting, so repeated requests for the same file do not each mint a new token.
+ * Entries are dropped a safety margin before the token itself expires so a URI is never handed out close to expiry.
+ */
+@Component
+public class SasUriCache implements MeterBinder {
+
+  private final ExpiringLruCache<FileKey, URI> cache;
+
+  private final Duration ttl;
+
+  public SasUriCache(@Value("${reach.file.sasCache.maxEntries}") int maxEntries, @Value("${azure.storage.sasTokenTTLSeconds}") int sasTokenTTLSeconds,
+      @Value("${reach.file.sasCache.safetyMarginSeconds}") int safetyMarginSeconds) {
+    this.cache = new ExpiringLruCache<>(maxEntries);
+    this.ttl = Duration.ofSeconds((long) sasTokenTTLSeconds - safetyMarginSeconds);
+  }
+
+  /**
+   * @return the cached URI, or {@code null} if there is no URI cached with enough validity left
+   */
+  public URI get(Container container, String filename) {
+    return isEnabled() ? cache.get(new FileKey(container, filename)) : null;
+  }
+
+  /**
+   * @param epoch the {@link #writeEpoch} of the file from before the URI was requested, the URI is not cached if the file
+   *     has been written or deleted since
+   */
+  public void put(Container container, String filename, URI uri, long epoch) {
+    if (isEnabled()) {
+      cache.putIfUnchanged(new FileKey(container, filename), uri, ttl, epoch);
+    }
+  }
+
+  public void invalidate(Container container, String filename) {
+    cache.invalidate(new FileKey(container, filename));
+  }
+
+  public long writeEpoch(Container container, String filename) {
+    return cache.writeEpoch(new FileKey(container, filename));
+  }
+
+  private boolean isEnabled() {
+    return !ttl.isNegative() && !ttl.isZero();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    FunctionCounter.builder("reach.file.sas.cache.requests", cache, ExpiringLruCache::hits).tag("result", "hit").register(registry);
+    FunctionCounter.builder("reach.file.sas.cache.requests", cache, ExpiringLruCache::misses).tag("result", "miss").register(registry);
+    FunctionCounter.builder("reach.file.sas.cache.evictions", cache, ExpiringLruCache::evictions).register(registry);
+    Gauge.builder("reach.file.sas.cache.size", cache, ExpiringLruCache::size).register(registry);
+  }
+}
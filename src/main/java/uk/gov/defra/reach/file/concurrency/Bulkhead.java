@@ -0,0 +1,112 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many operations run at once. Operations beyond the limit wait, in arrival order, for a bounded time and only
+ * while few enough others are waiting, otherwise they are refused straight away.
+ */
+public class Bulkhead {
+
+  private final Semaphore permits;
+
+  private final int maxConcurrent;
+
+  private final int maxWaiting;
+
+  private final long maxWaitNanos;
+
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  private final Listener listener;
+
+  /**
+   * Work run within the bulkhead, which may fail with a checked exception
+   */
+  @FunctionalInterface
+  public interface Operation<T, E extends Exception> {
+
+    T call() throws E;
+  }
+
+  /**
+   * Notified of each operation admitted or refused
+   */
+  public interface Listener {
+
+    void admitted(long waitNanos);
+
+    void rejected(long waitNanos);
+  }
+
+  public Bulkhead(int maxConcurrent, int maxWaiting, Duration maxWait, Listener listener) {
+    this.permits = new Semaphore(maxConcurrent, true);
+    this.maxConcurrent = maxConcurrent;
+    this.maxWaiting = maxWaiting;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.listener = listener;
+  }
+
+  /**
+   * Runs {@code operation} once there is capacity for it.
+   *
+   * @return whatever {@code operation} returns
+   * @throws BulkheadFullException if there was no capacity within the permitted wait
+   */
+  public <T, E extends Exception> T call(Operation<T, E> operation) throws E {
+    acquire();
+    try {
+      return operation.call();
+    } finally {
+      permits.release();
+    }
+  }
+
+  public int active() {
+    return maxConcurrent - permits.availablePermits();
+  }
+
+  public int waiting() {
+    return waiting.get();
+  }
+
+  private void acquire() {
+    if (permits.tryAcquire()) {
+      listener.admitted(0);
+      return;
+    }
+    long start = System.nanoTime();
+    if (waiting.incrementAndGet() > maxWaiting) {
+      waiting.decrementAndGet();
+      listener.rejected(0);
+      throw new BulkheadFullException();
+    }
+    boolean acquired = false;
+    try {
+      acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      waiting.decrementAndGet();
+    }
+    long waited = System.nanoTime() - start;
+    if (!acquired) {
+      listener.rejected(waited);
+      throw new BulkheadFullException();
+    }
+    listener.admitted(waited);
+  }
+
+  /**
+   * Raised when an operation is refused
+   */
+  public static class BulkheadFullException extends RuntimeException {
+
+    BulkheadFullException() {
+      super(null, null, false, false);
+    }
+  }
+}
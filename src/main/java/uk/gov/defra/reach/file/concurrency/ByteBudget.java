@@ -0,0 +1,103 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Listener;
+
+/**
+ * Limits how many bytes are in flight at once. Reservations beyond the budget wait, in arrival order, for a bounded time
+ * for earlier ones to be released, otherwise they are refused. A reservation larger than the whole budget is charged the
+ * whole budget, so it is admitted once nothing else is in flight rather than never. Bytes are counted in whole kilobytes.
+ */
+public class ByteBudget {
+
+  private static final long UNIT = 1024;
+
+  private final Semaphore permits;
+
+  private final int capacity;
+
+  private final long maxWaitNanos;
+
+  private final Listener listener;
+
+  /**
+   * A reservation of part of the budget, released on close
+   */
+  @FunctionalInterface
+  public interface Reservation extends AutoCloseable {
+
+    /**
+     * Reservation of nothing, for when no budget applies
+     */
+    Reservation NONE = () -> {
+    };
+
+    @Override
+    void close();
+  }
+
+  public ByteBudget(long capacityBytes, Duration maxWait, Listener listener) {
+    this.capacity = Math.toIntExact(Math.max(1, capacityBytes / UNIT));
+    this.permits = new Semaphore(capacity, true);
+    this.maxWaitNanos = maxWait.toNanos();
+    this.listener = listener;
+  }
+
+  /**
+   * Reserves {@code bytes} of the budget once they are available.
+   *
+   * @throws BudgetExhaustedException if they were not available within the permitted wait
+   */
+  public Reservation reserve(long bytes) {
+    int units = (int) Math.min(capacity, Math.max(1, (bytes + UNIT - 1) / UNIT));
+    long start = System.nanoTime();
+    boolean acquired = permits.tryAcquire(units);
+    if (!acquired) {
+      try {
+        acquired = permits.tryAcquire(units, maxWaitNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    long waited = System.nanoTime() - start;
+    if (!acquired) {
+      listener.rejected(waited);
+      throw new BudgetExhaustedException();
+    }
+    listener.admitted(waited);
+    AtomicBoolean released = new AtomicBoolean();
+    return () -> {
+      if (released.compareAndSet(false, true)) {
+        permits.release(units);
+      }
+    };
+  }
+
+  public long capacity() {
+    return capacity * UNIT;
+  }
+
+  public long used() {
+    return (capacity - permits.availablePermits()) * UNIT;
+  }
+
+  /**
+   * @return the share of the budget reserved, from 0 to 1
+   */
+  public double utilisation() {
+    return (capacity - permits.availablePermits()) / (double) capacity;
+  }
+
+  /**
+   * Raised when a reservation is refused
+   */
+  public static class BudgetExhaustedException extends RuntimeException {
+
+    BudgetExhaustedException() {
+      super(null, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.BulkheadFullException;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Operation;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.BulkheadProperties;
+
+/**
+ * Gives each container its own limit on concurrent operations, so a slow or throttled storage account only holds up
+ * requests for its own container. Operations refused by a container's bulkhead fail fast with a 503 and Retry-After.
+ */
+@Slf4j
+@Component
+public class ContainerBulkheads {
+
+  private final Map<Container, Bulkhead> bulkheads = new EnumMap<>(Container.class);
+
+  private final Map<Container, Duration> retryAfter = new EnumMap<>(Container.class);
+
+  public ContainerBulkheads(StorageProperties storageProperties, MeterRegistry registry) {
+    for (Container container : Container.values()) {
+      BulkheadProperties properties = storageProperties.forContainer(container).getBulkhead();
+      if (properties.isEnabled()) {
+        Bulkhead bulkhead = new Bulkhead(properties.getMaxConcurrent(), properties.getMaxWaiting(), properties.getMaxWait(),
+            new Meters(container, registry));
+        Gauge.builder("reach.file.bulkhead.active", bulkhead, Bulkhead::active).tag("container", container.name()).register(registry);
+        Gauge.builder("reach.file.bulkhead.waiting", bulkhead, Bulkhead::waiting).tag("container", container.name()).register(registry);
+        bulkheads.put(container, bulkhead);
+        retryAfter.put(container, properties.getRetryAfter());
+      }
+    }
+  }
+
+  /**
+   * Runs {@code operation} within the bulkhead of {@code container}.
+   *
+   * @throws ContainerBusyException if the container has no capacity for it
+   */
+  public <T, E extends Exception> T call(Container container, Operation<T, E> operation) throws E {
+    Bulkhead bulkhead = container == null ? null : bulkheads.get(container);
+    if (bulkhead == null) {
+      return operation.call();
+    }
+    try {
+      return bulkhead.call(operation);
+    } catch (BulkheadFullException e) {
+      log.warn("Refused operation on {} container as it is busy", container);
+      throw new ContainerBusyException(container, retryAfter.get(container));
+    }
+  }
+
+  private static final class Meters implements Bulkhead.Listener {
+
+    private final Timer admitted;
+
+    private final Timer rejected;
+
+    private final Counter rejections;
+
+    private Meters(Container container, MeterRegistry registry) {
+      this.admitted = waitTimer(container, "admitted", registry);
+      this.rejected = waitTimer(container, "rejected", registry);
+      this.rejections = Counter.builder("reach.file.bulkhead.rejected")
+          .description("Operations refused as their container was busy")
+          .tag("container", container.name())
+          .register(registry);
+    }
+
+    private static Timer waitTimer(Container container, String outcome, MeterRegistry registry) {
+      return Timer.builder("reach.file.bulkhead.wait")
+          .description("Time operations waited for their container to have capacity")
+          .tags("container", container.name(), "outcome", outcome)
+          .publishPercentileHistogram()
+          .register(registry);
+    }
+
+    @Override
+    public void admitted(long waitNanos) {
+      admitted.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rejected(long waitNanos) {
+      rejected.record(waitNanos, TimeUnit.NANOSECONDS);
+      rejections.increment();
+    }
+  }
+}
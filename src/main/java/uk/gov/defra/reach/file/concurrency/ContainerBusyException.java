@@ -0,0 +1,14 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.time.Duration;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Raised when a container is handling as many operations as it is permitted to, telling the client when to retry.
+ */
+public class ContainerBusyException extends RetryLaterException {
+
+  public ContainerBusyException(Container container, Duration retryAfter) {
+    super(container + " container is busy, retry later!", retryAfter);
+  }
+}
@@ -0,0 +1,356 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Operation;
+import uk.gov.defra.reach.file.storage.BlobModifiedException;
+
+/**
+ * Cuts the tail latency of idempotent calls to storage. A call still running once it has taken longer than a percentile of
+ * recent calls is hedged with a second, identical call, and a call failing with an {@link IOException} is retried once.
+ * Whichever returns first is used and the other is cancelled. Hedges and retries are both drawn from a {@link RetryBudget}
+ * so they cannot multiply load on storage which is slow or failing throughout.
+ *
+ * <p>The call and any retry run on the caller's thread, only hedges run on the executor. A call is not hedged when the
+ * executor rejects the hedge, so it should be bounded, such as by a fixed number of threads without a queue. A hedge which
+ * returns first interrupts the call it hedged, which the caller waits for until it gives up.
+ */
+public class Hedger {
+
+  /**
+   * Calls for which there is a result before there are enough samples to know the percentile are not hedged
+   */
+  private static final int MIN_SAMPLES = 20;
+
+  private final ExecutorService executor;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final RetryBudget budget;
+
+  private final LatencyPercentile latencies;
+
+  private final long minDelayNanos;
+
+  private final long maxDelayNanos;
+
+  private final Listener listener;
+
+  /**
+   * Notified of each call, and of each hedge or retry made for it
+   */
+  public interface Listener {
+
+    void called();
+
+    void hedged();
+
+    /**
+     * A hedge returned before the call it hedged
+     */
+    void hedgeWon();
+
+    void retried();
+
+    /**
+     * A hedge or retry was not made as the budget was spent
+     */
+    void throttled();
+
+    /**
+     * A hedge was not made as the executor rejected it
+     */
+    void rejected();
+  }
+
+  /**
+   * @param executor runs hedges, which are not made when it rejects them
+   * @param scheduler starts hedges once a call has run for the hedge delay, it only hands them to {@code executor}
+   * @param percentile the percentile of recent call latencies, such as 95, after which a call is hedged
+   * @param minDelay the shortest time a call runs before it is hedged
+   * @param maxDelay the longest time a call runs before it is hedged, also used until the percentile is known
+   */
+  public Hedger(ExecutorService executor, ScheduledExecutorService scheduler, RetryBudget budget, double percentile, Duration minDelay,
+      Duration maxDelay, Listener listener) {
+    this.executor = executor;
+    this.scheduler = scheduler;
+    this.budget = budget;
+    this.latencies = new LatencyPercentile(percentile);
+    this.minDelayNanos = minDelay.toNanos();
+    this.maxDelayNanos = maxDelay.toNanos();
+    this.listener = listener;
+  }
+
+  /**
+   * Makes a call, hedging or retrying it if permitted.
+   *
+   * @param discard given the result of a call which finished after another had already returned, such as a stream to close
+   * @return the result of whichever call returned first
+   */
+  public <T> T call(Operation<T, IOException> operation, Consumer<? super T> discard) throws IOException {
+    listener.called();
+    budget.deposit();
+    Call<T> call = new Call<>(operation, discard, Thread.currentThread());
+    Future<?> hedge = scheduler.schedule(call::hedge, delayNanos(), TimeUnit.NANOSECONDS);
+    try {
+      call.run();
+      return call.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for storage");
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    } finally {
+      hedge.cancel(false);
+      call.cancel();
+    }
+  }
+
+  /**
+   * @return how long a call currently runs before it is hedged
+   */
+  public Duration delay() {
+    return Duration.ofNanos(delayNanos());
+  }
+
+  private long delayNanos() {
+    long percentile = latencies.get();
+    return percentile < 0 ? maxDelayNanos : Math.max(minDelayNanos, Math.min(maxDelayNanos, percentile));
+  }
+
+  private static IOException unwrap(Throwable cause) {
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(cause);
+  }
+
+  /**
+   * A missing or replaced blob would only fail again
+   */
+  private static boolean isRetryable(Throwable failure) {
+    return failure instanceof IOException && !(failure instanceof FileNotFoundException) && !(failure instanceof BlobModifiedException)
+        && !(failure instanceof InterruptedIOException);
+  }
+
+  /**
+   * The attempts made for one call, at most the original and one hedge or retry
+   */
+  private final class Call<T> {
+
+    private final Operation<T, IOException> operation;
+
+    private final Consumer<? super T> discard;
+
+    private final Thread caller;
+
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+
+    private int attempts;
+
+    private int running;
+
+    private Future<?> hedgeAttempt;
+
+    /**
+     * Whether the caller is making an attempt, so may be interrupted once a hedge has returned
+     */
+    private boolean callerAttempting;
+
+    private boolean callerInterrupted;
+
+    private Call(Operation<T, IOException> operation, Consumer<? super T> discard, Thread caller) {
+      this.operation = operation;
+      this.discard = discard;
+      this.caller = caller;
+    }
+
+    /**
+     * Makes the call on the caller's thread, and the retry if it fails and nothing else is running
+     */
+    void run() {
+      boolean retry = false;
+      do {
+        if (!start(retry)) {
+          return;
+        }
+        try {
+          retry = attempt(false);
+        } finally {
+          stop();
+        }
+      } while (retry);
+    }
+
+    private synchronized boolean start(boolean retry) {
+      if (result.isDone()) {
+        return false;
+      }
+      if (!retry) {
+        attempts++;
+      }
+      running++;
+      callerAttempting = true;
+      return true;
+    }
+
+    /**
+     * Clears an interrupt made by a winning hedge, so it is not seen by whatever the caller does next
+     */
+    private synchronized void stop() {
+      callerAttempting = false;
+      if (callerInterrupted) {
+        callerInterrupted = false;
+        Thread.interrupted();
+      }
+    }
+
+    synchronized void hedge() {
+      if (result.isDone() || attempts > 1) {
+        return;
+      }
+      if (!budget.tryWithdraw()) {
+        listener.throttled();
+        return;
+      }
+      try {
+        hedgeAttempt = executor.submit(() -> attempt(true));
+      } catch (RejectedExecutionException e) {
+        budget.refund();
+        listener.rejected();
+        return;
+      }
+      attempts++;
+      running++;
+      listener.hedged();
+    }
+
+    synchronized void cancel() {
+      if (hedgeAttempt != null) {
+        hedgeAttempt.cancel(true);
+      }
+    }
+
+    /**
+     * @return whether the caller should retry
+     */
+    private boolean attempt(boolean hedge) {
+      long start = System.nanoTime();
+      T value;
+      try {
+        value = operation.call();
+      } catch (FileNotFoundException e) {
+        latencies.record(System.nanoTime() - start);
+        return failed(e);
+      } catch (IOException | RuntimeException | Error e) {
+        return failed(e);
+      }
+      latencies.record(System.nanoTime() - start);
+      boolean won = result.complete(value);
+      finished();
+      if (won) {
+        if (hedge) {
+          listener.hedgeWon();
+          interruptCaller();
+        }
+      } else if (value != null) {
+        discard.accept(value);
+      }
+      return false;
+    }
+
+    private synchronized void finished() {
+      running--;
+    }
+
+    private synchronized void interruptCaller() {
+      if (callerAttempting) {
+        callerInterrupted = true;
+        caller.interrupt();
+      }
+    }
+
+    /**
+     * Only the caller's own attempt is retried, as a hedge is the second attempt
+     */
+    private synchronized boolean failed(Throwable failure) {
+      running--;
+      if (running > 0 || result.isDone()) {
+        return false;
+      }
+      if (attempts < 2 && isRetryable(failure) && !Thread.currentThread().isInterrupted()) {
+        if (budget.tryWithdraw()) {
+          // Counted now so a hedge is not also made before the retry starts
+          attempts++;
+          listener.retried();
+          return true;
+        }
+        listener.throttled();
+      }
+      result.completeExceptionally(failure);
+      return false;
+    }
+  }
+
+  /**
+   * A percentile of the latest calls' latencies, recalculated every so many calls
+   */
+  private static final class LatencyPercentile {
+
+    private static final int WINDOW = 1000;
+
+    private static final int RECALCULATE_EVERY = 50;
+
+    private final double percentile;
+
+    private final long[] samples = new long[WINDOW];
+
+    private int count;
+
+    private int next;
+
+    private int sinceRecalculated;
+
+    private volatile long value = -1;
+
+    private LatencyPercentile(double percentile) {
+      this.percentile = percentile;
+    }
+
+    synchronized void record(long nanos) {
+      samples[next] = nanos;
+      next = (next + 1) % WINDOW;
+      count = Math.min(WINDOW, count + 1);
+      if (++sinceRecalculated >= RECALCULATE_EVERY || (count >= MIN_SAMPLES && value < 0)) {
+        sinceRecalculated = 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        value = sorted[Math.max(0, Math.min(count - 1, (int) Math.ceil(percentile / 100 * count) - 1))];
+      }
+    }
+
+    /**
+     * @return the percentile in nanoseconds, or -1 until there are enough samples
+     */
+    long get() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package uk.gov.defra.reach.file.concurrency;
+
+/**
+ * Limits extra requests, hedges and retries, to a share of the requests made. Each request earns a fraction of a token
+ * and each extra request spends a whole one, so when every request is slow or failing, as in an outage, extra requests
+ * stop once the tokens saved up are spent rather than multiplying the load on storage.
+ */
+public class RetryBudget {
+
+  private final double ratio;
+
+  private final double maxTokens;
+
+  private double tokens;
+
+  /**
+   * @param ratio extra requests permitted per request, such as 0.1 for one in ten
+   * @param maxTokens most extra requests which may be saved up for a burst, the budget starts full
+   */
+  public RetryBudget(double ratio, double maxTokens) {
+    this.ratio = ratio;
+    this.maxTokens = maxTokens;
+    this.tokens = maxTokens;
+  }
+
+  /**
+   * Records a request, earning a share of an extra request
+   */
+  public synchronized void deposit() {
+    tokens = Math.min(maxTokens, tokens + ratio);
+  }
+
+  /**
+   * @return whether an extra request may be made, spending a token if so
+   */
+  public synchronized boolean tryWithdraw() {
+    if (tokens < 1) {
+      return false;
+    }
+    tokens--;
+    return true;
+  }
+
+  /**
+   * Returns a token spent on an extra request which was not made after all
+   */
+  public synchronized void refund() {
+    tokens = Math.min(maxTokens, tokens + 1);
+  }
+
+  public synchronized double available() {
+    return tokens;
+  }
+}
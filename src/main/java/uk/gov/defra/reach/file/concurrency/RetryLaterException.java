@@ -0,0 +1,36 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.time.Duration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Raised when a request is refused with a 503 only for now, telling the client in a {@code Retry-After} header when to
+ * retry, in whole seconds rounded up.
+ */
+public class RetryLaterException extends ResponseStatusException {
+
+  private final Duration retryAfter;
+
+  public RetryLaterException(String reason, Duration retryAfter) {
+    this(reason, retryAfter, null);
+  }
+
+  public RetryLaterException(String reason, Duration retryAfter, Throwable cause) {
+    super(HttpStatus.SERVICE_UNAVAILABLE, reason, cause);
+    this.retryAfter = retryAfter;
+  }
+
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+
+  @Override
+  public HttpHeaders getResponseHeaders() {
+    HttpHeaders headers = new HttpHeaders();
+    long seconds = retryAfter.getSeconds() + (retryAfter.getNano() > 0 ? 1 : 0);
+    headers.set(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, seconds)));
+    return headers;
+  }
+}
@@ -0,0 +1,89 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Operation;
+
+/**
+ * Coalesces concurrent calls for the same key into one. The first caller runs the operation and any others arriving
+ * while it is in flight wait for it, sharing its result or the exception it failed with. Nothing is kept once the
+ * operation has finished, so this is not a cache.
+ *
+ * @param <K> identifies calls which are interchangeable
+ * @param <V> the result of a call
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  private final Consumer<K> onCoalesced;
+
+  /**
+   * @param onCoalesced notified of each call which shared another's result rather than running the operation
+   */
+  public SingleFlight(Consumer<K> onCoalesced) {
+    this.onCoalesced = onCoalesced;
+  }
+
+  /**
+   * Runs {@code operation}, unless a call for the same key is already in flight in which case waits for its outcome.
+   */
+  public V call(K key, Operation<V, IOException> operation) throws IOException {
+    CompletableFuture<V> call = new CompletableFuture<>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, call);
+    if (existing != null) {
+      onCoalesced.accept(key);
+      return await(existing);
+    }
+    try {
+      V result = operation.call();
+      call.complete(result);
+      return result;
+    } catch (IOException | RuntimeException | Error e) {
+      call.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, call);
+    }
+  }
+
+  /**
+   * Stops later calls for {@code key} joining one already in flight, for when what it reads has just changed
+   */
+  public void forget(K key) {
+    inFlight.remove(key);
+  }
+
+  /**
+   * @return the number of calls in flight
+   */
+  public int size() {
+    return inFlight.size();
+  }
+
+  private static <V> V await(CompletableFuture<V> call) throws IOException {
+    try {
+      return call.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a coalesced call");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.BudgetExhaustedException;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.BlockUpload;
+import uk.gov.defra.reach.file.config.StorageProperties.ContainerProperties;
+
+/**
+ * Limits the total size of uploads in progress, for the whole service and for each container with an upload budget, so a
+ * burst of large uploads is refused with a 503 and Retry-After instead of exhausting heap, spool disk or bandwidth to
+ * storage. Uploads are charged their declared size for as long as they are in progress. Files uploaded in blocks are
+ * charged at least the blocks held in memory while they are staged, however small they are declared to be.
+ */
+@Slf4j
+@Component
+public class UploadAdmission {
+
+  private static final String GLOBAL = "global";
+
+  private final ByteBudget global;
+
+  private final Map<Container, ByteBudget> containers = new EnumMap<>(Container.class);
+
+  private final Duration retryAfter;
+
+  private final StorageProperties storageProperties;
+
+  public UploadAdmission(StorageProperties storageProperties, MeterRegistry registry, @Value("${reach.file.admission.enabled}") boolean enabled,
+      @Value("${reach.file.admission.maxInFlight}") DataSize maxInFlight, @Value("${reach.file.admission.maxWait}") Duration maxWait,
+      @Value("${reach.file.admission.retryAfter}") Duration retryAfter) {
+    this.retryAfter = retryAfter;
+    this.storageProperties = storageProperties;
+    this.global = enabled ? budget(GLOBAL, maxInFlight, maxWait, registry) : null;
+    if (enabled) {
+      for (Container container : Container.values()) {
+        DataSize containerBudget = storageProperties.forContainer(container).getUploadBudget();
+        if (containerBudget != null) {
+          containers.put(container, budget(container.name(), containerBudget, maxWait, registry));
+        }
+      }
+    }
+  }
+
+  /**
+   * Charges an upload against the budget of the whole service, before it is received.
+   *
+   * @param bytes the declared size of the upload
+   * @throws UploadRejectedException if the budget does not free up in time
+   */
+  public Reservation admit(long bytes) {
+    if (global == null) {
+      return Reservation.NONE;
+    }
+    try {
+      return global.reserve(bytes);
+    } catch (BudgetExhaustedException e) {
+      log.warn("Refused upload of {} bytes as {} of {} bytes are in flight", bytes, global.used(), global.capacity());
+      throw new UploadRejectedException(null, retryAfter);
+    }
+  }
+
+  /**
+   * Charges an upload against the budget of its container, before it is transferred to storage.
+   *
+   * @param bytes the declared size of the upload
+   * @throws UploadRejectedException if the budget does not free up in time
+   */
+  public Reservation admit(Container container, long bytes) {
+    ByteBudget budget = containers.get(container);
+    if (budget == null) {
+      return Reservation.NONE;
+    }
+    try {
+      return budget.reserve(bytes);
+    } catch (BudgetExhaustedException e) {
+      log.warn("Refused upload of {} bytes to {} container as {} of {} bytes are in flight", bytes, container, budget.used(), budget.capacity());
+      throw new UploadRejectedException(container, retryAfter);
+    }
+  }
+
+  /**
+   * Charges the upload of a whole file against the budget of its container, before it is transferred to storage, as
+   * {@link #admit(Container, long)} does. A file which will be uploaded in blocks holds up to the parallelism of its
+   * container plus one blocks in memory, the one being read, whatever its size. It is charged at least that much, the
+   * difference over its declared size being charged to the budget of the whole service too, which was charged only its
+   * declared size as it was received.
+   *
+   * @param bytes the declared size of the upload
+   * @throws UploadRejectedException if either budget does not free up in time
+   */
+  public Reservation admitFile(Container container, long bytes) {
+    long charge = Math.max(bytes, blockBuffers(storageProperties.forContainer(container), bytes));
+    Reservation reservation = admit(container, charge);
+    if (global == null || charge <= bytes) {
+      return reservation;
+    }
+    Reservation buffers;
+    try {
+      buffers = global.reserve(charge - bytes);
+    } catch (BudgetExhaustedException e) {
+      reservation.close();
+      log.warn("Refused upload of {} bytes to {} container needing {} bytes of blocks as {} of {} bytes are in flight", bytes, container, charge,
+          global.used(), global.capacity());
+      throw new UploadRejectedException(null, retryAfter);
+    }
+    return () -> {
+      try (reservation) {
+        buffers.close();
+      }
+    };
+  }
+
+  /**
+   * Bytes of blocks held in memory by an upload of {@code bytes}, if it is uploaded in blocks. Uploads below the block
+   * threshold are stored in one request unless they may be compressed, uploads to containers without block uploads are
+   * still staged in blocks one at a time.
+   */
+  private static long blockBuffers(ContainerProperties properties, long bytes) {
+    BlockUpload blockUpload = properties.getBlockUpload();
+    if (bytes >= 0 && bytes < blockUpload.getThreshold().toBytes() && !properties.getCompression().isEnabled()) {
+      return 0;
+    }
+    int parallelism = blockUpload.isEnabled() ? blockUpload.getParallelism() : 1;
+    return (parallelism + 1) * blockUpload.getBlockSize().toBytes();
+  }
+
+  private static ByteBudget budget(String name, DataSize capacity, Duration maxWait, MeterRegistry registry) {
+    ByteBudget budget = new ByteBudget(capacity.toBytes(), maxWait, new Meters(name, registry));
+    Gauge.builder("reach.file.admission.used", budget, ByteBudget::used)
+        .description("Declared bytes of uploads in progress")
+        .baseUnit("bytes")
+        .tag("budget", name)
+        .register(registry);
+    Gauge.builder("reach.file.admission.utilisation", budget, ByteBudget::utilisation)
+        .description("Share of the upload budget in use")
+        .tag("budget", name)
+        .register(registry);
+    return budget;
+  }
+
+  private static final class Meters implements Bulkhead.Listener {
+
+    private final Timer admitted;
+
+    private final Timer rejected;
+
+    private final Counter rejections;
+
+    private Meters(String budget, MeterRegistry registry) {
+      this.admitted = waitTimer(budget, "admitted", registry);
+      this.rejected = waitTimer(budget, "rejected", registry);
+      this.rejections = Counter.builder("reach.file.admission.rejected")
+          .description("Uploads refused as their budget was used up")
+          .tag("budget", budget)
+          .register(registry);
+    }
+
+    private static Timer waitTimer(String budget, String outcome, MeterRegistry registry) {
+      return Timer.builder("reach.file.admission.wait")
+          .description("Time uploads waited for their budget to free up")
+          .tags("budget", budget, "outcome", outcome)
+          .publishPercentileHistogram()
+          .register(registry);
+    }
+
+    @Override
+    public void admitted(long waitNanos) {
+      admitted.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rejected(long waitNanos) {
+      rejected.record(waitNanos, TimeUnit.NANOSECONDS);
+      rejections.increment();
+    }
+  }
+}
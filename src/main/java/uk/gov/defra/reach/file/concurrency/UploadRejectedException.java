@@ -0,0 +1,19 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import java.time.Duration;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Raised when accepting an upload would take the bytes of uploads in progress over budget, telling the client when to
+ * retry.
+ */
+public class UploadRejectedException extends RetryLaterException {
+
+  /**
+   * @param container the container whose budget is used up, or {@code null} if it is the budget of the whole service
+   */
+  public UploadRejectedException(Container container, Duration retryAfter) {
+    super((container == null ? "Too many uploads in progress" : "Too many uploads to " + container + " container in progress") + ", retry later!",
+        retryAfter);
+  }
+}
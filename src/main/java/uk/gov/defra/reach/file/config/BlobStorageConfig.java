@@ -1,12 +1,51 @@
 package uk.gov.defra.reach.file.config;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Clock;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.RetryBudget;
+import uk.gov.defra.reach.file.config.StorageProperties.Backend;
+import uk.gov.defra.reach.file.config.StorageProperties.DiskCache;
+import uk.gov.defra.reach.file.config.StorageProperties.HedgingProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.Local;
+import uk.gov.defra.reach.file.storage.AzureBlobContainerStorage;
+import uk.gov.defra.reach.file.storage.BlobStorage;
+import uk.gov.defra.reach.file.storage.CachingStorage;
+import uk.gov.defra.reach.file.storage.HedgingStorage;
+import uk.gov.defra.reach.file.storage.LazyStorage;
+import uk.gov.defra.reach.file.storage.LocalFileStorage;
 import uk.gov.defra.reach.storage.Storage;
 import uk.gov.defra.reach.storage.azure.AzureBlobStorage;
 import uk.gov.defra.reach.storage.azure.AzureBlobStorageConfiguration;
@@ -14,9 +53,14 @@ import uk.gov.defra.reach.storage.azure.CloudBlobContainerConnection;
 import uk.gov.defra.reach.storage.azure.exception.StorageInitializationException;
 
 /**
- * Configuration for Azure Blob storage containers
+ * Configuration for Azure Blob storage containers. Individual containers may instead be kept on the local file system by
+ * setting {@code reach.file.storage.containers.<CONTAINER>.backend=LOCAL}. Azure containers are initialised concurrently,
+ * and may be initialised on first use instead by setting {@code reach.file.storage.containers.<CONTAINER>.lazy-init=true}.
+ * Reads from Azure containers are hedged and retried unless {@code reach.file.storage.containers.<CONTAINER>.hedging.enabled=false}.
  */
+@Slf4j
 @Configuration
+@EnableConfigurationProperties({StorageProperties.class, SweeperProperties.class})
 public class BlobStorageConfig {
 
   @Value("${azure.storage.dossier.connection}")
@@ -46,34 +90,173 @@ public class BlobStorageConfig {
   @Value("${azure.storage.sasTokenTTLSeconds}")
   private int sasTokenTTLSeconds;
 
+  @Value("${reach.file.proxy.readBufferSize}")
+  private DataSize proxyReadBufferSize;
+
+  private final StorageProperties storageProperties;
+
+  private byte[] localSigningKey;
+
+  private final List<LazyStorage> lazyStorages = new ArrayList<>();
+
+  private final ScheduledExecutorService initExecutor = Executors.newScheduledThreadPool(Container.values().length,
+      new ThreadFactoryBuilder().setNameFormat("storage-init-%d").setDaemon(true).build());
+
+  /**
+   * Runs hedges, reads themselves run on the caller's thread. It has no queue, so once every thread is busy hedging, reads
+   * are not hedged rather than waiting for a thread.
+   */
+  private final ExecutorService hedgeExecutor;
+
+  /**
+   * Hands hedges to the hedge executor once a read has run for its hedge delay
+   */
+  private final ScheduledThreadPoolExecutor hedgeScheduler = new ScheduledThreadPoolExecutor(1,
+      new ThreadFactoryBuilder().setNameFormat("storage-hedge-timer-%d").setDaemon(true).build());
+
+  /**
+   * Downloads files missing from the disk caches, without a queue, so once every thread is busy misses are read from
+   * storage without being cached
+   */
+  private final ExecutorService diskCacheFillExecutor;
+
+  public BlobStorageConfig(StorageProperties storageProperties) {
+    this.storageProperties = storageProperties;
+    this.diskCacheFillExecutor = new ThreadPoolExecutor(0, storageProperties.getDiskCacheFillThreads(), 60, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), new ThreadFactoryBuilder().setNameFormat("disk-cache-fill-%d").setDaemon(true).build(),
+        new ThreadPoolExecutor.AbortPolicy());
+    this.hedgeExecutor = new ThreadPoolExecutor(0, storageProperties.getHedgeThreads(), 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("storage-hedge-%d").setDaemon(true).build(), new ThreadPoolExecutor.AbortPolicy());
+    // Reads which return before their hedge delay cancel it, so these would otherwise pile up until their delay
+    hedgeScheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * Initialises every container concurrently. Azure containers are wrapped in {@link LazyStorage}, so one which cannot be
+   * reached at startup is retried in the background rather than failing startup, and one configured with
+   * {@code lazy-init} is not initialised until first used.
+   */
   @Bean
-  public Map<Container, Storage> storageMap() throws StorageInitializationException {
+  public Map<Container, Storage> storageMap(MeterRegistry meterRegistry) {
+    long start = System.nanoTime();
     Map<Container, Storage> storageMap = new EnumMap<>(Container.class);
-    storageMap.put(Container.DOSSIER, dossierStorage());
-    storageMap.put(Container.DOCUMENT, documentStorage());
-    storageMap.put(Container.EXPORT, exportStorage());
-    storageMap.put(Container.TEMPORARY, tempStorage());
+    storageMap.put(Container.DOSSIER, createStorage(Container.DOSSIER, dossierConnectionString, dossierContainerName, meterRegistry));
+    storageMap.put(Container.DOCUMENT, createStorage(Container.DOCUMENT, documentConnectionString, documentContainerName, meterRegistry));
+    storageMap.put(Container.EXPORT, createStorage(Container.EXPORT, exportConnectionString, exportContainerName, meterRegistry));
+    storageMap.put(Container.TEMPORARY, createStorage(Container.TEMPORARY, tempConnectionString, tempContainerName, meterRegistry));
+    awaitInitialisation(lazyStorages.stream()
+        .filter(storage -> !storageProperties.forContainer(storage.getContainer()).isLazyInit())
+        .collect(Collectors.toList()));
+    log.info("Initialised storage containers in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     return storageMap;
   }
 
-  private Storage dossierStorage() throws StorageInitializationException {
-    return createStorage(new AzureBlobStorageConfiguration(dossierConnectionString, dossierContainerName, Duration.ofSeconds(sasTokenTTLSeconds)));
+  @PreDestroy
+  public void shutdown() {
+    initExecutor.shutdownNow();
+    hedgeExecutor.shutdownNow();
+    hedgeScheduler.shutdownNow();
+    diskCacheFillExecutor.shutdownNow();
+  }
+
+  /**
+   * Publishes metrics of any storage which records them, such as the disk cache
+   */
+  @Bean
+  public MeterBinder storageMetrics(Map<Container, Storage> storageMap) {
+    return registry -> storageMap.values().stream()
+        .filter(MeterBinder.class::isInstance)
+        .forEach(storage -> ((MeterBinder) storage).bindTo(registry));
+  }
+
+  private Storage createStorage(Container container, String connectionString, String containerName, MeterRegistry meterRegistry) {
+    if (storageProperties.forContainer(container).getBackend() == Backend.LOCAL) {
+      // Already on local disk, and served by LocalFileController which needs the LocalFileStorage itself
+      return createLocalStorage(container);
+    }
+    BlobStorage storage = createHedgingStorage(container, createLazyStorage(container, connectionString, containerName, meterRegistry), meterRegistry);
+    DiskCache diskCache = storageProperties.forContainer(container).getDiskCache();
+    if (diskCache.isEnabled()) {
+      Path directory = storageProperties.getDiskCacheRoot().resolve(container.name().toLowerCase(Locale.ROOT));
+      log.info("Caching content of {} container at {}", container, directory);
+      try {
+        return new CachingStorage(storage, container, directory, diskCache.getMaxSize().toBytes(), diskCache.getMaxFileSize().toBytes(),
+            diskCache.getPolicy(), diskCache.getRevalidateAfter(), diskCacheFillExecutor);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to initialise disk cache for " + container + " container", e);
+      }
+    }
+    return storage;
+  }
+
+  private BlobStorage createHedgingStorage(Container container, BlobStorage storage, MeterRegistry meterRegistry) {
+    HedgingProperties hedging = storageProperties.forContainer(container).getHedging();
+    if (!hedging.isEnabled()) {
+      return storage;
+    }
+    return new HedgingStorage(storage, container, hedgeExecutor, hedgeScheduler, hedging.getPercentile(), hedging.getMinDelay(),
+        hedging.getMaxDelay(), new RetryBudget(hedging.getBudgetRatio(), hedging.getMaxBudget()), meterRegistry);
+  }
+
+  private BlobStorage createLazyStorage(Container container, String connectionString, String containerName, MeterRegistry meterRegistry) {
+    LazyStorage storage = new LazyStorage(container, () -> createAzureStorage(connectionString, containerName), initExecutor,
+        storageProperties.getInitRetryInterval(), storageProperties.getInitTimeout(), meterRegistry);
+    if (storageProperties.forContainer(container).isLazyInit()) {
+      log.info("{} container will be initialised on first use", container);
+    } else {
+      storage.initialise();
+    }
+    lazyStorages.add(storage);
+    return storage;
   }
 
-  private Storage documentStorage() throws StorageInitializationException {
-    return createStorage(new AzureBlobStorageConfiguration(documentConnectionString, documentContainerName, Duration.ofSeconds(sasTokenTTLSeconds)));
+  /**
+   * Waits, up to the init timeout in all, for containers initialised at startup. Any not yet initialised by then carry on
+   * being initialised in the background.
+   */
+  private void awaitInitialisation(List<LazyStorage> storages) {
+    CompletableFuture<?>[] initialised = storages.stream().map(LazyStorage::initialise).toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.allOf(initialised).get(storageProperties.getInitTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      // reported below
+    }
+    storages.stream()
+        .filter(storage -> !storage.isAvailable())
+        .forEach(storage -> log.warn("{} container is unavailable, it will be retried every {}", storage.getContainer(),
+            storageProperties.getInitRetryInterval()));
   }
 
-  private Storage exportStorage() throws StorageInitializationException {
-    return createStorage(new AzureBlobStorageConfiguration(exportConnectionString, exportContainerName, Duration.ofSeconds(sasTokenTTLSeconds)));
+  private BlobStorage createAzureStorage(String connectionString, String containerName) throws StorageInitializationException {
+    AzureBlobStorageConfiguration configuration = new AzureBlobStorageConfiguration(connectionString, containerName, Duration.ofSeconds(sasTokenTTLSeconds));
+    CloudBlobContainer blobContainer = new CloudBlobContainerConnection(configuration).getContainer();
+    return new AzureBlobContainerStorage(new AzureBlobStorage(blobContainer, configuration), blobContainer, Math.toIntExact(proxyReadBufferSize.toBytes()));
   }
 
-  private Storage tempStorage() throws StorageInitializationException {
-    return createStorage(new AzureBlobStorageConfiguration(tempConnectionString, tempContainerName, Duration.ofSeconds(sasTokenTTLSeconds)));
+  private Storage createLocalStorage(Container container) {
+    Local local = storageProperties.getLocal();
+    Path root = local.getRoot().resolve(container.name().toLowerCase(Locale.ROOT));
+    log.info("Using local storage at {} for {} container", root, container);
+    try {
+      return new LocalFileStorage(container, root, local.getBaseUrl(), localSigningKey(), Duration.ofSeconds(sasTokenTTLSeconds), Clock.systemUTC());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to initialise local storage for " + container + " container", e);
+    }
   }
 
-  private static Storage createStorage(AzureBlobStorageConfiguration configuration) throws StorageInitializationException {
-    return new AzureBlobStorage(new CloudBlobContainerConnection(configuration).getContainer(), configuration);
+  private synchronized byte[] localSigningKey() {
+    if (localSigningKey == null) {
+      String configured = storageProperties.getLocal().getSigningKey();
+      if (configured == null || configured.isBlank()) {
+        localSigningKey = new byte[32];
+        new SecureRandom().nextBytes(localSigningKey);
+      } else {
+        localSigningKey = configured.getBytes(StandardCharsets.UTF_8);
+      }
+    }
+    return localSigningKey;
   }
 
 }
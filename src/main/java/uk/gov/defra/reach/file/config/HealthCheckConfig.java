@@ -1,20 +1,58 @@
 package uk.gov.defra.reach.file.config;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.HealthContributorRegistry;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.context.annotation.Configuration;
 import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.health.CachedHealthIndicator;
+import uk.gov.defra.reach.file.health.LazyStorageHealthIndicator;
+import uk.gov.defra.reach.file.storage.DelegatingStorage;
+import uk.gov.defra.reach.file.storage.LazyStorage;
 import uk.gov.defra.reach.spring.health.BlobStorageHealthCheck;
 import uk.gov.defra.reach.storage.Storage;
 
+/**
+ * Registers a health indicator for each blob container. Containers are probed in the background and health requests are
+ * served the last result, so probes and scrapes do not each make calls to storage. Containers initialised on first use are
+ * not probed until then.
+ */
 @Configuration
 public class HealthCheckConfig {
 
+  private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(Container.values().length,
+      new ThreadFactoryBuilder().setNameFormat("health-probe-%d").setDaemon(true).build());
+
   @Autowired
-  public HealthCheckConfig(Map<Container, Storage> storageMap, HealthContributorRegistry healthContributorRegistry) {
-    storageMap.forEach(
-        (container, storage) -> healthContributorRegistry.registerContributor(container.name() + " blob container", new BlobStorageHealthCheck(storage)));
+  public HealthCheckConfig(Map<Container, Storage> storageMap, HealthContributorRegistry healthContributorRegistry, MeterRegistry meterRegistry,
+      @Value("${reach.file.health.interval}") Duration interval, @Value("${reach.file.health.jitter}") Duration jitter,
+      @Value("${reach.file.health.degradedLatency}") Duration degradedLatency, @Value("${reach.file.health.staleAfter}") Duration staleAfter) {
+    storageMap.forEach((container, storage) -> {
+      String name = container.name() + " blob container";
+      HealthIndicator probe = new BlobStorageHealthCheck(storage);
+      LazyStorage lazyStorage = DelegatingStorage.unwrap(storage, LazyStorage.class);
+      if (lazyStorage != null) {
+        probe = new LazyStorageHealthIndicator(lazyStorage, probe);
+      }
+      CachedHealthIndicator indicator = new CachedHealthIndicator(name, probe, executor, interval, jitter, degradedLatency, staleAfter,
+          Clock.systemUTC(), meterRegistry);
+      healthContributorRegistry.registerContributor(name, indicator);
+      indicator.start();
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
   }
 
 }
@@ -0,0 +1,21 @@
+package uk.gov.defra.reach.file.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
+
+/**
+ * Signed URLs of local storage stand in for SAS URIs, so are fetched without a JWT, by clients given them and by
+ * {@link uk.gov.defra.reach.file.storage.LocalFileStorage#startCopy} itself. Their signature is checked by
+ * {@link uk.gov.defra.reach.file.controller.LocalFileController} instead, so they are left out of the JWT filter chain.
+ */
+@Configuration
+@ConditionalOnClass(WebSecurityCustomizer.class)
+public class LocalFileSecurityConfig {
+
+  @Bean
+  public WebSecurityCustomizer localFileUrls() {
+    return web -> web.ignoring().antMatchers("/file/local/**");
+  }
+}
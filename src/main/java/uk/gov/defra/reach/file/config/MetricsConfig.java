@@ -0,0 +1,24 @@
+package uk.gov.defra.reach.file.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.web.servlet.MultipartProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.servlet.DispatcherServlet;
+import uk.gov.defra.reach.file.metrics.TimedMultipartResolver;
+
+@Configuration
+public class MetricsConfig {
+
+  /**
+   * Replaces the auto-configured multipart resolver with one recording how long uploads take to spool
+   */
+  @Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+  public MultipartResolver multipartResolver(MeterRegistry meterRegistry, MultipartProperties multipartProperties) {
+    TimedMultipartResolver multipartResolver = new TimedMultipartResolver(meterRegistry);
+    multipartResolver.setResolveLazily(multipartProperties.isResolveLazily());
+    return multipartResolver;
+  }
+
+}
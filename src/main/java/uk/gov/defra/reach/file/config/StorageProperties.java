@@ -0,0 +1,282 @@
+package uk.gov.defra.reach.file.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.CachingStorage.EvictionPolicy;
+
+/**
+ * Per-container tuning of how files are moved to and from storage. Any container without explicit configuration under
+ * {@code reach.file.storage.containers.<CONTAINER>} uses the defaults.
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reach.file.storage")
+public class StorageProperties {
+
+  private Map<Container, ContainerProperties> containers = withEveryContainer(Map.of());
+
+  private Local local = new Local();
+
+  /**
+   * Directory below which each container with a disk cache keeps its cached files, it is cleared on startup
+   */
+  private Path diskCacheRoot = Path.of(System.getProperty("java.io.tmpdir"), "reach-file-cache");
+
+  /**
+   * Most files downloaded into the disk caches at once, across every container
+   */
+  private int diskCacheFillThreads = 8;
+
+  /**
+   * How long startup, or the first operation on a lazily initialised container, waits for a container to initialise
+   */
+  private Duration initTimeout = Duration.ofSeconds(10);
+
+  /**
+   * How often initialising a container which failed is retried in the background
+   */
+  private Duration initRetryInterval = Duration.ofSeconds(30);
+
+  /**
+   * Most hedges of reads running at once across every container, reads are not hedged while this many are running
+   */
+  private int hedgeThreads = 32;
+
+  /**
+   * Containers without explicit configuration are given the defaults here, so the map is only ever read once bound, as it
+   * is by request threads
+   */
+  public void setContainers(Map<Container, ContainerProperties> containers) {
+    this.containers = withEveryContainer(containers);
+  }
+
+  public ContainerProperties forContainer(Container container) {
+    return containers.get(container);
+  }
+
+  private static Map<Container, ContainerProperties> withEveryContainer(Map<Container, ContainerProperties> configured) {
+    Map<Container, ContainerProperties> containers = new EnumMap<>(Container.class);
+    for (Container container : Container.values()) {
+      containers.put(container, configured.getOrDefault(container, new ContainerProperties()));
+    }
+    return containers;
+  }
+
+  public enum Backend {
+    AZURE, LOCAL
+  }
+
+  @Getter
+  @Setter
+  public static class ContainerProperties {
+
+    private Backend backend = Backend.AZURE;
+
+    private BlockUpload blockUpload = new BlockUpload();
+
+    private ExistenceCacheProperties existenceCache = new ExistenceCacheProperties();
+
+    private DiskCache diskCache = new DiskCache();
+
+    private BulkheadProperties bulkhead = new BulkheadProperties();
+
+    private HedgingProperties hedging = new HedgingProperties();
+
+    private Compression compression = new Compression();
+
+    /**
+     * Maximum number of asynchronous uploads transferred to this container at once
+     */
+    private int asyncUploadConcurrency = 2;
+
+    /**
+     * Initialise the container's storage on first use rather than at startup, only Azure storage is initialised lazily
+     */
+    private boolean lazyInit = false;
+
+    /**
+     * Most bytes of uploads to this container in progress at once, on top of the budget of the whole service, unlimited
+     * when unset
+     */
+    private DataSize uploadBudget;
+
+  }
+
+  @Getter
+  @Setter
+  public static class BlockUpload {
+
+    /**
+     * Whether uploads may be split into concurrently staged blocks
+     */
+    private boolean enabled = true;
+
+    /**
+     * Uploads with a known length below this size are sent in a single request
+     */
+    private DataSize threshold = DataSize.ofMegabytes(16);
+
+    private DataSize blockSize = DataSize.ofMegabytes(4);
+
+    /**
+     * Maximum number of blocks of a single upload in flight at once, each of which holds a block sized buffer
+     */
+    private int parallelism = 4;
+
+  }
+
+  @Getter
+  @Setter
+  public static class ExistenceCacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * How long a file is assumed to exist after it was last seen
+     */
+    private Duration positiveTtl = Duration.ofSeconds(60);
+
+    /**
+     * How long a file is assumed to be missing after it was last looked for, kept short as other instances may create it
+     */
+    private Duration negativeTtl = Duration.ofSeconds(5);
+
+    private int maxEntries = 10000;
+
+  }
+
+  @Getter
+  @Setter
+  public static class BulkheadProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Maximum number of operations on the container in progress at once
+     */
+    private int maxConcurrent = 32;
+
+    /**
+     * Maximum number of operations waiting for one of those in progress to finish, further operations are refused at once
+     */
+    private int maxWaiting = 64;
+
+    /**
+     * How long an operation may wait to start before it is refused
+     */
+    private Duration maxWait = Duration.ofMillis(250);
+
+    /**
+     * Suggested to refused clients as the time to wait before retrying
+     */
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+  }
+
+  @Getter
+  @Setter
+  public static class HedgingProperties {
+
+    /**
+     * Whether reads from Azure storage are hedged and retried, local storage never is
+     */
+    private boolean enabled = true;
+
+    /**
+     * Reads still running after this percentile of recent latencies of the same read are hedged with a second request
+     */
+    private double percentile = 95;
+
+    private Duration minDelay = Duration.ofMillis(50);
+
+    /**
+     * Reads are hedged after this long at most, and until enough have been made to know the percentile
+     */
+    private Duration maxDelay = Duration.ofSeconds(1);
+
+    /**
+     * Hedges and retries permitted per read, so they add at most this share of requests to storage which is struggling
+     */
+    private double budgetRatio = 0.1;
+
+    /**
+     * Hedges and retries which may be saved up for a burst of slow reads
+     */
+    private int maxBudget = 20;
+
+  }
+
+  @Getter
+  @Setter
+  public static class Compression {
+
+    /**
+     * Whether content is gzip compressed before it is stored, it is decompressed again when read
+     */
+    private boolean enabled = false;
+
+    /**
+     * Deflate level from 1, fastest, to 9, smallest
+     */
+    private int level = 6;
+
+    /**
+     * Smaller content is stored as it is, as compressing it would save little
+     */
+    private DataSize minSize = DataSize.ofKilobytes(1);
+
+  }
+
+  @Getter
+  @Setter
+  public static class DiskCache {
+
+    /**
+     * Ignored for containers with the LOCAL backend, whose content is already on local disk
+     */
+    private boolean enabled = false;
+
+    private DataSize maxSize = DataSize.ofMegabytes(512);
+
+    /**
+     * Larger files are always read from the underlying storage
+     */
+    private DataSize maxFileSize = DataSize.ofMegabytes(100);
+
+    private EvictionPolicy policy = EvictionPolicy.LRU;
+
+    /**
+     * Cached files are checked against storage once cached this long, so those changed through another replica are dropped
+     */
+    private Duration revalidateAfter = Duration.ofSeconds(30);
+
+  }
+
+  @Getter
+  @Setter
+  public static class Local {
+
+    /**
+     * Directory below which each container using the local backend keeps its files
+     */
+    private Path root = Path.of(System.getProperty("java.io.tmpdir"), "reach-file-storage");
+
+    /**
+     * Base URL of this service, used to build the signed download URLs issued in place of SAS URIs
+     */
+    private String baseUrl = "http://localhost:8090";
+
+    /**
+     * Key used to sign download URLs, a random key is used when blank so URLs only work on the instance which issued them
+     */
+    private String signingKey;
+
+  }
+}
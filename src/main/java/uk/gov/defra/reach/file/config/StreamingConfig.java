@@ -0,0 +1,43 @@
+package uk.gov.defra.reach.file.config;
+
+import java.time.Duration;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Runs the bodies of responses streamed through this service, proxied downloads, bundles and listings, on their own pool
+ * rather than the application task executor, so at most the configured number are sent at once and the rest wait their
+ * turn. Applied after Spring Boot's own MVC configuration, which would otherwise use the application task executor.
+ */
+@Configuration
+public class StreamingConfig implements WebMvcConfigurer {
+
+  private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+  private final Duration timeout;
+
+  public StreamingConfig(@Value("${reach.file.proxy.maxConcurrentDownloads}") int maxConcurrentDownloads,
+      @Value("${reach.file.proxy.downloadTimeout}") Duration timeout) {
+    this.timeout = timeout;
+    executor.setCorePoolSize(maxConcurrentDownloads);
+    executor.setMaxPoolSize(maxConcurrentDownloads);
+    executor.setThreadNamePrefix("download-");
+    executor.setDaemon(true);
+    executor.initialize();
+  }
+
+  @Override
+  public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+    configurer.setTaskExecutor(executor);
+    configurer.setDefaultTimeout(timeout.toMillis());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdown();
+  }
+}
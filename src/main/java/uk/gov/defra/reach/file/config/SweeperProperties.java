@@ -0,0 +1,45 @@
+package uk.gov.defra.reach.file.config;
+
+import java.time.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Tuning of the sweeper which deletes expired files from the TEMPORARY container
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "reach.file.sweeper")
+public class SweeperProperties {
+
+  private boolean enabled = false;
+
+  /**
+   * Count the files which would be deleted without deleting them
+   */
+  private boolean dryRun = false;
+
+  /**
+   * Files last modified longer ago than this are deleted
+   */
+  private Duration maxAge = Duration.ofDays(7);
+
+  /**
+   * Time between the end of one sweep and the start of the next
+   */
+  private Duration interval = Duration.ofHours(1);
+
+  /**
+   * Number of files listed, then deleted, at a time
+   */
+  private int batchSize = 100;
+
+  /**
+   * Number of files of a batch deleted at once
+   */
+  private int concurrency = 4;
+
+  private double maxDeletesPerSecond = 50;
+
+}
@@ -0,0 +1,203 @@
+package uk.gov.defra.reach.file.controller;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.service.BundleService;
+import uk.gov.defra.reach.file.service.FileService;
+import uk.gov.defra.reach.file.service.ZipBundle;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+
+/**
+ * Serves file content through this service, for clients which cannot reach the storage account with a SAS URI. Content
+ * is streamed through a fixed size buffer and single byte ranges are supported so downloads can be resumed or split.
+ * Content stored compressed is sent compressed to clients which accept gzip, and decompressed for those which do not.
+ */
+@RestController
+@RequestMapping("/file")
+@ConditionalOnProperty(name = "reach.file.proxy.enabled", havingValue = "true")
+public class FileContentController {
+
+  private static final MediaType APPLICATION_ZIP = MediaType.parseMediaType("application/zip");
+
+  private final FileService fileService;
+
+  private final BundleService bundleService;
+
+  public FileContentController(FileService fileService, BundleService bundleService) {
+    this.fileService = fileService;
+    this.bundleService = bundleService;
+  }
+
+  /**
+   * Downloads the content of a file, honouring {@code Range}, {@code If-Range} and {@code If-None-Match}. The content is read
+   * on condition of the entity tag sent, so a file replaced meanwhile fails the download, or cuts it short once started,
+   * rather than sending content of another version. Byte ranges of a file stored gzip encoded are ranges of the encoded
+   * bytes, as sent with {@code Content-Encoding: gzip}, and are not served to clients which do not accept gzip.
+   *
+   * @param container the container
+   * @param target the target
+   * @param headers the request headers
+   */
+  @GetMapping("/content")
+  public ResponseEntity<StreamingResponseBody> download(@RequestParam("container") Container container, @RequestParam("target") String target,
+      @RequestHeader HttpHeaders headers) {
+    BlobAttributes attributes = fileService.getAttributes(container, target);
+    String etag = quote(attributes.getEtag());
+    long length = attributes.getLength();
+    boolean encoded = FileService.isGzipEncoded(attributes);
+    boolean decoded = encoded && !acceptsGzip(headers);
+
+    if (etag != null && matches(headers.getIfNoneMatch(), etag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(decoded ? weak(etag) : etag).build();
+    }
+
+    if (decoded) {
+      // Decompressed while it is sent, so its length is unknown up front and ranges of it cannot be served
+      ResponseEntity.BodyBuilder response = ResponseEntity.ok().header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+      if (etag != null) {
+        response.eTag(weak(etag));
+      }
+      return response
+          .contentType(contentType(attributes))
+          .body(out -> fileService.downloadDecoded(container, target, attributes, out));
+    }
+
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    long offset = 0;
+    long count = length;
+    List<HttpRange> ranges = rangesToServe(headers, etag);
+    if (ranges.size() == 1) {
+      HttpRange range = ranges.get(0);
+      if (length == 0 || range.getRangeStart(length) >= length) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).header(HttpHeaders.CONTENT_RANGE, "bytes */" + length).build();
+      }
+      offset = range.getRangeStart(length);
+      count = range.getRangeEnd(length) - offset + 1;
+      response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+          .header(HttpHeaders.CONTENT_RANGE, "bytes " + offset + "-" + (offset + count - 1) + "/" + length);
+    }
+
+    long start = offset;
+    long bytes = count;
+    if (etag != null) {
+      response.eTag(etag);
+    }
+    if (encoded) {
+      response.header(HttpHeaders.CONTENT_ENCODING, "gzip").header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    }
+    return response
+        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+        .contentType(contentType(attributes))
+        .contentLength(bytes)
+        .body(out -> fileService.download(container, target, start, bytes, attributes.getEtag(), out));
+  }
+
+  /**
+   * Downloads several files of a container as a single ZIP archive, streamed while it is built.
+   *
+   * @param container the container
+   * @param name the filename suggested to the client for the archive
+   * @param targets the files to include
+   */
+  @PostMapping(value = "/bundle", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> bundle(@RequestParam("container") Container container,
+      @RequestParam(value = "name", defaultValue = "bundle.zip") String name, @RequestBody List<String> targets) {
+    ZipBundle bundle = bundleService.prepare(container, targets);
+    return ResponseEntity.ok()
+        .contentType(APPLICATION_ZIP)
+        .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.builder("attachment").filename(name).build().toString())
+        .body(bundle::writeTo);
+  }
+
+  /**
+   * Multiple ranges, and ranges conditional on a stale entity tag, are answered with the whole content as RFC 7233 allows.
+   */
+  private static List<HttpRange> rangesToServe(HttpHeaders headers, String etag) {
+    List<HttpRange> ranges;
+    try {
+      ranges = headers.getRange();
+    } catch (IllegalArgumentException e) {
+      return List.of();
+    }
+    String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+    if (ifRange != null && !ifRange.equals(etag)) {
+      return List.of();
+    }
+    return ranges;
+  }
+
+  /**
+   * Whether the client accepts the gzip content coding, which it refuses with a quality of zero.
+   */
+  private static boolean acceptsGzip(HttpHeaders headers) {
+    for (String value : headers.getOrEmpty(HttpHeaders.ACCEPT_ENCODING)) {
+      for (String coding : value.split(",")) {
+        String[] parts = coding.split(";");
+        String name = parts[0].trim();
+        if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+          return Arrays.stream(parts).skip(1).map(String::trim).noneMatch(FileContentController::isZeroQuality);
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isZeroQuality(String parameter) {
+    if (!parameter.toLowerCase(Locale.ROOT).startsWith("q=")) {
+      return false;
+    }
+    try {
+      return Double.parseDouble(parameter.substring(2)) == 0;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * {@code If-None-Match} uses weak comparison, so the weak entity tag sent with decompressed content matches as well
+   */
+  private static boolean matches(List<String> ifNoneMatch, String etag) {
+    String opaque = opaque(etag);
+    return ifNoneMatch.stream().anyMatch(candidate -> candidate.equals("*") || opaque(candidate).equals(opaque));
+  }
+
+  private static String opaque(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  private static String weak(String etag) {
+    return "W/" + opaque(etag);
+  }
+
+  private static String quote(String etag) {
+    if (etag == null || etag.startsWith("\"") || etag.startsWith("W/")) {
+      return etag;
+    }
+    return "\"" + etag + "\"";
+  }
+
+  private static MediaType contentType(BlobAttributes attributes) {
+    try {
+      return attributes.getContentType() == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(attributes.getContentType());
+    } catch (IllegalArgumentException e) {
+      return MediaType.APPLICATION_OCTET_STREAM;
+    }
+  }
+}
@@ -1,32 +1,83 @@
 package uk.gov.defra.reach.file.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import uk.gov.defra.reach.file.Container;
 import uk.gov.defra.reach.file.SerializableChecksum;
 import uk.gov.defra.reach.file.SerializableUri;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.concurrency.UploadAdmission;
+import uk.gov.defra.reach.file.io.SizeLimitedInputStream;
+import uk.gov.defra.reach.file.job.Job;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.model.BatchResult;
+import uk.gov.defra.reach.file.model.ContentDigests;
+import uk.gov.defra.reach.file.model.FileReference;
+import uk.gov.defra.reach.file.service.AsyncUploadService;
+import uk.gov.defra.reach.file.service.BatchFileService;
+import uk.gov.defra.reach.file.service.ContainerListing;
+import uk.gov.defra.reach.file.service.CopyService;
 import uk.gov.defra.reach.file.service.FileService;
 
 @RestController
 @RequestMapping("/file")
 public class FileServiceController {
 
+  private static final String DIGEST = "Digest";
+
+  private static final String NDJSON = "application/x-ndjson";
+
   private final FileService fileService;
 
-  public FileServiceController(FileService fileService) {
+  private final BatchFileService batchFileService;
+
+  private final AsyncUploadService asyncUploadService;
+
+  private final CopyService copyService;
+
+  private final UploadAdmission uploadAdmission;
+
+  private final FileOperationMetrics metrics;
+
+  private final DataSize maxFileSize;
+
+  private final ObjectMapper objectMapper;
+
+  private final int maxListResults;
+
+  public FileServiceController(FileService fileService, BatchFileService batchFileService, AsyncUploadService asyncUploadService,
+      CopyService copyService, UploadAdmission uploadAdmission, FileOperationMetrics metrics,
+      @Value("${spring.servlet.multipart.max-file-size}") DataSize maxFileSize, ObjectMapper objectMapper,
+      @Value("${reach.file.list.maxResults}") int maxListResults) {
     this.fileService = fileService;
+    this.batchFileService = batchFileService;
+    this.asyncUploadService = asyncUploadService;
+    this.copyService = copyService;
+    this.uploadAdmission = uploadAdmission;
+    this.metrics = metrics;
+    this.maxFileSize = maxFileSize;
+    this.objectMapper = objectMapper;
+    this.maxListResults = maxListResults;
   }
 
   /**
@@ -42,7 +93,42 @@ public class FileServiceController {
   }
 
   /**
-   * Allows a client to store a file to a container
+   * Gets the digests of a file's content recorded when it was stored, so clients need not download it to calculate them.
+   *
+   * @param container the container
+   * @param target the target
+   */
+  @GetMapping(value = "/digests", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ContentDigests digests(@RequestParam("container") Container container, @RequestParam("target") String target) {
+    return fileService.getDigests(container, target);
+  }
+
+  /**
+   * Lists the files of a container as newline delimited JSON, streamed as storage is read. The last line holds the number
+   * of files listed and, if there are more than {@code limit}, the {@code continuationToken} to pass to list the rest.
+   *
+   * @param container the container
+   * @param prefix only list files whose names start with this
+   * @param continuationToken continues a previous listing from where it stopped
+   * @param limit the most files to list, by default the most allowed
+   */
+  @GetMapping(value = "/list", produces = NDJSON)
+  public ResponseEntity<StreamingResponseBody> list(@RequestParam("container") Container container,
+      @RequestParam(value = "prefix", required = false) String prefix,
+      @RequestParam(value = "continuationToken", required = false) String continuationToken,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    if (limit != null && (limit < 1 || limit > maxListResults)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Limit must be between 1 and " + maxListResults + "!");
+    }
+    ContainerListing listing = fileService.listing(container, prefix, continuationToken, limit == null ? maxListResults : limit);
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(NDJSON))
+        .body(out -> listing.writeTo(out, objectMapper));
+  }
+
+  /**
+   * Allows a client to store a file to a container. The response carries the MD5 checksum as its body and all digests
+   * calculated during the upload in an RFC 3230 {@code Digest} header.
    *
    * @param file the file
    * @param container the container
@@ -52,8 +138,72 @@ public class FileServiceController {
   public ResponseEntity<SerializableChecksum> store(@RequestParam("file") MultipartFile file, @RequestParam("container") Container container,
       @RequestParam("target") String target)
       throws IOException {
-    String checksum  = fileService.store(file.getInputStream(), container, target);
-    return new ResponseEntity<>(SerializableChecksum.from(checksum), HttpStatus.CREATED);
+    ContentDigests digests;
+    try (Reservation reservation = uploadAdmission.admitFile(container, file.getSize())) {
+      digests = fileService.storeWithDigests(file.getInputStream(), file.getSize(), container, target);
+    }
+    metrics.recordUploaded(container, file.getSize());
+    return created(digests);
+  }
+
+  /**
+   * Allows a client to store a file to a container without waiting for the transfer to storage. The request completes once
+   * the file has been received, the outcome and checksum are then available from the returned job. The file is charged
+   * against its container's upload budget until it has been stored.
+   *
+   * @param file the file
+   * @param container the container
+   * @param target destination filename on Storage Container
+   */
+  @PostMapping(params = "async=true", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+  public ResponseEntity<Job> storeAsync(@RequestParam("file") MultipartFile file, @RequestParam("container") Container container,
+      @RequestParam("target") String target) {
+    Job job = asyncUploadService.submit(file, container, target, uploadAdmission.admitFile(container, file.getSize()));
+    return ResponseEntity.accepted().location(URI.create("/file/jobs/" + job.getId())).body(job);
+  }
+
+  /**
+   * Allows a client to stream a file to a container as a raw request body. Unlike the multipart variant the content is not
+   * spooled to local disk first, it is piped into storage as it arrives.
+   *
+   * @param request the request whose body is the file content
+   * @param container the container
+   * @param target destination filename on Storage Container
+   */
+  @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  public ResponseEntity<SerializableChecksum> storeStream(HttpServletRequest request, @RequestParam("container") Container container,
+      @RequestParam("target") String target)
+      throws IOException {
+    long maxBytes = maxFileSize.toBytes();
+    if (request.getContentLengthLong() > maxBytes) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Upload exceeds the maximum permitted size of " + maxBytes + " bytes");
+    }
+    SizeLimitedInputStream content = new SizeLimitedInputStream(request.getInputStream(), maxBytes);
+    long declared = request.getContentLengthLong();
+    ContentDigests digests;
+    try (Reservation reservation = uploadAdmission.admitFile(container, declared < 0 ? maxBytes : declared)) {
+      digests = fileService.storeWithDigests(content, declared, container, target);
+    }
+    metrics.recordUploaded(container, content.getBytesRead());
+    return created(digests);
+  }
+
+  /**
+   * Allows a client to copy, or move, a file between containers without downloading and uploading it again. The copy is
+   * made by storage, its outcome and checksum are available from the returned job.
+   *
+   * @param sourceContainer the container containing the file to copy
+   * @param source the file to copy
+   * @param container the container to copy the file to
+   * @param target destination filename on Storage Container
+   * @param deleteSource whether to delete the source once copied, moving the file
+   */
+  @PostMapping(value = "/copy", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<Job> copy(@RequestParam("sourceContainer") Container sourceContainer, @RequestParam("source") String source,
+      @RequestParam("container") Container container, @RequestParam("target") String target,
+      @RequestParam(value = "deleteSource", defaultValue = "false") boolean deleteSource) {
+    Job job = copyService.copy(sourceContainer, source, container, target, deleteSource);
+    return ResponseEntity.accepted().location(URI.create("/file/jobs/" + job.getId())).body(job);
   }
 
   @DeleteMapping("/{container}/{fileName}")
@@ -72,4 +222,41 @@ public class FileServiceController {
     fileService.checkFileExists(container, target);
   }
 
+  /**
+   * Retrieves SAS URIs for many files at once. Failures are reported per file rather than failing the request.
+   *
+   * @param files the files to retrieve
+   */
+  @PostMapping(value = "/batch/get", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+  public List<BatchResult> getAll(@RequestBody List<FileReference> files) {
+    return batchFileService.get(files);
+  }
+
+  /**
+   * Checks whether many files exist at once, a missing file is reported with a 404 status.
+   *
+   * @param files the files to check
+   */
+  @PostMapping(value = "/batch/exists", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+  public List<BatchResult> existsAll(@RequestBody List<FileReference> files) {
+    return batchFileService.exists(files);
+  }
+
+  /**
+   * Deletes many files at once. Failures are reported per file rather than failing the request.
+   *
+   * @param files the files to delete
+   */
+  @PostMapping(value = "/batch/delete", produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
+  public List<BatchResult> deleteAll(@RequestBody List<FileReference> files) {
+    return batchFileService.delete(files);
+  }
+
+  private static ResponseEntity<SerializableChecksum> created(ContentDigests digests) {
+    ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.CREATED);
+    if (digests.getSha256() != null) {
+      response.header(DIGEST, digests.toDigestHeader());
+    }
+    return response.body(SerializableChecksum.from(FileService.toHex(digests.getMd5())));
+  }
 }
@@ -0,0 +1,53 @@
+package uk.gov.defra.reach.file.controller;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.job.Job;
+import uk.gov.defra.reach.file.job.JobRegistry;
+
+@RestController
+@RequestMapping("/file/jobs")
+public class JobController {
+
+  private static final Duration MAX_WAIT = Duration.ofMinutes(1);
+
+  private final JobRegistry jobRegistry;
+
+  public JobController(JobRegistry jobRegistry) {
+    this.jobRegistry = jobRegistry;
+  }
+
+  /**
+   * Reports the progress of a background job. A client may ask to be answered as soon as the job finishes, holding no
+   * server thread while it waits, rather than polling repeatedly. Any replica can answer for any job.
+   *
+   * @param id the job
+   * @param waitSeconds how long to wait for an unfinished job to finish before answering, at most one minute
+   */
+  @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public DeferredResult<Job> get(@PathVariable("id") String id, @RequestParam(value = "waitSeconds", defaultValue = "0") long waitSeconds) {
+    if (waitSeconds < 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "waitSeconds must not be negative!");
+    }
+    Job job = jobRegistry.get(id);
+    long timeout = Math.min(Duration.ofSeconds(waitSeconds).toMillis(), MAX_WAIT.toMillis());
+    DeferredResult<Job> result = new DeferredResult<>(timeout, job);
+    if (timeout == 0 || job.getState().isFinished()) {
+      result.setResult(job);
+    } else {
+      CompletableFuture<Job> completion = jobRegistry.completion(job);
+      completion.thenAccept(result::setResult);
+      result.onCompletion(() -> completion.cancel(false));
+    }
+    return result;
+  }
+}
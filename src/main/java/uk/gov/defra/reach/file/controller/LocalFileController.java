@@ -0,0 +1,80 @@
+package uk.gov.defra.reach.file.controller;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Map;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+import uk.gov.defra.reach.file.storage.LocalFileStorage;
+import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Serves the signed URLs which {@link LocalFileStorage} issues in place of SAS URIs
+ */
+@RestController
+@RequestMapping("/file/local")
+public class LocalFileController {
+
+  private final Map<Container, Storage> containers;
+
+  public LocalFileController(Map<Container, Storage> containers) {
+    this.containers = containers;
+  }
+
+  /**
+   * Downloads a file from a container using the local storage backend.
+   *
+   * @param container the container
+   * @param fileName the filename of the file
+   * @param expires epoch second after which the URL is no longer valid
+   * @param signature signature issued with the URL
+   */
+  @GetMapping("/{container}/{fileName}")
+  public ResponseEntity<StreamingResponseBody> download(@PathVariable("container") Container container, @PathVariable("fileName") String fileName,
+      @RequestParam("expires") long expires, @RequestParam("signature") String signature) throws IOException {
+    Storage storage = containers.get(container);
+    if (!(storage instanceof LocalFileStorage)) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Container " + container + " does not use local storage!");
+    }
+    LocalFileStorage localStorage = (LocalFileStorage) storage;
+    if (!localStorage.isValidSignature(fileName, expires, signature)) {
+      throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Invalid or expired signature!");
+    }
+
+    StorageFilename filename;
+    try {
+      filename = StorageFilename.from(fileName);
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    }
+    BlobAttributes attributes;
+    try {
+      attributes = localStorage.getAttributes(filename);
+    } catch (FileNotFoundException e) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File \"" + fileName + "\" does not exist on " + container + " container!", e);
+    }
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (attributes.getContentEncoding() != null) {
+      // As storage serves SAS downloads, so clients decode the content transparently
+      response.header(HttpHeaders.CONTENT_ENCODING, attributes.getContentEncoding());
+    }
+    return response
+        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+        .contentLength(attributes.getLength())
+        .eTag(attributes.getEtag())
+        .body(out -> localStorage.transferTo(filename, 0, attributes.getLength(), out));
+  }
+}
@@ -0,0 +1,62 @@
+package uk.gov.defra.reach.file.controller;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.concurrency.UploadAdmission;
+import uk.gov.defra.reach.file.concurrency.UploadRejectedException;
+
+/**
+ * Admits uploads to {@code POST /file}, including those with {@code async=true}, and chunks of resumable uploads to
+ * {@code PUT /file/uploads/{id}/chunks/{index}} against the service's upload budget before their content is read.
+ * Multipart uploads are spooled to disk before any controller sees them, so this has to happen in a filter to protect the
+ * spool disk and heap. Uploads without a declared length are charged the maximum request size.
+ */
+@Component
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+  private static final Pattern CHUNK_PATH = Pattern.compile("/file/uploads/[^/]+/chunks/[^/]+");
+
+  private final UploadAdmission uploadAdmission;
+
+  private final long maxRequestSize;
+
+  public UploadAdmissionFilter(UploadAdmission uploadAdmission, @Value("${spring.servlet.multipart.max-request-size}") DataSize maxRequestSize) {
+    this.uploadAdmission = uploadAdmission;
+    this.maxRequestSize = maxRequestSize.toBytes();
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    if (HttpMethod.POST.matches(request.getMethod())) {
+      return !"/file".equals(request.getServletPath());
+    }
+    return !HttpMethod.PUT.matches(request.getMethod()) || !CHUNK_PATH.matcher(request.getServletPath()).matches();
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    long declared = request.getContentLengthLong();
+    Reservation reservation;
+    try {
+      reservation = uploadAdmission.admit(declared < 0 ? maxRequestSize : Math.min(declared, maxRequestSize));
+    } catch (UploadRejectedException e) {
+      e.getResponseHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+      response.sendError(e.getStatus().value(), e.getReason());
+      return;
+    }
+    try (reservation) {
+      filterChain.doFilter(request, response);
+    }
+  }
+}
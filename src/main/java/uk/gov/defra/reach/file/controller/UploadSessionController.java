@@ -0,0 +1,104 @@
+package uk.gov.defra.reach.file.controller;
+
+import java.io.IOException;
+import java.net.URI;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.SerializableChecksum;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.concurrency.UploadAdmission;
+import uk.gov.defra.reach.file.io.SizeLimitedInputStream;
+import uk.gov.defra.reach.file.model.UploadSession;
+import uk.gov.defra.reach.file.service.UploadSessionService;
+
+/**
+ * Resumable uploads. A client creates a session, sends the file as numbered chunks in any order, asks which chunks have
+ * arrived to resume after a failure, and then completes the session to store the file.
+ */
+@RestController
+@RequestMapping("/file/uploads")
+public class UploadSessionController {
+
+  private final UploadSessionService uploadSessionService;
+
+  private final UploadAdmission uploadAdmission;
+
+  public UploadSessionController(UploadSessionService uploadSessionService, UploadAdmission uploadAdmission) {
+    this.uploadSessionService = uploadSessionService;
+    this.uploadAdmission = uploadAdmission;
+  }
+
+  /**
+   * Starts a resumable upload
+   *
+   * @param container the container
+   * @param target destination filename on Storage Container
+   */
+  @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<UploadSession> create(@RequestParam("container") Container container, @RequestParam("target") String target) {
+    UploadSession session = uploadSessionService.create(container, target);
+    return ResponseEntity.created(URI.create("/file/uploads/" + session.getId())).body(session);
+  }
+
+  /**
+   * Reports which chunks of an upload have been received
+   *
+   * @param id the upload session
+   */
+  @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public UploadSession get(@PathVariable("id") String id) {
+    return uploadSessionService.get(id);
+  }
+
+  /**
+   * Receives one chunk of an upload as the raw request body, whose length must be given. The chunk is charged against its
+   * container's upload budget while it is staged.
+   *
+   * @param id the upload session
+   * @param index zero based position of the chunk within the file
+   */
+  @PutMapping(value = "/{id}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void putChunk(HttpServletRequest request, @PathVariable("id") String id, @PathVariable("index") int index) throws IOException {
+    long length = request.getContentLengthLong();
+    Container container = uploadSessionService.get(id).getContainer();
+    try (Reservation reservation = uploadAdmission.admit(container, Math.max(length, 0))) {
+      uploadSessionService.putChunk(id, index, new SizeLimitedInputStream(request.getInputStream(), Math.max(length, 0)), length);
+    }
+  }
+
+  /**
+   * Stores the chunks received as the target file
+   *
+   * @param id the upload session
+   * @param chunks the number of chunks sent, checked against those received if given
+   */
+  @PostMapping(value = "/{id}/complete", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<SerializableChecksum> complete(@PathVariable("id") String id, @RequestParam(value = "chunks", required = false) Integer chunks) {
+    String checksum = uploadSessionService.complete(id, chunks);
+    return new ResponseEntity<>(SerializableChecksum.from(checksum), HttpStatus.CREATED);
+  }
+
+  /**
+   * Abandons an upload
+   *
+   * @param id the upload session
+   */
+  @DeleteMapping("/{id}")
+  @ResponseStatus(HttpStatus.NO_CONTENT)
+  public void abort(@PathVariable("id") String id) {
+    uploadSessionService.abort(id);
+  }
+}
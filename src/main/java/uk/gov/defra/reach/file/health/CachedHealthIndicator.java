@@ -0,0 +1,144 @@
+package uk.gov.defra.reach.file.health;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+
+/**
+ * Serves the last result of another health indicator, which is probed on a background schedule with jitter instead of
+ * on every request, so however often health is checked the probe only ever runs once at a time. A probe which succeeds
+ * slower than the latency threshold is reported as {@link #DEGRADED}, and a result older than the stale threshold, such
+ * as when a probe is hung, is reported as down.
+ */
+@Slf4j
+public class CachedHealthIndicator implements HealthIndicator {
+
+  public static final Status DEGRADED = new Status("DEGRADED", "Responding slower than expected");
+
+  private final String name;
+
+  private final HealthIndicator probe;
+
+  private final ScheduledExecutorService executor;
+
+  private final Duration interval;
+
+  private final Duration jitter;
+
+  private final Duration degradedLatency;
+
+  private final Duration staleAfter;
+
+  private final Clock clock;
+
+  private final MeterRegistry registry;
+
+  private volatile Result last;
+
+  public CachedHealthIndicator(String name, HealthIndicator probe, ScheduledExecutorService executor, Duration interval, Duration jitter,
+      Duration degradedLatency, Duration staleAfter, Clock clock, MeterRegistry registry) {
+    this.name = name;
+    this.probe = probe;
+    this.executor = executor;
+    this.interval = interval;
+    this.jitter = jitter;
+    this.degradedLatency = degradedLatency;
+    this.staleAfter = staleAfter;
+    this.clock = clock;
+    this.registry = registry;
+  }
+
+  /**
+   * Schedules the first probe, within the jitter of now so probes of several indicators are spread out
+   */
+  public void start() {
+    schedule(Duration.ZERO);
+  }
+
+  @Override
+  public Health health() {
+    Result result = last;
+    if (result == null) {
+      return Health.unknown().withDetail("reason", "Not checked yet").build();
+    }
+    Duration age = Duration.between(result.checkedAt, clock.instant());
+    boolean stale = age.compareTo(staleAfter) > 0;
+    Health.Builder health = Health.status(stale ? Status.DOWN : result.status)
+        .withDetails(result.health.getDetails())
+        .withDetail("checkedAt", result.checkedAt.toString())
+        .withDetail("ageMs", age.toMillis())
+        .withDetail("latencyMs", result.latency.toMillis());
+    if (stale) {
+      health.withDetail("reason", "Not checked for " + age.toSeconds() + " seconds");
+    }
+    return health.build();
+  }
+
+  /**
+   * Probes the underlying indicator and records the result
+   */
+  void refresh() {
+    long start = System.nanoTime();
+    Health health;
+    try {
+      health = probe.health();
+    } catch (RuntimeException e) {
+      health = Health.down(e).build();
+    }
+    Duration latency = Duration.ofNanos(System.nanoTime() - start);
+    Status status = Status.UP.equals(health.getStatus()) && latency.compareTo(degradedLatency) > 0 ? DEGRADED : health.getStatus();
+    if (!Status.UP.equals(status)) {
+      log.warn("Health check of {} is {} after {} ms", name, status, latency.toMillis());
+    }
+    Timer.builder("reach.file.health.probe")
+        .tag("indicator", name)
+        .tag("status", status.getCode())
+        .description("Time taken by background health probes")
+        .register(registry)
+        .record(latency);
+    last = new Result(health, status, clock.instant(), latency);
+  }
+
+  private void run() {
+    try {
+      refresh();
+    } finally {
+      schedule(interval);
+    }
+  }
+
+  private void schedule(Duration delay) {
+    if (executor.isShutdown()) {
+      return;
+    }
+    long jitterMillis = jitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+    executor.schedule(this::run, delay.toMillis() + jitterMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static class Result {
+
+    private final Health health;
+
+    private final Status status;
+
+    private final Instant checkedAt;
+
+    private final Duration latency;
+
+    private Result(Health health, Status status, Instant checkedAt, Duration latency) {
+      this.health = health;
+      this.status = status;
+      this.checkedAt = checkedAt;
+      this.latency = latency;
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package uk.gov.defra.reach.file.health;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import uk.gov.defra.reach.file.storage.LazyStorage;
+
+/**
+ * Probes a container's storage only once its initialisation has started, so health checks do not initialise a container
+ * configured to be initialised on first use. Until then it is reported as unknown.
+ */
+public class LazyStorageHealthIndicator implements HealthIndicator {
+
+  private final LazyStorage storage;
+
+  private final HealthIndicator probe;
+
+  public LazyStorageHealthIndicator(LazyStorage storage, HealthIndicator probe) {
+    this.storage = storage;
+    this.probe = probe;
+  }
+
+  @Override
+  public Health health() {
+    if (!storage.isStarted()) {
+      return Health.unknown().withDetail("reason", "Not initialised until first used").build();
+    }
+    return probe.health();
+  }
+}
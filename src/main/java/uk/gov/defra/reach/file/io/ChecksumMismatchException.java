@@ -0,0 +1,16 @@
+package uk.gov.defra.reach.file.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when storage refuses content as it does not match the MD5 sent with it, the content having been corrupted on its
+ * way to storage.
+ */
+public class ChecksumMismatchException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public ChecksumMismatchException(String filename, Throwable cause) {
+    super("Storage refused content of " + filename + " as it does not match the MD5 sent with it", cause);
+  }
+}
@@ -0,0 +1,59 @@
+package uk.gov.defra.reach.file.io;
+
+import java.util.List;
+
+/**
+ * Recognises content which is already compressed from its leading magic bytes, so it is not compressed again.
+ */
+public final class CompressionFormats {
+
+  /**
+   * Number of leading bytes needed to recognise any of the formats
+   */
+  public static final int MAGIC_LENGTH = 6;
+
+  private static final List<byte[]> MAGIC = List.of(
+      bytes(0x1f, 0x8b), // gzip
+      bytes(0x50, 0x4b, 0x03, 0x04), // zip, including IUCLID i6z and office documents
+      bytes(0x50, 0x4b, 0x05, 0x06), // empty zip
+      bytes(0x50, 0x4b, 0x07, 0x08), // spanned zip
+      bytes(0x28, 0xb5, 0x2f, 0xfd), // zstd
+      bytes(0x42, 0x5a, 0x68), // bzip2
+      bytes(0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00), // xz
+      bytes(0x37, 0x7a, 0xbc, 0xaf, 0x27, 0x1c), // 7z
+      bytes(0x52, 0x61, 0x72, 0x21, 0x1a, 0x07), // rar
+      bytes(0x89, 0x50, 0x4e, 0x47), // png
+      bytes(0xff, 0xd8, 0xff) // jpeg
+  );
+
+  private CompressionFormats() {
+  }
+
+  /**
+   * @param head the leading bytes of some content, at least {@link #MAGIC_LENGTH} of them unless the content is shorter
+   * @return whether the content is in a compressed format
+   */
+  public static boolean isCompressed(byte[] head) {
+    return MAGIC.stream().anyMatch(magic -> startsWith(head, magic));
+  }
+
+  private static boolean startsWith(byte[] head, byte[] magic) {
+    if (head.length < magic.length) {
+      return false;
+    }
+    for (int i = 0; i < magic.length; i++) {
+      if (head[i] != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
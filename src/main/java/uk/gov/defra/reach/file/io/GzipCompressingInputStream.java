@@ -0,0 +1,152 @@
+package uk.gov.defra.reach.file.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reads an underlying stream as gzip compressed content, so compressed content can be passed to APIs which take an
+ * {@link InputStream} without buffering it or using a second thread. The time spent deflating is recorded apart from the
+ * time spent waiting on the underlying stream, as the CPU cost of compression.
+ */
+public class GzipCompressingInputStream extends InputStream {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Magic bytes, deflate method, no flags, no modification time, no extra flags and an unknown OS, as RFC 1952
+   */
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final InputStream in;
+
+  private final Deflater deflater;
+
+  private final CRC32 crc = new CRC32();
+
+  private final byte[] input = new byte[BUFFER_SIZE];
+
+  private final byte[] output = new byte[BUFFER_SIZE];
+
+  private int outputPosition;
+
+  private int outputLimit;
+
+  private boolean inputFinished;
+
+  private boolean trailerWritten;
+
+  private long bytesRead;
+
+  private long bytesWritten;
+
+  private long compressionNanos;
+
+  /**
+   * @param level deflate level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+   */
+  public GzipCompressingInputStream(InputStream in, int level) {
+    this.in = in;
+    this.deflater = new Deflater(level, true);
+    System.arraycopy(HEADER, 0, output, 0, HEADER.length);
+    this.outputLimit = HEADER.length;
+  }
+
+  /**
+   * @return the number of uncompressed bytes read from the underlying stream so far
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * @return the number of compressed bytes read from this stream so far
+   */
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * @return the time spent deflating so far
+   */
+  public long getCompressionNanos() {
+    return compressionNanos;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    Objects.checkFromIndexSize(off, len, b.length);
+    if (len == 0) {
+      return 0;
+    }
+    while (outputPosition == outputLimit) {
+      if (!fill()) {
+        return -1;
+      }
+    }
+    int n = Math.min(len, outputLimit - outputPosition);
+    System.arraycopy(output, outputPosition, b, off, n);
+    outputPosition += n;
+    bytesWritten += n;
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    deflater.end();
+    in.close();
+  }
+
+  /**
+   * Refills the output buffer, which may be left empty if the deflater is waiting for more input.
+   *
+   * @return false once the trailer has been read
+   */
+  private boolean fill() throws IOException {
+    outputPosition = 0;
+    outputLimit = 0;
+    if (trailerWritten) {
+      return false;
+    }
+    if (deflater.finished()) {
+      writeTrailer();
+      return true;
+    }
+    if (deflater.needsInput() && !inputFinished) {
+      int n = in.read(input);
+      if (n < 0) {
+        inputFinished = true;
+        deflater.finish();
+      } else if (n > 0) {
+        bytesRead += n;
+        crc.update(input, 0, n);
+        deflater.setInput(input, 0, n);
+      }
+    }
+    long start = System.nanoTime();
+    outputLimit = deflater.deflate(output);
+    compressionNanos += System.nanoTime() - start;
+    return true;
+  }
+
+  private void writeTrailer() {
+    writeIntLittleEndian((int) crc.getValue(), 0);
+    writeIntLittleEndian((int) bytesRead, 4);
+    outputLimit = 8;
+    trailerWritten = true;
+  }
+
+  private void writeIntLittleEndian(int value, int offset) {
+    for (int i = 0; i < 4; i++) {
+      output[offset + i] = (byte) (value >>> (8 * i));
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package uk.gov.defra.reach.file.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.zip.CRC32C;
+import uk.gov.defra.reach.file.model.ContentDigests;
+
+/**
+ * Passes bytes through from an underlying stream, calculating MD5, SHA-256 and optionally CRC32C digests of them in the
+ * same pass. Skipped bytes are read and digested, so the digests always cover everything passed through.
+ */
+public class MultiDigestInputStream extends FilterInputStream {
+
+  private final MessageDigest md5 = messageDigest("MD5");
+
+  private final MessageDigest sha256 = messageDigest("SHA-256");
+
+  private final CRC32C crc32c;
+
+  private ContentDigests digests;
+
+  public MultiDigestInputStream(InputStream in, boolean crc32c) {
+    super(in);
+    this.crc32c = crc32c ? new CRC32C() : null;
+  }
+
+  /**
+   * Completes the digests, only once the whole stream has been read.
+   *
+   * @return the digests of all bytes read
+   */
+  public ContentDigests getDigests() {
+    if (digests == null) {
+      Base64.Encoder base64 = Base64.getEncoder();
+      digests = ContentDigests.builder()
+          .md5(base64.encodeToString(md5.digest()))
+          .sha256(base64.encodeToString(sha256.digest()))
+          .crc32c(crc32c == null ? null : base64.encodeToString(ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array()))
+          .build();
+    }
+    return digests;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      md5.update((byte) b);
+      sha256.update((byte) b);
+      if (crc32c != null) {
+        crc32c.update(b);
+      }
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      md5.update(b, off, n);
+      sha256.update(b, off, n);
+      if (crc32c != null) {
+        crc32c.update(b, off, n);
+      }
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    byte[] buffer = new byte[(int) Math.min(n, 8192)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+      if (read < 0) {
+        break;
+      }
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private static MessageDigest messageDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package uk.gov.defra.reach.file.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes bytes through from an underlying stream, failing with an {@link UploadSizeExceededException} as soon as more than
+ * {@code maxBytes} have been read.
+ */
+public class SizeLimitedInputStream extends FilterInputStream {
+
+  private final long maxBytes;
+
+  private long bytesRead;
+
+  public SizeLimitedInputStream(InputStream in, long maxBytes) {
+    super(in);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * @return the number of bytes read so far
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  @Override
+  public int read() throws IOException {
+    int b = super.read();
+    if (b != -1) {
+      count(1);
+    }
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    int n = super.read(b, off, len);
+    if (n > 0) {
+      count(n);
+    }
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    long skipped = super.skip(n);
+    count(skipped);
+    return skipped;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  private void count(long n) throws UploadSizeExceededException {
+    bytesRead += n;
+    if (bytesRead > maxBytes) {
+      throw new UploadSizeExceededException(maxBytes);
+    }
+  }
+}
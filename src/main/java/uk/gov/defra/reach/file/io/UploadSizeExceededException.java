@@ -0,0 +1,15 @@
+package uk.gov.defra.reach.file.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an upload supplies more bytes than the service is configured to accept.
+ */
+public class UploadSizeExceededException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public UploadSizeExceededException(long maxBytes) {
+    super("Upload exceeds the maximum permitted size of " + maxBytes + " bytes");
+  }
+}
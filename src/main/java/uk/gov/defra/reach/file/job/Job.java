@@ -0,0 +1,116 @@
+package uk.gov.defra.reach.file.job;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import lombok.Getter;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * A transfer to storage which carries on after the request starting it has returned. {@code status} and {@code error}
+ * describe a failure the same way the equivalent synchronous request would have.
+ *
+ * <p>Every change of state is passed to a listener, which records it for other instances. A job read back from that
+ * record is a snapshot: it does not change and cannot be started or finished.
+ */
+@Getter
+@JsonInclude(Include.NON_NULL)
+public class Job {
+
+  public enum State {
+    QUEUED, RUNNING, COMPLETED, FAILED;
+
+    public boolean isFinished() {
+      return this == COMPLETED || this == FAILED;
+    }
+  }
+
+  private final String id;
+
+  private final String type;
+
+  private final Container container;
+
+  private final String target;
+
+  private final Instant created;
+
+  private volatile State state = State.QUEUED;
+
+  private volatile Instant finished;
+
+  private volatile String checksum;
+
+  private volatile Integer status;
+
+  private volatile String error;
+
+  @JsonIgnore
+  private final CompletableFuture<Job> completion = new CompletableFuture<>();
+
+  @JsonIgnore
+  private final Clock clock;
+
+  @JsonIgnore
+  private final Consumer<Job> onChange;
+
+  Job(String id, String type, Container container, String target, Clock clock, Consumer<Job> onChange) {
+    this(id, type, container, target, clock.instant(), clock, onChange);
+  }
+
+  Job(String id, String type, Container container, String target, Instant created, Clock clock, Consumer<Job> onChange) {
+    this.id = id;
+    this.type = type;
+    this.container = container;
+    this.target = target;
+    this.created = created;
+    this.clock = clock;
+    this.onChange = onChange;
+  }
+
+  @JsonCreator
+  Job(@JsonProperty("id") String id, @JsonProperty("type") String type, @JsonProperty("container") Container container,
+      @JsonProperty("target") String target, @JsonProperty("created") Instant created, @JsonProperty("state") State state,
+      @JsonProperty("finished") Instant finished, @JsonProperty("checksum") String checksum, @JsonProperty("status") Integer status,
+      @JsonProperty("error") String error) {
+    this(id, type, container, target, created, null, job -> {
+    });
+    this.state = state;
+    this.finished = finished;
+    this.checksum = checksum;
+    this.status = status;
+    this.error = error;
+    if (state.isFinished()) {
+      completion.complete(this);
+    }
+  }
+
+  public void start() {
+    state = State.RUNNING;
+    onChange.accept(this);
+  }
+
+  public void complete(String checksum) {
+    this.checksum = checksum;
+    finish(State.COMPLETED);
+  }
+
+  public void fail(int status, String error) {
+    this.status = status;
+    this.error = error;
+    finish(State.FAILED);
+  }
+
+  private void finish(State state) {
+    this.finished = clock.instant();
+    this.state = state;
+    onChange.accept(this);
+    completion.complete(this);
+  }
+}
@@ -0,0 +1,199 @@
+package uk.gov.defra.reach.file.job;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.StatusBlobs;
+
+/**
+ * Tracks background jobs so clients can poll for their outcome. Jobs are held in memory by the instance running them and
+ * forgotten a retention period after they finish.
+ *
+ * <p>Each change of state is also recorded in a {@link StatusBlobs status blob}, so a poll answered by any replica finds
+ * the job. Where status blobs are not kept, or one cannot be written, only the instance running a job can report it.
+ */
+@Slf4j
+@Component
+public class JobRegistry {
+
+  static final String STATUS_BLOB_PREFIX = "reach-file-job-";
+
+  private static final Pattern JOB_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+  private static final Duration POLL_INTERVAL = Duration.ofSeconds(1);
+
+  private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+  private final StatusBlobs statusBlobs;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final Duration retention;
+
+  private final Clock clock;
+
+  @Autowired
+  public JobRegistry(StatusBlobs statusBlobs, @Value("${reach.file.jobs.retention}") Duration retention) {
+    this(statusBlobs, newScheduler(), retention, Clock.systemUTC());
+  }
+
+  /**
+   * Creates a registry which holds jobs in memory alone, so only this instance can report them.
+   */
+  public JobRegistry(Duration retention) {
+    this(retention, Clock.systemUTC());
+  }
+
+  public JobRegistry(Duration retention, Clock clock) {
+    this(StatusBlobs.none(), newScheduler(), retention, clock);
+  }
+
+  public JobRegistry(StatusBlobs statusBlobs, ScheduledExecutorService scheduler, Duration retention, Clock clock) {
+    this.statusBlobs = statusBlobs;
+    this.scheduler = scheduler;
+    this.retention = retention;
+    this.clock = clock;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  public Job create(String type, Container container, String target) {
+    purgeExpired();
+    Job job = new Job(UUID.randomUUID().toString(), type, container, target, clock, this::save);
+    jobs.put(job.getId(), job);
+    save(job);
+    return job;
+  }
+
+  /**
+   * Takes over a job recorded by an instance which stopped before finishing it, so this instance can run it again.
+   *
+   * @param recorded the job as last recorded
+   * @return a queued job with the same identity, which this instance now reports
+   */
+  public Job resume(Job recorded) {
+    Job job = new Job(recorded.getId(), recorded.getType(), recorded.getContainer(), recorded.getTarget(), recorded.getCreated(), clock,
+        this::save);
+    jobs.put(job.getId(), job);
+    save(job);
+    return job;
+  }
+
+  public Job get(String id) {
+    return find(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Job " + id + " does not exist!"));
+  }
+
+  /**
+   * Finds a job run by this instance, or the last recorded state of a job run by another.
+   */
+  public Optional<Job> find(String id) {
+    Job job = jobs.get(id);
+    return job != null ? Optional.of(job) : Optional.ofNullable(read(id));
+  }
+
+  /**
+   * Completes with the finished job, whichever instance runs it. A job run by another instance is polled from its status
+   * blob until it finishes or the returned future is cancelled; cancelling never affects the job itself.
+   */
+  public CompletableFuture<Job> completion(Job job) {
+    if (job.getState().isFinished() || jobs.get(job.getId()) == job) {
+      return job.getCompletion().copy();
+    }
+    CompletableFuture<Job> completion = new CompletableFuture<>();
+    schedulePoll(job.getId(), completion);
+    return completion;
+  }
+
+  public void remove(String id) {
+    jobs.remove(id);
+    delete(id);
+  }
+
+  private void schedulePoll(String id, CompletableFuture<Job> completion) {
+    scheduler.schedule(() -> poll(id, completion), POLL_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  private void poll(String id, CompletableFuture<Job> completion) {
+    if (completion.isDone()) {
+      return;
+    }
+    Job job = find(id).orElse(null);
+    if (job != null && job.getState().isFinished()) {
+      completion.complete(job);
+    } else {
+      schedulePoll(id, completion);
+    }
+  }
+
+  private void purgeExpired() {
+    Instant cutoff = clock.instant().minus(retention);
+    for (Iterator<Job> iterator = jobs.values().iterator(); iterator.hasNext(); ) {
+      Job job = iterator.next();
+      if (job.getState().isFinished() && job.getFinished().isBefore(cutoff)) {
+        iterator.remove();
+        if (statusBlobs.isEnabled()) {
+          scheduler.execute(() -> delete(job.getId()));
+        }
+      }
+    }
+  }
+
+  private void save(Job job) {
+    try {
+      statusBlobs.write(statusBlob(job.getId()), job);
+    } catch (IOException e) {
+      log.warn("Unable to record job {} as {}, only this instance can report it", job.getId(), job.getState(), e);
+    }
+  }
+
+  private Job read(String id) {
+    if (!JOB_ID.matcher(id).matches()) {
+      return null;
+    }
+    try {
+      return statusBlobs.read(statusBlob(id), Job.class);
+    } catch (IOException e) {
+      log.warn("Unable to read the state of job {}", id, e);
+      return null;
+    }
+  }
+
+  private void delete(String id) {
+    try {
+      statusBlobs.delete(statusBlob(id));
+    } catch (IOException e) {
+      log.warn("Unable to delete the record of job {}, the sweeper will remove it", id, e);
+    }
+  }
+
+  static String statusBlob(String id) {
+    return STATUS_BLOB_PREFIX + id + ".json";
+  }
+
+  private static ScheduledExecutorService newScheduler() {
+    return Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("job-registry").setDaemon(true).build());
+  }
+}
@@ -0,0 +1,202 @@
+package uk.gov.defra.reach.file.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Records the latency, concurrency and failures of each storage operation per container, along with the volume of content
+ * uploaded and how well it compressed. Latencies are published as percentile histograms so tail latency can be compared
+ * across containers.
+ */
+@Component
+public class FileOperationMetrics {
+
+  static final String OPERATION_TIMER = "reach.file.storage.operation";
+
+  static final String ACTIVE_GAUGE = "reach.file.storage.operation.active";
+
+  static final String ERROR_COUNTER = "reach.file.storage.operation.errors";
+
+  static final String UPLOADED_COUNTER = "reach.file.storage.uploaded";
+
+  static final String COMPRESSION_RATIO = "reach.file.compression.ratio";
+
+  static final String COMPRESSION_BYTES = "reach.file.compression.bytes";
+
+  static final String COMPRESSION_CPU = "reach.file.compression.cpu";
+
+  static final String COMPRESSION_SKIPPED = "reach.file.compression.skipped";
+
+  static final String COALESCED_COUNTER = "reach.file.storage.coalesced";
+
+  public enum Operation {
+    STORE, GET, EXISTS, ATTRIBUTES, LIST, DELETE, STAGE, COMMIT, COPY;
+
+    private final String tag = name().toLowerCase(Locale.ROOT);
+  }
+
+  private final MeterRegistry registry;
+
+  private final Map<Tags, Meters> meters = new ConcurrentHashMap<>();
+
+  public FileOperationMetrics(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  /**
+   * Times {@code call} as {@code operation} on {@code container}. A failure is counted against the HTTP status it is mapped
+   * to, anything other than a {@link ResponseStatusException} being an internal server error. A file which does not exist
+   * is an answer rather than a failure, so is timed with a {@code not_found} outcome and not counted as an error.
+   */
+  public <T> T record(Operation operation, Container container, Supplier<T> call) {
+    Meters operationMeters = meters.computeIfAbsent(tags(operation, container), Meters::new);
+    operationMeters.active.incrementAndGet();
+    long start = registry.config().clock().monotonicTime();
+    Timer outcome = operationMeters.failure;
+    try {
+      T result = call.get();
+      outcome = operationMeters.success;
+      return result;
+    } catch (ResponseStatusException e) {
+      if (e.getStatus() == HttpStatus.NOT_FOUND) {
+        outcome = operationMeters.notFound;
+      } else {
+        operationMeters.error(e.getStatus().value());
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      operationMeters.error(500);
+      throw e;
+    } finally {
+      outcome.record(registry.config().clock().monotonicTime() - start, TimeUnit.NANOSECONDS);
+      operationMeters.active.decrementAndGet();
+    }
+  }
+
+  public void record(Operation operation, Container container, Runnable call) {
+    record(operation, container, () -> {
+      call.run();
+      return null;
+    });
+  }
+
+  /**
+   * Counts the content of a successful upload to {@code container}
+   */
+  public void recordUploaded(Container container, long bytes) {
+    Counter.builder(UPLOADED_COUNTER)
+        .baseUnit("bytes")
+        .description("Content successfully stored")
+        .tag("container", containerTag(container))
+        .register(registry)
+        .increment(bytes);
+  }
+
+  /**
+   * Records the outcome of compressing content stored on {@code container}
+   *
+   * @param originalBytes size of the content as uploaded
+   * @param storedBytes size of the content as stored
+   * @param compressionNanos time spent compressing, excluding time spent waiting for the content
+   */
+  public void recordCompression(Container container, long originalBytes, long storedBytes, long compressionNanos) {
+    String containerTag = containerTag(container);
+    if (storedBytes > 0) {
+      DistributionSummary.builder(COMPRESSION_RATIO)
+          .description("Size of content as uploaded over its size as stored")
+          .tag("container", containerTag)
+          .register(registry)
+          .record((double) originalBytes / storedBytes);
+    }
+    compressionBytes(containerTag, "original").increment(originalBytes);
+    compressionBytes(containerTag, "stored").increment(storedBytes);
+    Timer.builder(COMPRESSION_CPU)
+        .description("Time spent compressing content")
+        .tag("container", containerTag)
+        .register(registry)
+        .record(compressionNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Counts content stored on {@code container} without compression, despite it being enabled
+   *
+   * @param reason why the content was not compressed
+   */
+  public void recordCompressionSkipped(Container container, String reason) {
+    registry.counter(COMPRESSION_SKIPPED, "container", containerTag(container), "reason", reason).increment();
+  }
+
+  /**
+   * Counts a call of {@code operation} on {@code container} which shared the result of an identical call in flight, rather
+   * than calling storage itself
+   */
+  public void recordCoalesced(Operation operation, Container container) {
+    Counter.builder(COALESCED_COUNTER)
+        .description("Storage calls saved by sharing the result of an identical call in flight")
+        .tags(tags(operation, container))
+        .register(registry)
+        .increment();
+  }
+
+  private Counter compressionBytes(String containerTag, String stage) {
+    return Counter.builder(COMPRESSION_BYTES)
+        .baseUnit("bytes")
+        .description("Content passed through compression")
+        .tags("container", containerTag, "stage", stage)
+        .register(registry);
+  }
+
+  private static Tags tags(Operation operation, Container container) {
+    return Tags.of("operation", operation.tag, "container", containerTag(container));
+  }
+
+  private static String containerTag(Container container) {
+    return container == null ? "none" : container.name();
+  }
+
+  private final class Meters {
+
+    private final Tags tags;
+
+    private final Timer success;
+
+    private final Timer failure;
+
+    private final Timer notFound;
+
+    private final AtomicInteger active;
+
+    private Meters(Tags tags) {
+      this.tags = tags;
+      this.success = timer(tags.and("outcome", "success"));
+      this.failure = timer(tags.and("outcome", "error"));
+      this.notFound = timer(tags.and("outcome", "not_found"));
+      this.active = registry.gauge(ACTIVE_GAUGE, tags, new AtomicInteger());
+    }
+
+    private Timer timer(Tags tags) {
+      return Timer.builder(OPERATION_TIMER)
+          .description("Time taken by storage operations")
+          .tags(tags)
+          .publishPercentileHistogram()
+          .register(registry);
+    }
+
+    private void error(int status) {
+      registry.counter(ERROR_COUNTER, tags.and("status", Integer.toString(status))).increment();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package uk.gov.defra.reach.file.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.web.multipart.MultipartException;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+
+/**
+ * Times the parsing of multipart requests. Parts are read eagerly, so this is the time spent receiving an upload and
+ * spooling it to local disk before any controller sees it.
+ */
+public class TimedMultipartResolver extends StandardServletMultipartResolver {
+
+  static final String SPOOL_TIMER = "reach.file.multipart.spool";
+
+  private final MeterRegistry registry;
+
+  public TimedMultipartResolver(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public MultipartHttpServletRequest resolveMultipart(HttpServletRequest request) throws MultipartException {
+    Timer.Sample sample = Timer.start(registry);
+    String outcome = "error";
+    try {
+      MultipartHttpServletRequest multipartRequest = super.resolveMultipart(request);
+      outcome = "success";
+      return multipartRequest;
+    } finally {
+      sample.stop(Timer.builder(SPOOL_TIMER)
+          .description("Time taken to receive and spool multipart uploads")
+          .tag("outcome", outcome)
+          .publishPercentileHistogram()
+          .register(registry));
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package uk.gov.defra.reach.file.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Outcome of one item of a batch request. {@code status} is the HTTP status the equivalent single request would have
+ * returned, with {@code error} describing any failure.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(Include.NON_NULL)
+public class BatchResult {
+
+  private Container container;
+
+  private String target;
+
+  private int status;
+
+  private String uri;
+
+  private String error;
+
+}
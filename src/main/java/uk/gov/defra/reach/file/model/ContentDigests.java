@@ -0,0 +1,71 @@
+package uk.gov.defra.reach.file.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import lombok.Builder;
+import lombok.Value;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+
+/**
+ * Digests of a file's content as it was uploaded, each Base64 encoded. The CRC32C is of its big-endian bytes, as object
+ * stores report it. Digests other than the MD5 are only known for files stored since they were first recorded.
+ */
+@Value
+@Builder
+@JsonInclude(Include.NON_NULL)
+public class ContentDigests {
+
+  static final String MD5 = "md5";
+
+  static final String SHA256 = "sha256";
+
+  static final String CRC32C = "crc32c";
+
+  String md5;
+
+  String sha256;
+
+  String crc32c;
+
+  /**
+   * @return the digests recorded against a file, falling back to the MD5 storage holds for its stored content
+   */
+  public static ContentDigests from(BlobAttributes attributes) {
+    Map<String, String> metadata = attributes.getMetadata() == null ? Map.of() : attributes.getMetadata();
+    return ContentDigests.builder()
+        .md5(metadata.getOrDefault(MD5, attributes.getContentMd5()))
+        .sha256(metadata.get(SHA256))
+        .crc32c(metadata.get(CRC32C))
+        .build();
+  }
+
+  /**
+   * @return the digests as blob metadata, whose names must be valid C# identifiers
+   */
+  public Map<String, String> toMetadata() {
+    Map<String, String> metadata = new LinkedHashMap<>();
+    putIfPresent(metadata, MD5, md5);
+    putIfPresent(metadata, SHA256, sha256);
+    putIfPresent(metadata, CRC32C, crc32c);
+    return metadata;
+  }
+
+  /**
+   * @return the value of an RFC 3230 {@code Digest} header carrying the digests
+   */
+  public String toDigestHeader() {
+    StringJoiner header = new StringJoiner(",");
+    Map<String, String> algorithms = Map.of(MD5, "md5", SHA256, "sha-256", CRC32C, "crc32c");
+    toMetadata().forEach((name, value) -> header.add(algorithms.get(name) + "=" + value));
+    return header.toString();
+  }
+
+  private static void putIfPresent(Map<String, String> map, String name, String value) {
+    if (value != null) {
+      map.put(name, value);
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package uk.gov.defra.reach.file.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Identifies a single file within a container
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileReference {
+
+  private Container container;
+
+  private String target;
+
+}
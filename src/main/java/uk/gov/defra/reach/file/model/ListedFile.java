@@ -0,0 +1,27 @@
+package uk.gov.defra.reach.file.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import java.time.Instant;
+import lombok.Value;
+import uk.gov.defra.reach.file.storage.ListedBlob;
+
+/**
+ * One line of a container listing. {@code md5} is the Base64 MD5 storage holds for the content as stored.
+ */
+@Value
+@JsonInclude(Include.NON_NULL)
+public class ListedFile {
+
+  String name;
+
+  long size;
+
+  Instant lastModified;
+
+  String md5;
+
+  public static ListedFile from(ListedBlob blob) {
+    return new ListedFile(blob.getName(), blob.getLength(), blob.getLastModified(), blob.getContentMd5());
+  }
+}
@@ -0,0 +1,31 @@
+package uk.gov.defra.reach.file.model;
+
+import java.time.Instant;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import uk.gov.defra.reach.file.Container;
+
+/**
+ * Progress of a resumable upload. {@code receivedChunks} lists the indexes of the chunks stored so far, any other chunk
+ * must be sent, or sent again, before the upload can be completed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+
+  private String id;
+
+  private Container container;
+
+  private String target;
+
+  private List<Integer> receivedChunks;
+
+  private long receivedBytes;
+
+  private Instant expires;
+
+}
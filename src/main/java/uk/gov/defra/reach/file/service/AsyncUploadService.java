@@ -0,0 +1,279 @@
+package uk.gov.defra.reach.file.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.job.Job;
+import uk.gov.defra.reach.file.job.JobRegistry;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+
+/**
+ * Stores uploads in the background so the request receiving them need not wait for storage. Each upload is moved to a
+ * local spool directory and queued as a {@link Job}. A fixed pool of workers then transfers queued uploads, with no more
+ * than the configured number in flight to any one container. Once the queue is full further uploads are refused. An
+ * upload is counted as uploaded once stored, not when queued.
+ *
+ * <p>Queued uploads are held by this instance alone. If it stops before transferring them they are queued again when it
+ * next starts, provided the spool directory is kept, otherwise their jobs are left unfinished.
+ */
+@Slf4j
+@Service
+public class AsyncUploadService implements MeterBinder {
+
+  static final String JOB_TYPE = "upload";
+
+  private final FileService fileService;
+
+  private final JobRegistry jobRegistry;
+
+  private final FileOperationMetrics metrics;
+
+  private final ExecutorService executor;
+
+  private final int queueCapacity;
+
+  private final Path spoolDirectory;
+
+  private final Map<Container, Lane> lanes = new EnumMap<>(Container.class);
+
+  private int queued;
+
+  private int running;
+
+  @Autowired
+  public AsyncUploadService(FileService fileService, JobRegistry jobRegistry, FileOperationMetrics metrics, StorageProperties storageProperties,
+      @Value("${reach.file.async.workers}") int workers, @Value("${reach.file.async.queueCapacity}") int queueCapacity,
+      @Value("${reach.file.async.spoolDirectory}") Path spoolDirectory) {
+    this(fileService, jobRegistry, metrics, storageProperties,
+        Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder().setNameFormat("async-upload-%d").setDaemon(true).build()), queueCapacity,
+        spoolDirectory);
+  }
+
+  public AsyncUploadService(FileService fileService, JobRegistry jobRegistry, FileOperationMetrics metrics, StorageProperties storageProperties,
+      ExecutorService executor, int queueCapacity, Path spoolDirectory) {
+    this.fileService = fileService;
+    this.jobRegistry = jobRegistry;
+    this.metrics = metrics;
+    this.executor = executor;
+    this.queueCapacity = queueCapacity;
+    this.spoolDirectory = spoolDirectory;
+    for (Container container : Container.values()) {
+      lanes.put(container, new Lane(storageProperties.forContainer(container).getAsyncUploadConcurrency()));
+    }
+    try {
+      Files.createDirectories(spoolDirectory);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to create upload spool directory " + spoolDirectory, e);
+    }
+  }
+
+  /**
+   * Queues a file to be stored in a container, using {@code target} as a destination filename.
+   *
+   * @param file the received upload, it is moved out of the request before this method returns
+   * @param container the container to store the file in
+   * @param target becomes the filename of the persisted file
+   * @return the job which will store the file
+   */
+  public Job submit(MultipartFile file, Container container, String target) {
+    return submit(file, container, target, Reservation.NONE);
+  }
+
+  /**
+   * Queues a file to be stored in a container as {@link #submit(MultipartFile, Container, String)} does, holding its
+   * charge against the container's upload budget until it has been stored.
+   *
+   * @param reservation the upload's charge against its container's budget, released once stored or if it fails
+   */
+  public Job submit(MultipartFile file, Container container, String target, Reservation reservation) {
+    try {
+      reserve();
+    } catch (ResponseStatusException e) {
+      reservation.close();
+      throw e;
+    }
+    Job job = jobRegistry.create(JOB_TYPE, container, target);
+    Path spooled = spoolDirectory.resolve(job.getId());
+    try {
+      file.transferTo(spooled);
+    } catch (IOException | RuntimeException e) {
+      release();
+      reservation.close();
+      jobRegistry.remove(job.getId());
+      deleteQuietly(spooled);
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot spool data to store a new file!", e);
+    }
+    log.info("Queued job {} storing \"{}\" on {} container", job.getId(), target, container);
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    enqueue(container, () -> {
+      try (reservation) {
+        transfer(job, spooled, file.getSize(), mdc);
+      }
+    });
+    return job;
+  }
+
+  /**
+   * Queues again the uploads this instance spooled but had not stored when it last stopped. Spooled files whose jobs have
+   * finished, or are no longer recorded, are deleted.
+   */
+  @PostConstruct
+  public void resumeSpooled() {
+    List<Path> spooled;
+    try (Stream<Path> files = Files.list(spoolDirectory)) {
+      spooled = files.collect(Collectors.toList());
+    } catch (IOException e) {
+      log.warn("Unable to list upload spool directory {}, no uploads have been resumed", spoolDirectory, e);
+      return;
+    }
+    for (Path path : spooled) {
+      Job recorded = jobRegistry.find(path.getFileName().toString()).orElse(null);
+      if (recorded == null || recorded.getState().isFinished()) {
+        deleteQuietly(path);
+        continue;
+      }
+      long length;
+      try {
+        length = Files.size(path);
+      } catch (IOException e) {
+        log.warn("Unable to resume job {} from {}", recorded.getId(), path, e);
+        continue;
+      }
+      Job job = jobRegistry.resume(recorded);
+      synchronized (this) {
+        queued++;
+      }
+      log.info("Resumed job {} storing \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer());
+      enqueue(job.getContainer(), () -> transfer(job, path, length, null));
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("reach.file.async.queued", this, AsyncUploadService::queued).register(registry);
+    Gauge.builder("reach.file.async.running", this, AsyncUploadService::running).register(registry);
+  }
+
+  synchronized int queued() {
+    return queued;
+  }
+
+  synchronized int running() {
+    return running;
+  }
+
+  private synchronized void reserve() {
+    if (queued >= queueCapacity) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Upload queue is full!");
+    }
+    queued++;
+  }
+
+  private synchronized void release() {
+    queued--;
+  }
+
+  private synchronized void enqueue(Container container, Runnable transfer) {
+    lanes.get(container).pending.add(transfer);
+    dispatch(container);
+  }
+
+  private synchronized void dispatch(Container container) {
+    Lane lane = lanes.get(container);
+    while (lane.running < lane.concurrency && !lane.pending.isEmpty()) {
+      Runnable transfer = lane.pending.remove();
+      lane.running++;
+      queued--;
+      running++;
+      executor.execute(() -> {
+        try {
+          transfer.run();
+        } finally {
+          finished(container);
+        }
+      });
+    }
+  }
+
+  private synchronized void finished(Container container) {
+    lanes.get(container).running--;
+    running--;
+    dispatch(container);
+  }
+
+  private void transfer(Job job, Path spooled, long length, Map<String, String> mdc) {
+    if (mdc != null) {
+      MDC.setContextMap(mdc);
+    }
+    job.start();
+    try (InputStream content = Files.newInputStream(spooled)) {
+      String checksum = fileService.store(content, length, job.getContainer(), job.getTarget());
+      metrics.recordUploaded(job.getContainer(), length);
+      job.complete(checksum);
+      log.info("Job {} stored \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer());
+    } catch (ResponseStatusException e) {
+      log.warn("Job {} failed to store \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer(), e);
+      job.fail(e.getStatus().value(), e.getReason());
+    } catch (IOException | RuntimeException e) {
+      log.error("Job {} failed to store \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer(), e);
+      job.fail(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Unexpected error during file storage!");
+    } finally {
+      deleteQuietly(spooled);
+      MDC.clear();
+    }
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Unable to delete spooled upload {}", path, e);
+    }
+  }
+
+  private static final class Lane {
+
+    private final int concurrency;
+
+    private final Queue<Runnable> pending = new ArrayDeque<>();
+
+    private int running;
+
+    private Lane(int concurrency) {
+      this.concurrency = concurrency;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package uk.gov.defra.reach.file.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.model.BatchResult;
+import uk.gov.defra.reach.file.model.FileReference;
+
+/**
+ * Applies {@link FileService} operations to many files at once. Items are processed concurrently on a bounded pool and
+ * each item reports its own outcome, so one failure does not fail the whole batch.
+ */
+@Slf4j
+@Service
+public class BatchFileService {
+
+  private final FileService fileService;
+
+  private final ExecutorService executor;
+
+  private final int maxItems;
+
+  public BatchFileService(FileService fileService, @Value("${reach.file.batch.parallelism}") int parallelism,
+      @Value("${reach.file.batch.maxItems}") int maxItems) {
+    this.fileService = fileService;
+    this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder().setNameFormat("batch-%d").setDaemon(true).build());
+    this.maxItems = maxItems;
+  }
+
+  public List<BatchResult> exists(List<FileReference> files) {
+    return forEach(files, file -> {
+      fileService.checkFileExists(file.getContainer(), file.getTarget());
+      return result(file, HttpStatus.OK, null, null);
+    });
+  }
+
+  public List<BatchResult> get(List<FileReference> files) {
+    return forEach(files, file -> {
+      URI uri = fileService.get(file.getContainer(), file.getTarget());
+      return result(file, HttpStatus.OK, uri.toString(), null);
+    });
+  }
+
+  public List<BatchResult> delete(List<FileReference> files) {
+    return forEach(files, file -> {
+      fileService.delete(file.getContainer(), file.getTarget());
+      return result(file, HttpStatus.OK, null, null);
+    });
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private List<BatchResult> forEach(List<FileReference> files, Function<FileReference, BatchResult> operation) {
+    if (files == null || files.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty batch supplied!");
+    }
+    if (files.size() > maxItems) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Batch exceeds the maximum of " + maxItems + " items!");
+    }
+    log.info("Processing batch of {} files", files.size());
+
+    Map<String, String> mdc = MDC.getCopyOfContextMap();
+    List<CompletableFuture<BatchResult>> results = files.stream()
+        .map(file -> CompletableFuture.supplyAsync(() -> withMdc(mdc, () -> apply(file, operation)), executor))
+        .collect(Collectors.toList());
+    return results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+  }
+
+  private static BatchResult apply(FileReference file, Function<FileReference, BatchResult> operation) {
+    if (file == null || file.getContainer() == null || file.getTarget() == null) {
+      return result(file, HttpStatus.BAD_REQUEST, null, "Empty parameter supplied!");
+    }
+    try {
+      return operation.apply(file);
+    } catch (ResponseStatusException e) {
+      return result(file, e.getStatus(), null, e.getReason());
+    } catch (RuntimeException e) {
+      log.error("Unexpected error processing batch item {}", file, e);
+      return result(file, HttpStatus.INTERNAL_SERVER_ERROR, null, "Unexpected error!");
+    }
+  }
+
+  private static <T> T withMdc(Map<String, String> mdc, Supplier<T> task) {
+    if (mdc != null) {
+      MDC.setContextMap(mdc);
+    }
+    try {
+      return task.get();
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private static BatchResult result(FileReference file, HttpStatus status, String uri, String error) {
+    return new BatchResult(file == null ? null : file.getContainer(), file == null ? null : file.getTarget(), status.value(), uri, error);
+  }
+}
@@ -0,0 +1,84 @@
+package uk.gov.defra.reach.file.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Identifies a staged block by the upload which staged it, its position in the blob and when it was staged. Storage needs
+ * identifiers to be Base64 and all of the same length within a blob, these decode to 64 characters. Naming the upload
+ * keeps concurrent uploads to one blob from replacing each other's blocks, while the time and a random suffix tell apart
+ * blocks sent more than once for the same position, the latest sorting last.
+ */
+@Getter
+@EqualsAndHashCode
+final class BlockId implements Comparable<BlockId> {
+
+  static final int MAX_INDEX = 99999;
+
+  private static final Pattern FORMAT = Pattern.compile("([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})-(\\d{5})-(\\d{13})-([0-9a-f]{7})");
+
+  private static final Comparator<BlockId> ORDER = Comparator.comparingLong(BlockId::getStaged).thenComparing(BlockId::getSuffix);
+
+  private final String uploadId;
+
+  private final int index;
+
+  private final long staged;
+
+  private final String suffix;
+
+  private BlockId(String uploadId, int index, long staged, String suffix) {
+    this.uploadId = uploadId;
+    this.index = index;
+    this.staged = staged;
+    this.suffix = suffix;
+  }
+
+  /**
+   * @param uploadId a lower case UUID identifying the upload
+   * @param index position of the block, no greater than {@link #MAX_INDEX}
+   * @param staged epoch milliseconds at which the block is staged
+   */
+  static BlockId next(String uploadId, int index, long staged) {
+    String suffix = String.format("%07x", ThreadLocalRandom.current().nextInt(0x10000000));
+    return new BlockId(uploadId, index, staged, suffix);
+  }
+
+  /**
+   * @return the identifier of a block staged by this service, or {@code null} if it was staged some other way
+   */
+  static BlockId decode(String encoded) {
+    String decoded;
+    try {
+      decoded = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    Matcher matcher = FORMAT.matcher(decoded);
+    if (!matcher.matches()) {
+      return null;
+    }
+    return new BlockId(matcher.group(1), Integer.parseInt(matcher.group(2)), Long.parseLong(matcher.group(3)), matcher.group(4));
+  }
+
+  String encode() {
+    String decoded = String.format("%s-%05d-%013d-%s", uploadId, index, staged, suffix);
+    return Base64.getEncoder().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public int compareTo(BlockId other) {
+    return ORDER.compare(this, other);
+  }
+
+  @Override
+  public String toString() {
+    return encode();
+  }
+}
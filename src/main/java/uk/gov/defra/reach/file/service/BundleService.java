@@ -0,0 +1,136 @@
+package uk.gov.defra.reach.file.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.Bulkhead;
+import uk.gov.defra.reach.file.concurrency.ByteBudget;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+
+/**
+ * Prepares ZIP bundles of several files of a container. Every file is looked up before the bundle is returned, so a
+ * missing file fails the request rather than truncating the archive part way through.
+ *
+ * <p>Prefetch buffers of every bundle in progress share one budget, so the memory bundles hold is bounded however many are
+ * written at once.
+ */
+@Slf4j
+@Service
+public class BundleService {
+
+  private final FileService fileService;
+
+  private final ExecutorService executor;
+
+  private final int prefetchEntries;
+
+  private final int prefetchBytes;
+
+  private final ByteBudget prefetchBudget;
+
+  private final int maxItems;
+
+  public BundleService(FileService fileService, @Value("${reach.file.bundle.readThreads}") int readThreads,
+      @Value("${reach.file.bundle.prefetchEntries}") int prefetchEntries, @Value("${reach.file.bundle.prefetchSize}") DataSize prefetchSize,
+      @Value("${reach.file.bundle.maxPrefetch}") DataSize maxPrefetch, @Value("${reach.file.batch.maxItems}") int maxItems,
+      MeterRegistry meterRegistry) {
+    this(fileService, Executors.newFixedThreadPool(readThreads, new ThreadFactoryBuilder().setNameFormat("bundle-%d").setDaemon(true).build()),
+        prefetchEntries, Math.toIntExact(prefetchSize.toBytes()), prefetchBudget(maxPrefetch, meterRegistry), maxItems);
+  }
+
+  BundleService(FileService fileService, ExecutorService executor, int prefetchEntries, int prefetchBytes, ByteBudget prefetchBudget,
+      int maxItems) {
+    this.fileService = fileService;
+    this.executor = executor;
+    this.prefetchEntries = prefetchEntries;
+    this.prefetchBytes = prefetchBytes;
+    this.prefetchBudget = prefetchBudget;
+    this.maxItems = maxItems;
+  }
+
+  /**
+   * @param container the container holding the files
+   * @param targets the files to bundle, which become the names of the archive's entries
+   * @return the bundle, ready to be written
+   */
+  public ZipBundle prepare(Container container, List<String> targets) {
+    if (container == null || targets == null || targets.isEmpty()) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty parameter supplied!");
+    }
+    if (targets.size() > maxItems) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bundle exceeds the maximum of " + maxItems + " files!");
+    }
+    Set<String> names = new HashSet<>();
+    for (String target : targets) {
+      if (target == null || target.isEmpty() || target.startsWith("/") || List.of(target.split("[/\\\\]")).contains("..")) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied: " + target);
+      }
+      if (!names.add(target)) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File \"" + target + "\" is included more than once!");
+      }
+    }
+    log.info("Bundling {} files from {} container", targets.size(), container);
+
+    List<CompletableFuture<BlobAttributes>> lookups = targets.stream()
+        .map(target -> CompletableFuture.supplyAsync(() -> fileService.getAttributes(container, target), executor))
+        .collect(Collectors.toList());
+    try {
+      List<BlobAttributes> attributes = lookups.stream().map(CompletableFuture::join).collect(Collectors.toList());
+      return new ZipBundle(fileService, executor, container, List.copyOf(targets), attributes, prefetchEntries, prefetchBytes,
+          prefetchBudget);
+    } catch (CompletionException e) {
+      lookups.forEach(lookup -> lookup.cancel(true));
+      if (e.getCause() instanceof ResponseStatusException) {
+        throw (ResponseStatusException) e.getCause();
+      }
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error preparing bundle!", e.getCause());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Prefetching never waits for the budget, a file which does not fit is copied from storage in its turn instead
+   */
+  private static ByteBudget prefetchBudget(DataSize maxPrefetch, MeterRegistry registry) {
+    Counter skipped = Counter.builder("reach.file.bundle.prefetch.skipped")
+        .description("Bundle files not prefetched as the prefetch budget was used up")
+        .register(registry);
+    ByteBudget budget = new ByteBudget(maxPrefetch.toBytes(), Duration.ZERO, new Bulkhead.Listener() {
+      @Override
+      public void admitted(long waitNanos) {
+      }
+
+      @Override
+      public void rejected(long waitNanos) {
+        skipped.increment();
+      }
+    });
+    Gauge.builder("reach.file.bundle.prefetch.used", budget, ByteBudget::used)
+        .description("Bytes of bundle prefetch buffers held")
+        .baseUnit("bytes")
+        .register(registry);
+    return budget;
+  }
+}
@@ -0,0 +1,69 @@
+package uk.gov.defra.reach.file.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.model.ListedFile;
+import uk.gov.defra.reach.file.storage.BlobListing;
+import uk.gov.defra.reach.file.storage.ListedBlob;
+
+/**
+ * A listing of a container written as newline delimited JSON, one {@link ListedFile} per line. Pages are read from storage
+ * as the listing is written, so only one page is held in memory however many files it covers. The listing always ends
+ * with a line holding the number of files listed and, if it stopped at its limit, the token from which to continue; a
+ * listing without that line was cut short.
+ */
+@Slf4j
+public class ContainerListing {
+
+  private final FileService fileService;
+
+  private final Container container;
+
+  private final String prefix;
+
+  private final int limit;
+
+  private final int pageSize;
+
+  private final BlobListing firstPage;
+
+  ContainerListing(FileService fileService, Container container, String prefix, int limit, int pageSize, BlobListing firstPage) {
+    this.fileService = fileService;
+    this.container = container;
+    this.prefix = prefix;
+    this.limit = limit;
+    this.pageSize = pageSize;
+    this.firstPage = firstPage;
+  }
+
+  public void writeTo(OutputStream out, ObjectMapper objectMapper) throws IOException {
+    BlobListing page = firstPage;
+    int count = 0;
+    while (true) {
+      for (ListedBlob blob : page.getBlobs()) {
+        out.write(objectMapper.writeValueAsBytes(ListedFile.from(blob)));
+        out.write('\n');
+      }
+      count += page.getBlobs().size();
+      out.flush();
+      if (page.getContinuationToken() == null || count >= limit) {
+        break;
+      }
+      page = fileService.list(container, prefix, page.getContinuationToken(), Math.min(pageSize, limit - count));
+    }
+    Map<String, Object> end = new LinkedHashMap<>();
+    end.put("count", count);
+    if (page.getContinuationToken() != null) {
+      end.put("continuationToken", page.getContinuationToken());
+    }
+    out.write(objectMapper.writeValueAsBytes(end));
+    out.write('\n');
+    out.flush();
+    log.debug("Listed {} files of {} container", count, container);
+  }
+}
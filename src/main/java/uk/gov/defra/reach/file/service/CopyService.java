@@ -0,0 +1,193 @@
+package uk.gov.defra.reach.file.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.job.Job;
+import uk.gov.defra.reach.file.job.JobRegistry;
+import uk.gov.defra.reach.file.model.ContentDigests;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+import uk.gov.defra.reach.file.storage.CopyProgress;
+
+/**
+ * Copies, or moves, files between containers using storage side copies, tracking each as a {@link Job}. Copies are polled
+ * in the background until storage reports them finished, when the source is deleted if the file is being moved. A copy
+ * still pending after the timeout is aborted, so storage stops reading a source the client has been told was not copied.
+ *
+ * <p>Only the instance which started a copy polls it. Should that instance stop first, the storage side copy still
+ * completes but its job is left running and a move leaves its source in place.
+ */
+@Slf4j
+@Service
+public class CopyService {
+
+  static final String JOB_TYPE = "copy";
+
+  private final FileService fileService;
+
+  private final JobRegistry jobRegistry;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final Duration pollInterval;
+
+  private final Duration timeout;
+
+  private final Clock clock;
+
+  @Autowired
+  public CopyService(FileService fileService, JobRegistry jobRegistry, @Value("${reach.file.copy.pollInterval}") Duration pollInterval,
+      @Value("${reach.file.copy.timeout}") Duration timeout) {
+    this(fileService, jobRegistry,
+        Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("copy-poller-%d").setDaemon(true).build()), pollInterval,
+        timeout, Clock.systemUTC());
+  }
+
+  public CopyService(FileService fileService, JobRegistry jobRegistry, ScheduledExecutorService scheduler, Duration pollInterval, Duration timeout,
+      Clock clock) {
+    this.fileService = fileService;
+    this.jobRegistry = jobRegistry;
+    this.scheduler = scheduler;
+    this.pollInterval = pollInterval;
+    this.timeout = timeout;
+    this.clock = clock;
+  }
+
+  /**
+   * Starts copying a file between containers.
+   *
+   * @param sourceContainer the container containing the file to copy
+   * @param source the filename of the file to copy
+   * @param container the container to copy the file to
+   * @param target becomes the filename of the copy
+   * @param deleteSource whether to delete the source once the copy has succeeded
+   * @return the job tracking the copy, which completes with the hex MD5 checksum of the copy
+   */
+  public Job copy(Container sourceContainer, String source, Container container, String target, boolean deleteSource) {
+    if (sourceContainer == null || source == null || container == null || target == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty parameter supplied!");
+    }
+    if (sourceContainer == container && source.equals(target)) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A file cannot be copied to itself!");
+    }
+    // Storage reads the source until the copy finishes or is aborted, which may be a poll after the timeout
+    String sourceMd5 = fileService.startCopy(sourceContainer, source, container, target, timeout.plus(pollInterval));
+    Job job = jobRegistry.create(JOB_TYPE, container, target);
+    job.start();
+    log.info("Job {} copying \"{}\" from {} container to \"{}\" on {} container", job.getId(), source, sourceContainer, target, container);
+    Copy copy = new Copy(job, sourceContainer, source, deleteSource, sourceMd5, clock.instant().plus(timeout), MDC.getCopyOfContextMap());
+    scheduler.execute(() -> poll(copy));
+    return job;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private void poll(Copy copy) {
+    Job job = copy.job;
+    if (copy.mdc != null) {
+      MDC.setContextMap(copy.mdc);
+    }
+    try {
+      CopyProgress progress = fileService.getCopyProgress(job.getContainer(), job.getTarget());
+      switch (progress.getStatus()) {
+        case SUCCESS:
+          finish(copy);
+          break;
+        case PENDING:
+          if (clock.instant().isAfter(copy.deadline)) {
+            log.warn("Job {} gave up waiting for copy after {}, {} of {} bytes copied", job.getId(), timeout, progress.getBytesCopied(),
+                progress.getTotalBytes());
+            abort(job);
+            job.fail(HttpStatus.GATEWAY_TIMEOUT.value(), "Copy did not finish within " + timeout);
+          } else {
+            scheduler.schedule(() -> poll(copy), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+          }
+          break;
+        default:
+          log.warn("Job {} copy {}: {}", job.getId(), progress.getStatus(), progress.getDescription());
+          job.fail(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Copy " + progress.getStatus().name().toLowerCase(Locale.ROOT) + ": " + progress.getDescription());
+      }
+    } catch (ResponseStatusException e) {
+      log.warn("Job {} failed to copy to \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer(), e);
+      job.fail(e.getStatus().value(), e.getReason());
+    } catch (RuntimeException e) {
+      log.error("Job {} failed to copy to \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer(), e);
+      job.fail(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Unexpected error during file copy!");
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private void abort(Job job) {
+    try {
+      fileService.abortCopy(job.getContainer(), job.getTarget());
+    } catch (ResponseStatusException e) {
+      // The job still times out, storage finishing the copy or giving up on the source once its URI expires
+      log.error("Job {} could not abort copy to \"{}\" on {} container", job.getId(), job.getTarget(), job.getContainer(), e);
+    }
+  }
+
+  private void finish(Copy copy) {
+    Job job = copy.job;
+    BlobAttributes attributes = fileService.getAttributes(job.getContainer(), job.getTarget());
+    String uploadedMd5 = ContentDigests.from(attributes).getMd5();
+    String contentMd5 = uploadedMd5 != null ? uploadedMd5 : copy.sourceMd5;
+    if (copy.deleteSource) {
+      try {
+        fileService.delete(copy.sourceContainer, copy.source);
+      } catch (ResponseStatusException e) {
+        // The copy itself succeeded, failing the job would only prompt the client to copy again
+        log.error("Job {} copied \"{}\" but could not delete it from {} container", job.getId(), copy.source, copy.sourceContainer, e);
+      }
+    }
+    job.complete(contentMd5 == null ? null : FileService.toHex(contentMd5));
+    log.info("Job {} copied \"{}\" from {} container to \"{}\" on {} container", job.getId(), copy.source, copy.sourceContainer, job.getTarget(),
+        job.getContainer());
+  }
+
+  private static final class Copy {
+
+    private final Job job;
+
+    private final Container sourceContainer;
+
+    private final String source;
+
+    private final boolean deleteSource;
+
+    private final String sourceMd5;
+
+    private final Instant deadline;
+
+    private final Map<String, String> mdc;
+
+    private Copy(Job job, Container sourceContainer, String source, boolean deleteSource, String sourceMd5, Instant deadline,
+        Map<String, String> mdc) {
+      this.job = job;
+      this.sourceContainer = sourceContainer;
+      this.source = source;
+      this.deleteSource = deleteSource;
+      this.sourceMd5 = sourceMd5;
+      this.deadline = deadline;
+      this.mdc = mdc;
+    }
+  }
+}
@@ -0,0 +1,273 @@
+package uk.gov.defra.reach.file.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.config.SweeperProperties;
+import uk.gov.defra.reach.file.storage.BlobListing;
+import uk.gov.defra.reach.file.storage.BlobStorage;
+import uk.gov.defra.reach.file.storage.ListedBlob;
+import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Deletes files from the TEMPORARY container once they are older than their maximum age, so uploads which were never
+ * cleaned up by their callers do not pile up. The container is listed a batch at a time and each batch is deleted
+ * concurrently at a limited rate. Only one replica sweeps at a time, whichever holds the lease on a blob in the container.
+ * The lease is renewed on a timer while sweeping, however long a batch takes at the configured rate, and the sweep stops
+ * deleting as soon as it is lost. In dry run mode the files which would be deleted are counted but left in place.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "reach.file.sweeper.enabled", havingValue = "true")
+public class ExpirySweeper {
+
+  static final String LEASE_BLOB = "reach-file-sweeper.lease";
+
+  private static final Container CONTAINER = Container.TEMPORARY;
+
+  private static final Duration LEASE_DURATION = Duration.ofSeconds(60);
+
+  /**
+   * Renewing three times a lease duration leaves two attempts to spare should a renewal fail
+   */
+  static final Duration LEASE_RENEWAL = LEASE_DURATION.dividedBy(3);
+
+  private final FileService fileService;
+
+  private final Storage storage;
+
+  private final ScheduledExecutorService scheduler;
+
+  private final ExecutorService deleteExecutor;
+
+  private final SweeperProperties properties;
+
+  private final RateLimiter rateLimiter;
+
+  private final Clock clock;
+
+  private final MeterRegistry registry;
+
+  @Autowired
+  public ExpirySweeper(FileService fileService, Map<Container, Storage> containers, SweeperProperties properties, MeterRegistry registry) {
+    this(fileService, containers.get(CONTAINER),
+        Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder().setNameFormat("sweeper-%d").setDaemon(true).build()),
+        Executors.newFixedThreadPool(properties.getConcurrency(),
+            new ThreadFactoryBuilder().setNameFormat("sweeper-delete-%d").setDaemon(true).build()),
+        properties, Clock.systemUTC(), registry);
+  }
+
+  ExpirySweeper(FileService fileService, Storage storage, ScheduledExecutorService scheduler, ExecutorService deleteExecutor,
+      SweeperProperties properties, Clock clock, MeterRegistry registry) {
+    this.fileService = fileService;
+    this.storage = storage;
+    this.scheduler = scheduler;
+    this.deleteExecutor = deleteExecutor;
+    this.properties = properties;
+    this.rateLimiter = RateLimiter.create(properties.getMaxDeletesPerSecond());
+    this.clock = clock;
+    this.registry = registry;
+  }
+
+  @PostConstruct
+  public void start() {
+    if (!(storage instanceof BlobStorage)) {
+      log.warn("Not sweeping {} container as its storage does not support leases", CONTAINER);
+      return;
+    }
+    log.info("Sweeping {} container of files older than {} every {}{}", CONTAINER, properties.getMaxAge(), properties.getInterval(),
+        properties.isDryRun() ? ", as a dry run" : "");
+    long interval = properties.getInterval().toMillis();
+    scheduler.scheduleWithFixedDelay(this::run, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+    deleteExecutor.shutdownNow();
+  }
+
+  /**
+   * Sweeps the container once, if no other replica is sweeping it.
+   *
+   * @return what was swept, or {@code null} if another replica holds the lease
+   */
+  public SweepResult sweep() throws IOException, InvalidStorageFilenameException {
+    BlobStorage blobStorage = (BlobStorage) storage;
+    StorageFilename lease = StorageFilename.from(LEASE_BLOB);
+    String leaseId = blobStorage.acquireLease(lease, LEASE_DURATION);
+    if (leaseId == null) {
+      log.debug("Not sweeping {} container as another replica holds the lease", CONTAINER);
+      return null;
+    }
+    Timer.Sample sample = Timer.start(registry);
+    Instant cutoff = clock.instant().minus(properties.getMaxAge());
+    Totals totals = new Totals();
+    Lease held = new Lease(blobStorage, lease, leaseId, clock.instant());
+    long renewal = LEASE_RENEWAL.toMillis();
+    ScheduledFuture<?> renewing = scheduler.scheduleAtFixedRate(held::renew, renewal, renewal, TimeUnit.MILLISECONDS);
+    try {
+      String continuationToken = null;
+      do {
+        BlobListing page = fileService.list(CONTAINER, null, continuationToken, properties.getBatchSize());
+        List<ListedBlob> expired = page.getBlobs().stream()
+            .filter(blob -> !LEASE_BLOB.equals(blob.getName()))
+            .filter(blob -> blob.getLastModified() != null && blob.getLastModified().isBefore(cutoff))
+            .collect(Collectors.toList());
+        deleteAll(expired, totals, held);
+        if (!held.isHeld()) {
+          log.warn("Stopped sweeping {} container as its lease was lost", CONTAINER);
+          break;
+        }
+        continuationToken = page.getContinuationToken();
+      } while (continuationToken != null && !Thread.currentThread().isInterrupted());
+    } finally {
+      renewing.cancel(false);
+      blobStorage.releaseLease(lease, leaseId);
+      sample.stop(registry.timer("reach.file.sweeper.run", "dryRun", Boolean.toString(properties.isDryRun())));
+    }
+    SweepResult result = new SweepResult(totals.deleted.get(), totals.bytes.get(), totals.failed.get(), properties.isDryRun());
+    log.info("Swept {} container of {} files, {} bytes{}, {} failed", CONTAINER, result.getDeleted(), result.getBytes(),
+        result.isDryRun() ? " as a dry run" : "", result.getFailed());
+    return result;
+  }
+
+  private void run() {
+    try {
+      sweep();
+    } catch (Exception e) {
+      log.error("Failed sweeping {} container", CONTAINER, e);
+    }
+  }
+
+  private void deleteAll(List<ListedBlob> blobs, Totals totals, Lease held) {
+    CompletableFuture.allOf(blobs.stream()
+        .map(blob -> CompletableFuture.runAsync(() -> delete(blob, totals, held), deleteExecutor))
+        .toArray(CompletableFuture[]::new))
+        .join();
+  }
+
+  private void delete(ListedBlob blob, Totals totals, Lease held) {
+    rateLimiter.acquire();
+    if (!held.isHeld()) {
+      return;
+    }
+    try {
+      if (!properties.isDryRun()) {
+        fileService.delete(CONTAINER, blob.getName());
+      }
+      totals.deleted.incrementAndGet();
+      totals.bytes.addAndGet(blob.getLength());
+      counter("reach.file.sweeper.deleted", "files").increment();
+      counter("reach.file.sweeper.deleted.bytes", "bytes").increment(blob.getLength());
+    } catch (RuntimeException e) {
+      log.warn("Unable to sweep \"{}\" from {} container", blob.getName(), CONTAINER, e);
+      totals.failed.incrementAndGet();
+      registry.counter("reach.file.sweeper.failed").increment();
+    }
+  }
+
+  private Counter counter(String name, String baseUnit) {
+    return Counter.builder(name)
+        .baseUnit(baseUnit)
+        .description("Expired files swept from the " + CONTAINER + " container, or which would have been in a dry run")
+        .tag("dryRun", Boolean.toString(properties.isDryRun()))
+        .register(registry);
+  }
+
+  /**
+   * The sweeper's hold on its lease, renewed by the scheduler while the sweep runs. A renewal which fails is retried at the
+   * next, the lease only being given up once storage reports it lost or a lease duration passes without a renewal.
+   */
+  private final class Lease {
+
+    private final BlobStorage storage;
+
+    private final StorageFilename filename;
+
+    private final String leaseId;
+
+    private volatile Instant renewed;
+
+    private volatile boolean held = true;
+
+    private Lease(BlobStorage storage, StorageFilename filename, String leaseId, Instant acquired) {
+      this.storage = storage;
+      this.filename = filename;
+      this.leaseId = leaseId;
+      this.renewed = acquired;
+    }
+
+    boolean isHeld() {
+      return held;
+    }
+
+    void renew() {
+      if (!held) {
+        return;
+      }
+      try {
+        if (storage.renewLease(filename, leaseId)) {
+          renewed = clock.instant();
+        } else {
+          held = false;
+        }
+      } catch (IOException | RuntimeException e) {
+        log.warn("Unable to renew the lease on {} container", CONTAINER, e);
+        if (!clock.instant().isBefore(renewed.plus(LEASE_DURATION))) {
+          held = false;
+        }
+      }
+    }
+  }
+
+  private static final class Totals {
+
+    private final AtomicLong deleted = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+  }
+
+  /**
+   * Outcome of one sweep, in a dry run the files and bytes which would have been deleted
+   */
+  @Value
+  public static class SweepResult {
+
+    long deleted;
+
+    long bytes;
+
+    long failed;
+
+    boolean dryRun;
+  }
+}
@@ -1,12 +1,19 @@
 package uk.gov.defra.reach.file.service;
 
 import com.google.common.io.BaseEncoding;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
@@ -14,6 +21,32 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.util.UriComponentsBuilder;
 import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.FileKey;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.Bulkhead;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.concurrency.SingleFlight;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.BlockUpload;
+import uk.gov.defra.reach.file.config.StorageProperties.Compression;
+import uk.gov.defra.reach.file.config.StorageProperties.ContainerProperties;
+import uk.gov.defra.reach.file.io.ChecksumMismatchException;
+import uk.gov.defra.reach.file.io.CompressionFormats;
+import uk.gov.defra.reach.file.io.GzipCompressingInputStream;
+import uk.gov.defra.reach.file.io.MultiDigestInputStream;
+import uk.gov.defra.reach.file.io.UploadSizeExceededException;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics.Operation;
+import uk.gov.defra.reach.file.model.ContentDigests;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+import uk.gov.defra.reach.file.storage.BlobListing;
+import uk.gov.defra.reach.file.storage.BlobModifiedException;
+import uk.gov.defra.reach.file.storage.BlobStorage;
+import uk.gov.defra.reach.file.storage.ContentProperties;
+import uk.gov.defra.reach.file.storage.CopyProgress;
+import uk.gov.defra.reach.file.storage.DelegatingStorage;
+import uk.gov.defra.reach.file.storage.LocalFileStorage;
 import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
 import uk.gov.defra.reach.storage.Storage;
 import uk.gov.defra.reach.storage.StorageFilename;
@@ -22,16 +55,55 @@ import uk.gov.defra.reach.storage.StorageFilename;
 @Service
 public class FileService  {
 
+  private static final String GZIP = "gzip";
+
   private final Map<Container, Storage> containers;
 
+  private final StorageProperties storageProperties;
+
+  private final ParallelBlockUploader blockUploader;
+
+  private final SasUriCache sasUriCache;
+
+  private final ExistenceCache existenceCache;
+
+  private final FileOperationMetrics metrics;
+
+  private final ContainerBulkheads bulkheads;
+
+  /**
+   * Concurrent identical lookups, such as many users opening the same dossier at once, share one storage call
+   */
+  private final SingleFlight<FileKey, URI> getFlights;
+
+  private final SingleFlight<FileKey, Boolean> existsFlights;
+
+  private final SingleFlight<FileKey, BlobAttributes> attributesFlights;
+
   @Value("${azure.storage.sasUriHostOverride}")
   private String sasUriHostOverride;
 
   @Value("${azure.storage.sasUriPortOverride}")
   private Integer sasUriPortOverride;
 
-  public FileService(Map<Container, Storage> containers) {
+  @Value("${reach.file.digests.crc32c}")
+  private boolean crc32cEnabled;
+
+  @Value("${reach.file.list.pageSize}")
+  private int listPageSize;
+
+  public FileService(Map<Container, Storage> containers, StorageProperties storageProperties, ParallelBlockUploader blockUploader,
+      SasUriCache sasUriCache, ExistenceCache existenceCache, FileOperationMetrics metrics, ContainerBulkheads bulkheads) {
     this.containers = containers;
+    this.storageProperties = storageProperties;
+    this.blockUploader = blockUploader;
+    this.sasUriCache = sasUriCache;
+    this.existenceCache = existenceCache;
+    this.metrics = metrics;
+    this.bulkheads = bulkheads;
+    this.getFlights = new SingleFlight<>(key -> metrics.recordCoalesced(Operation.GET, key.container));
+    this.existsFlights = new SingleFlight<>(key -> metrics.recordCoalesced(Operation.EXISTS, key.container));
+    this.attributesFlights = new SingleFlight<>(key -> metrics.recordCoalesced(Operation.ATTRIBUTES, key.container));
   }
 
   /**
@@ -42,17 +114,286 @@ public class FileService  {
    * @return String MD5 checksum of the persisted file
    */
   public String store(InputStream file, Container container, String target) {
+    return store(file, -1, container, target);
+  }
+
+  /**
+   * Persists a file to a container, using {@code target} as a destination filename. Large files, or files of unknown
+   * length, are uploaded as concurrently staged blocks where the container supports it.
+   *
+   * @param container the container containing the specified file
+   * @param length the length of the file in bytes, or -1 if unknown
+   * @param target becomes the filename of the persisted file
+   * @return String MD5 checksum of the persisted file
+   */
+  public String store(InputStream file, long length, Container container, String target) {
+    return metrics.record(Operation.STORE, container, () -> toHex(storeFile(file, length, container, target).getMd5()));
+  }
+
+  /**
+   * Persists a file as {@link #store(InputStream, long, Container, String)} does, returning all digests of its content.
+   * Where the container supports blob level operations, the MD5, SHA-256 and, if enabled, CRC32C of the content are
+   * calculated in one pass as it is uploaded and recorded as metadata of the file. Storage checks the content of each
+   * request against an MD5 sent with it, refusing content corrupted on the way; it does not calculate the MD5 of content
+   * committed in blocks, so the MD5 recorded is the one calculated here.
+   *
+   * @param container the container containing the specified file
+   * @param length the length of the file in bytes, or -1 if unknown
+   * @param target becomes the filename of the persisted file
+   * @return digests of the persisted file, only the MD5 for containers without blob level operations
+   */
+  public ContentDigests storeWithDigests(InputStream file, long length, Container container, String target) {
+    return metrics.record(Operation.STORE, container, () -> storeFile(file, length, container, target));
+  }
+
+  private ContentDigests storeFile(InputStream file, long length, Container container, String target) {
     log.info("Storing \"{}\" on {} container", target, container);
     try {
-      String azureChecksum = containers.get(container).store(file, StorageFilename.from(target));
-      byte[] checksum = Base64.getDecoder().decode(azureChecksum);
-      return BaseEncoding.base16().lowerCase().encode(checksum);
+      Storage storage = containers.get(container);
+      StorageFilename filename = StorageFilename.from(target);
+      ContainerProperties properties = storageProperties.forContainer(container);
+      ContentDigests digests = storage instanceof BlobStorage
+          ? storeDigested((BlobStorage) storage, filename, file, length, properties, container)
+          : ContentDigests.builder().md5(upload(storage, filename, file, length, properties.getBlockUpload(), container)).build();
+      existenceCache.put(container, target, true);
+      return digests;
     } catch (InvalidStorageFilenameException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (ChecksumMismatchException e) {
+      existenceCache.invalidate(container, target);
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Stored file does not match the content uploaded!", e);
     } catch (IOException e) {
+      existenceCache.invalidate(container, target);
+      throwIfUploadTooLarge(e);
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot read data to store a new file!", e);
+    } catch (ResponseStatusException e) {
+      throw e;
     } catch (RuntimeException e) {
+      existenceCache.invalidate(container, target);
+      throwIfUploadTooLarge(e);
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error during file storage!", e);
+    } finally {
+      sasUriCache.invalidate(container, target);
+      forgetInFlight(container, target);
+    }
+  }
+
+  /**
+   * Block uploads take a permit of the container's bulkhead for each block staged, rather than one for the whole upload,
+   * so a slow client does not hold capacity while its blocks are read. Uploads of a known length below the block upload
+   * threshold are read in full before taking a permit for the same reason, uploads received over HTTP are already charged
+   * that length against the upload budget. Only uploads of unknown length to containers without block uploads hold a permit
+   * while they are read.
+   */
+  private String upload(Storage storage, StorageFilename filename, InputStream file, long length, BlockUpload blockUpload, Container container)
+      throws IOException {
+    if (useBlockUpload(storage, blockUpload, length)) {
+      return blockUploader.upload((BlobStorage) storage, filename, file, blockUpload, storageCalls(container));
+    }
+    if (length >= 0 && length < blockUpload.getThreshold().toBytes()) {
+      InputStream buffered = new ByteArrayInputStream(file.readAllBytes());
+      return bulkheads.call(container, () -> storage.store(buffered, filename));
+    }
+    return bulkheads.call(container, () -> storage.store(file, filename));
+  }
+
+  /**
+   * Uploads content to a blob in blocks, writing properties known only once the content has been read, such as its
+   * digests, with the request which commits it. Where block uploads are disabled the blocks are staged one at a time.
+   */
+  private void uploadBlocks(BlobStorage storage, StorageFilename filename, InputStream file, BlockUpload blockUpload,
+      Container container, Supplier<ContentProperties> properties) throws IOException {
+    BlockUpload settings = blockUpload;
+    if (!blockUpload.isEnabled()) {
+      settings = new BlockUpload();
+      settings.setBlockSize(blockUpload.getBlockSize());
+      settings.setParallelism(1);
+    }
+    blockUploader.upload(storage, filename, file, settings, storageCalls(container), properties);
+  }
+
+  private ParallelBlockUploader.StorageCalls storageCalls(Container container) {
+    return new ParallelBlockUploader.StorageCalls() {
+      @Override
+      public <T> T call(Bulkhead.Operation<T, IOException> operation) throws IOException {
+        return bulkheads.call(container, operation);
+      }
+    };
+  }
+
+  /**
+   * Uploads content while calculating its digests, compressing it first where the container is configured to. The digests,
+   * and the content encoding of compressed content, are written with the request which stores or commits the blob, so it is
+   * never visible without them. Content of a known length below the block upload threshold is read in full and stored in
+   * one request, which storage checks against the MD5 calculated as it was read, larger content is staged in blocks.
+   */
+  private ContentDigests storeDigested(BlobStorage storage, StorageFilename filename, InputStream file, long length,
+      ContainerProperties properties, Container container) throws IOException {
+    MultiDigestInputStream content = new MultiDigestInputStream(file, crc32cEnabled);
+    BlockUpload blockUpload = properties.getBlockUpload();
+    Compression compression = properties.getCompression();
+    InputStream source = content;
+    boolean compress = false;
+    if (compression.isEnabled()) {
+      BufferedInputStream buffered = new BufferedInputStream(content);
+      compress = shouldCompress(buffered, compression, container);
+      source = buffered;
+    }
+    String contentEncoding = compress ? GZIP : null;
+    Supplier<ContentProperties> contentProperties = () -> ContentProperties.builder()
+        .contentEncoding(contentEncoding)
+        .metadata(content.getDigests().toMetadata())
+        .build();
+    if (compress) {
+      storeCompressed(storage, filename, source, compression, blockUpload, container, contentProperties);
+    } else if (length >= 0 && length < blockUpload.getThreshold().toBytes()) {
+      byte[] read = source.readAllBytes();
+      ContentProperties readProperties = contentProperties.get();
+      bulkheads.call(container, () -> {
+        storage.store(new ByteArrayInputStream(read), read.length, filename, content.getDigests().getMd5(), readProperties);
+        return null;
+      });
+    } else {
+      uploadBlocks(storage, filename, source, blockUpload, container, contentProperties);
+    }
+    return content.getDigests();
+  }
+
+  /**
+   * Peeks at the start of the content, which is worth compressing unless it is short or already in a compressed format.
+   */
+  private boolean shouldCompress(BufferedInputStream file, Compression compression, Container container) throws IOException {
+    int minSize = Math.toIntExact(compression.getMinSize().toBytes());
+    int peek = Math.max(minSize, CompressionFormats.MAGIC_LENGTH);
+    file.mark(peek);
+    byte[] head = file.readNBytes(peek);
+    file.reset();
+    if (head.length < minSize) {
+      metrics.recordCompressionSkipped(container, "small");
+      return false;
+    }
+    if (CompressionFormats.isCompressed(head)) {
+      metrics.recordCompressionSkipped(container, "compressed");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Uploads content gzip compressed, the MD5 sent to storage and recorded against the blob being that of the compressed
+   * bytes.
+   */
+  private void storeCompressed(BlobStorage storage, StorageFilename filename, InputStream file, Compression compression,
+      BlockUpload blockUpload, Container container, Supplier<ContentProperties> properties) throws IOException {
+    try (GzipCompressingInputStream gzip = new GzipCompressingInputStream(file, compression.getLevel())) {
+      uploadBlocks(storage, filename, gzip, blockUpload, container, properties);
+      metrics.recordCompression(container, gzip.getBytesRead(), gzip.getBytesWritten(), gzip.getCompressionNanos());
+    }
+  }
+
+  /**
+   * Uploads one block of a file without making it visible, the file's content is replaced once its blocks are committed.
+   *
+   * @param container the container to store the file in
+   * @param target the filename of the file
+   * @param blockId Base64 block identifier, all identifiers for a file must be the same length
+   * @param data the block content
+   * @param length the number of bytes in {@code data}
+   */
+  public void stageBlock(Container container, String target, String blockId, InputStream data, long length) {
+    metrics.record(Operation.STAGE, container, () -> stage(container, target, blockId, data, length));
+  }
+
+  private void stage(Container container, String target, String blockId, InputStream data, long length) {
+    log.debug("Staging block {} of \"{}\" on {} container", blockId, target, container);
+    try {
+      StorageFilename filename = StorageFilename.from(target);
+      BlobStorage storage = blobStorage(container);
+      bulkheads.call(container, () -> {
+        storage.stageBlock(filename, blockId, data, length);
+        return null;
+      });
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (IOException e) {
+      throwIfUploadTooLarge(e);
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Cannot read data to store a new file!", e);
+    }
+  }
+
+  /**
+   * Replaces the content of a file with previously staged blocks, in the given order.
+   *
+   * @param container the container to store the file in
+   * @param target the filename of the file
+   * @param blockIds identifiers of the staged blocks
+   * @param contentMd5 Base64 MD5 of the complete content, or {@code null} if it is to be recorded later
+   */
+  public void commitBlocks(Container container, String target, List<String> blockIds, String contentMd5) {
+    metrics.record(Operation.COMMIT, container, () -> commit(container, target, blockIds, contentMd5));
+  }
+
+  private void commit(Container container, String target, List<String> blockIds, String contentMd5) {
+    log.info("Committing {} blocks of \"{}\" on {} container", blockIds.size(), target, container);
+    try {
+      StorageFilename filename = StorageFilename.from(target);
+      BlobStorage storage = blobStorage(container);
+      bulkheads.call(container, () -> {
+        storage.commitBlocks(filename, blockIds, contentMd5);
+        return null;
+      });
+      existenceCache.put(container, target, true);
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (IOException e) {
+      existenceCache.invalidate(container, target);
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to commit file!", e);
+    } finally {
+      sasUriCache.invalidate(container, target);
+      forgetInFlight(container, target);
+    }
+  }
+
+  /**
+   * Records the MD5 checksum of a file committed without one.
+   *
+   * @param container the container containing the specified file
+   * @param target the filename of the file
+   * @param contentMd5 Base64 MD5 of the file's content
+   */
+  public void setContentMd5(Container container, String target, String contentMd5) {
+    try {
+      StorageFilename filename = StorageFilename.from(target);
+      BlobStorage storage = blobStorage(container);
+      bulkheads.call(container, () -> {
+        storage.setContentMd5(filename, contentMd5);
+        return null;
+      });
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (FileNotFoundException e) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File \"" + target + "\" does not exist on " + container + " container!", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to record checksum of file!", e);
+    }
+  }
+
+  /**
+   * Lists the blocks staged for a file which have not been committed.
+   *
+   * @param container the container of the file
+   * @param target the filename of the file
+   * @return the length of each staged block by identifier
+   */
+  public Map<String, Long> getStagedBlocks(Container container, String target) {
+    try {
+      StorageFilename filename = StorageFilename.from(target);
+      BlobStorage storage = blobStorage(container);
+      return bulkheads.call(container, () -> storage.getStagedBlocks(filename));
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to list staged blocks of file!", e);
     }
   }
 
@@ -64,20 +405,35 @@ public class FileService  {
    * @return SAS URI which may be used to download the specified file
    */
   public URI get(Container container, String filename) {
+    return metrics.record(Operation.GET, container, () -> getUri(container, filename));
+  }
+
+  private URI getUri(Container container, String filename) {
     log.info("Getting \"{}\" from {} container", filename, container);
     if (container == null || filename == null) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty parameter supplied!");
     }
 
+    long epoch = sasUriCache.writeEpoch(container, filename);
+    URI cached = sasUriCache.get(container, filename);
+    if (cached != null) {
+      return cached;
+    }
+
     try {
-      URI uri = containers.get(container).get(StorageFilename.from(filename));
-      return mapUriIfRequired(uri);
+      StorageFilename storageFilename = StorageFilename.from(filename);
+      URI uri = mapUriIfRequired(getFlights.call(new FileKey(container, filename),
+          () -> bulkheads.call(container, () -> containers.get(container).get(storageFilename))));
+      sasUriCache.put(container, filename, uri, epoch);
+      return uri;
     } catch (InvalidStorageFilenameException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
     } catch (FileNotFoundException e) {
       throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File \"" + filename + "\" does not exist on " + container + " container!", e);
     } catch (IOException e) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to retrieve file!", e);
+    } catch (ResponseStatusException e) {
+      throw e;
     } catch (RuntimeException e) {
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error during file retrieval!", e);
     }
@@ -90,9 +446,20 @@ public class FileService  {
    * @param fileName the filename of the specified file
    */
   public void checkFileExists(Container container, String fileName) {
+    metrics.record(Operation.EXISTS, container, () -> checkExists(container, fileName));
+  }
+
+  private void checkExists(Container container, String fileName) {
     log.debug("Checking \"{}\" exists within {} container", fileName, container);
     try {
-      boolean exists = containers.get(container).exists(StorageFilename.from(fileName));
+      long epoch = existenceCache.writeEpoch(container, fileName);
+      Boolean exists = existenceCache.get(container, fileName);
+      if (exists == null) {
+        StorageFilename filename = StorageFilename.from(fileName);
+        exists = existsFlights.call(new FileKey(container, fileName),
+            () -> bulkheads.call(container, () -> containers.get(container).exists(filename)));
+        existenceCache.putLookup(container, fileName, exists, epoch);
+      }
       if (!exists) {
         throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found");
       }
@@ -110,20 +477,308 @@ public class FileService  {
    * @param fileName the filename of the specified file
    */
   public void delete(Container container, String fileName) {
+    metrics.record(Operation.DELETE, container, () -> deleteFile(container, fileName));
+  }
+
+  private void deleteFile(Container container, String fileName) {
     log.info("Deleting file {} from {} container", fileName, container);
     try {
-      boolean success = containers.get(container).delete(StorageFilename.from(fileName));
-      if (!success) {
+      StorageFilename filename = StorageFilename.from(fileName);
+      boolean success = bulkheads.call(container, () -> containers.get(container).delete(filename));
+      if (success) {
+        existenceCache.put(container, fileName, false);
+      } else {
+        existenceCache.invalidate(container, fileName);
         throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Could not delete file " + fileName);
       }
     } catch (InvalidStorageFilenameException e) {
       throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid storage name " + fileName, e);
     } catch (IOException e) {
+      existenceCache.invalidate(container, fileName);
       throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to delete file " + fileName, e);
+    } finally {
+      sasUriCache.invalidate(container, fileName);
+      forgetInFlight(container, fileName);
+    }
+  }
+
+  /**
+   * Starts copying a file between containers on the storage side, so its content does not pass through this service.
+   *
+   * @param sourceContainer the container containing the file to copy
+   * @param source the filename of the file to copy
+   * @param container the container to copy the file to
+   * @param target becomes the filename of the copy
+   * @param sourceLifetime how long storage may take to read the source, the URI it reads from lasting this long
+   * @return Base64 MD5 of the source file if recorded, which the copy carries over
+   */
+  public String startCopy(Container sourceContainer, String source, Container container, String target, Duration sourceLifetime) {
+    return metrics.record(Operation.COPY, container, () -> copy(sourceContainer, source, container, target, sourceLifetime));
+  }
+
+  private String copy(Container sourceContainer, String source, Container container, String target, Duration sourceLifetime) {
+    log.info("Copying \"{}\" from {} container to \"{}\" on {} container", source, sourceContainer, target, container);
+    try {
+      StorageFilename sourceFilename = StorageFilename.from(source);
+      StorageFilename targetFilename = StorageFilename.from(target);
+      BlobStorage sourceStorage = blobStorage(sourceContainer);
+      BlobStorage targetStorage = blobStorage(container);
+      if (isLocal(sourceStorage) != isLocal(targetStorage)) {
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+            "Files cannot be copied between " + sourceContainer + " and " + container + " containers as they use different storage!");
+      }
+      BlobAttributes attributes = bulkheads.call(sourceContainer, () -> sourceStorage.getAttributes(sourceFilename));
+      // The storage URI is used as is, host and port overrides only apply to clients of this service
+      URI sourceUri = bulkheads.call(sourceContainer, () -> sourceStorage.get(sourceFilename, sourceLifetime));
+      bulkheads.call(container, () -> {
+        targetStorage.startCopy(targetFilename, sourceUri);
+        return null;
+      });
+      return ContentDigests.from(attributes).getMd5();
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid filename supplied!", e);
+    } catch (FileNotFoundException e) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File \"" + source + "\" does not exist on " + sourceContainer + " container!", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to copy file!", e);
+    } finally {
+      existenceCache.invalidate(container, target);
+      sasUriCache.invalidate(container, target);
+      forgetInFlight(container, target);
+    }
+  }
+
+  /**
+   * Reports the progress of a copy started by {@link #startCopy}.
+   *
+   * @param container the container the file is being copied to
+   * @param target the filename of the copy
+   * @return the state of the copy
+   */
+  public CopyProgress getCopyProgress(Container container, String target) {
+    try {
+      StorageFilename filename = StorageFilename.from(target);
+      BlobStorage storage = blobStorage(container);
+      return bulkheads.call(container, () -> storage.getCopyProgress(filename));
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (FileNotFoundException e) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File \"" + target + "\" does not exist on " + container + " container!", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to retrieve copy progress!", e);
+    }
+  }
+
+  /**
+   * Aborts a copy started by {@link #startCopy} which is still pending, deleting the empty file storage leaves in place
+   * of the copy.
+   *
+   * @param container the container the file is being copied to
+   * @param target the filename of the copy
+   */
+  public void abortCopy(Container container, String target) {
+    log.info("Aborting copy to \"{}\" on {} container", target, container);
+    try {
+      StorageFilename filename = StorageFilename.from(target);
+      BlobStorage storage = blobStorage(container);
+      bulkheads.call(container, () -> {
+        storage.abortCopy(filename);
+        return storage.delete(filename);
+      });
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (FileNotFoundException e) {
+      // Nothing left to abort
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to abort copy!", e);
+    } finally {
+      existenceCache.invalidate(container, target);
+      sasUriCache.invalidate(container, target);
+    }
+  }
+
+  /**
+   * Lists one page of the files within the specified container.
+   *
+   * @param container the container to list
+   * @param prefix the start of the filenames to list, or {@code null} for every file
+   * @param continuationToken token of the previous page from which to continue, or {@code null} to start from the first
+   * @param maxResults the most files to return
+   * @return the page, in filename order
+   */
+  public BlobListing list(Container container, String prefix, String continuationToken, int maxResults) {
+    return metrics.record(Operation.LIST, container, () -> listPage(container, prefix, continuationToken, maxResults));
+  }
+
+  /**
+   * Starts a listing of the files within the specified container. Its first page is read straight away, so a listing which
+   * cannot be made fails before any of it is written.
+   *
+   * @param container the container to list
+   * @param prefix the start of the filenames to list, or {@code null} for every file
+   * @param continuationToken token a previous listing ended with, or {@code null} to start from the first file
+   * @param limit the most files to list
+   * @return the listing, read page by page as it is written
+   */
+  public ContainerListing listing(Container container, String prefix, String continuationToken, int limit) {
+    BlobListing firstPage = list(container, prefix, continuationToken, Math.min(listPageSize, limit));
+    return new ContainerListing(this, container, prefix, limit, listPageSize, firstPage);
+  }
+
+  private BlobListing listPage(Container container, String prefix, String continuationToken, int maxResults) {
+    log.debug("Listing files starting \"{}\" within {} container", prefix, container);
+    if (container == null || maxResults < 1) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid listing parameters supplied!");
+    }
+    try {
+      return bulkheads.call(container, () -> blobStorage(container).list(prefix, continuationToken, maxResults));
+    } catch (IllegalArgumentException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid continuation token supplied!", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to list files!", e);
+    }
+  }
+
+  /**
+   * Describes a file within the specified container, for serving its content through this service.
+   *
+   * @param container the container containing the specified file
+   * @param filename the filename of the specified file
+   * @return the stored properties of the file
+   */
+  public BlobAttributes getAttributes(Container container, String filename) {
+    log.info("Getting attributes of \"{}\" from {} container", filename, container);
+    try {
+      StorageFilename storageFilename = StorageFilename.from(filename);
+      return attributesFlights.call(new FileKey(container, filename),
+          () -> bulkheads.call(container, () -> blobStorage(container).getAttributes(storageFilename)));
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (FileNotFoundException e) {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND, "File \"" + filename + "\" does not exist on " + container + " container!", e);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to retrieve file!", e);
     }
   }
 
-  private URI mapUriIfRequired(URI uri) {
+  /**
+   * Gets the digests of a file's content as uploaded, without downloading it.
+   *
+   * @param container the container containing the specified file
+   * @param filename the filename of the specified file
+   * @return the digests recorded when the file was stored, only the MD5 for files stored before digests were recorded
+   */
+  public ContentDigests getDigests(Container container, String filename) {
+    return ContentDigests.from(getAttributes(container, filename));
+  }
+
+  /**
+   * Streams part of a file's content to {@code out} through a fixed size buffer. Downloads are limited by the request
+   * executor rather than the container's bulkhead, as each may take minutes.
+   *
+   * @param container the container containing the specified file
+   * @param filename the filename of the specified file
+   * @param offset index of the first byte to copy
+   * @param length number of bytes to copy
+   * @param etag the entity tag the file must still have, as returned by {@link #getAttributes}, or {@code null} for any
+   * @param out destination of the content
+   * @throws ResponseStatusException with status 409 if the file has been replaced since its entity tag was read
+   */
+  public void download(Container container, String filename, long offset, long length, String etag, OutputStream out) throws IOException {
+    try {
+      blobStorage(container).transferTo(StorageFilename.from(filename), offset, length, etag, out);
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (BlobModifiedException e) {
+      throw modified(filename, e);
+    }
+  }
+
+  /**
+   * Streams the whole content of a file to {@code out} as it was uploaded, decompressing it if it is stored compressed.
+   *
+   * @param container the container containing the specified file
+   * @param filename the filename of the specified file
+   * @param attributes the file's properties, as returned by {@link #getAttributes}, the file must still have their entity tag
+   * @param out destination of the content
+   * @throws ResponseStatusException with status 409 if the file has been replaced since its attributes were read
+   */
+  public void downloadDecoded(Container container, String filename, BlobAttributes attributes, OutputStream out) throws IOException {
+    if (!isGzipEncoded(attributes)) {
+      download(container, filename, 0, attributes.getLength(), attributes.getEtag(), out);
+      return;
+    }
+    try (InputStream in = new GZIPInputStream(
+        blobStorage(container).openStream(StorageFilename.from(filename), 0, attributes.getLength(), attributes.getEtag()))) {
+      in.transferTo(out);
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    } catch (BlobModifiedException e) {
+      throw modified(filename, e);
+    }
+  }
+
+  /**
+   * Once any content has been sent this only aborts the response, the client seeing it cut short rather than content of
+   * two versions of the file under one entity tag
+   */
+  private static ResponseStatusException modified(String filename, BlobModifiedException e) {
+    return new ResponseStatusException(HttpStatus.CONFLICT, "File \"" + filename + "\" was replaced while it was downloaded, retry the download!", e);
+  }
+
+  /**
+   * @return whether a file is stored gzip compressed, and must be decompressed to recover the content as uploaded
+   */
+  public static boolean isGzipEncoded(BlobAttributes attributes) {
+    return GZIP.equalsIgnoreCase(attributes.getContentEncoding());
+  }
+
+  /**
+   * Stops lookups of a file which has just been written joining any started before the write
+   */
+  private void forgetInFlight(Container container, String filename) {
+    FileKey key = new FileKey(container, filename);
+    getFlights.forget(key);
+    existsFlights.forget(key);
+    attributesFlights.forget(key);
+  }
+
+  private BlobStorage blobStorage(Container container) {
+    Storage storage = containers.get(container);
+    if (!(storage instanceof BlobStorage)) {
+      throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED, "Operation not supported by " + container + " container!");
+    }
+    return (BlobStorage) storage;
+  }
+
+  /**
+   * Local storage serves its content through this service, at URLs Azure cannot reach, and cannot itself read from Azure
+   */
+  private static boolean isLocal(BlobStorage storage) {
+    return DelegatingStorage.unwrap(storage, LocalFileStorage.class) != null;
+  }
+
+  private static boolean useBlockUpload(Storage storage, BlockUpload blockUpload, long length) {
+    return storage instanceof BlobStorage && blockUpload.isEnabled() && (length < 0 || length >= blockUpload.getThreshold().toBytes());
+  }
+
+  /**
+   * Storage implementations may wrap failures reading the upload stream, so the cause chain is searched for a size limit breach.
+   */
+  private static void throwIfUploadTooLarge(Exception e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof UploadSizeExceededException) {
+        throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, cause.getMessage(), e);
+      }
+    }
+  }
+
+  public static String toHex(String base64Checksum) {
+    byte[] checksum = Base64.getDecoder().decode(base64Checksum);
+    return BaseEncoding.base16().lowerCase().encode(checksum);
+  }
+
+  URI mapUriIfRequired(URI uri) {
     if (sasUriHostOverride != null || sasUriPortOverride != null) {
       UriComponentsBuilder uriBuilder = UriComponentsBuilder.fromUri(uri);
       if (sasUriHostOverride != null) {
@@ -0,0 +1,201 @@
+package uk.gov.defra.reach.file.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Operation;
+import uk.gov.defra.reach.file.config.StorageProperties.BlockUpload;
+import uk.gov.defra.reach.file.storage.BlobStorage;
+import uk.gov.defra.reach.file.storage.ContentProperties;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Uploads a stream as a block blob by splitting it into fixed size blocks which are staged concurrently and then
+ * committed. The MD5 of the whole stream is calculated as the blocks are read, so the returned checksum matches the one a
+ * single {@link uk.gov.defra.reach.storage.Storage#store} call would produce. Storage checks each request it receives,
+ * the content of a single request against that MD5 and each staged block against its own, so content corrupted on its way
+ * to storage is refused rather than stored.
+ */
+@Slf4j
+@Component
+public class ParallelBlockUploader {
+
+  private final ExecutorService executor;
+
+  @Autowired
+  public ParallelBlockUploader(@Value("${reach.file.storage.blockUploadThreads}") int threads) {
+    this(Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("block-upload-%d").setDaemon(true).build()));
+  }
+
+  public ParallelBlockUploader(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Runs each call an upload makes to storage, so a caller can limit them, such as within a container's bulkhead. Calls
+   * are only made once their content has been read, so reading the stream being uploaded is never limited.
+   */
+  public interface StorageCalls {
+
+    <T> T call(Operation<T, IOException> operation) throws IOException;
+  }
+
+  /**
+   * Uploads {@code data} to {@code filename}. Streams which fit in a single block are stored with one request.
+   *
+   * @return Base64 MD5 checksum of the uploaded content
+   */
+  public String upload(BlobStorage storage, StorageFilename filename, InputStream data, BlockUpload settings) throws IOException {
+    return upload(storage, filename, data, settings, new StorageCalls() {
+      @Override
+      public <T> T call(Operation<T, IOException> operation) throws IOException {
+        return operation.call();
+      }
+    });
+  }
+
+  /**
+   * Uploads {@code data} to {@code filename} as {@link #upload(BlobStorage, StorageFilename, InputStream, BlockUpload)}
+   * does, making each storage call through {@code calls}.
+   *
+   * @return Base64 MD5 checksum of the uploaded content
+   */
+  public String upload(BlobStorage storage, StorageFilename filename, InputStream data, BlockUpload settings, StorageCalls calls)
+      throws IOException {
+    return upload(storage, filename, data, settings, calls, () -> ContentProperties.NONE);
+  }
+
+  /**
+   * Uploads {@code data} to {@code filename} as {@link #upload(BlobStorage, StorageFilename, InputStream, BlockUpload,
+   * StorageCalls)} does, writing properties of the content with the request which stores or commits it.
+   *
+   * @param properties supplies the properties once {@code data} has been read to its end, so they may depend on all of it
+   * @return Base64 MD5 checksum of the uploaded content
+   */
+  public String upload(BlobStorage storage, StorageFilename filename, InputStream data, BlockUpload settings, StorageCalls calls,
+      Supplier<ContentProperties> properties) throws IOException {
+    int blockSize = Math.toIntExact(settings.getBlockSize().toBytes());
+    MessageDigest md5 = md5();
+
+    byte[] block = readBlock(data, blockSize, md5);
+    if (block.length < blockSize) {
+      byte[] content = block;
+      String contentMd5 = Base64.getEncoder().encodeToString(md5.digest());
+      ContentProperties read = properties.get();
+      calls.call(() -> {
+        storage.store(new ByteArrayInputStream(content), content.length, filename, contentMd5, read);
+        return null;
+      });
+      return contentMd5;
+    }
+
+    Semaphore permits = new Semaphore(settings.getParallelism());
+    String uploadId = UUID.randomUUID().toString();
+    List<String> blockIds = new ArrayList<>();
+    List<Future<?>> stagings = new ArrayList<>();
+    boolean staged = false;
+    try {
+      while (block.length > 0) {
+        permits.acquire();
+        checkCompleted(stagings);
+        String blockId = BlockId.next(uploadId, blockIds.size(), System.currentTimeMillis()).encode();
+        byte[] content = block;
+        blockIds.add(blockId);
+        stagings.add(executor.submit(() -> {
+          try {
+            return calls.call(() -> {
+              storage.stageBlock(filename, blockId, new ByteArrayInputStream(content), content.length);
+              return null;
+            });
+          } finally {
+            permits.release();
+          }
+        }));
+        block = block.length < blockSize ? new byte[0] : readBlock(data, blockSize, md5);
+      }
+      for (Future<?> staging : stagings) {
+        staging.get();
+      }
+      staged = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while staging blocks of " + filename.get(), e);
+    } catch (ExecutionException e) {
+      throw asIOException(e);
+    } finally {
+      // blocks still in flight once the upload has failed, however it failed, would only be thrown away
+      if (!staged) {
+        stagings.forEach(staging -> staging.cancel(true));
+      }
+    }
+
+    String contentMd5 = Base64.getEncoder().encodeToString(md5.digest());
+    ContentProperties read = properties.get();
+    calls.call(() -> {
+      storage.commitBlocks(filename, blockIds, contentMd5, read);
+      return null;
+    });
+    log.debug("Committed {} blocks to {}", blockIds.size(), filename.get());
+    return contentMd5;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static byte[] readBlock(InputStream data, int blockSize, MessageDigest md5) throws IOException {
+    byte[] block = data.readNBytes(blockSize);
+    md5.update(block);
+    return block;
+  }
+
+  /**
+   * Fails fast once any staged block has failed, rather than reading the rest of the stream first.
+   */
+  private static void checkCompleted(List<Future<?>> stagings) throws InterruptedException, ExecutionException {
+    for (Future<?> staging : stagings) {
+      if (staging.isDone()) {
+        staging.get();
+      }
+    }
+  }
+
+  private static IOException asIOException(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      // such as a refusal by a bulkhead, which callers map to its own status
+      throw (RuntimeException) cause;
+    }
+    return new IOException("Unable to stage block", cause);
+  }
+
+  static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,519 @@
+package uk.gov.defra.reach.file.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.model.UploadSession;
+import uk.gov.defra.reach.file.storage.StatusBlobs;
+import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Resumable uploads, sent as numbered chunks which may arrive in any order, concurrently, more than once and at any
+ * replica. Each chunk is staged in storage as an uncommitted block of the target file, so nothing is held on local disk,
+ * and completing the upload commits the latest block staged for each chunk in chunk order. Block identifiers name the
+ * session, so sessions and other uploads to the same file never replace each other's chunks. Storing the file by any
+ * other means before the session completes discards the chunks staged so far, which are then reported as missing.
+ *
+ * <p>Sessions are recorded in {@link StatusBlobs status blobs} and the chunks received are listed from storage, so any
+ * replica can serve any request for a session. Where status blobs are not kept, or one cannot be written, only the
+ * instance which created a session can serve it. A session not used within its time to live is forgotten.
+ *
+ * <p>The MD5 of the content is calculated while chunks arrive in order at one instance. When the blocks committed start
+ * with those it added to the MD5, only the remainder of the content is read back from storage after the commit,
+ * otherwise all of it is.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+  /**
+   * Maximum number of blocks in an Azure block blob
+   */
+  static final int MAX_CHUNKS = 50000;
+
+  private static final String RECORD_PREFIX = "reach-file-upload-";
+
+  private static final Pattern SESSION_ID = Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+  private final FileService fileService;
+
+  private final StatusBlobs statusBlobs;
+
+  private final long maxChunkBytes;
+
+  private final long maxFileBytes;
+
+  private final Duration ttl;
+
+  private final Clock clock;
+
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+  @Autowired
+  public UploadSessionService(FileService fileService, StatusBlobs statusBlobs, @Value("${reach.file.upload.maxChunkSize}") DataSize maxChunkSize,
+      @Value("${spring.servlet.multipart.max-file-size}") DataSize maxFileSize, @Value("${reach.file.upload.sessionTtl}") Duration ttl) {
+    this(fileService, statusBlobs, maxChunkSize.toBytes(), maxFileSize.toBytes(), ttl, Clock.systemUTC());
+  }
+
+  public UploadSessionService(FileService fileService, StatusBlobs statusBlobs, long maxChunkBytes, long maxFileBytes, Duration ttl,
+      Clock clock) {
+    this.fileService = fileService;
+    this.statusBlobs = statusBlobs;
+    this.maxChunkBytes = maxChunkBytes;
+    this.maxFileBytes = maxFileBytes;
+    this.ttl = ttl;
+    this.clock = clock;
+  }
+
+  /**
+   * Starts a resumable upload of a file to a container, using {@code target} as a destination filename.
+   */
+  public UploadSession create(Container container, String target) {
+    if (container == null || target == null) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Empty parameter supplied!");
+    }
+    try {
+      StorageFilename.from(target);
+    } catch (InvalidStorageFilenameException e) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!", e);
+    }
+    purgeExpired();
+    Session session = new Session(UUID.randomUUID().toString(), container, target, clock.instant().plus(ttl));
+    sessions.put(session.id, session);
+    record(session);
+    log.info("Started upload session {} for \"{}\" on {} container", session.id, target, container);
+    return new UploadSession(session.id, container, target, List.of(), 0, session.expires());
+  }
+
+  public UploadSession get(String id) {
+    Session session = session(id);
+    NavigableMap<Integer, Chunk> chunks = stagedChunks(session);
+    return new UploadSession(session.id, session.container, session.target, new ArrayList<>(chunks.keySet()), length(chunks), session.expires());
+  }
+
+  /**
+   * Stores one chunk of an upload, replacing any chunk previously sent with the same index.
+   *
+   * @param id the upload session
+   * @param index zero based position of the chunk within the file
+   * @param data the chunk content
+   * @param length the number of bytes in {@code data}
+   */
+  public void putChunk(String id, int index, InputStream data, long length) {
+    if (index < 0 || index >= MAX_CHUNKS) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk index must be between 0 and " + (MAX_CHUNKS - 1) + "!");
+    }
+    if (length <= 0) {
+      throw new ResponseStatusException(HttpStatus.LENGTH_REQUIRED, "Chunk length must be given and not zero!");
+    }
+    if (length > maxChunkBytes) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Chunk exceeds the maximum permitted size of " + maxChunkBytes + " bytes");
+    }
+    Session session = session(id);
+    BlockId blockId = BlockId.next(session.id, index, clock.millis());
+    boolean digest = session.startChunk(index, length);
+    boolean staged = false;
+    try {
+      InputStream content = digest ? new DigestInputStream(data, session.digest) : data;
+      fileService.stageBlock(session.container, session.target, blockId.encode(), content, length);
+      staged = true;
+    } finally {
+      session.finishChunk(index, blockId, length, digest, staged);
+    }
+    if (session.isRecordStale()) {
+      record(session);
+    }
+  }
+
+  /**
+   * Commits the chunks received so far as the content of the target file.
+   *
+   * @param id the upload session
+   * @param expectedChunks the number of chunks the client sent, checked against those received if given
+   * @return hex MD5 checksum of the persisted file, as a single request upload would return
+   */
+  public String complete(String id, Integer expectedChunks) {
+    Session session = session(id);
+    session.startCompletion();
+    boolean completed = false;
+    try {
+      if (!session.committed) {
+        SessionRecord record = readRecord(id);
+        if (record != null && record.isCommitted()) {
+          // Committed by another instance which then failed to record the checksum
+          session.committed = true;
+          session.checksum = record.getChecksum();
+          session.checksumRecorded = record.getChecksum() != null;
+        }
+      }
+      if (!session.committed) {
+        List<String> blockIds = blocksToCommit(session, expectedChunks);
+        session.checksum = session.digestedChecksum(blockIds);
+        fileService.commitBlocks(session.container, session.target, blockIds, session.checksum);
+        session.committed = true;
+        session.checksumRecorded = session.checksum != null;
+        record(session);
+      }
+      if (!session.checksumRecorded) {
+        if (session.checksum == null) {
+          session.checksum = readBackChecksum(session);
+        }
+        fileService.setContentMd5(session.container, session.target, session.checksum);
+        session.checksumRecorded = true;
+      }
+      completed = true;
+      sessions.remove(id);
+      deleteRecord(id);
+      log.info("Completed upload session {} for \"{}\" on {} container", id, session.target, session.container);
+      return FileService.toHex(session.checksum);
+    } finally {
+      if (!completed) {
+        session.abandonCompletion();
+      }
+    }
+  }
+
+  /**
+   * Abandons an upload. Chunks already staged are discarded by storage once they expire.
+   */
+  public void abort(String id) {
+    if (sessions.remove(id) == null && readRecord(id) == null) {
+      throw notFound(id);
+    }
+    deleteRecord(id);
+    log.info("Aborted upload session {}", id);
+  }
+
+  /**
+   * @return identifiers of the latest block staged for each chunk, in chunk order
+   */
+  private List<String> blocksToCommit(Session session, Integer expectedChunks) {
+    NavigableMap<Integer, Chunk> chunks = stagedChunks(session);
+    int count = chunks.isEmpty() ? 0 : chunks.lastKey() + 1;
+    if (count == 0 || chunks.size() != count) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunks missing from upload session " + session.id + ": " + missing(chunks, count));
+    }
+    if (expectedChunks != null && expectedChunks != count) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Upload session " + session.id + " received " + count + " chunks, not " + expectedChunks);
+    }
+    if (length(chunks) > maxFileBytes) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Upload exceeds the maximum permitted size of " + maxFileBytes + " bytes");
+    }
+    return chunks.values().stream().map(chunk -> chunk.blockId.encode()).collect(Collectors.toList());
+  }
+
+  /**
+   * Lists the chunks of a session staged by any instance, keeping the latest block staged for each.
+   */
+  private NavigableMap<Integer, Chunk> stagedChunks(Session session) {
+    NavigableMap<Integer, Chunk> chunks = new TreeMap<>();
+    fileService.getStagedBlocks(session.container, session.target).forEach((encoded, length) -> {
+      BlockId blockId = BlockId.decode(encoded);
+      if (blockId != null && blockId.getUploadId().equals(session.id)) {
+        chunks.merge(blockId.getIndex(), new Chunk(blockId, length), (first, second) -> first.blockId.compareTo(second.blockId) >= 0 ? first : second);
+      }
+    });
+    return chunks;
+  }
+
+  /**
+   * Adds the content not seen as it arrived to the session's digest, reading it back from the committed file.
+   */
+  private String readBackChecksum(Session session) {
+    long offset = session.readBackFrom;
+    MessageDigest digest = offset > 0 ? session.digest : ParallelBlockUploader.md5();
+    // Whether or not the read succeeds the digest now holds more than the chunks received in order
+    session.readBackFrom = 0;
+    log.debug("Reading back \"{}\" from offset {} to calculate its checksum", session.target, offset);
+    try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+      fileService.download(session.container, session.target, offset, Long.MAX_VALUE, null, out);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to calculate checksum of file!", e);
+    }
+    return Base64.getEncoder().encodeToString(digest.digest());
+  }
+
+  private Session session(String id) {
+    Session session = sessions.get(id);
+    if (session == null) {
+      SessionRecord record = readRecord(id);
+      if (record != null) {
+        Session recorded = new Session(record);
+        session = sessions.putIfAbsent(id, recorded);
+        if (session == null) {
+          session = recorded;
+        }
+      }
+    }
+    if (session == null || session.isExpired(clock.instant())) {
+      throw notFound(id);
+    }
+    return session;
+  }
+
+  private void record(Session session) {
+    try {
+      statusBlobs.write(RECORD_PREFIX + session.id + ".json", session.toRecord());
+    } catch (IOException e) {
+      log.warn("Unable to record upload session {}, only this instance can serve it", session.id, e);
+    }
+  }
+
+  private SessionRecord readRecord(String id) {
+    if (!SESSION_ID.matcher(id).matches()) {
+      return null;
+    }
+    try {
+      return statusBlobs.read(RECORD_PREFIX + id + ".json", SessionRecord.class);
+    } catch (IOException e) {
+      throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Unable to read upload session " + id, e);
+    }
+  }
+
+  private void deleteRecord(String id) {
+    try {
+      statusBlobs.delete(RECORD_PREFIX + id + ".json");
+    } catch (IOException e) {
+      log.warn("Unable to delete the record of upload session {}, the sweeper will remove it", id, e);
+    }
+  }
+
+  private void purgeExpired() {
+    Instant now = clock.instant();
+    sessions.values().removeIf(session -> session.isExpired(now));
+  }
+
+  private static long length(Map<Integer, Chunk> chunks) {
+    return chunks.values().stream().mapToLong(chunk -> chunk.length).sum();
+  }
+
+  private static List<Integer> missing(Map<Integer, Chunk> chunks, int count) {
+    List<Integer> missing = new ArrayList<>();
+    for (int i = 0; i < Math.max(count, 1) && missing.size() < 10; i++) {
+      if (!chunks.containsKey(i)) {
+        missing.add(i);
+      }
+    }
+    return missing;
+  }
+
+  private static ResponseStatusException notFound(String id) {
+    return new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session " + id + " does not exist!");
+  }
+
+  /**
+   * What every instance needs to serve a session, kept in its status blob
+   */
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  static class SessionRecord {
+
+    private String id;
+
+    private Container container;
+
+    private String target;
+
+    private Instant expires;
+
+    private boolean committed;
+
+    private String checksum;
+
+  }
+
+  private static final class Chunk {
+
+    private final BlockId blockId;
+
+    private final long length;
+
+    private Chunk(BlockId blockId, long length) {
+      this.blockId = blockId;
+      this.length = length;
+    }
+  }
+
+  private final class Session {
+
+    private final String id;
+
+    private final Container container;
+
+    private final String target;
+
+    /**
+     * Lengths of the chunks staged through this instance, so an upload plainly too large is refused before completion
+     */
+    private final Map<Integer, Long> sent = new HashMap<>();
+
+    private final MessageDigest digest = ParallelBlockUploader.md5();
+
+    /**
+     * Blocks added to the digest, in chunk order from the first
+     */
+    private final List<String> digestedBlocks = new ArrayList<>();
+
+    private long digestedBytes;
+
+    private boolean digesting;
+
+    private boolean digestValid = true;
+
+    private long readBackFrom;
+
+    private Instant expires;
+
+    private Instant recordedExpires;
+
+    private int inFlight;
+
+    private boolean completing;
+
+    private boolean committed;
+
+    private String checksum;
+
+    private boolean checksumRecorded;
+
+    private Session(String id, Container container, String target, Instant expires) {
+      this.id = id;
+      this.container = container;
+      this.target = target;
+      this.expires = expires;
+      this.recordedExpires = expires;
+    }
+
+    private Session(SessionRecord record) {
+      this(record.getId(), record.getContainer(), record.getTarget(), record.getExpires());
+      this.committed = record.isCommitted();
+      this.checksum = record.getChecksum();
+      this.checksumRecorded = record.isCommitted() && record.getChecksum() != null;
+    }
+
+    /**
+     * @return whether the chunk is next in order and should be added to the digest as it is staged
+     */
+    private synchronized boolean startChunk(int index, long length) {
+      if (completing || committed) {
+        throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload session " + id + " is being completed!");
+      }
+      long otherBytes = sent.values().stream().mapToLong(Long::longValue).sum() - sent.getOrDefault(index, 0L);
+      if (otherBytes + length > maxFileBytes) {
+        throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Upload exceeds the maximum permitted size of " + maxFileBytes + " bytes");
+      }
+      expires = clock.instant().plus(ttl);
+      inFlight++;
+      if (index < digestedBlocks.size() || (digesting && index == digestedBlocks.size())) {
+        // A chunk already in the digest is being replaced, so the digest no longer matches the content
+        digestValid = false;
+      }
+      boolean digestChunk = digestValid && !digesting && index == digestedBlocks.size();
+      digesting |= digestChunk;
+      return digestChunk;
+    }
+
+    private synchronized void finishChunk(int index, BlockId blockId, long length, boolean digested, boolean staged) {
+      inFlight--;
+      if (staged) {
+        sent.put(index, length);
+      }
+      if (digested) {
+        digesting = false;
+        if (staged) {
+          digestedBlocks.add(blockId.encode());
+          digestedBytes += length;
+        } else {
+          // Part of the chunk may have been read into the digest
+          digestValid = false;
+        }
+      }
+    }
+
+    private synchronized void startCompletion() {
+      if (completing) {
+        throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload session " + id + " is already being completed!");
+      }
+      if (inFlight > 0) {
+        throw new ResponseStatusException(HttpStatus.CONFLICT, "Chunks of upload session " + id + " are still being received!");
+      }
+      completing = true;
+    }
+
+    /**
+     * Decides how much of the content must be read back once {@code blockIds} are committed.
+     *
+     * @return the checksum of the content if the digest holds exactly the blocks being committed, otherwise {@code null}
+     */
+    private synchronized String digestedChecksum(List<String> blockIds) {
+      int digested = digestedBlocks.size();
+      boolean prefix = digestValid && digested <= blockIds.size() && digestedBlocks.equals(blockIds.subList(0, digested));
+      readBackFrom = prefix ? digestedBytes : 0;
+      if (prefix && digested == blockIds.size()) {
+        // The digest is reset by finishing it, so it no longer describes any chunk
+        digestValid = false;
+        return Base64.getEncoder().encodeToString(digest.digest());
+      }
+      return null;
+    }
+
+    private synchronized void abandonCompletion() {
+      completing = false;
+      if (!committed) {
+        // The checksum, and any digest it was finished from, describe chunks which may now be replaced
+        checksum = null;
+      }
+      expires = clock.instant().plus(ttl);
+    }
+
+    private synchronized boolean isExpired(Instant now) {
+      return !completing && inFlight == 0 && now.isAfter(expires);
+    }
+
+    /**
+     * @return whether the expiry recorded for other instances has fallen a tenth of the time to live behind
+     */
+    private synchronized boolean isRecordStale() {
+      return statusBlobs.isEnabled() && recordedExpires.plus(ttl.dividedBy(10)).isBefore(expires);
+    }
+
+    private synchronized SessionRecord toRecord() {
+      recordedExpires = expires;
+      return new SessionRecord(id, container, target, expires, committed, checksum);
+    }
+
+    private synchronized Instant expires() {
+      return expires;
+    }
+  }
+}
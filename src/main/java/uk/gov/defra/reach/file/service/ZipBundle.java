@@ -0,0 +1,228 @@
+package uk.gov.defra.reach.file.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.ByteBudget;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.BudgetExhaustedException;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+
+/**
+ * A ZIP archive of several files of a container, built while it is written. The start of each of the next few files is
+ * fetched concurrently ahead of the file being written, and the rest of each file is copied straight from storage when its
+ * turn comes, so at most a few prefetch buffers are held in memory. Buffers are reserved from a budget shared by every
+ * bundle, a file whose buffer does not fit in what is left being copied from storage when its turn comes instead.
+ *
+ * <p>Files which are already compressed are not compressed again. Small ones fit in their prefetch buffer and are STORED
+ * as is, which needs their CRC before they are written. Larger ones are written as uncompressed deflate blocks, which adds
+ * only a few bytes in every 64KB. Files stored compressed are decompressed as they are written.
+ */
+@Slf4j
+public class ZipBundle {
+
+  private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+      "7z", "bz2", "docx", "gif", "gz", "i6z", "i6d", "jpeg", "jpg", "mp4", "odt", "png", "pptx", "rar", "tgz", "xlsx", "xz", "zip", "zst");
+
+  private final FileService fileService;
+
+  private final ExecutorService executor;
+
+  private final Container container;
+
+  private final List<String> targets;
+
+  private final List<BlobAttributes> attributes;
+
+  private final int prefetchEntries;
+
+  private final int prefetchBytes;
+
+  private final ByteBudget prefetchBudget;
+
+  ZipBundle(FileService fileService, ExecutorService executor, Container container, List<String> targets, List<BlobAttributes> attributes,
+      int prefetchEntries, int prefetchBytes, ByteBudget prefetchBudget) {
+    this.fileService = fileService;
+    this.executor = executor;
+    this.container = container;
+    this.targets = targets;
+    this.attributes = attributes;
+    this.prefetchEntries = prefetchEntries;
+    this.prefetchBytes = prefetchBytes;
+    this.prefetchBudget = prefetchBudget;
+  }
+
+  /**
+   * Writes the archive, leaving {@code out} open.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    ZipOutputStream zip = new ZipOutputStream(out);
+    Queue<Prefetch> prefetched = new ArrayDeque<>();
+    try {
+      int next = 0;
+      for (int i = 0; i < targets.size(); i++) {
+        while (next < targets.size() && next < i + prefetchEntries) {
+          prefetched.add(prefetch(next++));
+        }
+        Prefetch prefetch = prefetched.remove();
+        try {
+          writeEntry(zip, i, await(prefetch.head));
+        } finally {
+          prefetch.reservation.close();
+        }
+      }
+      zip.finish();
+    } finally {
+      prefetched.forEach(Prefetch::cancel);
+    }
+  }
+
+  private Prefetch prefetch(int index) {
+    String target = targets.get(index);
+    BlobAttributes blob = attributes.get(index);
+    // Compressed content must be decompressed as it is written, so none of it is prefetched
+    int length = FileService.isGzipEncoded(blob) ? 0 : (int) Math.min(prefetchBytes, blob.getLength());
+    if (length == 0) {
+      return Prefetch.NONE;
+    }
+    Reservation reservation;
+    try {
+      reservation = prefetchBudget.reserve(length);
+    } catch (BudgetExhaustedException e) {
+      return Prefetch.NONE;
+    }
+    Future<byte[]> head = executor.submit(() -> {
+      // Read straight into a buffer of the exact length, rather than one which grows and is then copied
+      byte[] buffer = new byte[length];
+      ArrayOutputStream content = new ArrayOutputStream(buffer);
+      fileService.download(container, target, 0, length, blob.getEtag(), content);
+      return content.count < length ? Arrays.copyOf(buffer, content.count) : buffer;
+    });
+    return new Prefetch(head, reservation);
+  }
+
+  private void writeEntry(ZipOutputStream zip, int index, byte[] head) throws IOException {
+    String target = targets.get(index);
+    BlobAttributes blob = attributes.get(index);
+    boolean encoded = FileService.isGzipEncoded(blob);
+    boolean complete = !encoded && head.length >= blob.getLength();
+    boolean compressed = isCompressed(target);
+
+    ZipEntry entry = new ZipEntry(target);
+    if (blob.getLastModified() != null) {
+      entry.setTime(blob.getLastModified().toEpochMilli());
+    }
+    if (compressed && complete) {
+      CRC32 crc = new CRC32();
+      crc.update(head);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(head.length);
+      entry.setCompressedSize(head.length);
+      entry.setCrc(crc.getValue());
+    } else {
+      entry.setMethod(ZipEntry.DEFLATED);
+      zip.setLevel(compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+    }
+
+    zip.putNextEntry(entry);
+    zip.write(head);
+    if (encoded) {
+      fileService.downloadDecoded(container, target, blob, zip);
+    } else if (!complete) {
+      fileService.download(container, target, head.length, blob.getLength() - head.length, blob.getEtag(), zip);
+    }
+    zip.closeEntry();
+  }
+
+  private static byte[] await(Future<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching bundle content", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      if (e.getCause() instanceof ResponseStatusException) {
+        // The response has already started, so the only way left to report the failure is to abort it
+        throw new IOException(((ResponseStatusException) e.getCause()).getReason(), e.getCause());
+      }
+      throw new IOException("Unable to fetch bundle content", e.getCause());
+    }
+  }
+
+  /**
+   * The start of a file, fetched ahead of its turn, and the part of the budget its buffer holds
+   */
+  private static final class Prefetch {
+
+    private static final Prefetch NONE = new Prefetch(CompletableFuture.completedFuture(new byte[0]), Reservation.NONE);
+
+    private final Future<byte[]> head;
+
+    private final Reservation reservation;
+
+    private Prefetch(Future<byte[]> head, Reservation reservation) {
+      this.head = head;
+      this.reservation = reservation;
+    }
+
+    /**
+     * Interrupts the fetch, its buffer becoming garbage as soon as it stops
+     */
+    private void cancel() {
+      head.cancel(true);
+      reservation.close();
+    }
+  }
+
+  /**
+   * Writes into a fixed buffer, refusing content beyond its end
+   */
+  private static final class ArrayOutputStream extends OutputStream {
+
+    private final byte[] buffer;
+
+    private int count;
+
+    private ArrayOutputStream(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len > buffer.length - count) {
+        throw new IOException("Content exceeds the " + buffer.length + " bytes requested");
+      }
+      System.arraycopy(b, off, buffer, count, len);
+      count += len;
+    }
+  }
+
+  static boolean isCompressed(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+}
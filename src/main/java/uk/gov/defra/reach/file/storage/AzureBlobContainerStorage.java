@@ -0,0 +1,403 @@
+package uk.gov.defra.reach.file.storage;
+
+import com.google.common.io.ByteStreams;
+import com.microsoft.azure.storage.AccessCondition;
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultContinuationType;
+import com.microsoft.azure.storage.ResultSegment;
+import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
+import com.microsoft.azure.storage.blob.BlobProperties;
+import com.microsoft.azure.storage.blob.BlobRequestOptions;
+import com.microsoft.azure.storage.blob.BlockEntry;
+import com.microsoft.azure.storage.blob.BlockListingFilter;
+import com.microsoft.azure.storage.blob.CloudBlob;
+import com.microsoft.azure.storage.blob.CloudBlobContainer;
+import com.microsoft.azure.storage.blob.CloudBlockBlob;
+import com.microsoft.azure.storage.blob.CopyState;
+import com.microsoft.azure.storage.blob.CopyStatus;
+import com.microsoft.azure.storage.blob.ListBlobItem;
+import com.microsoft.azure.storage.blob.SharedAccessBlobPermissions;
+import com.microsoft.azure.storage.blob.SharedAccessBlobPolicy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import uk.gov.defra.reach.file.io.ChecksumMismatchException;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * {@link BlobStorage} backed by an Azure blob container. The basic operations are delegated to the shared
+ * {@code AzureBlobStorage} implementation, the blob level operations use the container directly.
+ */
+public class AzureBlobContainerStorage implements BlobStorage {
+
+  /**
+   * Error code with which storage refuses a request whose body does not match the MD5 sent with it
+   */
+  private static final String MD5_MISMATCH = "Md5Mismatch";
+
+  private final Storage delegate;
+
+  private final CloudBlobContainer container;
+
+  private final int readBufferSize;
+
+  /**
+   * @param readBufferSize bytes fetched per request when streaming blob content, which bounds the memory each open stream holds
+   */
+  public AzureBlobContainerStorage(Storage delegate, CloudBlobContainer container, int readBufferSize) {
+    this.delegate = delegate;
+    this.container = container;
+    this.readBufferSize = readBufferSize;
+  }
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    return delegate.store(file, filename);
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    return delegate.get(filename);
+  }
+
+  /**
+   * Signs the URI with the account key rather than through the shared implementation, whose lifetime is fixed
+   */
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    SharedAccessBlobPolicy policy = new SharedAccessBlobPolicy();
+    policy.setPermissions(EnumSet.of(SharedAccessBlobPermissions.READ));
+    policy.setSharedAccessExpiryTime(Date.from(Instant.now().plus(lifetime)));
+    try {
+      return new URI(blob.getUri() + "?" + blob.generateSharedAccessSignature(policy, null));
+    } catch (StorageException | InvalidKeyException | URISyntaxException e) {
+      throw new IOException("Unable to sign URI of " + filename.get(), e);
+    }
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) throws IOException {
+    return delegate.exists(filename);
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) throws IOException {
+    return delegate.delete(filename);
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    try {
+      // Storage checks each block against an MD5 sent with it, as the MD5 committed for the whole blob is not checked
+      BlobRequestOptions options = new BlobRequestOptions();
+      options.setUseTransactionalContentMD5(true);
+      blob(filename).uploadBlock(blockId, data, length, null, options, null);
+    } catch (StorageException e) {
+      if (MD5_MISMATCH.equals(e.getErrorCode())) {
+        throw new ChecksumMismatchException(filename.get(), e);
+      }
+      throw new IOException("Unable to stage block " + blockId + " of " + filename.get(), e);
+    }
+  }
+
+  /**
+   * Properties and metadata set on the blob reference are sent as headers of the Put Blob request. The MD5 of the content
+   * is recorded as its property, while the client calculates the MD5 of the request body it sends, which storage checks.
+   */
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    blob.getProperties().setContentMD5(contentMd5);
+    setContentProperties(blob, properties);
+    BlobRequestOptions options = new BlobRequestOptions();
+    options.setStoreBlobContentMD5(false);
+    options.setUseTransactionalContentMD5(true);
+    try {
+      blob.upload(file, length, null, options, null);
+    } catch (StorageException e) {
+      if (MD5_MISMATCH.equals(e.getErrorCode())) {
+        throw new ChecksumMismatchException(filename.get(), e);
+      }
+      throw new IOException("Unable to store " + filename.get(), e);
+    }
+  }
+
+  /**
+   * Properties and metadata set on the blob reference are sent as headers of the Put Block List request
+   */
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    try {
+      CloudBlockBlob blob = blob(filename);
+      blob.getProperties().setContentMD5(contentMd5);
+      setContentProperties(blob, properties);
+      blob.commitBlockList(blockIds.stream().map(BlockEntry::new).collect(Collectors.toList()));
+    } catch (StorageException e) {
+      throw new IOException("Unable to commit block list of " + filename.get(), e);
+    }
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException {
+    try {
+      return blob(filename).downloadBlockList(BlockListingFilter.UNCOMMITTED, null, null, null).stream()
+          .collect(Collectors.toMap(BlockEntry::getId, BlockEntry::getSize, (first, second) -> second));
+    } catch (StorageException e) {
+      if (e.getHttpStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+        return Map.of();
+      }
+      throw asIOException(e, filename);
+    }
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    try {
+      // Properties are replaced as a whole, so the current ones are fetched first to preserve them
+      blob.downloadAttributes();
+      blob.getProperties().setContentMD5(contentMd5);
+      blob.uploadProperties();
+    } catch (StorageException e) {
+      throw asIOException(e, filename);
+    }
+  }
+
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    try {
+      blob(filename).startCopy(source);
+    } catch (StorageException e) {
+      throw new IOException("Unable to start copy into " + filename.get(), e);
+    }
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    try {
+      blob.downloadAttributes();
+    } catch (StorageException e) {
+      throw asIOException(e, filename);
+    }
+    CopyState copyState = blob.getCopyState();
+    if (copyState == null) {
+      // Not the target of a copy, so its content is complete
+      return CopyProgress.builder().status(CopyProgress.Status.SUCCESS).build();
+    }
+    CopyProgress.Status status;
+    switch (copyState.getStatus()) {
+      case SUCCESS:
+        status = CopyProgress.Status.SUCCESS;
+        break;
+      case ABORTED:
+        status = CopyProgress.Status.ABORTED;
+        break;
+      case FAILED:
+        status = CopyProgress.Status.FAILED;
+        break;
+      default:
+        status = CopyProgress.Status.PENDING;
+    }
+    return CopyProgress.builder()
+        .status(status)
+        .bytesCopied(copyState.getBytesCopied() == null ? 0 : copyState.getBytesCopied())
+        .totalBytes(copyState.getTotalBytes() == null ? 0 : copyState.getTotalBytes())
+        .description(copyState.getStatusDescription())
+        .build();
+  }
+
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    try {
+      blob.downloadAttributes();
+      CopyState copyState = blob.getCopyState();
+      if (copyState != null && copyState.getStatus() == CopyStatus.PENDING) {
+        blob.abortCopy(copyState.getCopyId());
+      }
+    } catch (StorageException e) {
+      // Conflict if the copy finished since its state was read
+      if (e.getHttpStatusCode() != HttpURLConnection.HTTP_CONFLICT) {
+        throw asIOException(e, filename);
+      }
+    }
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    try {
+      blob.downloadAttributes();
+    } catch (StorageException e) {
+      throw asIOException(e, filename);
+    }
+    BlobProperties properties = blob.getProperties();
+    return BlobAttributes.builder()
+        .length(properties.getLength())
+        .etag(properties.getEtag())
+        .lastModified(properties.getLastModified() == null ? null : properties.getLastModified().toInstant())
+        .contentMd5(properties.getContentMD5())
+        .contentType(properties.getContentType())
+        .contentEncoding(properties.getContentEncoding())
+        .metadata(Map.copyOf(blob.getMetadata()))
+        .build();
+  }
+
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException {
+    ResultContinuation continuation = null;
+    if (continuationToken != null) {
+      continuation = new ResultContinuation();
+      continuation.setContinuationType(ResultContinuationType.BLOB);
+      continuation.setNextMarker(continuationToken);
+    }
+    ResultSegment<ListBlobItem> segment;
+    try {
+      segment = container.listBlobsSegmented(prefix, true, EnumSet.noneOf(BlobListingDetails.class), maxResults, continuation, null, null);
+    } catch (StorageException e) {
+      if (continuationToken != null && e.getHttpStatusCode() == HttpURLConnection.HTTP_BAD_REQUEST) {
+        throw new IllegalArgumentException("Invalid continuation token " + continuationToken, e);
+      }
+      throw new IOException("Storage request to list blobs failed", e);
+    }
+    List<ListedBlob> blobs = new ArrayList<>(segment.getLength());
+    for (ListBlobItem item : segment.getResults()) {
+      if (item instanceof CloudBlob) {
+        CloudBlob blob = (CloudBlob) item;
+        BlobProperties properties = blob.getProperties();
+        blobs.add(ListedBlob.builder()
+            .name(blob.getName())
+            .length(properties.getLength())
+            .lastModified(properties.getLastModified() == null ? null : properties.getLastModified().toInstant())
+            .contentMd5(properties.getContentMD5())
+            .build());
+      }
+    }
+    return BlobListing.builder()
+        .blobs(blobs)
+        .continuationToken(segment.getHasMoreResults() ? segment.getContinuationToken().getNextMarker() : null)
+        .build();
+  }
+
+  @Override
+  public String acquireLease(StorageFilename filename, Duration duration) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    try {
+      blob.uploadFromByteArray(new byte[0], 0, 0, AccessCondition.generateIfNotExistsCondition(), null, null);
+    } catch (StorageException e) {
+      // Already exists, and may be leased
+      if (e.getHttpStatusCode() != HttpURLConnection.HTTP_CONFLICT && e.getHttpStatusCode() != HttpURLConnection.HTTP_PRECON_FAILED) {
+        throw asIOException(e, filename);
+      }
+    }
+    try {
+      return blob.acquireLease(Math.toIntExact(duration.getSeconds()), null);
+    } catch (StorageException e) {
+      if (e.getHttpStatusCode() == HttpURLConnection.HTTP_CONFLICT) {
+        return null;
+      }
+      throw asIOException(e, filename);
+    }
+  }
+
+  @Override
+  public boolean renewLease(StorageFilename filename, String leaseId) throws IOException {
+    try {
+      blob(filename).renewLease(AccessCondition.generateLeaseCondition(leaseId));
+      return true;
+    } catch (StorageException e) {
+      if (e.getHttpStatusCode() == HttpURLConnection.HTTP_CONFLICT) {
+        return false;
+      }
+      throw asIOException(e, filename);
+    }
+  }
+
+  @Override
+  public void releaseLease(StorageFilename filename, String leaseId) throws IOException {
+    try {
+      blob(filename).releaseLease(AccessCondition.generateLeaseCondition(leaseId));
+    } catch (StorageException e) {
+      if (e.getHttpStatusCode() != HttpURLConnection.HTTP_CONFLICT) {
+        throw asIOException(e, filename);
+      }
+    }
+  }
+
+  /**
+   * The stream sends the entity tag with each ranged read of the blob, so storage refuses any made after it is replaced
+   */
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    CloudBlockBlob blob = blob(filename);
+    blob.setStreamMinimumReadSizeInBytes(readBufferSize);
+    try {
+      InputStream in = blob.openInputStream(etag == null ? null : AccessCondition.generateIfMatchCondition(etag), null, null);
+      ByteStreams.skipFully(in, offset);
+      return ByteStreams.limit(in, length);
+    } catch (StorageException e) {
+      throw asIOException(e, filename, etag);
+    } catch (IOException e) {
+      throw modifiedIfRefused(e, filename, etag);
+    }
+  }
+
+  private static void setContentProperties(CloudBlockBlob blob, ContentProperties properties) {
+    blob.getProperties().setContentEncoding(properties.getContentEncoding());
+    blob.setMetadata(new HashMap<>(properties.getMetadata()));
+  }
+
+  private static IOException asIOException(StorageException e, StorageFilename filename) {
+    return asIOException(e, filename, null);
+  }
+
+  private static IOException asIOException(StorageException e, StorageFilename filename, String etag) {
+    if (e.getHttpStatusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+      FileNotFoundException notFound = new FileNotFoundException(filename.get());
+      notFound.initCause(e);
+      return notFound;
+    }
+    if (etag != null && e.getHttpStatusCode() == HttpURLConnection.HTTP_PRECON_FAILED) {
+      return new BlobModifiedException(filename.get(), etag, e);
+    }
+    return new IOException("Storage request for " + filename.get() + " failed", e);
+  }
+
+  /**
+   * Reads of the stream after the first wrap the storage failure in an {@link IOException}
+   */
+  private static IOException modifiedIfRefused(IOException e, StorageFilename filename, String etag) {
+    if (e.getCause() instanceof StorageException) {
+      IOException mapped = asIOException((StorageException) e.getCause(), filename, etag);
+      if (mapped instanceof BlobModifiedException) {
+        return mapped;
+      }
+    }
+    return e;
+  }
+
+  private CloudBlockBlob blob(StorageFilename filename) throws IOException {
+    try {
+      return container.getBlockBlobReference(filename.get());
+    } catch (URISyntaxException | StorageException e) {
+      throw new IOException("Unable to reference blob " + filename.get(), e);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.time.Instant;
+import java.util.Map;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * System properties of a stored blob
+ */
+@Value
+@Builder
+public class BlobAttributes {
+
+  long length;
+
+  String etag;
+
+  Instant lastModified;
+
+  /**
+   * Base64 MD5 of the blob content, if recorded
+   */
+  String contentMd5;
+
+  String contentType;
+
+  /**
+   * HTTP content coding the blob content is stored in, such as gzip, or {@code null} if it is stored as uploaded
+   */
+  String contentEncoding;
+
+  /**
+   * User defined metadata recorded against the blob
+   */
+  Map<String, String> metadata;
+
+}
@@ -0,0 +1,21 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.util.List;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * One page of a container listing, in name order
+ */
+@Value
+@Builder
+public class BlobListing {
+
+  List<ListedBlob> blobs;
+
+  /**
+   * Opaque token from which the listing continues, or {@code null} if this is the last page
+   */
+  String continuationToken;
+
+}
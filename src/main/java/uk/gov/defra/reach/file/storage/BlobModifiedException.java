@@ -0,0 +1,19 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a blob read on condition of its entity tag has been replaced since that entity tag was read.
+ */
+public class BlobModifiedException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public BlobModifiedException(String filename, String etag) {
+    super("Blob " + filename + " no longer has entity tag " + etag);
+  }
+
+  public BlobModifiedException(String filename, String etag, Throwable cause) {
+    super("Blob " + filename + " no longer has entity tag " + etag, cause);
+  }
+}
@@ -0,0 +1,206 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Blob level operations beyond the basic {@link Storage} contract. Storage implementations which do not implement this
+ * interface only support the basic store, get, exists and delete operations.
+ */
+public interface BlobStorage extends Storage {
+
+  /**
+   * Issues a URI from which the blob can be read for a given time, for readers which need it for longer than a URI from
+   * {@link #get(StorageFilename)} lasts, such as a storage side copy.
+   *
+   * @param filename the blob to read
+   * @param lifetime how long the URI must remain valid
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   */
+  URI get(StorageFilename filename, Duration lifetime) throws IOException;
+
+  /**
+   * Uploads a single uncommitted block of a block blob. Storage checks each block it receives against the MD5 of the block
+   * as sent, refusing blocks which were corrupted on the way, as the MD5 committed for the whole blob is only recorded.
+   *
+   * @param filename the blob the block belongs to
+   * @param blockId Base64 block identifier, all identifiers for a blob must be the same length
+   * @param data the block content
+   * @param length the number of bytes in {@code data}
+   * @throws uk.gov.defra.reach.file.io.ChecksumMismatchException if storage refused the block
+   */
+  void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException;
+
+  /**
+   * Stores content with one request, along with properties of the content, replacing any blob of the same name. Storage
+   * checks the content it receives against {@code contentMd5}, refusing content which was corrupted on the way, and records
+   * the MD5 against the blob. A content encoding is served with downloads using a URI from {@link #get}, so clients decode
+   * the content transparently.
+   *
+   * @param file the content
+   * @param length the number of bytes in {@code file}
+   * @param filename the blob to store
+   * @param contentMd5 Base64 MD5 of the content
+   * @param properties properties written with the content
+   * @throws uk.gov.defra.reach.file.io.ChecksumMismatchException if storage refused the content, leaving any blob it
+   *     replaces as it was
+   */
+  void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException;
+
+  /**
+   * Commits previously staged blocks, in the given order, as the content of the blob.
+   *
+   * @param filename the blob to commit
+   * @param blockIds identifiers of the staged blocks
+   * @param contentMd5 Base64 MD5 of the complete content, recorded against the blob, or {@code null} if not yet known
+   */
+  default void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5) throws IOException {
+    commitBlocks(filename, blockIds, contentMd5, ContentProperties.NONE);
+  }
+
+  /**
+   * Commits previously staged blocks as {@link #commitBlocks(StorageFilename, List, String)} does, along with properties
+   * of the content written in the same request.
+   *
+   * @param properties properties written with the content
+   */
+  void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException;
+
+  /**
+   * Lists the blocks staged for a blob which have not been committed. Committing a blob discards any of its staged blocks
+   * not included.
+   *
+   * @param filename the blob the blocks belong to
+   * @return the length of each staged block by identifier, empty if there are none
+   */
+  Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException;
+
+  /**
+   * Records the MD5 of a blob's complete content, for blobs committed before their MD5 was known.
+   *
+   * @param filename the blob to update
+   * @param contentMd5 Base64 MD5 of the blob's content
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   */
+  void setContentMd5(StorageFilename filename, String contentMd5) throws IOException;
+
+  /**
+   * Starts copying content into a blob on the storage side, without it passing through this service. Properties of the
+   * source, including its MD5, are carried over. The copy may finish after this method returns.
+   *
+   * @param filename the blob to copy into
+   * @param source URI from which storage can read the content, such as a SAS URI of a blob in another account
+   */
+  void startCopy(StorageFilename filename, URI source) throws IOException;
+
+  /**
+   * @param filename the blob being copied into
+   * @return the state of the last copy into the blob
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   */
+  CopyProgress getCopyProgress(StorageFilename filename) throws IOException;
+
+  /**
+   * Aborts the copy into a blob started by {@link #startCopy}, should it still be pending. Storage leaves the blob empty,
+   * without the source's content or properties. Does nothing if the copy has already finished.
+   *
+   * @param filename the blob being copied into
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   */
+  void abortCopy(StorageFilename filename) throws IOException;
+
+  /**
+   * @param filename the blob to describe
+   * @return the blob's properties
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   */
+  BlobAttributes getAttributes(StorageFilename filename) throws IOException;
+
+  /**
+   * Lists one page of the blobs whose names start with a prefix, in name order. Only the page is held in memory, however
+   * many blobs the container holds.
+   *
+   * @param prefix the start of the names to list, or {@code null} to list every blob
+   * @param continuationToken token of the previous page from which to continue, or {@code null} to start from the first
+   * @param maxResults the most blobs to return, fewer may be returned even when more remain
+   * @throws IllegalArgumentException if the continuation token was not issued by this storage
+   */
+  BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException;
+
+  /**
+   * Acquires an exclusive lease on a blob, so that only one holder at a time, across every replica, acts on whatever the
+   * blob guards. The blob is created empty if it does not exist.
+   *
+   * @param filename the blob to lease
+   * @param duration how long the lease lasts unless renewed, from 15 to 60 seconds
+   * @return the lease id, or {@code null} if another holder has the lease
+   */
+  String acquireLease(StorageFilename filename, Duration duration) throws IOException;
+
+  /**
+   * Extends a lease by its duration, from now.
+   *
+   * @return whether the lease is still held, it has been lost if it expired and another holder acquired it
+   */
+  boolean renewLease(StorageFilename filename, String leaseId) throws IOException;
+
+  /**
+   * Releases a lease, so another holder can acquire it without waiting for it to expire. A lease already lost is ignored.
+   */
+  void releaseLease(StorageFilename filename, String leaseId) throws IOException;
+
+  /**
+   * Opens a stream over part of a blob's content. Implementations read ahead by a small bounded amount at most, so the
+   * content is never held in memory as a whole.
+   *
+   * @param filename the blob to read
+   * @param offset index of the first byte to read
+   * @param length number of bytes to read
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   */
+  default InputStream openStream(StorageFilename filename, long offset, long length) throws IOException {
+    return openStream(filename, offset, length, null);
+  }
+
+  /**
+   * Opens a stream over part of a blob's content, provided the blob has not been replaced since its attributes were read.
+   * The condition holds for the whole stream, so content read in several parts, or described by attributes read earlier,
+   * all comes from one version of the blob.
+   *
+   * @param etag the entity tag the blob must have, as given by {@link #getAttributes}, or {@code null} to read any version
+   * @throws java.io.FileNotFoundException if the blob does not exist
+   * @throws BlobModifiedException if the blob has another entity tag when opened, reading the stream fails if it is replaced
+   *     while being read
+   */
+  InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException;
+
+  /**
+   * Copies part of a blob's content to {@code out}.
+   *
+   * @return the number of bytes copied
+   */
+  default long transferTo(StorageFilename filename, long offset, long length, OutputStream out) throws IOException {
+    return transferTo(filename, offset, length, null, out);
+  }
+
+  /**
+   * Copies part of a blob's content to {@code out}, provided the blob has not been replaced since its attributes were read.
+   *
+   * @param etag the entity tag the blob must have, or {@code null} to copy any version
+   * @return the number of bytes copied
+   * @throws BlobModifiedException if the blob has another entity tag, in which case some content may have been copied
+   */
+  default long transferTo(StorageFilename filename, long offset, long length, String etag, OutputStream out) throws IOException {
+    try (InputStream in = openStream(filename, offset, length, etag)) {
+      return in.transferTo(out);
+    }
+  }
+
+}
@@ -0,0 +1,664 @@
+package uk.gov.defra.reach.file.storage;
+
+import com.google.common.io.ByteStreams;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.FileSystemUtils;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Read-through cache of blob content on local disk, in front of another {@link BlobStorage}. Content transferred through
+ * this storage is downloaded once, checked against the MD5 recorded in the underlying storage and then served from disk.
+ * A miss downloads the file to disk on the fill executor, and every caller missing the same file meanwhile is sent its
+ * range from the file as it is written, so each is served at its own pace and a slow client holds up neither the fill nor
+ * the others. When the executor is busy, a miss reads from the underlying storage without filling. Entries cached for
+ * longer than
+ * {@code revalidateAfter} are checked against the blob's entity tag before being served, so blobs changed through another
+ * replica are not served stale for long. Writes and deletes pass straight through and drop the cached copy. Once the
+ * cache exceeds its size the least recently, or least frequently, used files are evicted.
+ */
+@Slf4j
+public class CachingStorage implements DelegatingStorage, MeterBinder {
+
+  public enum EvictionPolicy {
+    LRU, LFU
+  }
+
+  private static final int FILL_BUFFER_SIZE = 64 * 1024;
+
+  private final BlobStorage delegate;
+
+  private final Container container;
+
+  private final Path directory;
+
+  private final long maxBytes;
+
+  private final long maxEntryBytes;
+
+  private final long revalidateAfterNanos;
+
+  private final Comparator<Entry> evictionOrder;
+
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  private final Executor fillExecutor;
+
+  /**
+   * Fills in progress, by filename
+   */
+  private final Map<String, Fill> fills = new HashMap<>();
+
+  private long cachedBytes;
+
+  private long accessCounter;
+
+  /**
+   * Incremented whenever a write invalidates an entry, so a fill which raced with a write is not cached
+   */
+  private long writeEpoch;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong coalescedFills = new AtomicLong();
+
+  private final AtomicLong bytesSaved = new AtomicLong();
+
+  /**
+   * @param revalidateAfter how long an entry is served before being checked against the underlying storage again
+   * @param fillExecutor downloads files to disk, a miss is read from the underlying storage without filling when it is rejected
+   */
+  public CachingStorage(BlobStorage delegate, Container container, Path directory, long maxBytes, long maxEntryBytes, EvictionPolicy policy,
+      Duration revalidateAfter, Executor fillExecutor) throws IOException {
+    this.delegate = delegate;
+    this.container = container;
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = Math.min(maxEntryBytes, maxBytes);
+    this.revalidateAfterNanos = revalidateAfter.toNanos();
+    this.evictionOrder = policy == EvictionPolicy.LFU
+        ? Comparator.<Entry>comparingLong(entry -> entry.hits).thenComparingLong(entry -> entry.lastAccess)
+        : Comparator.comparingLong(entry -> entry.lastAccess);
+    this.fillExecutor = fillExecutor;
+    FileSystemUtils.deleteRecursively(directory);
+    Files.createDirectories(directory);
+  }
+
+  @Override
+  public BlobStorage getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    try {
+      return delegate.store(file, filename);
+    } finally {
+      evict(filename.get());
+    }
+  }
+
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    try {
+      delegate.store(file, length, filename, contentMd5, properties);
+    } finally {
+      evict(filename.get());
+    }
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    return delegate.get(filename);
+  }
+
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    return delegate.get(filename, lifetime);
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) throws IOException {
+    if (lookup(filename) != null) {
+      hits.incrementAndGet();
+      return true;
+    }
+    misses.incrementAndGet();
+    return delegate.exists(filename);
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) throws IOException {
+    evict(filename.get());
+    return delegate.delete(filename);
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    delegate.stageBlock(filename, blockId, data, length);
+  }
+
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    try {
+      delegate.commitBlocks(filename, blockIds, contentMd5, properties);
+    } finally {
+      evict(filename.get());
+    }
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException {
+    return delegate.getStagedBlocks(filename);
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    try {
+      delegate.setContentMd5(filename, contentMd5);
+    } finally {
+      evict(filename.get());
+    }
+  }
+
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    try {
+      delegate.startCopy(filename, source);
+    } finally {
+      evict(filename.get());
+    }
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    return delegate.getCopyProgress(filename);
+  }
+
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    try {
+      delegate.abortCopy(filename);
+    } finally {
+      evict(filename.get());
+    }
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    Entry entry = lookup(filename);
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry.attributes;
+    }
+    misses.incrementAndGet();
+    return delegate.getAttributes(filename);
+  }
+
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException {
+    return delegate.list(prefix, continuationToken, maxResults);
+  }
+
+  @Override
+  public String acquireLease(StorageFilename filename, Duration duration) throws IOException {
+    return delegate.acquireLease(filename, duration);
+  }
+
+  @Override
+  public boolean renewLease(StorageFilename filename, String leaseId) throws IOException {
+    return delegate.renewLease(filename, leaseId);
+  }
+
+  @Override
+  public void releaseLease(StorageFilename filename, String leaseId) throws IOException {
+    delegate.releaseLease(filename, leaseId);
+  }
+
+  /**
+   * Files not cached are streamed straight from the underlying storage, only transfers fill the cache. A cached file
+   * evicted before it could be opened is read from the underlying storage too.
+   */
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    Entry entry = lookup(filename, etag);
+    if (entry == null || !entry.hasEtag(etag)) {
+      misses.incrementAndGet();
+      return delegate.openStream(filename, offset, length, etag);
+    }
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(entry.path, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      misses.incrementAndGet();
+      return delegate.openStream(filename, offset, length, etag);
+    }
+    hits.incrementAndGet();
+    channel.position(offset);
+    bytesSaved.addAndGet(Math.max(0, Math.min(length, entry.attributes.getLength() - offset)));
+    return ByteStreams.limit(Channels.newInputStream(channel), length);
+  }
+
+  @Override
+  public long transferTo(StorageFilename filename, long offset, long length, String etag, OutputStream out) throws IOException {
+    Entry entry = lookup(filename, etag);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return readThrough(filename, offset, length, etag, out);
+    }
+    if (!entry.hasEtag(etag)) {
+      misses.incrementAndGet();
+      return delegate.transferTo(filename, offset, length, etag, out);
+    }
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(entry.path, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      // Evicted since it was looked up
+      misses.incrementAndGet();
+      return delegate.transferTo(filename, offset, length, etag, out);
+    }
+    hits.incrementAndGet();
+    try (channel) {
+      long end = offset + Math.min(length, Math.max(0, channel.size() - offset));
+      long sent = transfer(channel, offset, end, Channels.newChannel(out));
+      bytesSaved.addAndGet(sent);
+      return sent;
+    }
+  }
+
+  /**
+   * Reads a file which is not cached from the fill of it in progress, starting one if there is none. Files too large to
+   * cache, or wanted at another version than the fill's, are read from the underlying storage.
+   */
+  private long readThrough(StorageFilename filename, long offset, long length, String etag, OutputStream out) throws IOException {
+    Fill fill;
+    boolean joined;
+    synchronized (this) {
+      fill = fills.get(filename.get());
+      joined = fill != null;
+      if (joined) {
+        coalescedFills.incrementAndGet();
+      } else {
+        fill = startFill(filename);
+      }
+    }
+    if (fill == null) {
+      return delegate.transferTo(filename, offset, length, etag, out);
+    }
+    BlobAttributes attributes = fill.awaitStarted();
+    if (attributes == null || (etag != null && !etag.equals(attributes.getEtag()))) {
+      return delegate.transferTo(filename, offset, length, etag, out);
+    }
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(fill.path, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      // Finished and since evicted, or written while filling
+      return delegate.transferTo(filename, offset, length, etag, out);
+    }
+    try (channel) {
+      long sent = fill.transferTo(channel, offset, length, Channels.newChannel(out));
+      if (joined) {
+        bytesSaved.addAndGet(sent);
+      }
+      return sent;
+    }
+  }
+
+  /**
+   * @return the new fill of the file, or {@code null} if the fill executor is busy
+   */
+  private synchronized Fill startFill(StorageFilename filename) {
+    Fill fill = new Fill(directory.resolve(UUID.randomUUID().toString()));
+    fills.put(filename.get(), fill);
+    try {
+      fillExecutor.execute(() -> fill(filename, fill));
+    } catch (RejectedExecutionException e) {
+      fills.remove(filename.get(), fill);
+      return null;
+    }
+    return fill;
+  }
+
+  /**
+   * Downloads a file to disk, independently of the callers reading it as it is written, and caches it unless it is too
+   * large to cache or was written while being filled
+   */
+  private void fill(StorageFilename filename, Fill fill) {
+    try {
+      long epoch = writeEpoch();
+      BlobAttributes attributes = delegate.getAttributes(filename);
+      if (attributes.getLength() > maxEntryBytes) {
+        fill.start(null);
+        return;
+      }
+      MessageDigest md5 = md5();
+      try (InputStream in = delegate.openStream(filename, 0, attributes.getLength(), attributes.getEtag());
+          OutputStream file = new DigestOutputStream(Files.newOutputStream(fill.path, StandardOpenOption.CREATE_NEW), md5)) {
+        fill.start(attributes);
+        byte[] buffer = new byte[FILL_BUFFER_SIZE];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+          file.write(buffer, 0, read);
+          file.flush();
+          fill.written(read);
+        }
+      }
+      String actualMd5 = Base64.getEncoder().encodeToString(md5.digest());
+      if (attributes.getContentMd5() != null && !attributes.getContentMd5().equals(actualMd5)) {
+        throw new IOException("Content of " + filename.get() + " does not match its stored MD5");
+      }
+      add(filename.get(), new Entry(fill.path, attributes), epoch);
+      fill.complete(null);
+    } catch (IOException | RuntimeException e) {
+      deleteQuietly(fill.path);
+      fill.complete(e instanceof IOException ? (IOException) e : new IOException("Unable to fill cache with " + filename.get(), e));
+    } finally {
+      synchronized (this) {
+        fills.remove(filename.get(), fill);
+      }
+    }
+  }
+
+  private static long transfer(FileChannel channel, long position, long end, WritableByteChannel out) throws IOException {
+    long start = position;
+    while (position < end) {
+      long transferred = channel.transferTo(position, end - position, out);
+      if (transferred <= 0) {
+        break;
+      }
+      position += transferred;
+    }
+    return position - start;
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      log.warn("Unable to delete cache file {}", path, e);
+    }
+  }
+
+  /**
+   * A read conditional on the entity tag of the cached copy needs no revalidation, the caller has just read the tag
+   */
+  private Entry lookup(StorageFilename filename, String etag) throws IOException {
+    if (etag == null) {
+      return lookup(filename);
+    }
+    return touch(filename.get());
+  }
+
+  /**
+   * @return the cache entry for the file, checked against the underlying storage first if it has not been for longer than
+   *     {@code revalidateAfter}, or {@code null} if the file is not cached or has changed since
+   */
+  private Entry lookup(StorageFilename filename) throws IOException {
+    Entry entry = touch(filename.get());
+    if (entry == null || System.nanoTime() - entry.validatedAt < revalidateAfterNanos) {
+      return entry;
+    }
+    String currentEtag;
+    try {
+      currentEtag = delegate.getAttributes(filename).getEtag();
+    } catch (FileNotFoundException e) {
+      currentEtag = null;
+    }
+    if (currentEtag == null || !currentEtag.equals(entry.attributes.getEtag())) {
+      drop(filename.get(), entry);
+      return null;
+    }
+    entry.validatedAt = System.nanoTime();
+    return entry;
+  }
+
+  private synchronized Entry touch(String name) {
+    Entry entry = entries.get(name);
+    if (entry != null) {
+      entry.hits++;
+      entry.lastAccess = ++accessCounter;
+    }
+    return entry;
+  }
+
+  private synchronized Entry add(String name, Entry entry, long epoch) throws IOException {
+    if (epoch != writeEpoch) {
+      Files.deleteIfExists(entry.path);
+      return null;
+    }
+    Entry previous = entries.put(name, entry);
+    if (previous != null) {
+      remove(previous);
+    }
+    entry.lastAccess = ++accessCounter;
+    cachedBytes += entry.attributes.getLength();
+    while (cachedBytes > maxBytes) {
+      Entry victim = entries.values().stream().filter(candidate -> candidate != entry).min(evictionOrder).orElse(null);
+      if (victim == null) {
+        break;
+      }
+      entries.values().remove(victim);
+      remove(victim);
+    }
+    return entry;
+  }
+
+  /**
+   * Also forgets any fill in progress, so reads after a write start a new fill rather than joining one of the old content
+   */
+  private synchronized void evict(String name) throws IOException {
+    writeEpoch++;
+    fills.remove(name);
+    Entry entry = entries.remove(name);
+    if (entry != null) {
+      remove(entry);
+    }
+  }
+
+  private synchronized void drop(String name, Entry entry) throws IOException {
+    if (entries.remove(name, entry)) {
+      remove(entry);
+    }
+  }
+
+  private void remove(Entry entry) throws IOException {
+    cachedBytes -= entry.attributes.getLength();
+    Files.deleteIfExists(entry.path);
+  }
+
+  private synchronized long writeEpoch() {
+    return writeEpoch;
+  }
+
+  private synchronized long cachedBytes() {
+    return cachedBytes;
+  }
+
+  private double hitRatio() {
+    long total = hits.get() + misses.get();
+    return total == 0 ? 0 : (double) hits.get() / total;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    String tag = container.name();
+    FunctionCounter.builder("reach.file.disk.cache.requests", hits, AtomicLong::get).tags("container", tag, "result", "hit").register(registry);
+    FunctionCounter.builder("reach.file.disk.cache.requests", misses, AtomicLong::get).tags("container", tag, "result", "miss").register(registry);
+    FunctionCounter.builder("reach.file.disk.cache.fills.coalesced", coalescedFills, AtomicLong::get).tag("container", tag).register(registry);
+    FunctionCounter.builder("reach.file.disk.cache.bytes.saved", bytesSaved, AtomicLong::get).tag("container", tag).baseUnit("bytes").register(registry);
+    Gauge.builder("reach.file.disk.cache.hit.ratio", this, CachingStorage::hitRatio).tag("container", tag).register(registry);
+    Gauge.builder("reach.file.disk.cache.size", this, CachingStorage::cachedBytes).tag("container", tag).baseUnit("bytes").register(registry);
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Entry {
+
+    private final Path path;
+
+    private final BlobAttributes attributes;
+
+    private long hits;
+
+    private long lastAccess;
+
+    private volatile long validatedAt = System.nanoTime();
+
+    private Entry(Path path, BlobAttributes attributes) {
+      this.path = path;
+      this.attributes = attributes;
+    }
+
+    /**
+     * A read conditional on another entity tag is left to the underlying storage, which fails it if the blob has changed
+     */
+    private boolean hasEtag(String etag) {
+      return etag == null || etag.equals(attributes.getEtag());
+    }
+  }
+
+  /**
+   * A download of a file to disk, which callers read from as it is written, each up to the bytes written so far. A caller
+   * sent the whole of its range still fails if the content then does not match its MD5.
+   */
+  private static final class Fill {
+
+    private final Path path;
+
+    private boolean started;
+
+    private BlobAttributes attributes;
+
+    private long written;
+
+    private boolean complete;
+
+    private IOException failure;
+
+    private Fill(Path path) {
+      this.path = path;
+    }
+
+    /**
+     * @param attributes of the file being downloaded, or {@code null} if it is too large to cache
+     */
+    private synchronized void start(BlobAttributes attributes) {
+      this.attributes = attributes;
+      started = true;
+      notifyAll();
+    }
+
+    private synchronized void written(int count) {
+      written += count;
+      notifyAll();
+    }
+
+    private synchronized void complete(IOException failure) {
+      this.failure = failure;
+      started = true;
+      complete = true;
+      notifyAll();
+    }
+
+    /**
+     * @return the attributes of the file being downloaded, or {@code null} if it is too large to cache
+     */
+    private synchronized BlobAttributes awaitStarted() throws IOException {
+      while (!started) {
+        await();
+      }
+      if (attributes == null && failure != null) {
+        throw failure;
+      }
+      return attributes;
+    }
+
+    /**
+     * Sends a range of the file as it is written, then waits for the download to be checked
+     */
+    private long transferTo(FileChannel channel, long offset, long length, WritableByteChannel out) throws IOException {
+      long end = offset + Math.min(length, Math.max(0, attributes.getLength() - offset));
+      long position = offset;
+      while (position < end) {
+        long available = Math.min(end, awaitWritten(position));
+        long transferred = transfer(channel, position, available, out);
+        if (transferred <= 0) {
+          throw new IOException("Cache file " + path + " ended before " + available + " bytes");
+        }
+        position += transferred;
+      }
+      awaitComplete();
+      return position - offset;
+    }
+
+    /**
+     * @return the bytes written, once more than {@code position}
+     */
+    private synchronized long awaitWritten(long position) throws IOException {
+      while (written <= position && !complete) {
+        await();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return written;
+    }
+
+    private synchronized void awaitComplete() throws IOException {
+      while (!complete) {
+        await();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private void await() throws InterruptedIOException {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for cache fill of " + path);
+      }
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.time.Duration;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.RetryLaterException;
+
+/**
+ * Raised when a container's storage has not been initialised, telling the client when it will next be attempted.
+ */
+public class ContainerUnavailableException extends RetryLaterException {
+
+  public ContainerUnavailableException(Container container, Duration retryAfter, Throwable cause) {
+    super(container + " container is unavailable, retry later!", retryAfter, cause);
+  }
+}
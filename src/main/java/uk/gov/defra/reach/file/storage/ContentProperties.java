@@ -0,0 +1,30 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.util.Map;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Properties of a blob's content sent with the request which writes it, so the blob is never visible without them
+ */
+@Value
+@Builder
+public class ContentProperties {
+
+  /**
+   * No properties beyond those storage records itself
+   */
+  public static final ContentProperties NONE = ContentProperties.builder().build();
+
+  /**
+   * HTTP content coding the content is stored in, such as gzip, or {@code null} if it is stored as uploaded
+   */
+  String contentEncoding;
+
+  /**
+   * User defined metadata to record against the blob, names must be valid C# identifiers
+   */
+  @Builder.Default
+  Map<String, String> metadata = Map.of();
+
+}
@@ -0,0 +1,28 @@
+package uk.gov.defra.reach.file.storage;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * State of a server side copy into a blob
+ */
+@Value
+@Builder
+public class CopyProgress {
+
+  public enum Status {
+    PENDING, SUCCESS, FAILED, ABORTED
+  }
+
+  Status status;
+
+  long bytesCopied;
+
+  long totalBytes;
+
+  /**
+   * Reason given by storage for a failed or aborted copy
+   */
+  String description;
+
+}
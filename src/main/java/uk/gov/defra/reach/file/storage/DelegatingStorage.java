@@ -0,0 +1,26 @@
+package uk.gov.defra.reach.file.storage;
+
+import uk.gov.defra.reach.storage.Storage;
+
+/**
+ * A {@link BlobStorage} which adds behaviour to another, such as caching or hedging, through which the storage beneath it
+ * can be reached.
+ */
+public interface DelegatingStorage extends BlobStorage {
+
+  BlobStorage getDelegate();
+
+  /**
+   * @return {@code storage}, or the first storage beneath it, which is of {@code type}, or {@code null} if there is none
+   */
+  static <T extends Storage> T unwrap(Storage storage, Class<T> type) {
+    Storage current = storage;
+    while (!type.isInstance(current)) {
+      if (!(current instanceof DelegatingStorage)) {
+        return null;
+      }
+      current = ((DelegatingStorage) current).getDelegate();
+    }
+    return type.cast(current);
+  }
+}
@@ -0,0 +1,247 @@
+package uk.gov.defra.reach.file.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import lombok.extern.slf4j.Slf4j;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.Hedger;
+import uk.gov.defra.reach.file.concurrency.RetryBudget;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * A container's storage whose reads are hedged and retried by {@link Hedger}, so the occasional storage request taking
+ * seconds rather than milliseconds does not hold up the request waiting on it. Only idempotent reads are hedged, each with
+ * its own latency percentile as their latencies differ; writes go straight to the delegate. Proxied downloads are hedged
+ * up to opening the content, once streaming has started it is not repeated.
+ */
+@Slf4j
+public class HedgingStorage implements DelegatingStorage {
+
+  private final BlobStorage delegate;
+
+  private final Hedger get;
+
+  private final Hedger exists;
+
+  private final Hedger attributes;
+
+  private final Hedger open;
+
+  /**
+   * @param executor runs hedges, a read is not hedged when it is rejected
+   * @param scheduler starts hedges once a read has run for its hedge delay
+   * @param percentile the percentile of recent latencies of each read, such as 95, after which it is hedged
+   * @param minDelay the shortest time a read runs before it is hedged
+   * @param maxDelay the longest time a read runs before it is hedged
+   * @param budget shared by every read of the container
+   */
+  public HedgingStorage(BlobStorage delegate, Container container, ExecutorService executor, ScheduledExecutorService scheduler, double percentile,
+      Duration minDelay, Duration maxDelay, RetryBudget budget, MeterRegistry registry) {
+    this.delegate = delegate;
+    Gauge.builder("reach.file.hedge.budget", budget, RetryBudget::available)
+        .description("Hedges and retries which may be made before the budget is spent")
+        .tag("container", container.name())
+        .register(registry);
+    this.get = hedger("get", container, executor, scheduler, percentile, minDelay, maxDelay, budget, registry);
+    this.exists = hedger("exists", container, executor, scheduler, percentile, minDelay, maxDelay, budget, registry);
+    this.attributes = hedger("attributes", container, executor, scheduler, percentile, minDelay, maxDelay, budget, registry);
+    this.open = hedger("open", container, executor, scheduler, percentile, minDelay, maxDelay, budget, registry);
+  }
+
+  @Override
+  public BlobStorage getDelegate() {
+    return delegate;
+  }
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    return delegate.store(file, filename);
+  }
+
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    delegate.store(file, length, filename, contentMd5, properties);
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    return get.call(() -> delegate.get(filename), uri -> {
+    });
+  }
+
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    return delegate.get(filename, lifetime);
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) throws IOException {
+    return exists.call(() -> delegate.exists(filename), found -> {
+    });
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) throws IOException {
+    return delegate.delete(filename);
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    delegate.stageBlock(filename, blockId, data, length);
+  }
+
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    delegate.commitBlocks(filename, blockIds, contentMd5, properties);
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException {
+    return delegate.getStagedBlocks(filename);
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    delegate.setContentMd5(filename, contentMd5);
+  }
+
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    delegate.startCopy(filename, source);
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    return delegate.getCopyProgress(filename);
+  }
+
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    delegate.abortCopy(filename);
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    return attributes.call(() -> delegate.getAttributes(filename), found -> {
+    });
+  }
+
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException {
+    return delegate.list(prefix, continuationToken, maxResults);
+  }
+
+  @Override
+  public String acquireLease(StorageFilename filename, Duration duration) throws IOException {
+    return delegate.acquireLease(filename, duration);
+  }
+
+  @Override
+  public boolean renewLease(StorageFilename filename, String leaseId) throws IOException {
+    return delegate.renewLease(filename, leaseId);
+  }
+
+  @Override
+  public void releaseLease(StorageFilename filename, String leaseId) throws IOException {
+    delegate.releaseLease(filename, leaseId);
+  }
+
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    return open.call(() -> delegate.openStream(filename, offset, length, etag), HedgingStorage::closeQuietly);
+  }
+
+  private static void closeQuietly(InputStream in) {
+    try {
+      in.close();
+    } catch (IOException e) {
+      log.debug("Unable to close stream of losing request", e);
+    }
+  }
+
+  private static Hedger hedger(String operation, Container container, ExecutorService executor, ScheduledExecutorService scheduler,
+      double percentile, Duration minDelay, Duration maxDelay, RetryBudget budget, MeterRegistry registry) {
+    Hedger hedger = new Hedger(executor, scheduler, budget, percentile, minDelay, maxDelay, new Meters(operation, container, registry));
+    Gauge.builder("reach.file.hedge.delay", hedger, h -> h.delay().toNanos() / 1e9)
+        .description("How long storage reads run before they are hedged")
+        .baseUnit("seconds")
+        .tags("container", container.name(), "operation", operation)
+        .register(registry);
+    return hedger;
+  }
+
+  /**
+   * Counts calls, hedges and retries, from which the hedge rate, hedges per call, and win rate, hedges returning first per
+   * hedge, follow
+   */
+  private static final class Meters implements Hedger.Listener {
+
+    private final Counter calls;
+
+    private final Counter hedges;
+
+    private final Counter wins;
+
+    private final Counter retries;
+
+    private final Counter throttled;
+
+    private final Counter rejected;
+
+    private Meters(String operation, Container container, MeterRegistry registry) {
+      this.calls = counter("reach.file.hedge.calls", "Storage reads which may be hedged", operation, container, registry);
+      this.hedges = counter("reach.file.hedge.sent", "Storage reads hedged with a second request", operation, container, registry);
+      this.wins = counter("reach.file.hedge.won", "Hedging requests which returned before the request they hedged", operation, container, registry);
+      this.retries = counter("reach.file.hedge.retried", "Storage reads retried after failing", operation, container, registry);
+      this.throttled = counter("reach.file.hedge.throttled", "Hedges and retries not made as the retry budget was spent", operation, container,
+          registry);
+      this.rejected = counter("reach.file.hedge.rejected", "Hedges not made as every hedging thread was busy", operation, container, registry);
+    }
+
+    private static Counter counter(String name, String description, String operation, Container container, MeterRegistry registry) {
+      return Counter.builder(name)
+          .description(description)
+          .tags("container", container.name(), "operation", operation)
+          .register(registry);
+    }
+
+    @Override
+    public void called() {
+      calls.increment();
+    }
+
+    @Override
+    public void hedged() {
+      hedges.increment();
+    }
+
+    @Override
+    public void hedgeWon() {
+      wins.increment();
+    }
+
+    @Override
+    public void retried() {
+      retries.increment();
+    }
+
+    @Override
+    public void throttled() {
+      throttled.increment();
+    }
+
+    @Override
+    public void rejected() {
+      rejected.increment();
+    }
+  }
+}
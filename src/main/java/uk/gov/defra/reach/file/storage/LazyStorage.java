@@ -0,0 +1,242 @@
+package uk.gov.defra.reach.file.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * A container's storage which is initialised in the background, either straight away or on first use. Until it has been
+ * initialised operations wait for it, up to a timeout. If initialisation fails it is retried periodically and operations
+ * fail straight away with {@link ContainerUnavailableException}, rather than the failure preventing the service starting.
+ */
+@Slf4j
+public class LazyStorage implements BlobStorage {
+
+  private final Container container;
+
+  private final Callable<BlobStorage> initializer;
+
+  private final ScheduledExecutorService executor;
+
+  private final Duration retryInterval;
+
+  private final Duration initTimeout;
+
+  private final Timer succeeded;
+
+  private final Timer failed;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+
+  private final CompletableFuture<BlobStorage> ready = new CompletableFuture<>();
+
+  private volatile BlobStorage delegate;
+
+  private volatile Exception lastFailure;
+
+  public LazyStorage(Container container, Callable<BlobStorage> initializer, ScheduledExecutorService executor, Duration retryInterval,
+      Duration initTimeout, MeterRegistry registry) {
+    this.container = container;
+    this.initializer = initializer;
+    this.executor = executor;
+    this.retryInterval = retryInterval;
+    this.initTimeout = initTimeout;
+    this.succeeded = initTimer(container, "success", registry);
+    this.failed = initTimer(container, "failure", registry);
+    Gauge.builder("reach.file.container.available", this, storage -> storage.isAvailable() ? 1 : 0)
+        .tag("container", container.name())
+        .description("Whether the container's storage has been initialised")
+        .register(registry);
+  }
+
+  /**
+   * Starts initialising the storage, if it has not been already.
+   *
+   * @return completed once the storage has been initialised, however many attempts that takes
+   */
+  public CompletableFuture<BlobStorage> initialise() {
+    if (started.compareAndSet(false, true)) {
+      executor.execute(this::attempt);
+    }
+    return ready;
+  }
+
+  /**
+   * @return whether initialisation has been started, by {@link #initialise} or by the storage being used
+   */
+  public boolean isStarted() {
+    return started.get();
+  }
+
+  public boolean isAvailable() {
+    return delegate != null;
+  }
+
+  public Container getContainer() {
+    return container;
+  }
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    return delegate().store(file, filename);
+  }
+
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    delegate().store(file, length, filename, contentMd5, properties);
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    return delegate().get(filename);
+  }
+
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    return delegate().get(filename, lifetime);
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) throws IOException {
+    return delegate().exists(filename);
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) throws IOException {
+    return delegate().delete(filename);
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    delegate().stageBlock(filename, blockId, data, length);
+  }
+
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    delegate().commitBlocks(filename, blockIds, contentMd5, properties);
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException {
+    return delegate().getStagedBlocks(filename);
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    delegate().setContentMd5(filename, contentMd5);
+  }
+
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    delegate().startCopy(filename, source);
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    return delegate().getCopyProgress(filename);
+  }
+
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    delegate().abortCopy(filename);
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    return delegate().getAttributes(filename);
+  }
+
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException {
+    return delegate().list(prefix, continuationToken, maxResults);
+  }
+
+  @Override
+  public String acquireLease(StorageFilename filename, Duration duration) throws IOException {
+    return delegate().acquireLease(filename, duration);
+  }
+
+  @Override
+  public boolean renewLease(StorageFilename filename, String leaseId) throws IOException {
+    return delegate().renewLease(filename, leaseId);
+  }
+
+  @Override
+  public void releaseLease(StorageFilename filename, String leaseId) throws IOException {
+    delegate().releaseLease(filename, leaseId);
+  }
+
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    return delegate().openStream(filename, offset, length, etag);
+  }
+
+  @Override
+  public long transferTo(StorageFilename filename, long offset, long length, String etag, OutputStream out) throws IOException {
+    return delegate().transferTo(filename, offset, length, etag, out);
+  }
+
+  private BlobStorage delegate() {
+    BlobStorage storage = delegate;
+    if (storage != null) {
+      return storage;
+    }
+    CompletableFuture<BlobStorage> initialised = initialise();
+    if (lastFailure == null) {
+      try {
+        return initialised.get(initTimeout.toMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | TimeoutException e) {
+        // fall through, the storage is still being initialised
+      }
+    }
+    throw new ContainerUnavailableException(container, retryInterval, lastFailure);
+  }
+
+  private void attempt() {
+    long start = System.nanoTime();
+    try {
+      BlobStorage storage = initializer.call();
+      long nanos = System.nanoTime() - start;
+      succeeded.record(nanos, TimeUnit.NANOSECONDS);
+      delegate = storage;
+      lastFailure = null;
+      log.info("Initialised {} container in {} ms", container, TimeUnit.NANOSECONDS.toMillis(nanos));
+      ready.complete(storage);
+    } catch (Exception e) {
+      failed.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      lastFailure = e;
+      log.error("Unable to initialise {} container, retrying in {}", container, retryInterval, e);
+      if (executor.isShutdown()) {
+        return;
+      }
+      executor.schedule(this::attempt, retryInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static Timer initTimer(Container container, String outcome, MeterRegistry registry) {
+    return Timer.builder("reach.file.container.init")
+        .tag("container", container.name())
+        .tag("outcome", outcome)
+        .description("Time taken to initialise a container's storage")
+        .register(registry);
+  }
+}
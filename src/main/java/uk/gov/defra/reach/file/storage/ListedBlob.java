@@ -0,0 +1,25 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.time.Instant;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * A blob as described by a container listing
+ */
+@Value
+@Builder
+public class ListedBlob {
+
+  String name;
+
+  long length;
+
+  Instant lastModified;
+
+  /**
+   * Base64 MD5 of the blob content as stored, if recorded
+   */
+  String contentMd5;
+
+}
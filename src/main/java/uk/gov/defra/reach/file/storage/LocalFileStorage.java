@@ -0,0 +1,543 @@
+package uk.gov.defra.reach.file.storage;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.web.util.UriComponentsBuilder;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.io.ChecksumMismatchException;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * {@link BlobStorage} held on the local file system, for development, benchmarking and on-premise use. Content is written
+ * and read with NIO channels through {@link FileChannel#transferTo}, which the kernel copies without passing through the
+ * heap only when the target is itself a file or socket channel; proxied downloads write to the servlet's output stream,
+ * so are copied through a heap buffer like any other storage. In place of SAS URIs, {@link #get} issues time limited URLs
+ * signed with an HMAC which {@link #isValidSignature} checks.
+ */
+public class LocalFileStorage implements BlobStorage {
+
+  private static final String SIGNATURE_ALGORITHM = "HmacSHA256";
+
+  private static final String CONTENT_MD5 = "contentMd5";
+
+  private static final String CONTENT_ENCODING = "contentEncoding";
+
+  /**
+   * A random version given to the blob's content and properties whenever either is written, from which its entity tag is
+   * formed, as file times and lengths cannot tell apart two writes of the same size within their resolution
+   */
+  private static final String VERSION = "version";
+
+  private static final String METADATA_PREFIX = "metadata.";
+
+  private static final String LEASE_ID = "lease.id";
+
+  private static final String LEASE_DURATION = "lease.duration";
+
+  private static final String LEASE_EXPIRES = "lease.expires";
+
+  private static final int COPY_CHUNK = 8 * 1024 * 1024;
+
+  private final Container container;
+
+  private final Path blobs;
+
+  private final Path metadata;
+
+  private final Path staging;
+
+  private final String baseUrl;
+
+  private final byte[] signingKey;
+
+  private final Duration urlTtl;
+
+  private final Clock clock;
+
+  public LocalFileStorage(Container container, Path root, String baseUrl, byte[] signingKey, Duration urlTtl, Clock clock) throws IOException {
+    this.container = container;
+    this.blobs = Files.createDirectories(root.resolve("blobs")).toAbsolutePath().normalize();
+    this.metadata = Files.createDirectories(root.resolve("metadata")).toAbsolutePath().normalize();
+    this.staging = Files.createDirectories(root.resolve("staging")).toAbsolutePath().normalize();
+    this.baseUrl = baseUrl;
+    this.signingKey = signingKey.clone();
+    this.urlTtl = urlTtl;
+    this.clock = clock;
+  }
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    return write(file, filename, null, ContentProperties.NONE);
+  }
+
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    write(file, filename, contentMd5, properties);
+  }
+
+  /**
+   * @param expectedMd5 Base64 MD5 the content must have to be stored, or {@code null} to store any content
+   * @return Base64 MD5 of the stored content
+   */
+  private String write(InputStream file, StorageFilename filename, String expectedMd5, ContentProperties properties) throws IOException {
+    Path target = blobPath(filename);
+    Path temp = staging.resolve(UUID.randomUUID() + ".upload");
+    MessageDigest md5 = md5();
+    try (ReadableByteChannel in = Channels.newChannel(new DigestInputStream(file, md5));
+        FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      long position = 0;
+      long written;
+      while ((written = out.transferFrom(in, position, COPY_CHUNK)) > 0) {
+        position += written;
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    String contentMd5 = Base64.getEncoder().encodeToString(md5.digest());
+    if (expectedMd5 != null && !expectedMd5.equals(contentMd5)) {
+      Files.deleteIfExists(temp);
+      throw new ChecksumMismatchException(filename.get(), null);
+    }
+    publish(temp, target, filename, contentMd5, properties);
+    return contentMd5;
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    return get(filename, urlTtl);
+  }
+
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    existingBlobPath(filename);
+    long expires = clock.instant().plus(lifetime).getEpochSecond();
+    return UriComponentsBuilder.fromHttpUrl(baseUrl)
+        .path("/file/local/{container}/{fileName}")
+        .queryParam("expires", expires)
+        .queryParam("signature", sign(filename.get(), expires))
+        .buildAndExpand(container.name(), filename.get())
+        .encode()
+        .toUri();
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) throws IOException {
+    return Files.isRegularFile(blobPath(filename));
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) throws IOException {
+    Files.deleteIfExists(metadataPath(filename));
+    return Files.deleteIfExists(blobPath(filename));
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    Path block = blockPath(filename, blockId);
+    Files.createDirectories(block.getParent());
+    try (ReadableByteChannel in = Channels.newChannel(data);
+        FileChannel out = FileChannel.open(block, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long position = 0;
+      while (position < length) {
+        long written = out.transferFrom(in, position, length - position);
+        if (written <= 0) {
+          throw new IOException("Block " + blockId + " ended after " + position + " of " + length + " bytes");
+        }
+        position += written;
+      }
+    }
+  }
+
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    Path target = blobPath(filename);
+    Path temp = staging.resolve(UUID.randomUUID() + ".commit");
+    try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      for (String blockId : blockIds) {
+        try (FileChannel in = FileChannel.open(blockPath(filename, blockId), StandardOpenOption.READ)) {
+          transfer(in, 0, in.size(), out);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      Files.deleteIfExists(temp);
+      throw new IOException("Block has not been staged for " + filename.get(), e);
+    }
+    publish(temp, target, filename, contentMd5, properties);
+    deleteStagedBlocks(filename);
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) throws IOException {
+    Path directory = stagingDirectory(filename);
+    Map<String, Long> blocks = new HashMap<>();
+    try (var staged = Files.list(directory)) {
+      for (Path block : (Iterable<Path>) staged::iterator) {
+        String blockId = Base64.getEncoder().encodeToString(BaseEncoding.base16().lowerCase().decode(block.getFileName().toString()));
+        blocks.put(blockId, Files.size(block));
+      }
+    } catch (NoSuchFileException e) {
+      // Nothing staged, or staged blocks were committed while being listed
+    }
+    return blocks;
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    existingBlobPath(filename);
+    Properties properties = readMetadata(filename);
+    properties.setProperty(CONTENT_MD5, contentMd5);
+    properties.setProperty(VERSION, newVersion());
+    writeMetadata(filename, properties);
+  }
+
+  /**
+   * Copies synchronously, reading the content from the source URI through this process. Content served gzip encoded is
+   * stored decoded, as the encoding of the source is not carried over.
+   */
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    URLConnection connection = source.toURL().openConnection();
+    try (InputStream in = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+        ? new GZIPInputStream(connection.getInputStream())
+        : connection.getInputStream()) {
+      store(in, filename);
+    }
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    long length = Files.size(existingBlobPath(filename));
+    return CopyProgress.builder().status(CopyProgress.Status.SUCCESS).bytesCopied(length).totalBytes(length).build();
+  }
+
+  /**
+   * Copies finish before {@link #startCopy} returns, so there is never one to abort
+   */
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    existingBlobPath(filename);
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    Path blob = existingBlobPath(filename);
+    long length = Files.size(blob);
+    Instant lastModified = Files.getLastModifiedTime(blob).toInstant();
+    Properties properties = readMetadata(filename);
+    return BlobAttributes.builder()
+        .length(length)
+        .etag("\"" + properties.getProperty(VERSION, Long.toHexString(lastModified.toEpochMilli()) + "-" + Long.toHexString(length)) + "\"")
+        .lastModified(lastModified)
+        .contentMd5(properties.getProperty(CONTENT_MD5))
+        .contentEncoding(properties.getProperty(CONTENT_ENCODING))
+        .metadata(properties.stringPropertyNames().stream()
+            .filter(name -> name.startsWith(METADATA_PREFIX))
+            .collect(Collectors.toMap(name -> name.substring(METADATA_PREFIX.length()), properties::getProperty)))
+        .build();
+  }
+
+  /**
+   * Leases are recorded with the blob's metadata, so are only exclusive between users of the same directory on one host.
+   */
+  @Override
+  public synchronized String acquireLease(StorageFilename filename, Duration duration) throws IOException {
+    if (!Files.isRegularFile(blobPath(filename))) {
+      store(InputStream.nullInputStream(), filename);
+    }
+    Properties properties = readMetadata(filename);
+    if (isLeased(properties)) {
+      return null;
+    }
+    String leaseId = UUID.randomUUID().toString();
+    properties.setProperty(LEASE_ID, leaseId);
+    properties.setProperty(LEASE_DURATION, Long.toString(duration.toMillis()));
+    properties.setProperty(LEASE_EXPIRES, Long.toString(clock.millis() + duration.toMillis()));
+    writeMetadata(filename, properties);
+    return leaseId;
+  }
+
+  @Override
+  public synchronized boolean renewLease(StorageFilename filename, String leaseId) throws IOException {
+    Properties properties = readMetadata(filename);
+    if (!leaseId.equals(properties.getProperty(LEASE_ID))) {
+      return false;
+    }
+    long duration = Long.parseLong(properties.getProperty(LEASE_DURATION));
+    properties.setProperty(LEASE_EXPIRES, Long.toString(clock.millis() + duration));
+    writeMetadata(filename, properties);
+    return true;
+  }
+
+  @Override
+  public synchronized void releaseLease(StorageFilename filename, String leaseId) throws IOException {
+    Properties properties = readMetadata(filename);
+    if (leaseId.equals(properties.getProperty(LEASE_ID))) {
+      properties.remove(LEASE_ID);
+      properties.remove(LEASE_DURATION);
+      properties.remove(LEASE_EXPIRES);
+      writeMetadata(filename, properties);
+    }
+  }
+
+  /**
+   * Walks the whole directory tree for each page, keeping only the page's names, with the continuation token being the
+   * last name of the previous page.
+   */
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) throws IOException {
+    TreeSet<String> names = new TreeSet<>();
+    try (Stream<Path> paths = Files.walk(blobs)) {
+      for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+        String name = blobs.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+        if ((prefix == null || name.startsWith(prefix)) && (continuationToken == null || name.compareTo(continuationToken) > 0)) {
+          names.add(name);
+          if (names.size() > maxResults) {
+            names.pollLast();
+          }
+        }
+      }
+    }
+    List<ListedBlob> listed = new ArrayList<>(names.size());
+    for (String name : names) {
+      Path blob = blobs.resolve(name);
+      try {
+        listed.add(ListedBlob.builder()
+            .name(name)
+            .length(Files.size(blob))
+            .lastModified(Files.getLastModifiedTime(blob).toInstant())
+            .contentMd5(readProperties(within(metadata, name + ".properties")).getProperty(CONTENT_MD5))
+            .build());
+      } catch (NoSuchFileException e) {
+        // deleted since the directory was walked
+      }
+    }
+    return BlobListing.builder()
+        .blobs(listed)
+        .continuationToken(names.size() < maxResults || names.isEmpty() ? null : names.last())
+        .build();
+  }
+
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    FileChannel channel = openForRead(filename, etag);
+    channel.position(offset);
+    return ByteStreams.limit(Channels.newInputStream(channel), length);
+  }
+
+  @Override
+  public long transferTo(StorageFilename filename, long offset, long length, String etag, OutputStream out) throws IOException {
+    try (FileChannel channel = openForRead(filename, etag)) {
+      return transfer(channel, offset, Math.min(length, Math.max(0, channel.size() - offset)), Channels.newChannel(out));
+    }
+  }
+
+  /**
+   * @return whether a URL issued by {@link #get} for the file is authentic and has not expired
+   */
+  public boolean isValidSignature(String filename, long expires, String signature) {
+    if (signature == null || clock.instant().getEpochSecond() > expires) {
+      return false;
+    }
+    return MessageDigest.isEqual(sign(filename, expires).getBytes(StandardCharsets.US_ASCII), signature.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  private String sign(String filename, long expires) {
+    try {
+      Mac mac = Mac.getInstance(SIGNATURE_ALGORITHM);
+      mac.init(new SecretKeySpec(signingKey, SIGNATURE_ALGORITHM));
+      byte[] signature = mac.doFinal((container.name() + "\n" + filename + "\n" + expires).getBytes(StandardCharsets.UTF_8));
+      return BaseEncoding.base16().lowerCase().encode(signature);
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException("Unable to sign URL", e);
+    }
+  }
+
+  /**
+   * The content is moved into place before the metadata naming its new version, so a reader never pairs the new entity tag
+   * with the old content
+   */
+  private void publish(Path temp, Path target, StorageFilename filename, String contentMd5, ContentProperties content) throws IOException {
+    Files.createDirectories(target.getParent());
+    Properties properties = new Properties();
+    if (contentMd5 != null) {
+      properties.setProperty(CONTENT_MD5, contentMd5);
+    }
+    if (content.getContentEncoding() != null) {
+      properties.setProperty(CONTENT_ENCODING, content.getContentEncoding());
+    }
+    content.getMetadata().forEach((name, value) -> properties.setProperty(METADATA_PREFIX + name, value));
+    properties.setProperty(VERSION, newVersion());
+    try {
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+    writeMetadata(filename, properties);
+  }
+
+  private static String newVersion() {
+    return UUID.randomUUID().toString().replace("-", "");
+  }
+
+  private boolean isLeased(Properties properties) {
+    String expires = properties.getProperty(LEASE_EXPIRES);
+    return expires != null && Long.parseLong(expires) > clock.millis();
+  }
+
+  private Properties readMetadata(StorageFilename filename) throws IOException {
+    return readProperties(metadataPath(filename));
+  }
+
+  private static Properties readProperties(Path path) throws IOException {
+    Properties properties = new Properties();
+    if (Files.exists(path)) {
+      try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        properties.load(reader);
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * Written to a staging file which is moved over the old, so readers see either the old or the new metadata in whole
+   */
+  private void writeMetadata(StorageFilename filename, Properties properties) throws IOException {
+    Path path = metadataPath(filename);
+    Files.createDirectories(path.getParent());
+    Path temp = staging.resolve(UUID.randomUUID() + ".properties");
+    try {
+      try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        properties.store(writer, null);
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(temp);
+      throw e;
+    }
+  }
+
+  private void deleteStagedBlocks(StorageFilename filename) throws IOException {
+    Path directory = stagingDirectory(filename);
+    if (Files.isDirectory(directory)) {
+      try (var blocks = Files.list(directory)) {
+        for (Path block : (Iterable<Path>) blocks::iterator) {
+          Files.deleteIfExists(block);
+        }
+      }
+      Files.deleteIfExists(directory);
+    }
+  }
+
+  private FileChannel openForRead(StorageFilename filename) throws IOException {
+    return FileChannel.open(existingBlobPath(filename), StandardOpenOption.READ);
+  }
+
+  /**
+   * The entity tag is checked once the file is open, as files are replaced by moving another over them, so one replaced
+   * after the check is still read as it was
+   */
+  private FileChannel openForRead(StorageFilename filename, String etag) throws IOException {
+    FileChannel channel = openForRead(filename);
+    if (etag != null && !etag.equals(getAttributes(filename).getEtag())) {
+      channel.close();
+      throw new BlobModifiedException(filename.get(), etag);
+    }
+    return channel;
+  }
+
+  private static long transfer(FileChannel in, long offset, long length, WritableByteChannel out) throws IOException {
+    long position = offset;
+    long end = offset + length;
+    while (position < end) {
+      long transferred = in.transferTo(position, end - position, out);
+      if (transferred <= 0) {
+        break;
+      }
+      position += transferred;
+    }
+    return position - offset;
+  }
+
+  private Path existingBlobPath(StorageFilename filename) throws IOException {
+    Path path = blobPath(filename);
+    if (!Files.isRegularFile(path)) {
+      throw new FileNotFoundException(filename.get());
+    }
+    return path;
+  }
+
+  private Path blobPath(StorageFilename filename) throws IOException {
+    return within(blobs, filename.get());
+  }
+
+  private Path metadataPath(StorageFilename filename) throws IOException {
+    return within(metadata, filename.get() + ".properties");
+  }
+
+  private Path stagingDirectory(StorageFilename filename) {
+    return staging.resolve(BaseEncoding.base16().lowerCase().encode(filename.get().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private Path blockPath(StorageFilename filename, String blockId) {
+    return stagingDirectory(filename).resolve(BaseEncoding.base16().lowerCase().encode(Base64.getDecoder().decode(blockId)));
+  }
+
+  /**
+   * Resolves a filename below a directory, rejecting names which would escape it.
+   */
+  private static Path within(Path directory, String name) throws IOException {
+    Path path = directory.resolve(name).normalize();
+    if (!path.startsWith(directory) || path.equals(directory)) {
+      throw new IOException("Filename " + name + " is not valid for local storage");
+    }
+    return path;
+  }
+
+  private static MessageDigest md5() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
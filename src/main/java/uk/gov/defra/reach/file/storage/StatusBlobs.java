@@ -0,0 +1,113 @@
+package uk.gov.defra.reach.file.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Small JSON documents kept in the temporary container, through which replicas share the state of work one of them
+ * started. The sweeper removes them along with other expired temporary files.
+ */
+@Slf4j
+@Component
+public class StatusBlobs {
+
+  private static final Container CONTAINER = Container.TEMPORARY;
+
+  private final BlobStorage storage;
+
+  private final ObjectMapper objectMapper;
+
+  @Autowired
+  public StatusBlobs(Map<Container, Storage> containers, ObjectMapper objectMapper) {
+    this(blobStorage(containers.get(CONTAINER)), objectMapper);
+  }
+
+  /**
+   * @param storage the storage to keep documents in, or {@code null} to keep none so state is not shared
+   */
+  public StatusBlobs(BlobStorage storage, ObjectMapper objectMapper) {
+    this.storage = storage;
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * @return status blobs which are never kept, so each replica knows only its own state
+   */
+  public static StatusBlobs none() {
+    return new StatusBlobs((BlobStorage) null, null);
+  }
+
+  public boolean isEnabled() {
+    return storage != null;
+  }
+
+  /**
+   * Replaces a document, doing nothing if documents are not kept.
+   */
+  public void write(String name, Object value) throws IOException {
+    if (storage == null) {
+      return;
+    }
+    storage.store(new ByteArrayInputStream(objectMapper.writeValueAsBytes(value)), filename(name));
+  }
+
+  /**
+   * @return the document, or {@code null} if there is none or documents are not kept
+   */
+  public <T> T read(String name, Class<T> type) throws IOException {
+    if (storage == null) {
+      return null;
+    }
+    StorageFilename filename = filename(name);
+    try {
+      try {
+        return read(filename, type);
+      } catch (BlobModifiedException e) {
+        // Written again between reading its length and its content, the next read sees the latest document
+        return read(filename, type);
+      }
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  public void delete(String name) throws IOException {
+    if (storage != null) {
+      storage.delete(filename(name));
+    }
+  }
+
+  private <T> T read(StorageFilename filename, Class<T> type) throws IOException {
+    BlobAttributes attributes = storage.getAttributes(filename);
+    try (InputStream content = storage.openStream(filename, 0, attributes.getLength(), attributes.getEtag())) {
+      return objectMapper.readValue(content, type);
+    }
+  }
+
+  private static StorageFilename filename(String name) throws IOException {
+    try {
+      return StorageFilename.from(name);
+    } catch (InvalidStorageFilenameException e) {
+      throw new IOException("Invalid status blob name " + name, e);
+    }
+  }
+
+  private static BlobStorage blobStorage(Storage storage) {
+    if (storage instanceof BlobStorage) {
+      return (BlobStorage) storage;
+    }
+    log.warn("Not sharing state between replicas as the storage of {} container cannot be read back", CONTAINER);
+    return null;
+  }
+}
@@ -0,0 +1,68 @@
+package uk.gov.defra.reach.file.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class ExpiringLruCacheTest {
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private final ExpiringLruCache<String, String> cache = new ExpiringLruCache<>(2, clock::get);
+
+  @Test
+  void get_shouldReturnValue_untilItExpires() {
+    cache.put("a", "1", Duration.ofNanos(10));
+
+    clock.set(9);
+    assertThat(cache.get("a")).isEqualTo("1");
+
+    clock.set(10);
+    assertThat(cache.get("a")).isNull();
+    assertThat(cache.size()).isZero();
+    assertThat(cache.hits()).isEqualTo(1);
+    assertThat(cache.misses()).isEqualTo(1);
+  }
+
+  @Test
+  void put_shouldEvictLeastRecentlyUsed_whenFull() {
+    cache.put("a", "1", Duration.ofSeconds(1));
+    cache.put("b", "2", Duration.ofSeconds(1));
+    cache.get("a");
+    cache.put("c", "3", Duration.ofSeconds(1));
+
+    assertThat(cache.get("a")).isEqualTo("1");
+    assertThat(cache.get("b")).isNull();
+    assertThat(cache.get("c")).isEqualTo("3");
+    assertThat(cache.evictions()).isEqualTo(1);
+  }
+
+  @Test
+  void putIfUnchanged_shouldNotCacheValue_readBeforeKeyWasInvalidated() {
+    long epoch = cache.writeEpoch("a");
+    cache.invalidate("a");
+
+    assertThat(cache.putIfUnchanged("a", "stale", Duration.ofSeconds(1), epoch)).isFalse();
+    assertThat(cache.get("a")).isNull();
+  }
+
+  @Test
+  void putIfUnchanged_shouldNotOverwriteValue_writtenAfterRead() {
+    long epoch = cache.writeEpoch("a");
+    cache.put("a", "written", Duration.ofSeconds(1));
+
+    assertThat(cache.putIfUnchanged("a", "stale", Duration.ofSeconds(1), epoch)).isFalse();
+    assertThat(cache.get("a")).isEqualTo("written");
+    assertThat(cache.putIfUnchanged("a", "read", Duration.ofSeconds(1), cache.writeEpoch("a"))).isTrue();
+  }
+
+  @Test
+  void invalidate_shouldRemoveEntry() {
+    cache.put("a", "1", Duration.ofSeconds(1));
+    cache.invalidate("a");
+
+    assertThat(cache.get("a")).isNull();
+  }
+}
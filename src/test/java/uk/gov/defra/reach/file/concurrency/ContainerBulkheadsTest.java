@@ -0,0 +1,79 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.BulkheadProperties;
+
+class ContainerBulkheadsTest {
+
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  private ContainerBulkheads bulkheads;
+
+  @BeforeEach
+  void setup() {
+    StorageProperties storageProperties = new StorageProperties();
+    BulkheadProperties export = storageProperties.forContainer(Container.EXPORT).getBulkhead();
+    export.setMaxConcurrent(1);
+    export.setMaxWaiting(0);
+    export.setRetryAfter(Duration.ofMillis(1500));
+    bulkheads = new ContainerBulkheads(storageProperties, registry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+  }
+
+  @Test
+  void call_shouldRefuseOperation_whenContainerIsAtItsLimit() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Object> slow = CompletableFuture.supplyAsync(() -> bulkheads.call(Container.EXPORT, () -> {
+      started.countDown();
+      Uninterruptibles.awaitUninterruptibly(release);
+      return null;
+    }));
+    started.await();
+
+    assertThatThrownBy(() -> bulkheads.call(Container.EXPORT, () -> "refused"))
+        .isInstanceOfSatisfying(ContainerBusyException.class, e -> {
+          assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+          assertThat(e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+        });
+    assertThat(registry.get("reach.file.bulkhead.rejected").tag("container", "EXPORT").counter().count()).isEqualTo(1);
+
+    release.countDown();
+    slow.get();
+    assertThat(bulkheads.call(Container.EXPORT, () -> "admitted")).isEqualTo("admitted");
+  }
+
+  @Test
+  void call_shouldNotLimitOtherContainers_whenOneIsAtItsLimit() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture.supplyAsync(() -> bulkheads.call(Container.EXPORT, () -> {
+      started.countDown();
+      Uninterruptibles.awaitUninterruptibly(release);
+      return null;
+    }));
+    started.await();
+
+    assertThat(bulkheads.call(Container.DOSSIER, () -> "admitted")).isEqualTo("admitted");
+    assertThat(registry.get("reach.file.bulkhead.wait").tags("container", "DOSSIER", "outcome", "admitted").timer().count()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,255 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class HedgerTest {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  private final CountingListener listener = new CountingListener();
+
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    executor.shutdownNow();
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void call_shouldNotHedge_whenCallReturnsQuickly() throws IOException {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+
+    assertThat(hedger.call(() -> "uri-" + attempts.incrementAndGet(), value -> {
+    })).isEqualTo("uri-1");
+    assertThat(listener.calls).hasValue(1);
+    assertThat(listener.hedges).hasValue(0);
+  }
+
+  @Test
+  void call_shouldRunCall_onCallersThread() throws IOException {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+
+    assertThat(hedger.call(Thread::currentThread, value -> {
+    })).isSameAs(Thread.currentThread());
+  }
+
+  @Test
+  void call_shouldUseHedge_whenCallIsSlow() throws IOException {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+    CountDownLatch cancelled = new CountDownLatch(1);
+
+    String result = hedger.call(() -> {
+      if (attempts.incrementAndGet() == 1) {
+        await(release, cancelled);
+        return "slow";
+      }
+      return "hedge";
+    }, value -> {
+    });
+
+    assertThat(result).isEqualTo("hedge");
+    assertThat(listener.hedges).hasValue(1);
+    assertThat(listener.wins).hasValue(1);
+    assertThat(cancelled.getCount()).isZero();
+    assertThat(Thread.currentThread().isInterrupted()).isFalse();
+  }
+
+  @Test
+  void call_shouldNotHedge_whenExecutorRejectsHedge() throws IOException {
+    ThreadPoolExecutor busy = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>());
+    busy.execute(() -> Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS));
+    RetryBudget budget = new RetryBudget(0.1, 10);
+    Hedger hedger = new Hedger(busy, scheduler, budget, 95, Duration.ofMillis(10), Duration.ofMillis(50), listener);
+
+    try {
+      String result = hedger.call(() -> {
+        attempts.incrementAndGet();
+        Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+        return "slow";
+      }, value -> {
+      });
+
+      assertThat(result).isEqualTo("slow");
+      assertThat(attempts).hasValue(1);
+      assertThat(listener.hedges).hasValue(0);
+      assertThat(listener.rejected).hasValue(1);
+      assertThat(budget.available()).isEqualTo(10);
+    } finally {
+      busy.shutdownNow();
+    }
+  }
+
+  @Test
+  void call_shouldDiscardResult_ofCallFinishingAfterHedge() throws Exception {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+    CountDownLatch discarded = new CountDownLatch(1);
+
+    String result = hedger.call(() -> {
+      if (attempts.incrementAndGet() == 1) {
+        Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS);
+        return "slow";
+      }
+      executor.execute(() -> {
+        Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+        release.countDown();
+      });
+      return "hedge";
+    }, value -> {
+      assertThat(value).isEqualTo("slow");
+      discarded.countDown();
+    });
+
+    assertThat(result).isEqualTo("hedge");
+    assertThat(discarded.getCount()).isZero();
+    assertThat(Thread.currentThread().isInterrupted()).isFalse();
+  }
+
+  @Test
+  void call_shouldNotHedge_whenBudgetIsSpent() throws IOException {
+    Hedger hedger = hedger(new RetryBudget(0.1, 0));
+
+    String result = hedger.call(() -> {
+      attempts.incrementAndGet();
+      Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+      return "slow";
+    }, value -> {
+    });
+
+    assertThat(result).isEqualTo("slow");
+    assertThat(attempts).hasValue(1);
+    assertThat(listener.throttled).hasValue(1);
+  }
+
+  @Test
+  void call_shouldRetryOnce_whenCallFails() throws IOException {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+
+    String result = hedger.call(() -> {
+      if (attempts.incrementAndGet() == 1) {
+        throw new IOException("Storage request failed");
+      }
+      return "retried";
+    }, value -> {
+    });
+
+    assertThat(result).isEqualTo("retried");
+    assertThat(listener.retries).hasValue(1);
+  }
+
+  @Test
+  void call_shouldFail_whenRetryFailsToo() {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+
+    assertThatThrownBy(() -> hedger.call(() -> {
+      throw new IOException("Storage request " + attempts.incrementAndGet() + " failed");
+    }, value -> {
+    })).isInstanceOf(IOException.class).hasMessage("Storage request 2 failed");
+    assertThat(listener.retries).hasValue(1);
+  }
+
+  @Test
+  void call_shouldNotRetry_whenFileIsNotFound() {
+    Hedger hedger = hedger(new RetryBudget(0.1, 10));
+
+    assertThatThrownBy(() -> hedger.call(() -> {
+      attempts.incrementAndGet();
+      throw new FileNotFoundException("dossier.i6z");
+    }, value -> {
+    })).isInstanceOf(FileNotFoundException.class);
+    assertThat(attempts).hasValue(1);
+    assertThat(listener.retries).hasValue(0);
+  }
+
+  @Test
+  void retryBudget_shouldEarnTokens_fromCalls() {
+    RetryBudget budget = new RetryBudget(0.5, 1);
+
+    assertThat(budget.tryWithdraw()).isTrue();
+    assertThat(budget.tryWithdraw()).isFalse();
+    budget.deposit();
+    assertThat(budget.tryWithdraw()).isFalse();
+    budget.deposit();
+    assertThat(budget.tryWithdraw()).isTrue();
+  }
+
+  private Hedger hedger(RetryBudget budget) {
+    return new Hedger(executor, scheduler, budget, 95, Duration.ofMillis(10), Duration.ofMillis(50), listener);
+  }
+
+  private static void await(CountDownLatch latch, CountDownLatch cancelled) throws IOException {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      cancelled.countDown();
+      throw new InterruptedIOException();
+    }
+  }
+
+  private static final class CountingListener implements Hedger.Listener {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    private final AtomicInteger wins = new AtomicInteger();
+
+    private final AtomicInteger retries = new AtomicInteger();
+
+    private final AtomicInteger throttled = new AtomicInteger();
+
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    @Override
+    public void called() {
+      calls.incrementAndGet();
+    }
+
+    @Override
+    public void hedged() {
+      hedges.incrementAndGet();
+    }
+
+    @Override
+    public void hedgeWon() {
+      wins.incrementAndGet();
+    }
+
+    @Override
+    public void retried() {
+      retries.incrementAndGet();
+    }
+
+    @Override
+    public void throttled() {
+      throttled.incrementAndGet();
+    }
+
+    @Override
+    public void rejected() {
+      rejected.incrementAndGet();
+    }
+  }
+}
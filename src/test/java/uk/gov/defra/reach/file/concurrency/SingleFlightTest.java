@@ -0,0 +1,123 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Operation;
+
+class SingleFlightTest {
+
+  private static final int CALLERS = 8;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+  private final AtomicInteger coalesced = new AtomicInteger();
+
+  private final CountDownLatch joined = new CountDownLatch(CALLERS - 1);
+
+  private final SingleFlight<String, String> singleFlight = new SingleFlight<>(key -> {
+    coalesced.incrementAndGet();
+    joined.countDown();
+  });
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @AfterEach
+  void tearDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  @Test
+  void call_shouldShareOneCall_betweenConcurrentCallersOfSameKey() throws Exception {
+    List<Future<String>> results = callConcurrently("dossier.i6z", () -> {
+      calls.incrementAndGet();
+      await(release);
+      return "uri";
+    });
+
+    release.countDown();
+
+    for (Future<String> result : results) {
+      assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("uri");
+    }
+    assertThat(calls).hasValue(1);
+    assertThat(coalesced).hasValue(CALLERS - 1);
+    assertThat(singleFlight.size()).isZero();
+  }
+
+  @Test
+  void call_shouldShareException_betweenConcurrentCallers() throws Exception {
+    FileNotFoundException notFound = new FileNotFoundException("dossier.i6z");
+    List<Future<String>> results = callConcurrently("dossier.i6z", () -> {
+      calls.incrementAndGet();
+      await(release);
+      throw notFound;
+    });
+
+    release.countDown();
+
+    for (Future<String> result : results) {
+      assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCause(notFound);
+    }
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  void call_shouldCallAgain_onceCallHasFinished() throws IOException {
+    singleFlight.call("dossier.i6z", () -> "first");
+
+    assertThat(singleFlight.call("dossier.i6z", () -> "second")).isEqualTo("second");
+    assertThat(coalesced).hasValue(0);
+  }
+
+  @Test
+  void call_shouldNotJoinCall_whenKeyForgotten() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    Future<String> stale = executor.submit(() -> singleFlight.call("dossier.i6z", () -> {
+      started.countDown();
+      await(release);
+      return "stale";
+    }));
+    started.await(5, TimeUnit.SECONDS);
+
+    singleFlight.forget("dossier.i6z");
+
+    assertThat(singleFlight.call("dossier.i6z", () -> "fresh")).isEqualTo("fresh");
+    release.countDown();
+    assertThat(stale.get(5, TimeUnit.SECONDS)).isEqualTo("stale");
+    assertThat(coalesced).hasValue(0);
+  }
+
+  private List<Future<String>> callConcurrently(String key, Operation<String, IOException> operation) throws InterruptedException {
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < CALLERS; i++) {
+      results.add(executor.submit(() -> singleFlight.call(key, operation)));
+    }
+    assertThat(joined.await(5, TimeUnit.SECONDS)).isTrue();
+    return results;
+  }
+
+  private static void await(CountDownLatch latch) throws IOException {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+  }
+}
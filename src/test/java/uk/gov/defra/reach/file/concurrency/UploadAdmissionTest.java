@@ -0,0 +1,117 @@
+package uk.gov.defra.reach.file.concurrency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.config.StorageProperties;
+
+class UploadAdmissionTest {
+
+  private static final long MB = DataSize.ofMegabytes(1).toBytes();
+
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+
+  private final StorageProperties storageProperties = new StorageProperties();
+
+  private UploadAdmission admission;
+
+  @BeforeEach
+  void setup() {
+    storageProperties.forContainer(Container.DOSSIER).setUploadBudget(DataSize.ofMegabytes(10));
+    admission = new UploadAdmission(storageProperties, registry, true, DataSize.ofMegabytes(100), Duration.ZERO, Duration.ofMillis(1500));
+  }
+
+  @Test
+  void admit_shouldRefuseUpload_whenBudgetIsUsedUp() {
+    Reservation first = admission.admit(60 * MB);
+
+    assertThatThrownBy(() -> admission.admit(50 * MB))
+        .isInstanceOfSatisfying(UploadRejectedException.class, e -> {
+          assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+          assertThat(e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("2");
+        });
+    assertThat(registry.get("reach.file.admission.rejected").tag("budget", "global").counter().count()).isEqualTo(1);
+    assertThat(registry.get("reach.file.admission.used").tag("budget", "global").gauge().value()).isEqualTo(60 * MB);
+    assertThat(registry.get("reach.file.admission.utilisation").tag("budget", "global").gauge().value()).isEqualTo(0.6);
+
+    first.close();
+
+    assertThat(admission.admit(50 * MB)).isNotNull();
+  }
+
+  @Test
+  void admit_shouldReleaseBudgetOnce_whenClosedTwice() {
+    Reservation reservation = admission.admit(60 * MB);
+    Reservation other = admission.admit(40 * MB);
+
+    reservation.close();
+    reservation.close();
+
+    assertThat(registry.get("reach.file.admission.used").tag("budget", "global").gauge().value()).isEqualTo(40 * MB);
+    other.close();
+  }
+
+  @Test
+  void admit_shouldChargeWholeBudget_forUploadLargerThanBudget() {
+    try (Reservation large = admission.admit(150 * MB)) {
+      assertThat(registry.get("reach.file.admission.utilisation").tag("budget", "global").gauge().value()).isEqualTo(1.0);
+      assertThatThrownBy(() -> admission.admit(1)).isInstanceOf(UploadRejectedException.class);
+    }
+  }
+
+  @Test
+  void admit_shouldApplyContainerBudget_onlyToContainersWithOne() {
+    Reservation dossier = admission.admit(Container.DOSSIER, 8 * MB);
+
+    assertThatThrownBy(() -> admission.admit(Container.DOSSIER, 4 * MB))
+        .isInstanceOfSatisfying(UploadRejectedException.class, e -> assertThat(e.getReason()).contains("DOSSIER"));
+    assertThat(admission.admit(Container.DOCUMENT, 50 * MB)).isSameAs(Reservation.NONE);
+    dossier.close();
+  }
+
+  @Test
+  void admitFile_shouldChargeBlockBuffers_forUploadsStagedInBlocks() {
+    try (Reservation small = admission.admitFile(Container.DOCUMENT, MB)) {
+      assertThat(registry.get("reach.file.admission.used").tag("budget", "global").gauge().value()).isZero();
+    }
+
+    Reservation large = admission.admitFile(Container.DOCUMENT, 17 * MB);
+    assertThat(registry.get("reach.file.admission.used").tag("budget", "global").gauge().value()).isEqualTo(3 * MB);
+
+    storageProperties.forContainer(Container.DOCUMENT).getCompression().setEnabled(true);
+    Reservation compressed = admission.admitFile(Container.DOCUMENT, MB);
+    assertThat(registry.get("reach.file.admission.used").tag("budget", "global").gauge().value()).isEqualTo(22 * MB);
+
+    compressed.close();
+    large.close();
+    assertThat(registry.get("reach.file.admission.used").tag("budget", "global").gauge().value()).isZero();
+  }
+
+  @Test
+  void admitFile_shouldReleaseContainerBudget_whenBlockBuffersAreRefused() {
+    Reservation inFlight = admission.admit(95 * MB);
+
+    storageProperties.forContainer(Container.DOSSIER).getCompression().setEnabled(true);
+    assertThatThrownBy(() -> admission.admitFile(Container.DOSSIER, MB)).isInstanceOf(UploadRejectedException.class);
+    assertThat(registry.get("reach.file.admission.used").tag("budget", "DOSSIER").gauge().value()).isZero();
+    inFlight.close();
+  }
+
+  @Test
+  void admit_shouldAdmitEverything_whenDisabled() {
+    admission = new UploadAdmission(storageProperties, new SimpleMeterRegistry(), false, DataSize.ofMegabytes(1), Duration.ZERO, Duration.ofSeconds(1));
+
+    assertThat(admission.admit(50 * MB)).isSameAs(Reservation.NONE);
+    assertThat(admission.admit(Container.DOSSIER, 50 * MB)).isSameAs(Reservation.NONE);
+  }
+}
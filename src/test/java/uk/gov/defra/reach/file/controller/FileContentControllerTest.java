@@ -0,0 +1,127 @@
+package uk.gov.defra.reach.file.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@TestPropertySource("classpath:application-dev.properties")
+class FileContentControllerTest {
+
+  private static final byte[] CONTENT = "0123456789".getBytes();
+
+  @LocalServerPort
+  private int port;
+
+  @MockBean
+  @Qualifier("restTemplateCustomizer")
+  private RestTemplateCustomizer restTemplateCustomizer;
+
+  @MockBean
+  private Map<Container, Storage> mockStorageMap;
+
+  @Value("${test.jwt.token}")
+  private String testJwtToken;
+
+  @Autowired
+  private TestRestTemplate restTemplate;
+
+  private String contentEndpoint;
+
+  @SneakyThrows
+  @BeforeEach
+  void setup() {
+    contentEndpoint = "http://localhost:" + port + "/file/content?container=DOSSIER&target=file1";
+    InMemoryStorage storage = new InMemoryStorage();
+    storage.store(new ByteArrayInputStream(CONTENT), StorageFilename.from("file1"));
+    when(mockStorageMap.get(Container.DOSSIER)).thenReturn(storage);
+  }
+
+  @Test
+  void shouldDownloadWholeFile() {
+    ResponseEntity<byte[]> response = download(getHeadersWithAuth());
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getHeaders().getETag()).isNotBlank();
+    assertThat(response.getBody()).isEqualTo(CONTENT);
+  }
+
+  @Test
+  void shouldDownloadRequestedRange() {
+    HttpHeaders headers = getHeadersWithAuth();
+    headers.set(HttpHeaders.RANGE, "bytes=2-5");
+
+    ResponseEntity<byte[]> response = download(headers);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+    assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+    assertThat(response.getBody()).isEqualTo("2345".getBytes());
+  }
+
+  @Test
+  void shouldRejectUnsatisfiableRange() {
+    HttpHeaders headers = getHeadersWithAuth();
+    headers.set(HttpHeaders.RANGE, "bytes=20-");
+
+    ResponseEntity<byte[]> response = download(headers);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+    assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+  }
+
+  @Test
+  void shouldReturnNotModified_whenEtagMatches() {
+    String etag = download(getHeadersWithAuth()).getHeaders().getETag();
+    HttpHeaders headers = getHeadersWithAuth();
+    headers.setIfNoneMatch(etag);
+
+    ResponseEntity<byte[]> response = download(headers);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+  }
+
+  @Test
+  void shouldReturnNotModified_whenWeakEtagMatches() {
+    String etag = download(getHeadersWithAuth()).getHeaders().getETag();
+    HttpHeaders headers = getHeadersWithAuth();
+    headers.setIfNoneMatch("W/" + etag);
+
+    ResponseEntity<byte[]> response = download(headers);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+  }
+
+  private ResponseEntity<byte[]> download(HttpHeaders headers) {
+    return restTemplate.exchange(contentEndpoint, HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+  }
+
+  private HttpHeaders getHeadersWithAuth() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setBearerAuth(testJwtToken);
+    return headers;
+  }
+}
@@ -1,13 +1,16 @@
 package uk.gov.defra.reach.file.controller;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import lombok.SneakyThrows;
 import org.junit.jupiter.api.BeforeEach;
@@ -38,6 +41,8 @@ import org.springframework.util.MultiValueMap;
 import uk.gov.defra.reach.file.Container;
 import uk.gov.defra.reach.file.SerializableChecksum;
 import uk.gov.defra.reach.file.SerializableUri;
+import uk.gov.defra.reach.file.model.BatchResult;
+import uk.gov.defra.reach.file.model.FileReference;
 import uk.gov.defra.reach.storage.Storage;
 import uk.gov.defra.reach.storage.StorageFilename;
 
@@ -101,6 +106,29 @@ class FileServiceControllerTest {
     assertThat(inputStreamCaptor.getValue()).hasSameContentAs(testFile.getInputStream());
   }
 
+  @SneakyThrows
+  @Test
+  void shouldStoreStreamedFile() {
+    byte[] content = "Test file".getBytes();
+    String base64Checksum = "5EB63BBBE01EEED093CB22BB8F5ACDC3";
+    String base16Checksum = "e4407adc1041134d441040f4f77081db6041f05e400830b7";
+
+    HttpHeaders headers = getHeadersWithAuth();
+    headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+    HttpEntity<byte[]> requestEntity = new HttpEntity<>(content, headers);
+
+    when(mockStorage.store(inputStreamCaptor.capture(), eq(StorageFilename.from("file1")))).thenAnswer(invocation -> {
+      assertThat(invocation.<InputStream>getArgument(0)).hasSameContentAs(new ByteArrayInputStream(content));
+      return base64Checksum;
+    });
+
+    ResponseEntity<SerializableChecksum> responseEntity = restTemplate
+        .postForEntity(fileEndpoint + "?container=DOCUMENT&target=file1", requestEntity, SerializableChecksum.class);
+
+    assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+    assertThat(responseEntity.getBody().get()).isEqualTo(base16Checksum);
+  }
+
   @SneakyThrows
   @Test
   void shouldGetSaaSUrlForFile() {
@@ -135,6 +163,24 @@ class FileServiceControllerTest {
     assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
   }
 
+  @SneakyThrows
+  @Test
+  void shouldCheckManyFilesExist_reportingEachResult() {
+    HttpHeaders headers = getHeadersWithAuth();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    List<FileReference> files = List.of(new FileReference(Container.DOCUMENT, "present"), new FileReference(Container.DOCUMENT, "missing"));
+
+    when(mockStorage.exists(StorageFilename.from("present"))).thenReturn(true);
+    when(mockStorage.exists(StorageFilename.from("missing"))).thenReturn(false);
+
+    ResponseEntity<BatchResult[]> response = restTemplate
+        .exchange(fileEndpoint + "/batch/exists", HttpMethod.POST, new HttpEntity<>(files, headers), BatchResult[].class);
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody()).extracting(BatchResult::getTarget, BatchResult::getStatus)
+        .containsExactly(tuple("present", 200), tuple("missing", 404));
+  }
+
   private HttpHeaders getHeadersWithAuth() {
     HttpHeaders headers = new HttpHeaders();
     headers.setBearerAuth(testJwtToken);
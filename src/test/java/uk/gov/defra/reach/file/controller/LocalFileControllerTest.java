@@ -0,0 +1,88 @@
+package uk.gov.defra.reach.file.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.Map;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.client.RestTemplateCustomizer;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.storage.Storage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Uses the storage configured by default for each container other than its backend, with signed URLs valid for a minute
+ */
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT)
+@TestPropertySource(locations = "classpath:application-dev.properties", properties = {
+    "reach.file.storage.local.root=${java.io.tmpdir}/reach-file-storage-test",
+    "reach.file.storage.local.baseUrl=http://localhost",
+    "azure.storage.sasTokenTTLSeconds=60",
+    "reach.file.storage.containers.DOSSIER.backend=LOCAL",
+    "reach.file.storage.containers.DOCUMENT.backend=LOCAL",
+    "reach.file.storage.containers.EXPORT.backend=LOCAL",
+    "reach.file.storage.containers.TEMPORARY.backend=LOCAL"
+})
+class LocalFileControllerTest {
+
+  private static final byte[] CONTENT = "0123456789".getBytes();
+
+  @LocalServerPort
+  private int port;
+
+  @MockBean
+  @Qualifier("restTemplateCustomizer")
+  private RestTemplateCustomizer restTemplateCustomizer;
+
+  @Autowired
+  private Map<Container, Storage> storageMap;
+
+  @Autowired
+  private TestRestTemplate restTemplate;
+
+  @SneakyThrows
+  @Test
+  void shouldDownloadFileFromSignedUrl() {
+    StorageFilename filename = StorageFilename.from("file1");
+    Storage storage = storageMap.get(Container.DOSSIER);
+    storage.store(new ByteArrayInputStream(CONTENT), filename);
+
+    ResponseEntity<byte[]> response = download(storage.get(filename));
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+    assertThat(response.getBody()).isEqualTo(CONTENT);
+  }
+
+  @SneakyThrows
+  @Test
+  void shouldRefuseDownload_whenSignatureIsInvalid() {
+    StorageFilename filename = StorageFilename.from("file2");
+    Storage storage = storageMap.get(Container.DOSSIER);
+    storage.store(new ByteArrayInputStream(CONTENT), filename);
+    URI uri = storage.get(filename);
+
+    ResponseEntity<byte[]> response = download(URI.create(uri.toString().replaceAll("signature=[^&]*", "signature=invalid")));
+
+    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+  }
+
+  private ResponseEntity<byte[]> download(URI signedUri) {
+    // The signed URL names the configured base URL, the test server listens on a random port, and is sent without a JWT
+    String url = "http://localhost:" + port + signedUri.getRawPath() + "?" + signedUri.getRawQuery();
+    return restTemplate.exchange(URI.create(url), HttpMethod.GET, HttpEntity.EMPTY, byte[].class);
+  }
+}
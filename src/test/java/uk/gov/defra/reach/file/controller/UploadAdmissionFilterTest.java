@@ -0,0 +1,93 @@
+package uk.gov.defra.reach.file.controller;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.concurrency.UploadAdmission;
+import uk.gov.defra.reach.file.config.StorageProperties;
+
+class UploadAdmissionFilterTest {
+
+  private final UploadAdmission admission = new UploadAdmission(new StorageProperties(), new SimpleMeterRegistry(), true,
+      DataSize.ofKilobytes(100), Duration.ZERO, Duration.ofSeconds(5));
+
+  private final UploadAdmissionFilter filter = new UploadAdmissionFilter(admission, DataSize.ofKilobytes(100));
+
+  @Test
+  void doFilter_shouldRefuseUploadWithRetryAfter_whenBudgetIsUsedUp() throws Exception {
+    MockFilterChain chain = new MockFilterChain();
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    try (Reservation inFlight = admission.admit(DataSize.ofKilobytes(90).toBytes())) {
+      filter.doFilter(upload(DataSize.ofKilobytes(20).toBytes()), response, chain);
+    }
+
+    assertThat(response.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+    assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+    assertThat(chain.getRequest()).isNull();
+  }
+
+  @Test
+  void doFilter_shouldReleaseBudget_onceUploadCompletes() throws Exception {
+    filter.doFilter(upload(DataSize.ofKilobytes(100).toBytes()), new MockHttpServletResponse(), new MockFilterChain());
+    MockFilterChain chain = new MockFilterChain();
+
+    filter.doFilter(upload(DataSize.ofKilobytes(100).toBytes()), new MockHttpServletResponse(), chain);
+
+    assertThat(chain.getRequest()).isNotNull();
+  }
+
+  @Test
+  void doFilter_shouldChargeMaxRequestSize_whenLengthIsNotDeclared() throws Exception {
+    MockFilterChain chain = new MockFilterChain();
+
+    try (Reservation inFlight = admission.admit(1)) {
+      filter.doFilter(upload(-1), new MockHttpServletResponse(), chain);
+    }
+
+    assertThat(chain.getRequest()).isNull();
+  }
+
+  @Test
+  void doFilter_shouldChargeChunksOfResumableUploads() throws Exception {
+    MockHttpServletRequest chunk = new MockHttpServletRequest("PUT", "/file/uploads/session/chunks/0");
+    chunk.setServletPath("/file/uploads/session/chunks/0");
+    chunk.setContent(new byte[Math.toIntExact(DataSize.ofKilobytes(20).toBytes())]);
+    MockFilterChain chain = new MockFilterChain();
+
+    try (Reservation inFlight = admission.admit(DataSize.ofKilobytes(90).toBytes())) {
+      filter.doFilter(chunk, new MockHttpServletResponse(), chain);
+    }
+
+    assertThat(chain.getRequest()).isNull();
+  }
+
+  @Test
+  void doFilter_shouldNotChargeOtherRequests() throws Exception {
+    MockFilterChain chain = new MockFilterChain();
+
+    try (Reservation inFlight = admission.admit(DataSize.ofKilobytes(100).toBytes())) {
+      filter.doFilter(new MockHttpServletRequest("POST", "/file/batch/get"), new MockHttpServletResponse(), chain);
+    }
+
+    assertThat(chain.getRequest()).isNotNull();
+  }
+
+  private static MockHttpServletRequest upload(long length) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/file");
+    request.setServletPath("/file");
+    if (length >= 0) {
+      request.setContent(new byte[Math.toIntExact(length)]);
+    }
+    return request;
+  }
+}
@@ -0,0 +1,105 @@
+package uk.gov.defra.reach.file.health;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.actuate.health.Status;
+
+class CachedHealthIndicatorTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+
+  private final Clock clock = mock(Clock.class);
+
+  private final AtomicInteger probes = new AtomicInteger();
+
+  private Health probeResult = Health.up().withDetail("container", "dossier").build();
+
+  private long probeMillis;
+
+  private CachedHealthIndicator indicator;
+
+  @BeforeEach
+  void setup() {
+    when(clock.instant()).thenReturn(NOW);
+    HealthIndicator probe = () -> {
+      probes.incrementAndGet();
+      sleep(probeMillis);
+      return probeResult;
+    };
+    indicator = new CachedHealthIndicator("DOSSIER blob container", probe, mock(ScheduledExecutorService.class), Duration.ofSeconds(30),
+        Duration.ofSeconds(5), Duration.ofMillis(200), Duration.ofMinutes(2), clock, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void health_shouldBeUnknown_untilProbed() {
+    assertThat(indicator.health().getStatus()).isEqualTo(Status.UNKNOWN);
+    assertThat(probes).hasValue(0);
+  }
+
+  @Test
+  void health_shouldServeLastResult_withoutProbing() {
+    indicator.refresh();
+    when(clock.instant()).thenReturn(NOW.plusSeconds(10));
+
+    Health first = indicator.health();
+    Health second = indicator.health();
+
+    assertThat(probes).hasValue(1);
+    assertThat(first.getStatus()).isEqualTo(Status.UP);
+    assertThat(first.getDetails()).containsEntry("container", "dossier").containsEntry("ageMs", 10000L).containsEntry("checkedAt", NOW.toString());
+    assertThat(second).isEqualTo(first);
+  }
+
+  @Test
+  void health_shouldBeDegraded_whenProbeIsSlow() {
+    probeMillis = 250;
+
+    indicator.refresh();
+
+    assertThat(indicator.health().getStatus()).isEqualTo(CachedHealthIndicator.DEGRADED);
+  }
+
+  @Test
+  void health_shouldBeDown_whenProbeFails() {
+    HealthIndicator failing = () -> {
+      throw new IllegalStateException("unreachable");
+    };
+    CachedHealthIndicator indicator = new CachedHealthIndicator("DOSSIER blob container", failing, mock(ScheduledExecutorService.class),
+        Duration.ofSeconds(30), Duration.ZERO, Duration.ofMillis(200), Duration.ofMinutes(2), clock, new SimpleMeterRegistry());
+
+    indicator.refresh();
+
+    assertThat(indicator.health().getStatus()).isEqualTo(Status.DOWN);
+  }
+
+  @Test
+  void health_shouldBeDown_whenResultIsStale() {
+    indicator.refresh();
+    when(clock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(3)));
+
+    Health health = indicator.health();
+
+    assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+    assertThat(health.getDetails()).containsEntry("reason", "Not checked for 180 seconds");
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package uk.gov.defra.reach.file.health;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.file.storage.LazyStorage;
+
+class LazyStorageHealthIndicatorTest {
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  private final AtomicInteger initialisations = new AtomicInteger();
+
+  private final AtomicInteger probes = new AtomicInteger();
+
+  private final LazyStorage storage = new LazyStorage(Container.EXPORT, () -> {
+    initialisations.incrementAndGet();
+    return new InMemoryStorage();
+  }, executor, Duration.ofSeconds(30), Duration.ofSeconds(5), new SimpleMeterRegistry());
+
+  private final LazyStorageHealthIndicator indicator = new LazyStorageHealthIndicator(storage, () -> {
+    probes.incrementAndGet();
+    return Health.up().build();
+  });
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void health_shouldBeUnknown_withoutInitialisingStorage_untilFirstUsed() throws Exception {
+    assertThat(indicator.health().getStatus()).isEqualTo(Status.UNKNOWN);
+
+    executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+    assertThat(initialisations).hasValue(0);
+    assertThat(probes).hasValue(0);
+    assertThat(storage.isStarted()).isFalse();
+  }
+
+  @Test
+  void health_shouldProbeStorage_onceInitialised() throws Exception {
+    storage.initialise().get(5, TimeUnit.SECONDS);
+
+    assertThat(indicator.health().getStatus()).isEqualTo(Status.UP);
+    assertThat(probes).hasValue(1);
+  }
+}
@@ -0,0 +1,127 @@
+package uk.gov.defra.reach.file.job;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.defra.reach.file.Container.DOSSIER;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.job.Job.State;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.file.storage.StatusBlobs;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class JobRegistryTest {
+
+  private final InMemoryStorage storage = new InMemoryStorage();
+
+  private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  private final JobRegistry running = registry();
+
+  private final JobRegistry other = registry();
+
+  @AfterEach
+  void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void get_shouldReportJobRunByAnotherInstance() {
+    Job job = running.create("upload", DOSSIER, "target");
+
+    Job queued = other.get(job.getId());
+    assertThat(queued.getState()).isEqualTo(State.QUEUED);
+    assertThat(queued.getContainer()).isEqualTo(DOSSIER);
+    assertThat(queued.getTarget()).isEqualTo("target");
+    assertThat(queued.getCreated()).isEqualTo(job.getCreated());
+
+    job.start();
+    assertThat(other.get(job.getId()).getState()).isEqualTo(State.RUNNING);
+
+    job.complete("checksum");
+    Job completed = other.get(job.getId());
+    assertThat(completed.getState()).isEqualTo(State.COMPLETED);
+    assertThat(completed.getChecksum()).isEqualTo("checksum");
+    assertThat(completed.getFinished()).isEqualTo(job.getFinished());
+    assertThat(completed.getCompletion()).isCompleted();
+  }
+
+  @Test
+  void completion_shouldComplete_whenJobRunByAnotherInstanceFinishes() throws Exception {
+    Job job = running.create("upload", DOSSIER, "target");
+    CompletableFuture<Job> completion = other.completion(other.get(job.getId()));
+    assertThat(completion).isNotDone();
+
+    job.fail(HttpStatus.BAD_REQUEST.value(), "Bad file");
+
+    Job failed = completion.get(5, TimeUnit.SECONDS);
+    assertThat(failed.getState()).isEqualTo(State.FAILED);
+    assertThat(failed.getStatus()).isEqualTo(400);
+    assertThat(failed.getError()).isEqualTo("Bad file");
+  }
+
+  @Test
+  void completion_shouldNotAffectJob_whenCancelled() {
+    Job job = running.create("upload", DOSSIER, "target");
+
+    running.completion(job).cancel(false);
+    job.complete("checksum");
+
+    assertThat(job.getCompletion()).isCompletedWithValue(job);
+  }
+
+  @Test
+  void resume_shouldTakeOverRecordedJob() {
+    Job job = running.create("upload", DOSSIER, "target");
+    job.start();
+
+    Job resumed = other.resume(other.get(job.getId()));
+    assertThat(resumed.getId()).isEqualTo(job.getId());
+    assertThat(resumed.getState()).isEqualTo(State.QUEUED);
+    assertThat(other.get(job.getId())).isSameAs(resumed);
+
+    resumed.complete("checksum");
+    assertThat(registry().get(job.getId()).getState()).isEqualTo(State.COMPLETED);
+  }
+
+  @Test
+  void remove_shouldDeleteRecordedJob() throws Exception {
+    Job job = running.create("upload", DOSSIER, "target");
+
+    running.remove(job.getId());
+
+    assertThat(storage.exists(StorageFilename.from(JobRegistry.statusBlob(job.getId())))).isFalse();
+    assertThatThrownBy(() -> other.get(job.getId())).isInstanceOfSatisfying(ResponseStatusException.class,
+        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  void get_shouldReportNotFound_forIdsWhichAreNotJobs() {
+    assertThatThrownBy(() -> other.get("../file1")).isInstanceOfSatisfying(ResponseStatusException.class,
+        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  void get_shouldOnlyReportOwnJobs_whenHeldInMemory() {
+    Job job = new JobRegistry(Duration.ofHours(1)).create("upload", DOSSIER, "target");
+
+    assertThatThrownBy(() -> new JobRegistry(Duration.ofHours(1)).get(job.getId())).isInstanceOf(ResponseStatusException.class);
+  }
+
+  private JobRegistry registry() {
+    return new JobRegistry(new StatusBlobs(storage, objectMapper), scheduler, Duration.ofHours(1), Clock.systemUTC());
+  }
+}
@@ -0,0 +1,67 @@
+package uk.gov.defra.reach.file.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics.Operation;
+
+class FileOperationMetricsTest {
+
+  private final MeterRegistry registry = new SimpleMeterRegistry();
+
+  private final FileOperationMetrics metrics = new FileOperationMetrics(registry);
+
+  @Test
+  void record_shouldTimeSuccessfulOperation_andTrackItWhileInFlight() {
+    String result = metrics.record(Operation.GET, Container.DOSSIER, () -> {
+      assertThat(registry.get(FileOperationMetrics.ACTIVE_GAUGE).tags("operation", "get", "container", "DOSSIER").gauge().value()).isEqualTo(1);
+      return "result";
+    });
+
+    assertThat(result).isEqualTo("result");
+    assertThat(registry.get(FileOperationMetrics.OPERATION_TIMER).tags("operation", "get", "container", "DOSSIER", "outcome", "success").timer().count())
+        .isEqualTo(1);
+    assertThat(registry.get(FileOperationMetrics.ACTIVE_GAUGE).tags("operation", "get", "container", "DOSSIER").gauge().value()).isZero();
+  }
+
+  @Test
+  void record_shouldCountFailureByMappedStatus() {
+    assertThatThrownBy(() -> metrics.record(Operation.EXISTS, Container.DOCUMENT, () -> {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE);
+    })).isInstanceOf(ResponseStatusException.class);
+    assertThatThrownBy(() -> metrics.record(Operation.EXISTS, Container.DOCUMENT, () -> {
+      throw new IllegalStateException();
+    })).isInstanceOf(IllegalStateException.class);
+
+    assertThat(registry.get(FileOperationMetrics.ERROR_COUNTER).tags("operation", "exists", "container", "DOCUMENT", "status", "503").counter().count())
+        .isEqualTo(1);
+    assertThat(registry.get(FileOperationMetrics.ERROR_COUNTER).tags("operation", "exists", "container", "DOCUMENT", "status", "500").counter().count())
+        .isEqualTo(1);
+    assertThat(registry.get(FileOperationMetrics.OPERATION_TIMER).tags("operation", "exists", "outcome", "error").timer().count()).isEqualTo(2);
+  }
+
+  @Test
+  void record_shouldTimeNotFoundSeparately_andNotCountItAsError() {
+    assertThatThrownBy(() -> metrics.record(Operation.EXISTS, Container.DOCUMENT, () -> {
+      throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+    })).isInstanceOf(ResponseStatusException.class);
+
+    assertThat(registry.get(FileOperationMetrics.OPERATION_TIMER).tags("operation", "exists", "outcome", "not_found").timer().count()).isEqualTo(1);
+    assertThat(registry.get(FileOperationMetrics.OPERATION_TIMER).tags("operation", "exists", "outcome", "error").timer().count()).isZero();
+    assertThat(registry.find(FileOperationMetrics.ERROR_COUNTER).counter()).isNull();
+  }
+
+  @Test
+  void recordUploaded_shouldCountBytesPerContainer() {
+    metrics.recordUploaded(Container.EXPORT, 100);
+    metrics.recordUploaded(Container.EXPORT, 50);
+
+    assertThat(registry.get(FileOperationMetrics.UPLOADED_COUNTER).tag("container", "EXPORT").counter().count()).isEqualTo(150);
+  }
+}
@@ -37,4 +37,11 @@ class SecurityTest {
         .andExpect(status().isOk());
   }
 
+  @Test
+  void localFileUrlsAreCheckedBySignatureRatherThanJwt() throws Exception {
+    // DOSSIER is not local storage here, so the URL reaches the controller and is refused as not found
+    mockMvc.perform(get("/file/local/DOSSIER/file1").param("expires", "0").param("signature", "none"))
+        .andExpect(status().isNotFound());
+  }
+
 }
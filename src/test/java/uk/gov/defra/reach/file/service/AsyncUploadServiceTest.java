@@ -0,0 +1,158 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static uk.gov.defra.reach.file.Container.DOSSIER;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.job.Job;
+import uk.gov.defra.reach.file.job.Job.State;
+import uk.gov.defra.reach.file.job.JobRegistry;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.file.storage.StatusBlobs;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncUploadServiceTest {
+
+  @Mock
+  private FileService fileService;
+
+  @TempDir
+  Path spoolDirectory;
+
+  private final JobRegistry jobRegistry = new JobRegistry(Duration.ofHours(1));
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void submit_shouldStoreSpooledFile_andCompleteJobWithChecksum() {
+    given(fileService.store(any(InputStream.class), eq(7L), eq(DOSSIER), eq("target"))).willAnswer(invocation -> {
+      assertThat(new String(invocation.<InputStream>getArgument(0).readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("content");
+      return "checksum";
+    });
+    AsyncUploadService service = service(MoreExecutors.newDirectExecutorService(), 10);
+
+    Job job = service.submit(file(), DOSSIER, "target");
+
+    assertThat(jobRegistry.get(job.getId())).isSameAs(job);
+    assertThat(job.getState()).isEqualTo(State.COMPLETED);
+    assertThat(job.getChecksum()).isEqualTo("checksum");
+    assertThat(job.getCompletion()).isCompleted();
+    assertThat(spoolDirectory.toFile().list()).isEmpty();
+    assertThat(meterRegistry.get("reach.file.storage.uploaded").tag("container", "DOSSIER").counter().count()).isEqualTo(7);
+  }
+
+  @Test
+  void submit_shouldFailJobWithMappedStatus_whenStoreFails() {
+    given(fileService.store(any(InputStream.class), anyLong(), eq(DOSSIER), eq("target")))
+        .willThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid target filename supplied!"));
+    AsyncUploadService service = service(MoreExecutors.newDirectExecutorService(), 10);
+
+    Job job = service.submit(file(), DOSSIER, "target");
+
+    assertThat(job.getState()).isEqualTo(State.FAILED);
+    assertThat(job.getStatus()).isEqualTo(400);
+    assertThat(job.getError()).isEqualTo("Invalid target filename supplied!");
+    assertThat(spoolDirectory.toFile().list()).isEmpty();
+    assertThat(meterRegistry.find("reach.file.storage.uploaded").counter()).isNull();
+  }
+
+  @Test
+  void submit_shouldRefuseUpload_onceQueueIsFull() {
+    AsyncUploadService service = service(mock(ExecutorService.class), 1);
+
+    Job running = service.submit(file(), DOSSIER, "first");
+    Job queued = service.submit(file(), DOSSIER, "second");
+
+    assertThatThrownBy(() -> service.submit(file(), DOSSIER, "third"))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+    assertThat(service.running()).isEqualTo(1);
+    assertThat(service.queued()).isEqualTo(1);
+    assertThat(running.getState()).isEqualTo(State.QUEUED);
+    assertThat(queued.getState()).isEqualTo(State.QUEUED);
+  }
+
+  @Test
+  void submit_shouldReleaseReservation_onceStored() {
+    Reservation reservation = mock(Reservation.class);
+    AsyncUploadService service = service(mock(ExecutorService.class), 1);
+    service.submit(file(), DOSSIER, "first");
+    service.submit(file(), DOSSIER, "second");
+
+    assertThatThrownBy(() -> service.submit(file(), DOSSIER, "third", reservation)).isInstanceOf(ResponseStatusException.class);
+    verify(reservation).close();
+
+    Reservation stored = mock(Reservation.class);
+    service(MoreExecutors.newDirectExecutorService(), 10).submit(file(), DOSSIER, "target", stored);
+    verify(stored).close();
+  }
+
+  @Test
+  void resumeSpooled_shouldStoreUploadsLeftUnfinished_andDeleteOtherSpooledFiles() throws Exception {
+    InMemoryStorage storage = new InMemoryStorage();
+    JobRegistry stopped = recordingRegistry(storage);
+    Job unfinished = stopped.create(AsyncUploadService.JOB_TYPE, DOSSIER, "target");
+    unfinished.start();
+    Job finished = stopped.create(AsyncUploadService.JOB_TYPE, DOSSIER, "other");
+    finished.complete("checksum");
+    Files.writeString(spoolDirectory.resolve(unfinished.getId()), "content");
+    Files.writeString(spoolDirectory.resolve(finished.getId()), "content");
+    Files.writeString(spoolDirectory.resolve("unknown"), "content");
+    given(fileService.store(any(InputStream.class), eq(7L), eq(DOSSIER), eq("target"))).willReturn("stored");
+
+    JobRegistry restarted = recordingRegistry(storage);
+    service(MoreExecutors.newDirectExecutorService(), 10, restarted).resumeSpooled();
+
+    Job resumed = restarted.get(unfinished.getId());
+    assertThat(resumed.getState()).isEqualTo(State.COMPLETED);
+    assertThat(resumed.getChecksum()).isEqualTo("stored");
+    assertThat(spoolDirectory.toFile().list()).isEmpty();
+  }
+
+  private AsyncUploadService service(ExecutorService executor, int queueCapacity) {
+    return service(executor, queueCapacity, jobRegistry);
+  }
+
+  private AsyncUploadService service(ExecutorService executor, int queueCapacity, JobRegistry jobRegistry) {
+    StorageProperties storageProperties = new StorageProperties();
+    storageProperties.forContainer(DOSSIER).setAsyncUploadConcurrency(1);
+    return new AsyncUploadService(fileService, jobRegistry, new FileOperationMetrics(meterRegistry), storageProperties, executor, queueCapacity, spoolDirectory);
+  }
+
+  private static JobRegistry recordingRegistry(InMemoryStorage storage) {
+    return new JobRegistry(new StatusBlobs(storage, Jackson2ObjectMapperBuilder.json().build()), mock(ScheduledExecutorService.class),
+        Duration.ofHours(1), Clock.systemUTC());
+  }
+
+  private static MockMultipartFile file() {
+    return new MockMultipartFile("file", "content".getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,141 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static uk.gov.defra.reach.file.Container.EXPORT;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.Bulkhead;
+import uk.gov.defra.reach.file.concurrency.ByteBudget;
+import uk.gov.defra.reach.file.concurrency.ByteBudget.Reservation;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+
+class BundleServiceTest {
+
+  private static final int PREFETCH_BYTES = 100;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  private final Map<String, byte[]> files = new LinkedHashMap<>();
+
+  private final ByteBudget prefetchBudget = new ByteBudget(1024 * 1024, Duration.ZERO, mock(Bulkhead.Listener.class));
+
+  private FileService fileService;
+
+  private BundleService bundleService;
+
+  @BeforeEach
+  void setup() {
+    InMemoryStorage storage = new InMemoryStorage();
+    StorageProperties storageProperties = new StorageProperties();
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    fileService = new FileService(Map.of(EXPORT, storage), storageProperties,
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()), new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties),
+        new FileOperationMetrics(meterRegistry), new ContainerBulkheads(storageProperties, meterRegistry));
+    bundleService = new BundleService(fileService, executor, 2, PREFETCH_BYTES, prefetchBudget, 10);
+
+    files.put("report.txt", "some text ".repeat(50).getBytes());
+    files.put("small.zip", bytes(PREFETCH_BYTES / 2));
+    files.put("large.zip", bytes(PREFETCH_BYTES * 5));
+    files.put("empty.txt", new byte[0]);
+    files.forEach((name, content) -> fileService.store(new ByteArrayInputStream(content), EXPORT, name));
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void writeTo_shouldWriteEveryFile_inTheOrderRequested() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    bundleService.prepare(EXPORT, List.copyOf(files.keySet())).writeTo(out);
+
+    Map<String, byte[]> entries = new LinkedHashMap<>();
+    Map<String, Integer> methods = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        methods.put(entry.getName(), entry.getMethod());
+        entries.put(entry.getName(), zip.readAllBytes());
+      }
+    }
+
+    assertThat(entries.keySet()).containsExactlyElementsOf(files.keySet());
+    files.forEach((name, content) -> assertThat(entries.get(name)).as(name).isEqualTo(content));
+    assertThat(methods.get("small.zip")).isEqualTo(ZipEntry.STORED);
+    assertThat(methods.get("large.zip")).isEqualTo(ZipEntry.DEFLATED);
+    assertThat(methods.get("report.txt")).isEqualTo(ZipEntry.DEFLATED);
+  }
+
+  @Test
+  void writeTo_shouldReleasePrefetchBuffers_onceWritten() throws IOException {
+    bundleService.prepare(EXPORT, List.copyOf(files.keySet())).writeTo(new ByteArrayOutputStream());
+
+    assertThat(prefetchBudget.used()).isZero();
+  }
+
+  @Test
+  void writeTo_shouldReadFilesFromStorage_whenPrefetchBudgetIsUsedUp() throws IOException {
+    ByteBudget exhausted = new ByteBudget(1024, Duration.ZERO, mock(Bulkhead.Listener.class));
+    Reservation held = exhausted.reserve(1024);
+    BundleService starved = new BundleService(fileService, executor, 2, PREFETCH_BYTES, exhausted, 10);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    starved.prepare(EXPORT, List.copyOf(files.keySet())).writeTo(out);
+    held.close();
+
+    Map<String, byte[]> entries = new LinkedHashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        entries.put(entry.getName(), zip.readAllBytes());
+      }
+    }
+    files.forEach((name, content) -> assertThat(entries.get(name)).as(name).isEqualTo(content));
+    assertThat(exhausted.used()).isZero();
+  }
+
+  @Test
+  void prepare_shouldRefuseBundle_whenFileDoesNotExist() {
+    assertThatThrownBy(() -> bundleService.prepare(EXPORT, List.of("report.txt", "missing.txt")))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  void prepare_shouldRefuseNamesEscapingTheArchive() {
+    assertThatThrownBy(() -> bundleService.prepare(EXPORT, List.of("../report.txt")))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
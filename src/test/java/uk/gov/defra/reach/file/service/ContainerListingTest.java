@@ -0,0 +1,94 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.defra.reach.file.Container.EXPORT;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+
+class ContainerListingTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private FileService fileService;
+
+  @BeforeEach
+  void setup() {
+    InMemoryStorage storage = new InMemoryStorage();
+    StorageProperties storageProperties = new StorageProperties();
+    fileService = new FileService(Map.of(EXPORT, storage), storageProperties,
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()), new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties),
+        new FileOperationMetrics(meterRegistry), new ContainerBulkheads(storageProperties, meterRegistry));
+    ReflectionTestUtils.setField(fileService, "listPageSize", 2);
+    for (int i = 0; i < 5; i++) {
+      fileService.store(new ByteArrayInputStream(("content " + i).getBytes(StandardCharsets.UTF_8)), EXPORT, "exports/file" + i + ".csv");
+    }
+    fileService.store(new ByteArrayInputStream(new byte[]{1}), EXPORT, "other.csv");
+  }
+
+  @Test
+  void writeTo_shouldListEveryFileWithPrefix_readingPagesAsWritten() throws IOException {
+    List<JsonNode> lines = write(fileService.listing(EXPORT, "exports/", null, 100));
+
+    assertThat(lines).hasSize(6);
+    assertThat(lines.subList(0, 5)).extracting(line -> line.get("name").asText())
+        .containsExactly("exports/file0.csv", "exports/file1.csv", "exports/file2.csv", "exports/file3.csv", "exports/file4.csv");
+    assertThat(lines.get(0).get("size").asLong()).isEqualTo(9);
+    assertThat(lines.get(0).get("md5").asText()).isNotEmpty();
+    assertThat(lines.get(5).get("count").asInt()).isEqualTo(5);
+    assertThat(lines.get(5).has("continuationToken")).isFalse();
+    assertThat(meterRegistry.get("reach.file.storage.operation").tag("operation", "list").timer().count()).isEqualTo(3);
+  }
+
+  @Test
+  void writeTo_shouldStopAtLimit_withTokenToContinueFrom() throws IOException {
+    List<JsonNode> first = write(fileService.listing(EXPORT, "exports/", null, 3));
+    String token = first.get(3).get("continuationToken").asText();
+    List<JsonNode> rest = write(fileService.listing(EXPORT, "exports/", token, 3));
+
+    assertThat(first.get(3).get("count").asInt()).isEqualTo(3);
+    assertThat(first.get(2).get("name").asText()).isEqualTo("exports/file2.csv");
+    assertThat(rest).extracting(line -> line.path("name").asText()).containsExactly("exports/file3.csv", "exports/file4.csv", "");
+    assertThat(rest.get(2).has("continuationToken")).isFalse();
+  }
+
+  @Test
+  void listing_shouldFail_beforeWriting_whenContainerCannotBeListed() {
+    assertThatThrownBy(() -> fileService.listing(null, null, null, 10))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+  }
+
+  private List<JsonNode> write(ContainerListing listing) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    listing.writeTo(out, objectMapper);
+    List<JsonNode> lines = new ArrayList<>();
+    for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+      lines.add(objectMapper.readTree(line));
+    }
+    return lines;
+  }
+}
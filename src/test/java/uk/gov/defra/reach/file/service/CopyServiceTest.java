@@ -0,0 +1,135 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.defra.reach.file.Container.DOSSIER;
+import static uk.gov.defra.reach.file.Container.TEMPORARY;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.job.Job;
+import uk.gov.defra.reach.file.job.Job.State;
+import uk.gov.defra.reach.file.job.JobRegistry;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.file.storage.LocalFileStorage;
+import uk.gov.defra.reach.storage.Storage;
+
+class CopyServiceTest {
+
+  private static final byte[] CONTENT = "content".getBytes(StandardCharsets.UTF_8);
+
+  private final InMemoryStorage storage = new InMemoryStorage();
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  private FileService fileService;
+
+  private CopyService copyService;
+
+  @BeforeEach
+  void setup() {
+    fileService = fileService(Map.of(TEMPORARY, storage, DOSSIER, storage));
+    copyService = copyService(Duration.ofMinutes(1));
+  }
+
+  @AfterEach
+  void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void copy_shouldCompleteWithChecksumOfSource() throws Exception {
+    String checksum = fileService.store(new ByteArrayInputStream(CONTENT), TEMPORARY, "source");
+
+    Job job = copyService.copy(TEMPORARY, "source", DOSSIER, "target", false).getCompletion().get(5, TimeUnit.SECONDS);
+
+    assertThat(job.getState()).isEqualTo(State.COMPLETED);
+    assertThat(job.getChecksum()).isEqualTo(checksum);
+    assertThat(storage.content("target")).isEqualTo(CONTENT);
+    assertThat(storage.content("source")).isEqualTo(CONTENT);
+  }
+
+  @Test
+  void copy_shouldDeleteSource_whenMoving() throws Exception {
+    fileService.store(new ByteArrayInputStream(CONTENT), TEMPORARY, "source");
+
+    Job job = copyService.copy(TEMPORARY, "source", DOSSIER, "target", true).getCompletion().get(5, TimeUnit.SECONDS);
+
+    assertThat(job.getState()).isEqualTo(State.COMPLETED);
+    assertThat(storage.content("target")).isEqualTo(CONTENT);
+    assertThat(storage.content("source")).isNull();
+  }
+
+  @Test
+  void copy_shouldIssueSourceUri_lastingUntilCopyTimesOut() throws Exception {
+    fileService.store(new ByteArrayInputStream(CONTENT), TEMPORARY, "source");
+
+    copyService.copy(TEMPORARY, "source", DOSSIER, "target", false).getCompletion().get(5, TimeUnit.SECONDS);
+
+    assertThat(storage.copySource("target").getQuery()).isEqualTo("lifetime=" + Duration.ofMinutes(1).plusMillis(10));
+  }
+
+  @Test
+  void copy_shouldAbortCopy_whenTimedOut() throws Exception {
+    fileService.store(new ByteArrayInputStream(CONTENT), TEMPORARY, "source");
+    storage.holdCopies();
+
+    Job job = copyService(Duration.ofMillis(1)).copy(TEMPORARY, "source", DOSSIER, "target", true).getCompletion().get(5, TimeUnit.SECONDS);
+
+    assertThat(job.getState()).isEqualTo(State.FAILED);
+    assertThat(job.getStatus()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT.value());
+    assertThat(storage.content("target")).isNull();
+    assertThat(storage.content("source")).isEqualTo(CONTENT);
+  }
+
+  @Test
+  void copy_shouldRefuse_betweenLocalAndAzureStorage(@TempDir Path root) throws Exception {
+    LocalFileStorage local = new LocalFileStorage(TEMPORARY, root, "http://localhost:8080", new byte[32], Duration.ofMinutes(5), Clock.systemUTC());
+    fileService = fileService(Map.of(TEMPORARY, local, DOSSIER, storage));
+    fileService.store(new ByteArrayInputStream(CONTENT), TEMPORARY, "source");
+
+    assertThatThrownBy(() -> copyService(Duration.ofMinutes(1)).copy(TEMPORARY, "source", DOSSIER, "target", false))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+    assertThat(storage.content("target")).isNull();
+  }
+
+  @Test
+  void copy_shouldRefuse_whenSourceDoesNotExist() {
+    assertThatThrownBy(() -> copyService.copy(TEMPORARY, "missing", DOSSIER, "target", false))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
+  private static FileService fileService(Map<Container, Storage> containers) {
+    StorageProperties storageProperties = new StorageProperties();
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    return new FileService(containers, storageProperties, new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()),
+        new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties), new FileOperationMetrics(meterRegistry),
+        new ContainerBulkheads(storageProperties, meterRegistry));
+  }
+
+  private CopyService copyService(Duration timeout) {
+    return new CopyService(fileService, new JobRegistry(Duration.ofHours(1)), scheduler, Duration.ofMillis(10), timeout, Clock.systemUTC());
+  }
+}
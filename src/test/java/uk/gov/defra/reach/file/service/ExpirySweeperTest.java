@@ -0,0 +1,162 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static uk.gov.defra.reach.file.Container.TEMPORARY;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.SweeperProperties;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.service.ExpirySweeper.SweepResult;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class ExpirySweeperTest {
+
+  private static final Instant NOW = Instant.parse("2026-03-01T12:00:00Z");
+
+  private volatile boolean loseLeaseOnDelete;
+
+  private volatile boolean leaseLost;
+
+  /**
+   * Loses the lease while deleting, if asked to, as if a batch outlasted it, and runs the renewal the timer would
+   */
+  private final InMemoryStorage storage = new InMemoryStorage() {
+    @Override
+    public synchronized boolean renewLease(StorageFilename filename, String leaseId) {
+      return !leaseLost && super.renewLease(filename, leaseId);
+    }
+
+    @Override
+    public boolean delete(StorageFilename filename) {
+      if (loseLeaseOnDelete) {
+        leaseLost = true;
+        renewal.run();
+      }
+      return super.delete(filename);
+    }
+  };
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final SweeperProperties properties = new SweeperProperties();
+
+  private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+
+  private final ScheduledFuture<?> renewing = mock(ScheduledFuture.class);
+
+  private Runnable renewal;
+
+  private FileService fileService;
+
+  @BeforeEach
+  void setup() {
+    StorageProperties storageProperties = new StorageProperties();
+    fileService = new FileService(Map.of(TEMPORARY, storage), storageProperties,
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()), new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties),
+        new FileOperationMetrics(meterRegistry), new ContainerBulkheads(storageProperties, meterRegistry));
+    properties.setMaxAge(Duration.ofDays(1));
+    properties.setBatchSize(2);
+    properties.setMaxDeletesPerSecond(1000);
+    store("expired-1", 10, NOW.minus(Duration.ofDays(3)));
+    store("expired-2", 20, NOW.minus(Duration.ofDays(2)));
+    store("fresh", 30, NOW.minus(Duration.ofHours(1)));
+    store("expired-3", 40, NOW.minus(Duration.ofDays(5)));
+    doAnswer(invocation -> {
+      renewal = invocation.getArgument(0);
+      return renewing;
+    }).when(scheduler).scheduleAtFixedRate(any(), anyLong(), anyLong(), any());
+  }
+
+  @Test
+  void sweep_shouldDeleteExpiredFiles_inBatches() throws Exception {
+    SweepResult result = sweeper().sweep();
+
+    assertThat(result.getDeleted()).isEqualTo(3);
+    assertThat(result.getBytes()).isEqualTo(70);
+    assertThat(result.getFailed()).isZero();
+    assertThat(storage.content("expired-1")).isNull();
+    assertThat(storage.content("expired-2")).isNull();
+    assertThat(storage.content("expired-3")).isNull();
+    assertThat(storage.content("fresh")).hasSize(30);
+    assertThat(storage.content(ExpirySweeper.LEASE_BLOB)).isEmpty();
+    assertThat(storage.isLeased(ExpirySweeper.LEASE_BLOB)).isFalse();
+    assertThat(meterRegistry.get("reach.file.sweeper.deleted").tag("dryRun", "false").counter().count()).isEqualTo(3);
+    assertThat(meterRegistry.get("reach.file.sweeper.deleted.bytes").counter().count()).isEqualTo(70);
+  }
+
+  @Test
+  void sweep_shouldOnlyCountExpiredFiles_whenDryRun() throws Exception {
+    properties.setDryRun(true);
+
+    SweepResult result = sweeper().sweep();
+
+    assertThat(result.isDryRun()).isTrue();
+    assertThat(result.getDeleted()).isEqualTo(3);
+    assertThat(result.getBytes()).isEqualTo(70);
+    assertThat(storage.content("expired-1")).hasSize(10);
+    assertThat(meterRegistry.get("reach.file.sweeper.deleted").tag("dryRun", "true").counter().count()).isEqualTo(3);
+  }
+
+  @Test
+  void sweep_shouldNotSweep_whenAnotherReplicaHoldsLease() throws Exception {
+    storage.acquireLease(StorageFilename.from(ExpirySweeper.LEASE_BLOB), Duration.ofSeconds(60));
+
+    assertThat(sweeper().sweep()).isNull();
+    assertThat(storage.content("expired-1")).hasSize(10);
+  }
+
+  @Test
+  void sweep_shouldRenewLeaseOnTimer_whileSweeping() throws Exception {
+    sweeper().sweep();
+
+    verify(scheduler).scheduleAtFixedRate(any(), eq(ExpirySweeper.LEASE_RENEWAL.toMillis()), eq(ExpirySweeper.LEASE_RENEWAL.toMillis()),
+        eq(TimeUnit.MILLISECONDS));
+    verify(renewing).cancel(false);
+  }
+
+  @Test
+  void sweep_shouldStopDeleting_whenLeaseLostDuringBatch() throws Exception {
+    loseLeaseOnDelete = true;
+
+    SweepResult result = sweeper().sweep();
+
+    assertThat(result.getDeleted()).isEqualTo(1);
+    assertThat(storage.content("expired-1")).isNull();
+    assertThat(storage.content("expired-2")).hasSize(20);
+    assertThat(storage.content("expired-3")).hasSize(40);
+  }
+
+  private ExpirySweeper sweeper() {
+    return new ExpirySweeper(fileService, storage, scheduler, MoreExecutors.newDirectExecutorService(), properties,
+        Clock.fixed(NOW, ZoneOffset.UTC), meterRegistry);
+  }
+
+  private void store(String name, int length, Instant lastModified) {
+    fileService.store(new ByteArrayInputStream(new byte[length]), TEMPORARY, name);
+    storage.setLastModified(name, lastModified);
+  }
+}
@@ -0,0 +1,133 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.gov.defra.reach.file.Container.EXPORT;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.model.ContentDigests;
+import uk.gov.defra.reach.file.storage.BlobAttributes;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+
+class FileServiceCompressionTest {
+
+  private final InMemoryStorage storage = new InMemoryStorage();
+
+  private final StorageProperties storageProperties = new StorageProperties();
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private FileService fileService;
+
+  @BeforeEach
+  void setup() {
+    storageProperties.forContainer(EXPORT).getCompression().setEnabled(true);
+    fileService = new FileService(Map.of(EXPORT, storage), storageProperties,
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()), new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties),
+        new FileOperationMetrics(meterRegistry), new ContainerBulkheads(storageProperties, meterRegistry));
+  }
+
+  @Test
+  void store_shouldCompressContent_andReturnChecksumOfContentAsUploaded() throws IOException {
+    byte[] content = csv(2000);
+
+    String checksum = fileService.store(new ByteArrayInputStream(content), EXPORT, "export.csv");
+
+    assertThat(checksum).isEqualTo(md5Hex(content));
+    assertThat(storage.content("export.csv").length).isLessThan(content.length / 2);
+    assertThat(gunzip(storage.content("export.csv"))).isEqualTo(content);
+    BlobAttributes attributes = fileService.getAttributes(EXPORT, "export.csv");
+    assertThat(attributes.getContentEncoding()).isEqualTo("gzip");
+    assertThat(FileService.toHex(ContentDigests.from(attributes).getMd5())).isEqualTo(checksum);
+    assertThat(meterRegistry.get("reach.file.compression.ratio").summary().mean()).isGreaterThan(2);
+    assertThat(meterRegistry.get("reach.file.compression.bytes").tag("stage", "original").counter().count()).isEqualTo(content.length);
+  }
+
+  @Test
+  void store_shouldCompressContent_whenUploadedInBlocks() throws IOException {
+    storageProperties.forContainer(EXPORT).getBlockUpload().setBlockSize(DataSize.ofBytes(1024));
+    byte[] content = csv(20000);
+
+    String checksum = fileService.store(new ByteArrayInputStream(content), EXPORT, "export.csv");
+
+    assertThat(checksum).isEqualTo(md5Hex(content));
+    assertThat(gunzip(storage.content("export.csv"))).isEqualTo(content);
+  }
+
+  @Test
+  void store_shouldStoreContentAsUploaded_whenAlreadyCompressed() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+      gzip.write(csv(2000));
+    }
+    byte[] content = compressed.toByteArray();
+
+    String checksum = fileService.store(new ByteArrayInputStream(content), EXPORT, "export.csv.gz");
+
+    assertThat(checksum).isEqualTo(md5Hex(content));
+    assertThat(storage.content("export.csv.gz")).isEqualTo(content);
+    assertThat(fileService.getAttributes(EXPORT, "export.csv.gz").getContentEncoding()).isNull();
+    assertThat(meterRegistry.get("reach.file.compression.skipped").tag("reason", "compressed").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void store_shouldStoreContentAsUploaded_whenSmallerThanMinimum() {
+    byte[] content = "a,b,c\n".getBytes(StandardCharsets.UTF_8);
+
+    fileService.store(new ByteArrayInputStream(content), EXPORT, "small.csv");
+
+    assertThat(storage.content("small.csv")).isEqualTo(content);
+    assertThat(meterRegistry.get("reach.file.compression.skipped").tag("reason", "small").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  void downloadDecoded_shouldReturnContentAsUploaded() throws IOException {
+    byte[] content = csv(2000);
+    fileService.store(new ByteArrayInputStream(content), EXPORT, "export.csv");
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    fileService.downloadDecoded(EXPORT, "export.csv", fileService.getAttributes(EXPORT, "export.csv"), out);
+
+    assertThat(out.toByteArray()).isEqualTo(content);
+  }
+
+  private static byte[] csv(int rows) {
+    Random random = new Random(rows);
+    StringBuilder csv = new StringBuilder("id,substance,tonnage\n");
+    for (int i = 0; i < rows; i++) {
+      csv.append(i).append(",substance-").append(random.nextInt(50)).append(',').append(random.nextInt(1000)).append('\n');
+    }
+    return csv.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] gunzip(byte[] content) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(content))) {
+      return in.readAllBytes();
+    }
+  }
+
+  @SneakyThrows
+  private static String md5Hex(byte[] content) {
+    return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("MD5").digest(content));
+  }
+}
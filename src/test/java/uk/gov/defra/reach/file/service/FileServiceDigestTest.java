@@ -0,0 +1,146 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.defra.reach.file.Container.DOSSIER;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32C;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.config.StorageProperties.BlockUpload;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.model.ContentDigests;
+import uk.gov.defra.reach.file.storage.ContentProperties;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class FileServiceDigestTest {
+
+  private final byte[] content = new byte[10000];
+
+  private final StorageProperties storageProperties = new StorageProperties();
+
+  private InMemoryStorage storage = new InMemoryStorage();
+
+  @BeforeEach
+  void setup() {
+    new Random(1).nextBytes(content);
+  }
+
+  @Test
+  void storeWithDigests_shouldReturnAndRecordAllDigests() {
+    FileService fileService = fileService();
+
+    ContentDigests digests = fileService.storeWithDigests(new ByteArrayInputStream(content), content.length, DOSSIER, "target");
+
+    assertThat(digests.getMd5()).isEqualTo(digest("MD5"));
+    assertThat(digests.getSha256()).isEqualTo(digest("SHA-256"));
+    assertThat(digests.getCrc32c()).isEqualTo(crc32c());
+    assertThat(fileService.getDigests(DOSSIER, "target")).isEqualTo(digests);
+    assertThat(digests.toDigestHeader()).isEqualTo("md5=" + digests.getMd5() + ",sha-256=" + digests.getSha256() + ",crc32c=" + digests.getCrc32c());
+  }
+
+  @Test
+  void storeWithDigests_shouldReturnDigestsOfWholeContent_whenUploadedInBlocks() {
+    storageProperties.forContainer(DOSSIER).getBlockUpload().setBlockSize(DataSize.ofBytes(1024));
+    FileService fileService = fileService();
+
+    ContentDigests digests = fileService.storeWithDigests(new ByteArrayInputStream(content), -1, DOSSIER, "target");
+
+    assertThat(digests.getSha256()).isEqualTo(digest("SHA-256"));
+    assertThat(storage.content("target")).isEqualTo(content);
+  }
+
+  @Test
+  void storeWithDigests_shouldRecordDigestsWithTheCommit_whenUploadedInBlocks() {
+    storageProperties.forContainer(DOSSIER).getBlockUpload().setBlockSize(DataSize.ofBytes(1024));
+    List<ContentProperties> committed = new ArrayList<>();
+    storage = new InMemoryStorage() {
+      @Override
+      public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties)
+          throws IOException {
+        committed.add(properties);
+        super.commitBlocks(filename, blockIds, contentMd5, properties);
+      }
+    };
+
+    ContentDigests digests = fileService().storeWithDigests(new ByteArrayInputStream(content), -1, DOSSIER, "target");
+
+    assertThat(committed).extracting(ContentProperties::getMetadata).containsExactly(digests.toMetadata());
+  }
+
+  @Test
+  void storeWithDigests_shouldStageBlocksOneAtATime_whenBlockUploadDisabled() {
+    BlockUpload blockUpload = storageProperties.forContainer(DOSSIER).getBlockUpload();
+    blockUpload.setEnabled(false);
+    blockUpload.setBlockSize(DataSize.ofBytes(1024));
+    FileService fileService = fileService();
+
+    ContentDigests digests = fileService.storeWithDigests(new ByteArrayInputStream(content), -1, DOSSIER, "target");
+
+    assertThat(storage.content("target")).isEqualTo(content);
+    assertThat(fileService.getDigests(DOSSIER, "target")).isEqualTo(digests);
+  }
+
+  @Test
+  void storeWithDigests_shouldFailAndKeepPreviousFile_whenStorageRefusesCorruptedContent() throws Exception {
+    storage = new InMemoryStorage() {
+      @Override
+      public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties)
+          throws IOException {
+        byte[] corrupted = file.readAllBytes();
+        corrupted[0] ^= 1;
+        super.store(new ByteArrayInputStream(corrupted), length, filename, contentMd5, properties);
+      }
+    };
+    byte[] previous = {1, 2, 3};
+    storage.store(new ByteArrayInputStream(previous), StorageFilename.from("target"));
+    FileService fileService = fileService();
+
+    assertThatThrownBy(() -> fileService.storeWithDigests(new ByteArrayInputStream(content), content.length, DOSSIER, "target"))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR));
+    assertThat(storage.content("target")).isEqualTo(previous);
+  }
+
+  private FileService fileService() {
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    FileService fileService = new FileService(Map.of(DOSSIER, storage), storageProperties,
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()), new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties),
+        new FileOperationMetrics(meterRegistry), new ContainerBulkheads(storageProperties, meterRegistry));
+    ReflectionTestUtils.setField(fileService, "crc32cEnabled", true);
+    return fileService;
+  }
+
+  @SneakyThrows
+  private String digest(String algorithm) {
+    return Base64.getEncoder().encodeToString(MessageDigest.getInstance(algorithm).digest(content));
+  }
+
+  private String crc32c() {
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(content);
+    return Base64.getEncoder().encodeToString(ByteBuffer.allocate(4).putInt((int) crc32c.getValue()).array());
+  }
+}
@@ -5,11 +5,16 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static uk.gov.defra.reach.file.Container.DOSSIER;
 import static uk.gov.defra.reach.file.Container.TEMPORARY;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -24,9 +29,16 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.web.server.ResponseStatusException;
 import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.io.SizeLimitedInputStream;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
 import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
 import uk.gov.defra.reach.storage.Storage;
 import uk.gov.defra.reach.storage.StorageFilename;
@@ -49,6 +61,8 @@ class FileServiceTest {
   @Mock
   private Storage exportStorage;
 
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
   private FileService fileService;
 
   @BeforeEach
@@ -57,7 +71,13 @@ class FileServiceTest {
         Container.DOSSIER, dossierStorage,
         Container.DOCUMENT, documentStorage,
         Container.EXPORT, exportStorage,
-        Container.TEMPORARY, tempStorage));
+        Container.TEMPORARY, tempStorage),
+        new StorageProperties(),
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()),
+        new SasUriCache(100, 0, 0),
+        new ExistenceCache(new StorageProperties()),
+        new FileOperationMetrics(meterRegistry),
+        new ContainerBulkheads(new StorageProperties(), meterRegistry));
   }
 
   @Test
@@ -71,6 +91,20 @@ class FileServiceTest {
     verify(dossierStorage).store(file, StorageFilename.from(VALID_STORAGE_FILENAME));
   }
 
+  @Test
+  void store_shouldReadSmallUploadInFull_beforeCallingStorage() throws IOException {
+    InputStream file = file();
+    given(dossierStorage.store(any(), any())).willAnswer(invocation -> {
+      assertThat(file.available()).isZero();
+      assertThat(invocation.<InputStream>getArgument(0).readAllBytes()).isEqualTo("data".getBytes());
+      return "checksum";
+    });
+
+    fileService.store(file, 4, DOSSIER, VALID_STORAGE_FILENAME);
+
+    verify(dossierStorage).store(any(), any());
+  }
+
   @Test
   void store_shouldThrowException_forInvalidStorageFileName() {
     InputStream file = file();
@@ -96,6 +130,18 @@ class FileServiceTest {
             .isInstanceOf(ResponseStatusException.class);
   }
 
+  @Test
+  void store_shouldThrowPayloadTooLarge_whenUploadExceedsLimit() throws IOException {
+    given(dossierStorage.store(any(), any())).willAnswer(invocation -> {
+      invocation.<InputStream>getArgument(0).readAllBytes();
+      return "checksum";
+    });
+
+    InputStream file = new SizeLimitedInputStream(file(), 2);
+    assertThatThrownBy(() -> fileService.store(file, DOSSIER, VALID_STORAGE_FILENAME))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+  }
+
   @Test
   void get_shouldCallGet_forValidRequestToTempStorage() throws IOException, InvalidStorageFilenameException {
     fileService.get(TEMPORARY, VALID_STORAGE_FILENAME);
@@ -125,6 +171,39 @@ class FileServiceTest {
     assertThat(result).hasHost("newhost").hasPort(5678).hasPath("/thefile").hasQuery("query=abc");
   }
 
+  @Test
+  void get_shouldReuseCachedUri_untilFileIsDeleted() throws IOException, InvalidStorageFilenameException {
+    ReflectionTestUtils.setField(fileService, "sasUriCache", new SasUriCache(100, 300, 60));
+    URI uri = URI.create("http://host/thefile?sig=abc");
+    when(dossierStorage.get(StorageFilename.from(VALID_STORAGE_FILENAME))).thenReturn(uri);
+    when(dossierStorage.delete(StorageFilename.from(VALID_STORAGE_FILENAME))).thenReturn(true);
+
+    assertThat(fileService.get(DOSSIER, VALID_STORAGE_FILENAME)).isEqualTo(uri);
+    assertThat(fileService.get(DOSSIER, VALID_STORAGE_FILENAME)).isEqualTo(uri);
+    verify(dossierStorage, times(1)).get(StorageFilename.from(VALID_STORAGE_FILENAME));
+
+    fileService.delete(DOSSIER, VALID_STORAGE_FILENAME);
+    fileService.get(DOSSIER, VALID_STORAGE_FILENAME);
+    verify(dossierStorage, times(2)).get(StorageFilename.from(VALID_STORAGE_FILENAME));
+  }
+
+  @Test
+  void get_shouldNotCacheUri_whenFileIsDeletedWhileItIsRequested() throws IOException, InvalidStorageFilenameException {
+    ReflectionTestUtils.setField(fileService, "sasUriCache", new SasUriCache(100, 300, 60));
+    StorageFilename filename = StorageFilename.from(VALID_STORAGE_FILENAME);
+    when(dossierStorage.delete(filename)).thenReturn(true);
+    when(dossierStorage.get(filename)).thenAnswer(invocation -> {
+      fileService.delete(DOSSIER, VALID_STORAGE_FILENAME);
+      return URI.create("http://host/thefile?sig=abc");
+    });
+
+    fileService.get(DOSSIER, VALID_STORAGE_FILENAME);
+    doThrow(new FileNotFoundException()).when(dossierStorage).get(filename);
+
+    assertThatThrownBy(() -> fileService.get(DOSSIER, VALID_STORAGE_FILENAME))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
   @Test
   void get_shouldThrowException_forInvalidFileName() {
     assertThatThrownBy(() -> fileService.get(DOSSIER, INVALID_STORAGE_FILENAME))
@@ -138,6 +217,27 @@ class FileServiceTest {
             .isInstanceOf(ResponseStatusException.class);
   }
 
+  @Test
+  void get_shouldRecordFailureAgainstMappedStatus() throws InvalidStorageFilenameException, IOException {
+    given(dossierStorage.get(StorageFilename.from(VALID_STORAGE_FILENAME))).willThrow(new IOException());
+    assertThatThrownBy(() -> fileService.get(DOSSIER, VALID_STORAGE_FILENAME))
+            .isInstanceOf(ResponseStatusException.class);
+
+    assertThat(meterRegistry.get("reach.file.storage.operation.errors").tags("operation", "get", "container", "DOSSIER", "status", "500").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  void get_shouldRecordNotFound_withoutCountingAnError() throws InvalidStorageFilenameException, IOException {
+    given(dossierStorage.get(StorageFilename.from(VALID_STORAGE_FILENAME))).willThrow(new FileNotFoundException());
+    assertThatThrownBy(() -> fileService.get(DOSSIER, VALID_STORAGE_FILENAME))
+            .isInstanceOf(ResponseStatusException.class);
+
+    assertThat(meterRegistry.get("reach.file.storage.operation").tags("operation", "get", "container", "DOSSIER", "outcome", "not_found").timer().count())
+        .isEqualTo(1);
+    assertThat(meterRegistry.find("reach.file.storage.operation.errors").tags("operation", "get").counter()).isNull();
+  }
+
   @Test
   void get_shouldThrowException_forUnableToRetrieveFile() throws InvalidStorageFilenameException, IOException {
     given(dossierStorage.get(StorageFilename.from(VALID_STORAGE_FILENAME))).willThrow(new IOException());
@@ -164,6 +264,37 @@ class FileServiceTest {
     fileService.checkFileExists(TEMPORARY, VALID_STORAGE_FILENAME);
   }
 
+  @Test
+  void checkFileExists_shouldUseCachedResult_andReflectLocalDeletes() throws IOException, InvalidStorageFilenameException {
+    given(tempStorage.exists(StorageFilename.from(VALID_STORAGE_FILENAME))).willReturn(true);
+    given(tempStorage.delete(StorageFilename.from(VALID_STORAGE_FILENAME))).willReturn(true);
+
+    fileService.checkFileExists(TEMPORARY, VALID_STORAGE_FILENAME);
+    fileService.checkFileExists(TEMPORARY, VALID_STORAGE_FILENAME);
+    verify(tempStorage, times(1)).exists(StorageFilename.from(VALID_STORAGE_FILENAME));
+
+    fileService.delete(TEMPORARY, VALID_STORAGE_FILENAME);
+    assertThatThrownBy(() -> fileService.checkFileExists(TEMPORARY, VALID_STORAGE_FILENAME))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+    verify(tempStorage, times(1)).exists(StorageFilename.from(VALID_STORAGE_FILENAME));
+  }
+
+  @Test
+  void checkFileExists_shouldNotCacheLookup_whenFileIsDeletedWhileItIsLookedUp() throws IOException, InvalidStorageFilenameException {
+    StorageFilename filename = StorageFilename.from(VALID_STORAGE_FILENAME);
+    given(tempStorage.delete(filename)).willReturn(true);
+    given(tempStorage.exists(filename)).willAnswer(invocation -> {
+      fileService.delete(TEMPORARY, VALID_STORAGE_FILENAME);
+      return true;
+    });
+
+    fileService.checkFileExists(TEMPORARY, VALID_STORAGE_FILENAME);
+
+    assertThatThrownBy(() -> fileService.checkFileExists(TEMPORARY, VALID_STORAGE_FILENAME))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+    verify(tempStorage, times(1)).exists(filename);
+  }
+
   @Test
   void checkFileExists_shouldThrowException_forFileNotFound() {
     assertThatThrownBy(() -> fileService.checkFileExists(DOSSIER, INVALID_STORAGE_FILENAME))
@@ -0,0 +1,148 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import uk.gov.defra.reach.file.concurrency.Bulkhead.Operation;
+import uk.gov.defra.reach.file.config.StorageProperties.BlockUpload;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class ParallelBlockUploaderTest {
+
+  private final ParallelBlockUploader uploader = new ParallelBlockUploader(Executors.newFixedThreadPool(4));
+
+  private final InMemoryStorage storage = new InMemoryStorage();
+
+  @AfterEach
+  void tearDown() {
+    uploader.shutdown();
+  }
+
+  @SneakyThrows
+  @Test
+  void upload_shouldStageBlocksAndReturnChecksumOfWholeContent() {
+    byte[] content = randomContent(10 * 1024 + 17);
+
+    String checksum = uploader.upload(storage, StorageFilename.from("multi"), new ByteArrayInputStream(content), settings(1024, 3));
+
+    assertThat(storage.content("multi")).isEqualTo(content);
+    assertThat(checksum).isEqualTo(new InMemoryStorage().store(new ByteArrayInputStream(content), StorageFilename.from("single")));
+  }
+
+  @SneakyThrows
+  @Test
+  void upload_shouldHandleContentWhichIsAnExactMultipleOfTheBlockSize() {
+    byte[] content = randomContent(4096);
+
+    uploader.upload(storage, StorageFilename.from("exact"), new ByteArrayInputStream(content), settings(1024, 2));
+
+    assertThat(storage.content("exact")).isEqualTo(content);
+  }
+
+  @SneakyThrows
+  @Test
+  void upload_shouldStoreInOneRequest_whenContentFitsInOneBlock() {
+    byte[] content = randomContent(100);
+
+    String checksum = uploader.upload(storage, StorageFilename.from("small"), new ByteArrayInputStream(content), settings(1024, 2));
+
+    assertThat(storage.content("small")).isEqualTo(content);
+    assertThat(checksum).isNotBlank();
+  }
+
+  @SneakyThrows
+  @Test
+  void upload_shouldCancelStagedBlocks_whenReadingContentFails() {
+    CountDownLatch started = new CountDownLatch(2);
+    CountDownLatch cancelled = new CountDownLatch(2);
+    InMemoryStorage stalled = new InMemoryStorage() {
+      @Override
+      public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+        started.countDown();
+        try {
+          new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          cancelled.countDown();
+          throw new InterruptedIOException();
+        }
+      }
+    };
+    InputStream failing = new SequenceInputStream(new ByteArrayInputStream(randomContent(2048)), new InputStream() {
+      @Override
+      public int read() throws IOException {
+        Uninterruptibles.awaitUninterruptibly(started, 5, TimeUnit.SECONDS);
+        throw new IOException("Client went away");
+      }
+    });
+
+    assertThatThrownBy(() -> uploader.upload(stalled, StorageFilename.from("failed"), failing, settings(1024, 2)))
+        .isInstanceOf(IOException.class)
+        .hasMessage("Client went away");
+    assertThat(cancelled.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @SneakyThrows
+  @Test
+  void upload_shouldMakeEachStorageCallThroughCalls_withoutReadingContentInThem() {
+    byte[] content = randomContent(4 * 1024 + 17);
+    AtomicInteger calls = new AtomicInteger();
+    ThreadLocal<Boolean> inCall = ThreadLocal.withInitial(() -> false);
+    AtomicInteger readsInCall = new AtomicInteger();
+    InputStream data = new FilterInputStream(new ByteArrayInputStream(content)) {
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (inCall.get()) {
+          readsInCall.incrementAndGet();
+        }
+        return super.read(buffer, offset, length);
+      }
+    };
+
+    uploader.upload(storage, StorageFilename.from("limited"), data, settings(1024, 2), new ParallelBlockUploader.StorageCalls() {
+      @Override
+      public <T> T call(Operation<T, IOException> operation) throws IOException {
+        calls.incrementAndGet();
+        inCall.set(true);
+        try {
+          return operation.call();
+        } finally {
+          inCall.set(false);
+        }
+      }
+    });
+
+    assertThat(storage.content("limited")).isEqualTo(content);
+    assertThat(calls).hasValue(6);
+    assertThat(readsInCall).hasValue(0);
+  }
+
+  private static BlockUpload settings(int blockSize, int parallelism) {
+    BlockUpload settings = new BlockUpload();
+    settings.setBlockSize(DataSize.ofBytes(blockSize));
+    settings.setParallelism(parallelism);
+    return settings;
+  }
+
+  private static byte[] randomContent(int size) {
+    byte[] content = new byte[size];
+    new Random(size).nextBytes(content);
+    return content;
+  }
+}
@@ -0,0 +1,189 @@
+package uk.gov.defra.reach.file.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.gov.defra.reach.file.Container.DOSSIER;
+import static uk.gov.defra.reach.file.Container.TEMPORARY;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.server.ResponseStatusException;
+import uk.gov.defra.reach.file.cache.ExistenceCache;
+import uk.gov.defra.reach.file.cache.SasUriCache;
+import uk.gov.defra.reach.file.concurrency.ContainerBulkheads;
+import uk.gov.defra.reach.file.config.StorageProperties;
+import uk.gov.defra.reach.file.metrics.FileOperationMetrics;
+import uk.gov.defra.reach.file.model.UploadSession;
+import uk.gov.defra.reach.file.storage.InMemoryStorage;
+import uk.gov.defra.reach.file.storage.StatusBlobs;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class UploadSessionServiceTest {
+
+  private static final int CHUNK_SIZE = 1000;
+
+  private final InMemoryStorage storage = new InMemoryStorage();
+
+  private final InMemoryStorage temporaryStorage = new InMemoryStorage();
+
+  private final byte[] content = new byte[CHUNK_SIZE * 3 + 10];
+
+  private FileService fileService;
+
+  private UploadSessionService uploadSessionService;
+
+  @BeforeEach
+  void setup() {
+    new Random(1).nextBytes(content);
+    StorageProperties storageProperties = new StorageProperties();
+    MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    fileService = new FileService(Map.of(DOSSIER, storage, TEMPORARY, temporaryStorage), storageProperties,
+        new ParallelBlockUploader(MoreExecutors.newDirectExecutorService()), new SasUriCache(100, 0, 0), new ExistenceCache(storageProperties),
+        new FileOperationMetrics(meterRegistry), new ContainerBulkheads(storageProperties, meterRegistry));
+    uploadSessionService = instance(Clock.systemUTC());
+  }
+
+  @Test
+  void complete_shouldStoreChunksInOrder_andReturnChecksumOfContent() {
+    String id = uploadSessionService.create(DOSSIER, "target").getId();
+    for (int i = 0; i < 4; i++) {
+      putChunk(id, i);
+    }
+
+    String checksum = uploadSessionService.complete(id, 4);
+
+    assertThat(checksum).isEqualTo(BaseEncoding.base16().lowerCase().encode(md5(content)));
+    assertThat(storage.content("target")).isEqualTo(content);
+    assertThatThrownBy(() -> uploadSessionService.get(id))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  @SneakyThrows
+  void complete_shouldRecordChecksumOfContent_whenChunksArriveOutOfOrderOrRepeatedly() {
+    String id = uploadSessionService.create(DOSSIER, "target").getId();
+    putChunk(id, 0);
+    putChunk(id, 2);
+    putChunk(id, 3);
+    putChunk(id, 1);
+    putChunk(id, 0);
+
+    String checksum = uploadSessionService.complete(id, null);
+
+    assertThat(checksum).isEqualTo(BaseEncoding.base16().lowerCase().encode(md5(content)));
+    assertThat(storage.content("target")).isEqualTo(content);
+    assertThat(storage.getAttributes(StorageFilename.from("target")).getContentMd5()).isEqualTo(Base64.getEncoder().encodeToString(md5(content)));
+  }
+
+  @Test
+  void complete_shouldRefuse_whenChunksAreMissing() {
+    String id = uploadSessionService.create(DOSSIER, "target").getId();
+    putChunk(id, 0);
+    putChunk(id, 2);
+
+    assertThatThrownBy(() -> uploadSessionService.complete(id, null))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+
+    UploadSession session = uploadSessionService.get(id);
+    assertThat(session.getReceivedChunks()).containsExactly(0, 2);
+    assertThat(session.getReceivedBytes()).isEqualTo(2 * CHUNK_SIZE);
+    assertThat(storage.content("target")).isNull();
+  }
+
+  @Test
+  void putChunk_shouldRefuseChunkLargerThanPermitted() {
+    String id = uploadSessionService.create(DOSSIER, "target").getId();
+
+    assertThatThrownBy(() -> uploadSessionService.putChunk(id, 0, new ByteArrayInputStream(new byte[CHUNK_SIZE + 1]), CHUNK_SIZE + 1))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.PAYLOAD_TOO_LARGE));
+  }
+
+  @Test
+  void complete_shouldStoreChunksSentToAnyInstance() {
+    UploadSessionService other = instance(Clock.systemUTC());
+    String id = uploadSessionService.create(DOSSIER, "target").getId();
+    putChunk(uploadSessionService, id, 0);
+    putChunk(other, id, 1);
+    putChunk(uploadSessionService, id, 2);
+    putChunk(other, id, 3);
+
+    assertThat(instance(Clock.systemUTC()).get(id).getReceivedChunks()).containsExactly(0, 1, 2, 3);
+    String checksum = other.complete(id, 4);
+
+    assertThat(checksum).isEqualTo(BaseEncoding.base16().lowerCase().encode(md5(content)));
+    assertThat(storage.content("target")).isEqualTo(content);
+    assertThatThrownBy(() -> instance(Clock.systemUTC()).get(id))
+        .isInstanceOfSatisfying(ResponseStatusException.class, e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+  }
+
+  @Test
+  @SneakyThrows
+  void complete_shouldRecordChecksumOfLatestChunks_whenAnotherInstanceReplacesOne() {
+    String id = uploadSessionService.create(DOSSIER, "target").getId();
+    for (int i = 0; i < 4; i++) {
+      putChunk(id, i);
+    }
+    byte[] replaced = Arrays.copyOfRange(content, CHUNK_SIZE, 2 * CHUNK_SIZE);
+    replaced[0]++;
+    instance(Clock.offset(Clock.systemUTC(), Duration.ofSeconds(1))).putChunk(id, 1, new ByteArrayInputStream(replaced), CHUNK_SIZE);
+    byte[] expected = content.clone();
+    expected[CHUNK_SIZE]++;
+
+    String checksum = uploadSessionService.complete(id, 4);
+
+    assertThat(storage.content("target")).isEqualTo(expected);
+    assertThat(checksum).isEqualTo(BaseEncoding.base16().lowerCase().encode(md5(expected)));
+    assertThat(storage.getAttributes(StorageFilename.from("target")).getContentMd5()).isEqualTo(Base64.getEncoder().encodeToString(md5(expected)));
+  }
+
+  @Test
+  void complete_shouldStoreOnlyItsOwnChunks_whenSessionsShareATarget() {
+    String first = uploadSessionService.create(DOSSIER, "target").getId();
+    String second = uploadSessionService.create(DOSSIER, "target").getId();
+    for (int i = 0; i < 4; i++) {
+      putChunk(first, i);
+    }
+    uploadSessionService.putChunk(second, 0, new ByteArrayInputStream(new byte[CHUNK_SIZE]), CHUNK_SIZE);
+
+    uploadSessionService.complete(first, 4);
+
+    assertThat(storage.content("target")).isEqualTo(content);
+  }
+
+  private void putChunk(String id, int index) {
+    putChunk(uploadSessionService, id, index);
+  }
+
+  private void putChunk(UploadSessionService instance, String id, int index) {
+    byte[] chunk = Arrays.copyOfRange(content, index * CHUNK_SIZE, Math.min(content.length, (index + 1) * CHUNK_SIZE));
+    instance.putChunk(id, index, new ByteArrayInputStream(chunk), chunk.length);
+  }
+
+  /**
+   * Another replica of the service, sharing its storage and status blobs
+   */
+  private UploadSessionService instance(Clock clock) {
+    return new UploadSessionService(fileService, new StatusBlobs(temporaryStorage, Jackson2ObjectMapperBuilder.json().build()), CHUNK_SIZE,
+        content.length, Duration.ofHours(1), clock);
+  }
+
+  @SneakyThrows
+  private static byte[] md5(byte[] content) {
+    return MessageDigest.getInstance("MD5").digest(content);
+  }
+}
@@ -0,0 +1,267 @@
+package uk.gov.defra.reach.file.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.file.storage.CachingStorage.EvictionPolicy;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class CachingStorageTest {
+
+  @TempDir
+  Path directory;
+
+  private InMemoryStorage delegate;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private CachingStorage storage;
+
+  private final ExecutorService fillExecutor = Executors.newCachedThreadPool();
+
+  @SneakyThrows
+  @BeforeEach
+  void setup() {
+    delegate = spy(new InMemoryStorage());
+    storage = new CachingStorage(delegate, Container.DOSSIER, directory.resolve("cache"), 10, 10, EvictionPolicy.LRU, Duration.ofHours(1),
+        fillExecutor);
+    storage.bindTo(meterRegistry);
+  }
+
+  @AfterEach
+  void tearDown() {
+    fillExecutor.shutdownNow();
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldServeRepeatReadsFromDisk() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+
+    assertThat(read(filename)).isEqualTo("12345");
+    assertThat(read(filename)).isEqualTo("12345");
+
+    verify(delegate, times(1)).openStream(eq(filename), anyLong(), anyLong(), any());
+    assertThat(storage.exists(filename)).isTrue();
+    verify(delegate, times(0)).exists(filename);
+  }
+
+  @SneakyThrows
+  @Test
+  void store_shouldDropCachedCopy() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+    read(filename);
+
+    storage.store(new ByteArrayInputStream("67890".getBytes()), filename);
+
+    assertThat(read(filename)).isEqualTo("67890");
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldEvictLeastRecentlyUsed_whenCacheIsFull() {
+    StorageFilename first = StorageFilename.from("first");
+    StorageFilename second = StorageFilename.from("second");
+    StorageFilename third = StorageFilename.from("third");
+    delegate.store(new ByteArrayInputStream("1234".getBytes()), first);
+    delegate.store(new ByteArrayInputStream("1234".getBytes()), second);
+    delegate.store(new ByteArrayInputStream("1234".getBytes()), third);
+
+    read(first);
+    read(second);
+    read(first);
+    read(third);
+    read(first);
+    read(second);
+
+    verify(delegate, times(1)).openStream(eq(first), anyLong(), anyLong(), any());
+    verify(delegate, times(2)).openStream(eq(second), anyLong(), anyLong(), any());
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldSendRequestedRange_whileFillingCache() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+
+    assertThat(read(filename, 1, 3)).isEqualTo("234");
+    assertThat(read(filename)).isEqualTo("12345");
+
+    verify(delegate, times(1)).openStream(eq(filename), anyLong(), anyLong(), any());
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldFillOnce_whenFileIsMissedConcurrently() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+    CountDownLatch filling = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(invocation -> {
+      filling.countDown();
+      release.await(5, TimeUnit.SECONDS);
+      return invocation.callRealMethod();
+    }).when(delegate).openStream(eq(filename), anyLong(), anyLong(), any());
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> first = executor.submit(() -> read(filename));
+      assertThat(filling.await(5, TimeUnit.SECONDS)).isTrue();
+      Future<String> second = executor.submit(() -> read(filename));
+      while (meterRegistry.get("reach.file.disk.cache.fills.coalesced").functionCounter().count() < 1) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+
+      assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("12345");
+      assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("12345");
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+    verify(delegate, times(1)).openStream(eq(filename), anyLong(), anyLong(), any());
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldServeOtherCallers_whileOneClientIsSlow() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    OutputStream slowClient = new ByteArrayOutputStream() {
+      @Override
+      public synchronized void write(byte[] b, int off, int len) {
+        sending.countDown();
+        Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS);
+        super.write(b, off, len);
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Long> slow = executor.submit(() -> storage.transferTo(filename, 0, Long.MAX_VALUE, slowClient));
+      assertThat(sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+      assertThat(read(filename)).isEqualTo("12345");
+
+      release.countDown();
+      assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo(5);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+    verify(delegate, times(1)).openStream(eq(filename), anyLong(), anyLong(), any());
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldReadFromStorage_whenFillExecutorIsBusy() {
+    storage = new CachingStorage(delegate, Container.DOSSIER, directory.resolve("busy"), 10, 10, EvictionPolicy.LRU, Duration.ofHours(1),
+        command -> {
+          throw new RejectedExecutionException();
+        });
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+
+    assertThat(read(filename)).isEqualTo("12345");
+    assertThat(read(filename)).isEqualTo("12345");
+
+    verify(delegate, times(2)).openStream(eq(filename), anyLong(), anyLong(), any());
+  }
+
+  @SneakyThrows
+  @Test
+  void openStream_shouldReadFromStorage_whenCachedFileIsEvictedBeforeOpening() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+    read(filename);
+    try (Stream<Path> cached = Files.list(directory.resolve("cache"))) {
+      for (Path path : (Iterable<Path>) cached::iterator) {
+        Files.delete(path);
+      }
+    }
+
+    assertThat(storage.openStream(filename, 0, 5)).hasContent("12345");
+    assertThat(read(filename)).isEqualTo("12345");
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldDropCachedCopy_whenFileIsChangedBehindCache() {
+    storage = new CachingStorage(delegate, Container.DOSSIER, directory.resolve("revalidated"), 10, 10, EvictionPolicy.LRU, Duration.ZERO,
+        fillExecutor);
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+    read(filename);
+
+    delegate.store(new ByteArrayInputStream("67890".getBytes()), filename);
+
+    assertThat(read(filename)).isEqualTo("67890");
+  }
+
+  @SneakyThrows
+  @Test
+  void exists_shouldBeFalse_whenFileIsDeletedBehindCache() {
+    storage = new CachingStorage(delegate, Container.DOSSIER, directory.resolve("revalidated"), 10, 10, EvictionPolicy.LRU, Duration.ZERO,
+        fillExecutor);
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+    read(filename);
+
+    delegate.delete(filename);
+
+    assertThat(storage.exists(filename)).isFalse();
+  }
+
+  @SneakyThrows
+  @Test
+  void exists_shouldCountMiss_whenFileIsNotCached() {
+    StorageFilename filename = StorageFilename.from("file1");
+    delegate.store(new ByteArrayInputStream("12345".getBytes()), filename);
+
+    assertThat(storage.exists(filename)).isTrue();
+
+    assertThat(meterRegistry.get("reach.file.disk.cache.requests").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("reach.file.disk.cache.requests").tag("result", "hit").functionCounter().count()).isZero();
+  }
+
+  @SneakyThrows
+  private String read(StorageFilename filename) {
+    return read(filename, 0, Long.MAX_VALUE);
+  }
+
+  @SneakyThrows
+  private String read(StorageFilename filename, long offset, long length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    storage.transferTo(filename, offset, length, out);
+    return out.toString();
+  }
+}
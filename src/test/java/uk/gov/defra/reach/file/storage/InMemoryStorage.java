@@ -0,0 +1,284 @@
+package uk.gov.defra.reach.file.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import uk.gov.defra.reach.file.io.ChecksumMismatchException;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+/**
+ * Heap backed {@link BlobStorage} stand-in for tests and benchmarks.
+ */
+public class InMemoryStorage implements BlobStorage {
+
+  private final Map<String, Blob> blobs = new ConcurrentHashMap<>();
+
+  private final Map<String, Map<String, byte[]>> stagedBlocks = new ConcurrentHashMap<>();
+
+  /**
+   * Leases never expire, so tests hold them until released
+   */
+  private final Map<String, String> leases = new ConcurrentHashMap<>();
+
+  private final Map<String, URI> copySources = new ConcurrentHashMap<>();
+
+  private final Map<String, CopyProgress.Status> heldCopies = new ConcurrentHashMap<>();
+
+  private volatile boolean holdCopies;
+
+  @Override
+  public String store(InputStream file, StorageFilename filename) throws IOException {
+    Blob blob = new Blob(file.readAllBytes());
+    blobs.put(filename.get(), blob);
+    return blob.contentMd5;
+  }
+
+  @Override
+  public void store(InputStream file, long length, StorageFilename filename, String contentMd5, ContentProperties properties) throws IOException {
+    byte[] content = file.readAllBytes();
+    if (!Base64.getEncoder().encodeToString(md5(content)).equals(contentMd5)) {
+      throw new ChecksumMismatchException(filename.get(), null);
+    }
+    blobs.put(filename.get(), new Blob(content, contentMd5, properties.getContentEncoding(), properties.getMetadata()));
+  }
+
+  @Override
+  public URI get(StorageFilename filename) throws IOException {
+    blob(filename);
+    return URI.create("memory://storage/" + filename.get().replace(" ", "%20"));
+  }
+
+  /**
+   * The lifetime is given in the query, so tests can see it
+   */
+  @Override
+  public URI get(StorageFilename filename, Duration lifetime) throws IOException {
+    return URI.create(get(filename) + "?lifetime=" + lifetime);
+  }
+
+  @Override
+  public boolean exists(StorageFilename filename) {
+    return blobs.containsKey(filename.get());
+  }
+
+  @Override
+  public boolean delete(StorageFilename filename) {
+    return blobs.remove(filename.get()) != null;
+  }
+
+  @Override
+  public void stageBlock(StorageFilename filename, String blockId, InputStream data, long length) throws IOException {
+    stagedBlocks.computeIfAbsent(filename.get(), name -> new ConcurrentHashMap<>()).put(blockId, data.readAllBytes());
+  }
+
+  @Override
+  public void commitBlocks(StorageFilename filename, List<String> blockIds, String contentMd5, ContentProperties properties) throws IOException {
+    Map<String, byte[]> staged = stagedBlocks.remove(filename.get());
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (String blockId : blockIds) {
+      if (staged == null || !staged.containsKey(blockId)) {
+        throw new IOException("Block " + blockId + " has not been staged");
+      }
+      content.write(staged.get(blockId));
+    }
+    byte[] bytes = content.toByteArray();
+    blobs.put(filename.get(), new Blob(bytes, contentMd5, properties.getContentEncoding(), properties.getMetadata()));
+  }
+
+  @Override
+  public Map<String, Long> getStagedBlocks(StorageFilename filename) {
+    return stagedBlocks.getOrDefault(filename.get(), Map.of()).entrySet().stream()
+        .collect(Collectors.toMap(Map.Entry::getKey, block -> (long) block.getValue().length));
+  }
+
+  @Override
+  public void setContentMd5(StorageFilename filename, String contentMd5) throws IOException {
+    Blob blob = blob(filename);
+    blobs.put(filename.get(), new Blob(blob.content, contentMd5, blob.contentEncoding, blob.metadata));
+  }
+
+  /**
+   * Copies instantly, from the blob of this storage named by a URI returned by {@link #get}, unless copies are being
+   * {@link #holdCopies held}
+   */
+  @Override
+  public void startCopy(StorageFilename filename, URI source) throws IOException {
+    Blob blob = blobs.get(source.getPath().substring(1));
+    if (blob == null) {
+      throw new IOException("Copy source " + source + " does not exist");
+    }
+    copySources.put(filename.get(), source);
+    if (holdCopies) {
+      blobs.put(filename.get(), new Blob(new byte[0]));
+      heldCopies.put(filename.get(), CopyProgress.Status.PENDING);
+    } else {
+      heldCopies.remove(filename.get());
+      blobs.put(filename.get(), new Blob(blob.content, blob.contentMd5, blob.contentEncoding, blob.metadata));
+    }
+  }
+
+  @Override
+  public CopyProgress getCopyProgress(StorageFilename filename) throws IOException {
+    long length = blob(filename).content.length;
+    CopyProgress.Status status = heldCopies.getOrDefault(filename.get(), CopyProgress.Status.SUCCESS);
+    return CopyProgress.builder().status(status).bytesCopied(length).totalBytes(length).build();
+  }
+
+  @Override
+  public void abortCopy(StorageFilename filename) throws IOException {
+    blob(filename);
+    heldCopies.replace(filename.get(), CopyProgress.Status.PENDING, CopyProgress.Status.ABORTED);
+  }
+
+  @Override
+  public BlobAttributes getAttributes(StorageFilename filename) throws IOException {
+    Blob blob = blob(filename);
+    return BlobAttributes.builder()
+        .length(blob.content.length)
+        .etag("\"" + blob.contentMd5 + "\"")
+        .lastModified(blob.lastModified)
+        .contentMd5(blob.contentMd5)
+        .contentEncoding(blob.contentEncoding)
+        .metadata(blob.metadata)
+        .build();
+  }
+
+  @Override
+  public BlobListing list(String prefix, String continuationToken, int maxResults) {
+    List<ListedBlob> listed = blobs.entrySet().stream()
+        .filter(entry -> prefix == null || entry.getKey().startsWith(prefix))
+        .filter(entry -> continuationToken == null || entry.getKey().compareTo(continuationToken) > 0)
+        .sorted(Map.Entry.comparingByKey())
+        .limit(maxResults)
+        .map(entry -> ListedBlob.builder()
+            .name(entry.getKey())
+            .length(entry.getValue().content.length)
+            .lastModified(entry.getValue().lastModified)
+            .contentMd5(entry.getValue().contentMd5)
+            .build())
+        .collect(Collectors.toList());
+    return BlobListing.builder()
+        .blobs(listed)
+        .continuationToken(listed.size() < maxResults ? null : listed.get(listed.size() - 1).getName())
+        .build();
+  }
+
+  @Override
+  public synchronized String acquireLease(StorageFilename filename, Duration duration) {
+    blobs.computeIfAbsent(filename.get(), name -> new Blob(new byte[0]));
+    if (leases.containsKey(filename.get())) {
+      return null;
+    }
+    String leaseId = UUID.randomUUID().toString();
+    leases.put(filename.get(), leaseId);
+    return leaseId;
+  }
+
+  @Override
+  public synchronized boolean renewLease(StorageFilename filename, String leaseId) {
+    return leaseId.equals(leases.get(filename.get()));
+  }
+
+  @Override
+  public synchronized void releaseLease(StorageFilename filename, String leaseId) {
+    leases.remove(filename.get(), leaseId);
+  }
+
+  @Override
+  public InputStream openStream(StorageFilename filename, long offset, long length, String etag) throws IOException {
+    Blob blob = blob(filename);
+    if (etag != null && !etag.equals("\"" + blob.contentMd5 + "\"")) {
+      throw new BlobModifiedException(filename.get(), etag);
+    }
+    byte[] content = blob.content;
+    int start = (int) Math.min(offset, content.length);
+    return new ByteArrayInputStream(content, start, (int) Math.min(length, content.length - start));
+  }
+
+  /**
+   * Backdates a blob, as if it was last modified at {@code lastModified}
+   */
+  public void setLastModified(String filename, Instant lastModified) {
+    blobs.get(filename).lastModified = lastModified;
+  }
+
+  /**
+   * Leaves copies started from now on pending until they are aborted
+   */
+  public void holdCopies() {
+    holdCopies = true;
+  }
+
+  /**
+   * @return the URI the last copy into a blob was started from, or {@code null} if there has been none
+   */
+  public URI copySource(String filename) {
+    return copySources.get(filename);
+  }
+
+  public boolean isLeased(String filename) {
+    return leases.containsKey(filename);
+  }
+
+  public byte[] content(String filename) {
+    Blob blob = blobs.get(filename);
+    return blob == null ? null : blob.content;
+  }
+
+  private Blob blob(StorageFilename filename) throws FileNotFoundException {
+    Blob blob = blobs.get(filename.get());
+    if (blob == null) {
+      throw new FileNotFoundException(filename.get());
+    }
+    return blob;
+  }
+
+  private static final class Blob {
+
+    private final byte[] content;
+
+    private final String contentMd5;
+
+    private final String contentEncoding;
+
+    private final Map<String, String> metadata;
+
+    private volatile Instant lastModified = Instant.now();
+
+    private Blob(byte[] content) {
+      this(content, Base64.getEncoder().encodeToString(md5(content)));
+    }
+
+    private Blob(byte[] content, String contentMd5) {
+      this(content, contentMd5, null, Map.of());
+    }
+
+    private Blob(byte[] content, String contentMd5, String contentEncoding, Map<String, String> metadata) {
+      this.content = content;
+      this.contentMd5 = contentMd5;
+      this.contentEncoding = contentEncoding;
+      this.metadata = Map.copyOf(metadata);
+    }
+  }
+
+  private static byte[] md5(byte[] content) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(content);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
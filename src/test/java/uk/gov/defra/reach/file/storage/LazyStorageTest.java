@@ -0,0 +1,87 @@
+package uk.gov.defra.reach.file.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class LazyStorageTest {
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final InMemoryStorage delegate = new InMemoryStorage();
+
+  private final AtomicInteger attempts = new AtomicInteger();
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void operation_shouldInitialiseStorage_whenFirstUsed() throws Exception {
+    LazyStorage storage = lazyStorage(0, Duration.ofSeconds(1));
+    assertThat(storage.isAvailable()).isFalse();
+
+    storage.store(new ByteArrayInputStream(new byte[]{1}), StorageFilename.from("file.txt"));
+
+    assertThat(storage.isAvailable()).isTrue();
+    assertThat(delegate.exists(StorageFilename.from("file.txt"))).isTrue();
+    assertThat(attempts).hasValue(1);
+    assertThat(meterRegistry.get("reach.file.container.init").tag("container", "EXPORT").tag("outcome", "success").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("reach.file.container.available").gauge().value()).isEqualTo(1);
+  }
+
+  @Test
+  void operation_shouldFailWithRetryAfter_whileInitialisationFails() throws Exception {
+    LazyStorage storage = lazyStorage(1, Duration.ofSeconds(30));
+    storage.initialise();
+    executor.submit(() -> { }).get(5, TimeUnit.SECONDS);
+
+    assertThatThrownBy(() -> storage.exists(StorageFilename.from("file.txt")))
+        .isInstanceOfSatisfying(ContainerUnavailableException.class, e -> {
+          assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+          assertThat(e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("30");
+          assertThat(e.getCause()).hasMessage("unreachable");
+        });
+    assertThat(meterRegistry.get("reach.file.container.init").tag("outcome", "failure").timer().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("reach.file.container.available").gauge().value()).isZero();
+  }
+
+  @Test
+  void initialise_shouldRetryInBackground_untilStorageIsInitialised() throws Exception {
+    LazyStorage storage = lazyStorage(2, Duration.ofMillis(10));
+
+    BlobStorage initialised = storage.initialise().get(5, TimeUnit.SECONDS);
+
+    assertThat(initialised).isSameAs(delegate);
+    assertThat(attempts).hasValue(3);
+    assertThat(storage.exists(StorageFilename.from("file.txt"))).isFalse();
+    assertThat(meterRegistry.get("reach.file.container.init").tag("outcome", "failure").timer().count()).isEqualTo(2);
+  }
+
+  private LazyStorage lazyStorage(int failures, Duration retryInterval) {
+    return new LazyStorage(Container.EXPORT, () -> {
+      if (attempts.incrementAndGet() <= failures) {
+        throw new IOException("unreachable");
+      }
+      return delegate;
+    }, executor, retryInterval, Duration.ofSeconds(5), meterRegistry);
+  }
+}
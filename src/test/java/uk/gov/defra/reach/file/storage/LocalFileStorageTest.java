@@ -0,0 +1,178 @@
+package uk.gov.defra.reach.file.storage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.util.UriComponentsBuilder;
+import uk.gov.defra.reach.file.Container;
+import uk.gov.defra.reach.storage.InvalidStorageFilenameException;
+import uk.gov.defra.reach.storage.StorageFilename;
+
+class LocalFileStorageTest {
+
+  private static final Instant NOW = Instant.parse("2020-06-01T10:00:00Z");
+
+  @TempDir
+  Path root;
+
+  private LocalFileStorage storage;
+
+  @BeforeEach
+  void setup() throws IOException {
+    storage = new LocalFileStorage(Container.DOSSIER, root, "http://localhost:8090", "key".getBytes(), Duration.ofSeconds(300),
+        Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @SneakyThrows
+  @Test
+  void store_shouldWriteContentAndReturnChecksum() {
+    String checksum = storage.store(new ByteArrayInputStream("data".getBytes()), StorageFilename.from("file1"));
+
+    assertThat(checksum).isEqualTo("jXd/OF09/siBXSD3SWAm3A==");
+    assertThat(storage.exists(StorageFilename.from("file1"))).isTrue();
+    assertThat(storage.getAttributes(StorageFilename.from("file1")).getContentMd5()).isEqualTo(checksum);
+    assertThat(storage.openStream(StorageFilename.from("file1"), 1, 2)).hasContent("at");
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldCopyRequestedRange() {
+    storage.store(new ByteArrayInputStream("0123456789".getBytes()), StorageFilename.from("file1"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long copied = storage.transferTo(StorageFilename.from("file1"), 3, 4, out);
+
+    assertThat(copied).isEqualTo(4);
+    assertThat(out.toString()).isEqualTo("3456");
+  }
+
+  @SneakyThrows
+  @Test
+  void transferTo_shouldRefuseRead_whenFileReplacedSinceEtagWasRead() {
+    StorageFilename filename = StorageFilename.from("file1");
+    storage.store(new ByteArrayInputStream("0123456789".getBytes()), filename);
+    String etag = storage.getAttributes(filename).getEtag();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertThat(storage.transferTo(filename, 0, 10, etag, out)).isEqualTo(10);
+    storage.store(new ByteArrayInputStream("replaced".getBytes()), filename);
+
+    assertThatThrownBy(() -> storage.transferTo(filename, 0, 10, etag, new ByteArrayOutputStream())).isInstanceOf(BlobModifiedException.class);
+    assertThatThrownBy(() -> storage.openStream(filename, 0, 10, etag)).isInstanceOf(BlobModifiedException.class);
+  }
+
+  @SneakyThrows
+  @Test
+  void getAttributes_shouldGiveNewEtag_forEachWriteOfTheSameSize() {
+    StorageFilename filename = StorageFilename.from("file1");
+    storage.store(new ByteArrayInputStream("first".getBytes()), filename);
+    String first = storage.getAttributes(filename).getEtag();
+
+    storage.store(new ByteArrayInputStream("other".getBytes()), filename);
+
+    assertThat(storage.getAttributes(filename).getEtag()).isNotEqualTo(first).startsWith("\"").endsWith("\"");
+  }
+
+  @SneakyThrows
+  @Test
+  void list_shouldPageThroughNamesWithPrefix_inOrder() {
+    for (String name : List.of("dossiers/b", "dossiers/a", "dossiers/nested/c", "other")) {
+      storage.store(new ByteArrayInputStream(name.getBytes()), StorageFilename.from(name));
+    }
+
+    BlobListing first = storage.list("dossiers/", null, 2);
+    BlobListing second = storage.list("dossiers/", first.getContinuationToken(), 2);
+
+    assertThat(first.getBlobs()).extracting(ListedBlob::getName).containsExactly("dossiers/a", "dossiers/b");
+    assertThat(first.getBlobs().get(0).getLength()).isEqualTo(10);
+    assertThat(first.getBlobs().get(0).getContentMd5()).isNotNull();
+    assertThat(second.getBlobs()).extracting(ListedBlob::getName).containsExactly("dossiers/nested/c");
+    assertThat(second.getContinuationToken()).isNull();
+  }
+
+  @SneakyThrows
+  @Test
+  void commitBlocks_shouldJoinStagedBlocksInOrder() {
+    StorageFilename filename = StorageFilename.from("blocks");
+    storage.stageBlock(filename, "MQ==", new ByteArrayInputStream("world".getBytes()), 5);
+    storage.stageBlock(filename, "MA==", new ByteArrayInputStream("hello ".getBytes()), 6);
+
+    storage.commitBlocks(filename, List.of("MA==", "MQ=="), "md5");
+
+    assertThat(storage.openStream(filename, 0, Long.MAX_VALUE)).hasContent("hello world");
+  }
+
+  @SneakyThrows
+  @Test
+  void getStagedBlocks_shouldListBlocksUntilCommitted() {
+    StorageFilename filename = StorageFilename.from("blocks");
+    assertThat(storage.getStagedBlocks(filename)).isEmpty();
+    storage.stageBlock(filename, "MA==", new ByteArrayInputStream("hello ".getBytes()), 6);
+    storage.stageBlock(filename, "MQ==", new ByteArrayInputStream("world".getBytes()), 5);
+
+    assertThat(storage.getStagedBlocks(filename)).containsOnly(entry("MA==", 6L), entry("MQ==", 5L));
+
+    storage.commitBlocks(filename, List.of("MA==", "MQ=="), "md5");
+    assertThat(storage.getStagedBlocks(filename)).isEmpty();
+  }
+
+  @SneakyThrows
+  @Test
+  void get_shouldIssueSignedUrl_whichExpires() {
+    storage.store(new ByteArrayInputStream("data".getBytes()), StorageFilename.from("file1"));
+
+    URI uri = storage.get(StorageFilename.from("file1"));
+    var query = UriComponentsBuilder.fromUri(uri).build().getQueryParams();
+    long expires = Long.parseLong(query.getFirst("expires"));
+
+    assertThat(uri.getPath()).isEqualTo("/file/local/DOSSIER/file1");
+    assertThat(expires).isEqualTo(NOW.plusSeconds(300).getEpochSecond());
+    assertThat(storage.isValidSignature("file1", expires, query.getFirst("signature"))).isTrue();
+    assertThat(storage.isValidSignature("file2", expires, query.getFirst("signature"))).isFalse();
+    assertThat(storage.isValidSignature("file1", NOW.getEpochSecond() - 1, query.getFirst("signature"))).isFalse();
+  }
+
+  @SneakyThrows
+  @Test
+  void isValidSignature_shouldAcceptUrl_untilTheEndOfItsExpirySecond() {
+    storage.store(new ByteArrayInputStream("data".getBytes()), StorageFilename.from("file1"));
+    var query = UriComponentsBuilder.fromUri(storage.get(StorageFilename.from("file1"))).build().getQueryParams();
+    long expires = Long.parseLong(query.getFirst("expires"));
+    String signature = query.getFirst("signature");
+
+    assertThat(storageAt(Instant.ofEpochSecond(expires).plusMillis(999)).isValidSignature("file1", expires, signature)).isTrue();
+    assertThat(storageAt(Instant.ofEpochSecond(expires + 1)).isValidSignature("file1", expires, signature)).isFalse();
+  }
+
+  @Test
+  void get_shouldThrowFileNotFound_forMissingFile() {
+    assertThatThrownBy(() -> storage.get(StorageFilename.from("missing"))).isInstanceOf(FileNotFoundException.class);
+  }
+
+  @Test
+  void store_shouldRejectNamesOutsideTheContainer() {
+    assertThatThrownBy(() -> storage.store(new ByteArrayInputStream(new byte[0]), StorageFilename.from("../escape")))
+        .isInstanceOfAny(IOException.class, InvalidStorageFilenameException.class);
+  }
+
+  private LocalFileStorage storageAt(Instant now) throws IOException {
+    return new LocalFileStorage(Container.DOSSIER, root, "http://localhost:8090", "key".getBytes(), Duration.ofSeconds(300),
+        Clock.fixed(now, ZoneOffset.UTC));
+  }
+}